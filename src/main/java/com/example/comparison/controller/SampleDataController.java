@@ -2,14 +2,20 @@ package com.example.comparison.controller;
 
 import com.example.comparison.model.Account;
 import com.example.comparison.model.ComparisonBreak;
+import com.example.comparison.model.ComparisonRun;
+import com.example.comparison.service.BreakReader;
+import com.example.comparison.service.ComparisonRunRegistry;
+import com.example.comparison.service.ExcelReportService;
 import com.example.comparison.service.GenericComparisonService;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.data.mongodb.core.MongoTemplate;
-import org.springframework.data.mongodb.core.query.Criteria;
-import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -27,6 +33,8 @@ public class SampleDataController {
     private static final String BASELINE = "accountBaseline";
     private static final String RC = "accountRC";
     private static final String BREAKS = "sampleComparisonBreaks";
+    // Runs kept in BREAKS, as many as /runs lists; older runs are deleted with their breaks on /load.
+    private static final int RUNS_KEPT = 20;
     private static final List<String> ATTRIBUTES = Arrays.asList(
             "accountName", "accountType", "broker", "creationDate",
             "balance", "currency", "riskLevel", "lastTradeDate",
@@ -39,8 +47,12 @@ public class SampleDataController {
     @Autowired
     private GenericComparisonService comparisonService;
 
+    @Autowired
+    private ExcelReportService excelReportService;
+
     private List<ComparisonBreak> memBreaks;
     private String lastMode; // "db" or "mem"
+    private String lastRunId; // run shown by the "db" mode; BREAKS keeps the breaks of the last RUNS_KEPT runs
 
     @PostMapping("/load")
     public Map<String, Object> loadSample() {
@@ -52,7 +64,6 @@ public class SampleDataController {
 
         mongoTemplate.dropCollection(BASELINE);
         mongoTemplate.dropCollection(RC);
-        mongoTemplate.dropCollection(BREAKS);
 
         Date baseDate = new Date(1630000000000L);
         List<Account> baselineAccounts = new ArrayList<>();
@@ -86,13 +97,15 @@ public class SampleDataController {
         mongoTemplate.insert(baselineAccounts, BASELINE);
         mongoTemplate.insert(rcAccounts, RC);
 
-        comparisonService.compareCollections(
+        ComparisonRun run = comparisonService.compareCollections(
                 Account.class, BASELINE, RC,
                 "accountId", ATTRIBUTES, BREAKS
         );
+        new ComparisonRunRegistry(mongoTemplate).deleteOlderRuns(BREAKS, RUNS_KEPT);
 
         long elapsed = System.currentTimeMillis() - start;
         lastMode = "db";
+        lastRunId = run.getId();
         memBreaks = null;
         return buildResponseFromDb(elapsed);
     }
@@ -142,7 +155,7 @@ public class SampleDataController {
         if ("mem".equals(lastMode) && memBreaks != null) {
             return buildResponseFromBreaks(memBreaks, null);
         }
-        if (mongoTemplate == null || !mongoTemplate.collectionExists(BREAKS)) {
+        if (mongoTemplate == null || currentRunId() == null) {
             Map<String, Object> empty = new LinkedHashMap<>();
             empty.put("loaded", false);
             return empty;
@@ -150,39 +163,93 @@ public class SampleDataController {
         return buildResponseFromDb(null);
     }
 
+    @GetMapping("/runs")
+    public List<ComparisonRun> runs() {
+        log.info("GET /api/sample/runs");
+        if (mongoTemplate == null) {
+            return Collections.emptyList();
+        }
+        return new ComparisonRunRegistry(mongoTemplate).findRecent(BREAKS, RUNS_KEPT);
+    }
+
     @GetMapping("/breaks/{comparisonKey}")
     public List<ComparisonBreak> breaks(@PathVariable String comparisonKey) {
         log.info("GET /api/sample/breaks/{} - lastMode={}", comparisonKey, lastMode);
         if ("mem".equals(lastMode) && memBreaks != null) {
             return memBreaks.stream()
-                    .filter(b -> comparisonKey.equals(b.getComparisonKey()))
+                    .filter(b -> BreakReader.covers(b, comparisonKey))
                     .collect(Collectors.toList());
         }
-        if (mongoTemplate == null) {
+        String runId = (mongoTemplate == null) ? null : currentRunId();
+        if (runId == null) {
             return Collections.emptyList();
         }
-        Query query = Query.query(Criteria.where("comparisonKey").is(comparisonKey));
-        return mongoTemplate.find(query, ComparisonBreak.class, BREAKS);
+        return new BreakReader(mongoTemplate).findByKey(BREAKS, runId, comparisonKey);
+    }
+
+    /**
+     * Excel report of the current "db" run, streamed into the response as it is generated (see
+     * {@link ExcelReportService#writeExcelReport}), so its size is not limited by the heap.
+     */
+    @GetMapping("/report")
+    public ResponseEntity<StreamingResponseBody> report() {
+        log.info("GET /api/sample/report - lastMode={}", lastMode);
+        String runId = (mongoTemplate == null) ? null : currentRunId();
+        if (runId == null) {
+            throw new ResponseStatusException(HttpStatus.NOT_FOUND, "No comparison run stored in MongoDB to report.");
+        }
+        StreamingResponseBody body = out -> excelReportService.writeExcelReport(
+                Account.class, "accountId", BASELINE, RC, BREAKS, runId, out);
+        return ResponseEntity.ok()
+                .contentType(MediaType.parseMediaType("application/vnd.openxmlformats-officedocument.spreadsheetml.sheet"))
+                .header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"comparison-" + runId + ".xlsx\"")
+                .body(body);
+    }
+
+    // After a restart, falls back to the latest run recorded for BREAKS.
+    private String currentRunId() {
+        if (lastRunId == null) {
+            ComparisonRun latest = new ComparisonRunRegistry(mongoTemplate).findLatest(BREAKS);
+            lastRunId = (latest == null) ? null : latest.getId();
+        }
+        return lastRunId;
     }
 
     private Map<String, Object> buildResponseFromDb(Long durationMs) {
-        List<ComparisonBreak> all = mongoTemplate.findAll(ComparisonBreak.class, BREAKS);
+        List<ComparisonBreak> all = new BreakReader(mongoTemplate).findAll(BREAKS, currentRunId());
         return buildResponseFromBreaks(all, durationMs);
     }
 
     private Map<String, Object> buildResponseFromBreaks(List<ComparisonBreak> all, Long durationMs) {
+        // Matched keys without a row of their own (see MatchPolicy) only contribute to the totals.
+        long unlistedMatches = all.stream()
+                .filter(b -> "matchCount".equals(b.getBreakType()))
+                .mapToLong(ComparisonBreak::getMatchCount)
+                .sum();
         Map<String, List<ComparisonBreak>> grouped = all.stream()
+                .filter(b -> !"matchCount".equals(b.getBreakType()))
                 .collect(Collectors.groupingBy(ComparisonBreak::getComparisonKey));
 
         int totalAttrs = ATTRIBUTES.size();
         String durationStr = durationMs != null ? String.format("%.1fs", durationMs / 1000.0) : null;
 
         List<Map<String, Object>> scope = new ArrayList<>();
+        long totalKeys = unlistedMatches;
+        long matchedKeys = unlistedMatches;
         for (Map.Entry<String, List<ComparisonBreak>> entry : grouped.entrySet()) {
             String key = entry.getKey();
             List<ComparisonBreak> keyBreaks = entry.getValue();
 
-            boolean isMatch = keyBreaks.stream().anyMatch(b -> "match".equals(b.getBreakType()));
+            // A "matchRange" row stands for a run of fully matched keys and is listed as one item.
+            Optional<ComparisonBreak> range = keyBreaks.stream()
+                    .filter(b -> "matchRange".equals(b.getBreakType()))
+                    .findFirst();
+            long keyCount = range.map(ComparisonBreak::getMatchCount).orElse(1L);
+            if (range.isPresent()) {
+                key = range.get().getValueInCollectionA() + ".." + range.get().getValueInCollectionB();
+            }
+
+            boolean isMatch = range.isPresent() || keyBreaks.stream().anyMatch(b -> "match".equals(b.getBreakType()));
             boolean isOnlyOnA = keyBreaks.stream().anyMatch(b -> "onlyOnA".equals(b.getBreakType()));
             boolean isOnlyOnB = keyBreaks.stream().anyMatch(b -> "onlyOnB".equals(b.getBreakType()));
             long diffCount = keyBreaks.stream().filter(b -> "difference".equals(b.getBreakType())).count();
@@ -204,6 +271,10 @@ public class SampleDataController {
 
             int matchPct = totalFields > 0 ? Math.round(matchedFields * 100f / totalFields) : 0;
             int breakPct = 100 - matchPct;
+            totalKeys += keyCount;
+            if (isMatch) {
+                matchedKeys += keyCount;
+            }
 
             Map<String, Object> item = new LinkedHashMap<>();
             item.put("id", key);
@@ -215,6 +286,7 @@ public class SampleDataController {
             item.put("totalFields", totalFields);
             item.put("matchedFields", matchedFields);
             item.put("breakFields", breakFields);
+            item.put("keyCount", keyCount);
             item.put("duration", durationStr);
             scope.add(item);
         }
@@ -224,7 +296,9 @@ public class SampleDataController {
         Map<String, Object> session = new LinkedHashMap<>();
         session.put("name", "Sample Comparison");
         session.put("startedAt", new Date().toInstant().toString());
-        session.put("totalIds", scope.size());
+        session.put("totalIds", totalKeys);
+        session.put("matchedIds", matchedKeys);
+        session.put("matchPct", totalKeys > 0 ? Math.round(matchedKeys * 100f / totalKeys) : 0);
 
         Map<String, Object> response = new LinkedHashMap<>();
         response.put("loaded", true);
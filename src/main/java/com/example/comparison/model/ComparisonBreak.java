@@ -7,11 +7,13 @@ import org.springframework.data.mongodb.core.mapping.Document;
 public class ComparisonBreak {
     @Id
     private String id;
+    private String runId; // ComparisonRun that wrote this break; null for in-memory comparisons
     private String comparisonKey;
     private String differenceField;
     private String valueInCollectionA;
     private String valueInCollectionB;
-    private String breakType; // "difference", "onlyOnA", "onlyOnB"
+    private String breakType; // "difference", "onlyOnA", "onlyOnB", "match", "matchRange", "matchCount"
+    private Long matchCount; // matched keys summarized by a "matchRange" or "matchCount" row, otherwise null
 
     public ComparisonBreak() {}
 
@@ -27,6 +29,9 @@ public class ComparisonBreak {
     public String getId() { return id; }
     public void setId(String id) { this.id = id; }
 
+    public String getRunId() { return runId; }
+    public void setRunId(String runId) { this.runId = runId; }
+
     public String getComparisonKey() { return comparisonKey; }
     public void setComparisonKey(String comparisonKey) { this.comparisonKey = comparisonKey; }
 
@@ -41,4 +46,7 @@ public class ComparisonBreak {
 
     public String getBreakType() { return breakType; }
     public void setBreakType(String breakType) { this.breakType = breakType; }
+
+    public Long getMatchCount() { return matchCount; }
+    public void setMatchCount(Long matchCount) { this.matchCount = matchCount; }
 }
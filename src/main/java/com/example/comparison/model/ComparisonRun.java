@@ -0,0 +1,157 @@
+package com.example.comparison.model;
+
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Registry entry for one collection comparison. Every break the run writes carries its
+ * {@code id} as {@code runId}, so several runs can share an output collection.
+ */
+@Document(collection = "comparisonRuns")
+public class ComparisonRun {
+
+    public static final String RUNNING = "RUNNING";
+    public static final String COMPLETED = "COMPLETED";
+    public static final String FAILED = "FAILED";
+
+    @Id
+    private String id;
+    private String comparisonType;
+    private String collectionA;
+    private String collectionB;
+    private String keyAttribute;
+    private List<String> attributes;
+    private String outputCollection;
+    private String breakFormat;
+    private String matchPolicy;
+    private boolean crossCluster; // sides and output read through different MongoTemplates
+    private String status; // RUNNING, COMPLETED or FAILED
+    private String error;
+    private Date startedAt;
+    private Date finishedAt;
+    private Long durationMs;
+
+    private long itemsProcessedA;
+    private long itemsProcessedB;
+    private long keysOnlyInA;
+    private long keysOnlyInB;
+    private long fullyMatchedKeys;
+    private long keysWithAttributeMismatch;
+    private long totalAttributeDifferences;
+    private long breaksWritten;
+    private long bytesReadA;
+    private long bytesReadB;
+    private long waitMsA;
+    private long waitMsB;
+    private long unresolvedKeys; // duplicated keys the hash-join could not pair with the copy it scanned
+
+    // Change-stream checkpoints of each collection, and the incremental passes applied since the run
+    private org.bson.Document resumeTokenA;
+    private org.bson.Document resumeTokenB;
+    private long incrementalPasses;
+    private Date lastIncrementalAt;
+    private long lastIncrementalKeys;
+
+    // Getters and Setters
+    public String getId() { return id; }
+    public void setId(String id) { this.id = id; }
+
+    public String getComparisonType() { return comparisonType; }
+    public void setComparisonType(String comparisonType) { this.comparisonType = comparisonType; }
+
+    public String getCollectionA() { return collectionA; }
+    public void setCollectionA(String collectionA) { this.collectionA = collectionA; }
+
+    public String getCollectionB() { return collectionB; }
+    public void setCollectionB(String collectionB) { this.collectionB = collectionB; }
+
+    public String getKeyAttribute() { return keyAttribute; }
+    public void setKeyAttribute(String keyAttribute) { this.keyAttribute = keyAttribute; }
+
+    public List<String> getAttributes() { return attributes; }
+    public void setAttributes(List<String> attributes) { this.attributes = attributes; }
+
+    public String getOutputCollection() { return outputCollection; }
+    public void setOutputCollection(String outputCollection) { this.outputCollection = outputCollection; }
+
+    public String getBreakFormat() { return breakFormat; }
+    public void setBreakFormat(String breakFormat) { this.breakFormat = breakFormat; }
+
+    public String getMatchPolicy() { return matchPolicy; }
+    public void setMatchPolicy(String matchPolicy) { this.matchPolicy = matchPolicy; }
+
+    public boolean isCrossCluster() { return crossCluster; }
+    public void setCrossCluster(boolean crossCluster) { this.crossCluster = crossCluster; }
+
+    public String getStatus() { return status; }
+    public void setStatus(String status) { this.status = status; }
+
+    public String getError() { return error; }
+    public void setError(String error) { this.error = error; }
+
+    public Date getStartedAt() { return startedAt; }
+    public void setStartedAt(Date startedAt) { this.startedAt = startedAt; }
+
+    public Date getFinishedAt() { return finishedAt; }
+    public void setFinishedAt(Date finishedAt) { this.finishedAt = finishedAt; }
+
+    public Long getDurationMs() { return durationMs; }
+    public void setDurationMs(Long durationMs) { this.durationMs = durationMs; }
+
+    public long getItemsProcessedA() { return itemsProcessedA; }
+    public void setItemsProcessedA(long itemsProcessedA) { this.itemsProcessedA = itemsProcessedA; }
+
+    public long getItemsProcessedB() { return itemsProcessedB; }
+    public void setItemsProcessedB(long itemsProcessedB) { this.itemsProcessedB = itemsProcessedB; }
+
+    public long getKeysOnlyInA() { return keysOnlyInA; }
+    public void setKeysOnlyInA(long keysOnlyInA) { this.keysOnlyInA = keysOnlyInA; }
+
+    public long getKeysOnlyInB() { return keysOnlyInB; }
+    public void setKeysOnlyInB(long keysOnlyInB) { this.keysOnlyInB = keysOnlyInB; }
+
+    public long getFullyMatchedKeys() { return fullyMatchedKeys; }
+    public void setFullyMatchedKeys(long fullyMatchedKeys) { this.fullyMatchedKeys = fullyMatchedKeys; }
+
+    public long getKeysWithAttributeMismatch() { return keysWithAttributeMismatch; }
+    public void setKeysWithAttributeMismatch(long keysWithAttributeMismatch) { this.keysWithAttributeMismatch = keysWithAttributeMismatch; }
+
+    public long getTotalAttributeDifferences() { return totalAttributeDifferences; }
+    public void setTotalAttributeDifferences(long totalAttributeDifferences) { this.totalAttributeDifferences = totalAttributeDifferences; }
+
+    public long getBreaksWritten() { return breaksWritten; }
+    public void setBreaksWritten(long breaksWritten) { this.breaksWritten = breaksWritten; }
+
+    public long getBytesReadA() { return bytesReadA; }
+    public void setBytesReadA(long bytesReadA) { this.bytesReadA = bytesReadA; }
+
+    public long getBytesReadB() { return bytesReadB; }
+    public void setBytesReadB(long bytesReadB) { this.bytesReadB = bytesReadB; }
+
+    public long getWaitMsA() { return waitMsA; }
+    public void setWaitMsA(long waitMsA) { this.waitMsA = waitMsA; }
+
+    public long getWaitMsB() { return waitMsB; }
+    public void setWaitMsB(long waitMsB) { this.waitMsB = waitMsB; }
+
+    public long getUnresolvedKeys() { return unresolvedKeys; }
+    public void setUnresolvedKeys(long unresolvedKeys) { this.unresolvedKeys = unresolvedKeys; }
+
+    public org.bson.Document getResumeTokenA() { return resumeTokenA; }
+    public void setResumeTokenA(org.bson.Document resumeTokenA) { this.resumeTokenA = resumeTokenA; }
+
+    public org.bson.Document getResumeTokenB() { return resumeTokenB; }
+    public void setResumeTokenB(org.bson.Document resumeTokenB) { this.resumeTokenB = resumeTokenB; }
+
+    public long getIncrementalPasses() { return incrementalPasses; }
+    public void setIncrementalPasses(long incrementalPasses) { this.incrementalPasses = incrementalPasses; }
+
+    public Date getLastIncrementalAt() { return lastIncrementalAt; }
+    public void setLastIncrementalAt(Date lastIncrementalAt) { this.lastIncrementalAt = lastIncrementalAt; }
+
+    public long getLastIncrementalKeys() { return lastIncrementalKeys; }
+    public void setLastIncrementalKeys(long lastIncrementalKeys) { this.lastIncrementalKeys = lastIncrementalKeys; }
+}
@@ -0,0 +1,180 @@
+package com.example.comparison.service;
+
+import org.bson.BsonDateTime;
+import org.bson.BsonDouble;
+import org.bson.BsonString;
+
+import java.util.Date;
+
+/**
+ * Compares the attributes of two records for one comparison pass. The strategy for each
+ * attribute is chosen once, from the first pair of non-null values seen for it:
+ * <ul>
+ *     <li>doubles (boxed, primitive or BSON) as primitive {@code double}s, equal within the
+ *     absolute or relative tolerance of the {@link Options};</li>
+ *     <li>dates ({@link Date} or BSON date-time) by epoch millis;</li>
+ *     <li>strings optionally ignoring surrounding whitespace and case;</li>
+ *     <li>anything else with {@link RecordAccessor#sameValue}.</li>
+ * </ul>
+ * A pair that does not match the chosen type, e.g. an int32 stored where other documents hold a
+ * double, is compared with {@link RecordAccessor#sameValue} as well. Primitive {@code double}
+ * attributes the accessor can read unboxed (see {@link RecordAccessor#hasPrimitiveDouble}) are
+ * compared without allocating. Missing and null values compare equal, as before.
+ * <p>
+ * Values are not rendered here; callers render the two values only for attributes that differ.
+ * Not thread-safe: use one instance per pass.
+ */
+final class AttributeComparator<T> {
+
+    /**
+     * Comparison settings shared by every attribute. The defaults compare exactly.
+     */
+    static final class Options {
+        static final Options EXACT = new Options(0, 0, false, false);
+
+        final double doubleAbsoluteTolerance;
+        final double doubleRelativeTolerance;
+        final boolean stringTrim;
+        final boolean stringIgnoreCase;
+
+        Options(double doubleAbsoluteTolerance, double doubleRelativeTolerance, boolean stringTrim, boolean stringIgnoreCase) {
+            if (doubleAbsoluteTolerance < 0 || doubleRelativeTolerance < 0) {
+                throw new IllegalArgumentException("Double tolerances must not be negative, got "
+                        + doubleAbsoluteTolerance + " and " + doubleRelativeTolerance);
+            }
+            this.doubleAbsoluteTolerance = doubleAbsoluteTolerance;
+            this.doubleRelativeTolerance = doubleRelativeTolerance;
+            this.stringTrim = stringTrim;
+            this.stringIgnoreCase = stringIgnoreCase;
+        }
+
+        boolean hasDoubleTolerance() {
+            return doubleAbsoluteTolerance > 0 || doubleRelativeTolerance > 0;
+        }
+    }
+
+    private enum ValueType { DOUBLE, DATE, STRING, OTHER }
+
+    private final RecordAccessor<? super T> accessor;
+    private final Options options;
+    private final ValueType[] types;
+
+    AttributeComparator(RecordAccessor<? super T> accessor, int attributeCount, Options options) {
+        this.accessor = accessor;
+        this.options = options;
+        this.types = new ValueType[attributeCount];
+    }
+
+    /**
+     * Whether the attribute at {@code index} holds the same value on {@code a} and {@code b}.
+     */
+    boolean same(T a, T b, int index) {
+        ValueType type = types[index];
+        if ((type == null || type == ValueType.DOUBLE)
+                && accessor.hasPrimitiveDouble(a, index) && accessor.hasPrimitiveDouble(b, index)) {
+            types[index] = ValueType.DOUBLE;
+            return sameDouble(accessor.readDouble(a, index), accessor.readDouble(b, index));
+        }
+        Object valueA = valueOf(a, index);
+        Object valueB = valueOf(b, index);
+        if (valueA == null || valueB == null) {
+            return valueA == valueB;
+        }
+        if (type == null) {
+            type = typeOf(valueA);
+            types[index] = type;
+        }
+        switch (type) {
+            case DOUBLE:
+                if (isDouble(valueA) && isDouble(valueB)) {
+                    return sameDouble(doubleValue(valueA), doubleValue(valueB));
+                }
+                break;
+            case DATE:
+                if (isDate(valueA) && isDate(valueB)) {
+                    return millis(valueA) == millis(valueB);
+                }
+                break;
+            case STRING:
+                if (isString(valueA) && isString(valueB)) {
+                    return sameString(stringValue(valueA), stringValue(valueB));
+                }
+                break;
+            default:
+                break;
+        }
+        return accessor.sameValue(valueA, valueB);
+    }
+
+    private Object valueOf(T record, int index) {
+        Object value = accessor.attribute(record, index);
+        return (value == RecordAccessor.MISSING) ? null : value;
+    }
+
+    private boolean sameDouble(double a, double b) {
+        if (!options.hasDoubleTolerance()) {
+            // Same semantics as Double.equals: NaN equals NaN, 0.0 differs from -0.0.
+            return Double.doubleToLongBits(a) == Double.doubleToLongBits(b);
+        }
+        if (a == b || (Double.isNaN(a) && Double.isNaN(b))) {
+            return true;
+        }
+        double difference = Math.abs(a - b);
+        return difference <= options.doubleAbsoluteTolerance
+                || difference <= options.doubleRelativeTolerance * Math.max(Math.abs(a), Math.abs(b));
+    }
+
+    // Compares without allocating trimmed or case-folded copies.
+    private boolean sameString(String a, String b) {
+        if (!options.stringTrim && !options.stringIgnoreCase) {
+            return a.equals(b);
+        }
+        int startA = 0;
+        int endA = a.length();
+        int startB = 0;
+        int endB = b.length();
+        if (options.stringTrim) {
+            while (startA < endA && Character.isWhitespace(a.charAt(startA))) startA++;
+            while (endA > startA && Character.isWhitespace(a.charAt(endA - 1))) endA--;
+            while (startB < endB && Character.isWhitespace(b.charAt(startB))) startB++;
+            while (endB > startB && Character.isWhitespace(b.charAt(endB - 1))) endB--;
+        }
+        return endA - startA == endB - startB
+                && a.regionMatches(options.stringIgnoreCase, startA, b, startB, endA - startA);
+    }
+
+    private static ValueType typeOf(Object value) {
+        if (isDouble(value)) {
+            return ValueType.DOUBLE;
+        } else if (isDate(value)) {
+            return ValueType.DATE;
+        } else if (isString(value)) {
+            return ValueType.STRING;
+        }
+        return ValueType.OTHER;
+    }
+
+    private static boolean isDouble(Object value) {
+        return value instanceof Double || value instanceof Float || value instanceof BsonDouble;
+    }
+
+    private static double doubleValue(Object value) {
+        return (value instanceof BsonDouble) ? ((BsonDouble) value).getValue() : ((Number) value).doubleValue();
+    }
+
+    private static boolean isDate(Object value) {
+        return value instanceof Date || value instanceof BsonDateTime;
+    }
+
+    private static long millis(Object value) {
+        return (value instanceof BsonDateTime) ? ((BsonDateTime) value).getValue() : ((Date) value).getTime();
+    }
+
+    private static boolean isString(Object value) {
+        return value instanceof String || value instanceof BsonString;
+    }
+
+    private static String stringValue(Object value) {
+        return (value instanceof BsonString) ? ((BsonString) value).getValue() : (String) value;
+    }
+}
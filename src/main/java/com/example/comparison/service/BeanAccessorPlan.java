@@ -0,0 +1,259 @@
+package com.example.comparison.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.BeanUtils;
+import org.springframework.beans.BeanWrapperImpl;
+import org.springframework.beans.NotReadablePropertyException;
+
+import java.beans.PropertyDescriptor;
+import java.lang.invoke.LambdaMetafactory;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Method;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+import java.util.function.ToDoubleFunction;
+
+/**
+ * Pre-resolved property getters for one bean class: the key attribute plus every attribute to
+ * compare. Resolution goes through the same Spring introspection {@link BeanWrapperImpl} uses,
+ * but happens once per class instead of once per row; each getter is compiled with
+ * {@link LambdaMetafactory} into a direct call and cached for reuse by later comparisons.
+ * <p>
+ * Nested or indexed paths (e.g. {@code address.city}, {@code items[0]}) fall back to a
+ * {@link BeanWrapperImpl} lookup per call. Attributes that are not readable on the class yield
+ * {@link #MISSING}. Attributes with a primitive {@code double} or {@code float} getter also get
+ * a {@link ToDoubleFunction}, so they can be compared without boxing.
+ */
+final class BeanAccessorPlan {
+
+    /** Sentinel returned for attributes that are not readable on the bean class. */
+    static final Object MISSING = new Object();
+
+    private static final Logger logger = LoggerFactory.getLogger(BeanAccessorPlan.class);
+    private static final MethodType GETTER_TYPE = MethodType.methodType(Object.class, Object.class);
+    private static final MethodType DOUBLE_GETTER_TYPE = MethodType.methodType(double.class, Object.class);
+
+    // Getters are compiled once per class and property for the lifetime of the JVM.
+    private static final ClassValue<Map<String, Function<Object, Object>>> GETTERS = new ClassValue<>() {
+        @Override
+        protected Map<String, Function<Object, Object>> computeValue(Class<?> type) {
+            return new ConcurrentHashMap<>();
+        }
+    };
+
+    // Unboxed getters of primitive double and float properties; empty for every other property.
+    private static final ClassValue<Map<String, Optional<ToDoubleFunction<Object>>>> DOUBLE_GETTERS = new ClassValue<>() {
+        @Override
+        protected Map<String, Optional<ToDoubleFunction<Object>>> computeValue(Class<?> type) {
+            return new ConcurrentHashMap<>();
+        }
+    };
+
+    private final Class<?> type;
+    private final Function<Object, Object> keyGetter;
+    private final Function<Object, Object>[] attributeGetters;
+    private final ToDoubleFunction<Object>[] doubleGetters;
+
+    @SuppressWarnings("unchecked")
+    private BeanAccessorPlan(Class<?> type, String keyAttribute, List<String> attributes) {
+        this.type = type;
+        this.keyGetter = resolve(type, keyAttribute);
+        this.attributeGetters = (Function<Object, Object>[]) new Function<?, ?>[attributes.size()];
+        this.doubleGetters = (ToDoubleFunction<Object>[]) new ToDoubleFunction<?>[attributes.size()];
+        for (int i = 0; i < attributeGetters.length; i++) {
+            attributeGetters[i] = resolve(type, attributes.get(i));
+            doubleGetters[i] = resolveDouble(type, attributes.get(i));
+        }
+    }
+
+    Class<?> getType() {
+        return type;
+    }
+
+    // Exposed for tests: the compiled getter for the attribute at index.
+    Function<Object, Object> attributeGetter(int index) {
+        return attributeGetters[index];
+    }
+
+    /**
+     * @return the key value of {@code bean}, or {@link #MISSING} if the key is not readable on its class
+     */
+    Object key(Object bean) {
+        return keyGetter.apply(bean);
+    }
+
+    /**
+     * @return the value of the attribute at {@code index} (in {@code attributesToCompare} order),
+     *         or {@link #MISSING} if it is not readable on the bean class
+     */
+    Object attribute(Object bean, int index) {
+        return attributeGetters[index].apply(bean);
+    }
+
+    /**
+     * @return whether the attribute at {@code index} has a primitive {@code double} or {@code float} getter
+     */
+    boolean hasDoubleGetter(int index) {
+        return doubleGetters[index] != null;
+    }
+
+    /**
+     * @return the unboxed value of an attribute for which {@link #hasDoubleGetter} is true
+     */
+    double doubleAttribute(Object bean, int index) {
+        return doubleGetters[index].applyAsDouble(bean);
+    }
+
+    /**
+     * The cached getter of one property of {@code type}, as used by plans; it returns
+     * {@link #MISSING} when the property is not readable.
+     */
+    static Function<Object, Object> getter(Class<?> type, String propertyPath) {
+        return resolve(type, propertyPath);
+    }
+
+    private static Function<Object, Object> resolve(Class<?> type, String propertyPath) {
+        return GETTERS.get(type).computeIfAbsent(propertyPath, path -> createGetter(type, path));
+    }
+
+    private static ToDoubleFunction<Object> resolveDouble(Class<?> type, String propertyPath) {
+        return DOUBLE_GETTERS.get(type).computeIfAbsent(propertyPath, path -> createDoubleGetter(type, path)).orElse(null);
+    }
+
+    private static Optional<ToDoubleFunction<Object>> createDoubleGetter(Class<?> type, String propertyPath) {
+        if (propertyPath.indexOf('.') >= 0 || propertyPath.indexOf('[') >= 0) {
+            return Optional.empty();
+        }
+        PropertyDescriptor descriptor = BeanUtils.getPropertyDescriptor(type, propertyPath);
+        Method readMethod = (descriptor != null) ? descriptor.getReadMethod() : null;
+        if (readMethod == null || (readMethod.getReturnType() != double.class && readMethod.getReturnType() != float.class)) {
+            return Optional.empty();
+        }
+        try {
+            return Optional.of(compileDoubleGetter(readMethod));
+        } catch (Throwable t) {
+            logger.debug("Could not compile unboxed getter {} for '{}', values will be boxed: {}", readMethod, propertyPath, t.toString());
+            return Optional.empty();
+        }
+    }
+
+    private static Function<Object, Object> createGetter(Class<?> type, String propertyPath) {
+        if (propertyPath.indexOf('.') >= 0 || propertyPath.indexOf('[') >= 0) {
+            return bean -> {
+                try {
+                    return new BeanWrapperImpl(bean).getPropertyValue(propertyPath);
+                } catch (NotReadablePropertyException e) {
+                    return MISSING;
+                }
+            };
+        }
+        PropertyDescriptor descriptor = BeanUtils.getPropertyDescriptor(type, propertyPath);
+        Method readMethod = (descriptor != null) ? descriptor.getReadMethod() : null;
+        if (readMethod == null) {
+            return bean -> MISSING;
+        }
+        try {
+            return compileGetter(readMethod);
+        } catch (Throwable t) {
+            logger.debug("Could not compile getter {} for '{}', falling back to reflection: {}", readMethod, propertyPath, t.toString());
+        }
+        readMethod.trySetAccessible();
+        return bean -> {
+            try {
+                return readMethod.invoke(bean);
+            } catch (ReflectiveOperationException e) {
+                throw new IllegalStateException("Failed to read property '" + propertyPath + "' of " + type.getName(), e);
+            }
+        };
+    }
+
+    /**
+     * Spins a {@link Function} implementation that calls {@code readMethod} directly, so the
+     * JIT can inline it like a hand-written accessor.
+     */
+    private static Function<Object, Object> compileGetter(Method readMethod) throws Throwable {
+        Class<?> declaringClass = readMethod.getDeclaringClass();
+        MethodHandles.Lookup lookup = MethodHandles.privateLookupIn(declaringClass, MethodHandles.lookup());
+        MethodHandle target = lookup.unreflect(readMethod);
+        @SuppressWarnings("unchecked")
+        Function<Object, Object> getter = (Function<Object, Object>) LambdaMetafactory.metafactory(
+                lookup,
+                "apply",
+                MethodType.methodType(Function.class),
+                GETTER_TYPE,
+                target,
+                MethodType.methodType(readMethod.getReturnType(), declaringClass).wrap()
+        ).getTarget().invoke();
+        return getter;
+    }
+
+    // As compileGetter, but returning the primitive; float getters are widened to double.
+    private static ToDoubleFunction<Object> compileDoubleGetter(Method readMethod) throws Throwable {
+        Class<?> declaringClass = readMethod.getDeclaringClass();
+        MethodHandles.Lookup lookup = MethodHandles.privateLookupIn(declaringClass, MethodHandles.lookup());
+        MethodHandle target = lookup.unreflect(readMethod);
+        @SuppressWarnings("unchecked")
+        ToDoubleFunction<Object> getter = (ToDoubleFunction<Object>) LambdaMetafactory.metafactory(
+                lookup,
+                "applyAsDouble",
+                MethodType.methodType(ToDoubleFunction.class),
+                DOUBLE_GETTER_TYPE,
+                target,
+                MethodType.methodType(readMethod.getReturnType(), declaringClass)
+        ).getTarget().invoke();
+        return getter;
+    }
+
+    /**
+     * Plans for one comparison call. Inputs are normally homogeneous, so the last plan used is
+     * checked first; subclasses or mixed element types get their own plan on first sight. One
+     * cache can be shared by the threads comparing the key ranges of a call.
+     */
+    static final class Cache implements RecordAccessor<Object> {
+        private final String keyAttribute;
+        private final List<String> attributes;
+        private final Map<Class<?>, BeanAccessorPlan> plans = new ConcurrentHashMap<>();
+        private volatile BeanAccessorPlan last;
+
+        Cache(String keyAttribute, List<String> attributes) {
+            this.keyAttribute = keyAttribute;
+            this.attributes = List.copyOf(attributes);
+        }
+
+        BeanAccessorPlan planFor(Object bean) {
+            BeanAccessorPlan plan = last;
+            if (plan != null && plan.type == bean.getClass()) {
+                return plan;
+            }
+            plan = plans.computeIfAbsent(bean.getClass(), c -> new BeanAccessorPlan(c, keyAttribute, attributes));
+            last = plan;
+            return plan;
+        }
+
+        @Override
+        public Object key(Object record) {
+            return planFor(record).key(record);
+        }
+
+        @Override
+        public Object attribute(Object record, int index) {
+            return planFor(record).attribute(record, index);
+        }
+
+        @Override
+        public boolean hasPrimitiveDouble(Object record, int index) {
+            return planFor(record).hasDoubleGetter(index);
+        }
+
+        @Override
+        public double readDouble(Object record, int index) {
+            return planFor(record).doubleAttribute(record, index);
+        }
+    }
+}
@@ -0,0 +1,246 @@
+package com.example.comparison.service;
+
+import com.example.comparison.model.ComparisonBreak;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.stereotype.Service;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Machine-readable export of the breaks of a comparison run, for runs too large for a
+ * spreadsheet. Each break type of the report ("onlyOnA", "onlyOnB", "difference") becomes one
+ * gzip-compressed CSV file, {@code <breakType>.csv.gz}. The three files are written concurrently,
+ * each by its own thread: the thread reads its type through {@link BreakReader#streamByType},
+ * the same reader {@link ExcelReportService} uses, then compresses and writes it to a
+ * {@link FileChannel}.
+ * <p>
+ * Every file has the header {@code runId,comparisonKey,breakType,differenceField,valueInCollectionA,valueInCollectionB}
+ * and one row per break, in key order, quoted as in RFC 4180. The files are written under a
+ * temporary name and renamed once all of them are complete. If one of the renames fails, the
+ * files already renamed are taken back and the ones they replaced restored, so a failed export
+ * leaves neither a truncated file nor a mix of two exports behind.
+ */
+@Service
+public class BreakExportService {
+
+    private static final Logger logger = LoggerFactory.getLogger(BreakExportService.class);
+
+    static final List<String> PARTITIONS = List.of("onlyOnA", "onlyOnB", "difference");
+
+    private static final String HEADER = "runId,comparisonKey,breakType,differenceField,valueInCollectionA,valueInCollectionB";
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final AtomicInteger EXPORT_SEQUENCE = new AtomicInteger();
+
+    @Autowired
+    private MongoTemplate mongoTemplate;
+
+    // Deflate level of the CSV files: 1 is fastest, 9 smallest.
+    @Value("${comparison.export.compression-level:1}")
+    private int compressionLevel = 1;
+
+    public void setMongoTemplate(MongoTemplate mongoTemplate) {
+        this.mongoTemplate = mongoTemplate;
+    }
+
+    public void setCompressionLevel(int compressionLevel) {
+        this.compressionLevel = compressionLevel;
+    }
+
+    /**
+     * Writes the breaks of run {@code runId} (or of every run when null) in
+     * {@code breakCollection} to {@code <breakType>.csv.gz} files in {@code directory}, which is
+     * created if needed. Existing files of the same names are replaced.
+     *
+     * @return the number of rows written per break type, in the order of {@link #PARTITIONS}
+     */
+    public Map<String, Long> exportCsv(String breakCollection, String runId, Path directory) throws IOException {
+        Files.createDirectories(directory);
+        long startedAt = System.nanoTime();
+        BreakReader breakReader = new BreakReader(mongoTemplate);
+        String threadPrefix = "break-export-" + EXPORT_SEQUENCE.incrementAndGet() + "-";
+        AtomicInteger threadIndex = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(PARTITIONS.size(), r -> {
+            Thread t = new Thread(r, threadPrefix + threadIndex.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+        Map<String, Long> rows = new LinkedHashMap<>();
+        boolean complete = false;
+        try {
+            List<Future<Long>> results = new ArrayList<>(PARTITIONS.size());
+            for (String breakType : PARTITIONS) {
+                results.add(executor.submit(() -> writePartition(breakReader, breakCollection, runId, breakType,
+                        partFile(directory, breakType))));
+            }
+            for (int i = 0; i < PARTITIONS.size(); i++) {
+                rows.put(PARTITIONS.get(i), results.get(i).get());
+            }
+            publish(directory);
+            complete = true;
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            throw (cause instanceof RuntimeException) ? (RuntimeException) cause
+                    : new IllegalStateException("Failed to export the breaks of '" + breakCollection + "'", cause);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while exporting the breaks of '" + breakCollection + "'", e);
+        } finally {
+            executor.shutdownNow();
+            if (!complete) {
+                awaitQuietly(executor);
+                for (String breakType : PARTITIONS) {
+                    Files.deleteIfExists(partFile(directory, breakType));
+                }
+            }
+        }
+        logger.info("Exported {} breaks of '{}' (run {}) to {} in {} ms: {}.", rows.values().stream().mapToLong(Long::longValue).sum(),
+                breakCollection, runId, directory, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startedAt), rows);
+        return rows;
+    }
+
+    // Renames the part files to the CSV files, all or none: the files they replace are set aside
+    // first and put back if a later rename fails.
+    private static void publish(Path directory) throws IOException {
+        List<String> replaced = new ArrayList<>(PARTITIONS.size());
+        List<String> published = new ArrayList<>(PARTITIONS.size());
+        try {
+            for (String breakType : PARTITIONS) {
+                Path csvFile = csvFile(directory, breakType);
+                if (Files.exists(csvFile)) {
+                    Files.move(csvFile, previousFile(directory, breakType), StandardCopyOption.REPLACE_EXISTING,
+                            StandardCopyOption.ATOMIC_MOVE);
+                    replaced.add(breakType);
+                }
+                Files.move(partFile(directory, breakType), csvFile, StandardCopyOption.ATOMIC_MOVE);
+                published.add(breakType);
+            }
+        } catch (IOException e) {
+            for (String breakType : published) {
+                try {
+                    Files.deleteIfExists(csvFile(directory, breakType));
+                } catch (IOException suppressed) {
+                    e.addSuppressed(suppressed);
+                }
+            }
+            for (String breakType : replaced) {
+                try {
+                    Files.move(previousFile(directory, breakType), csvFile(directory, breakType), StandardCopyOption.ATOMIC_MOVE);
+                } catch (IOException suppressed) {
+                    e.addSuppressed(suppressed);
+                }
+            }
+            throw e;
+        }
+        for (String breakType : replaced) {
+            Files.deleteIfExists(previousFile(directory, breakType));
+        }
+    }
+
+    private long writePartition(BreakReader breakReader, String breakCollection, String runId, String breakType, Path file)
+            throws IOException {
+        long rows = 0;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.WRITE);
+             Writer out = new BufferedWriter(new OutputStreamWriter(
+                     new LeveledGzipOutputStream(Channels.newOutputStream(channel), compressionLevel), StandardCharsets.UTF_8), BUFFER_SIZE);
+             Stream<ComparisonBreak> breaks = breakReader.streamByType(breakCollection, runId, breakType)) {
+            out.write(HEADER);
+            out.write('\n');
+            for (ComparisonBreak comparisonBreak : (Iterable<ComparisonBreak>) breaks::iterator) {
+                writeField(out, comparisonBreak.getRunId());
+                out.write(',');
+                writeField(out, comparisonBreak.getComparisonKey());
+                out.write(',');
+                writeField(out, comparisonBreak.getBreakType());
+                out.write(',');
+                writeField(out, comparisonBreak.getDifferenceField());
+                out.write(',');
+                writeField(out, comparisonBreak.getValueInCollectionA());
+                out.write(',');
+                writeField(out, comparisonBreak.getValueInCollectionB());
+                out.write('\n');
+                rows++;
+            }
+        }
+        return rows;
+    }
+
+    // Null is written as an empty field; values with a separator, quote or line break are quoted.
+    static void writeField(Writer out, String value) throws IOException {
+        if (value == null) {
+            return;
+        }
+        boolean quote = false;
+        for (int i = 0; i < value.length() && !quote; i++) {
+            char c = value.charAt(i);
+            quote = c == ',' || c == '"' || c == '\n' || c == '\r';
+        }
+        if (!quote) {
+            out.write(value);
+            return;
+        }
+        out.write('"');
+        out.write(value.replace("\"", "\"\""));
+        out.write('"');
+    }
+
+    private static Path csvFile(Path directory, String breakType) {
+        return directory.resolve(breakType + ".csv.gz");
+    }
+
+    private static Path partFile(Path directory, String breakType) {
+        return directory.resolve(breakType + ".csv.gz.part");
+    }
+
+    private static Path previousFile(Path directory, String breakType) {
+        return directory.resolve(breakType + ".csv.gz.previous");
+    }
+
+    private static void awaitQuietly(ExecutorService executor) {
+        try {
+            executor.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * {@link GZIPOutputStream} with a chosen deflate level.
+     */
+    private static final class LeveledGzipOutputStream extends GZIPOutputStream {
+        LeveledGzipOutputStream(OutputStream out, int level) throws IOException {
+            super(out, BUFFER_SIZE);
+            def.setLevel(level);
+        }
+    }
+}
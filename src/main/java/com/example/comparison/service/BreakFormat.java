@@ -0,0 +1,17 @@
+package com.example.comparison.service;
+
+/**
+ * How breaks are stored in the output collection. Both formats are read back as
+ * {@code ComparisonBreak}s by {@link BreakReader}.
+ */
+public enum BreakFormat {
+
+    /** One {@code ComparisonBreak} document per break. */
+    ROWS,
+
+    /**
+     * One document per key holding a bitmap of the differing attributes and their two values.
+     * Attribute names are stored once, in a dictionary collection next to the output.
+     */
+    COMPACT
+}
@@ -0,0 +1,250 @@
+package com.example.comparison.service;
+
+import com.example.comparison.model.ComparisonBreak;
+import org.bson.Document;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Reads the breaks of an output collection as {@link ComparisonBreak} rows, whichever
+ * {@link BreakFormat} they were written in. The format is recognised by the attribute
+ * dictionaries that only {@link BreakFormat#COMPACT} outputs have, one per run.
+ * <p>
+ * An output collection may hold the breaks of several runs (see {@link ComparisonRunRegistry});
+ * pass a run id to read only one of them.
+ */
+public class BreakReader {
+
+    private final MongoTemplate mongoTemplate;
+
+    public BreakReader(MongoTemplate mongoTemplate) {
+        this.mongoTemplate = mongoTemplate;
+    }
+
+    /**
+     * Breaks of every run written into {@code collectionName}.
+     */
+    public List<ComparisonBreak> findAll(String collectionName) {
+        return findAll(collectionName, null);
+    }
+
+    /**
+     * Breaks written into {@code collectionName} by run {@code runId}, or by every run when null.
+     */
+    public List<ComparisonBreak> findAll(String collectionName, String runId) {
+        Map<String, List<String>> dictionaries = compactAttributeNames(collectionName, runId);
+        if (dictionaries.isEmpty()) {
+            return (runId == null)
+                    ? mongoTemplate.findAll(ComparisonBreak.class, collectionName)
+                    : mongoTemplate.find(Query.query(Criteria.where("runId").is(runId)), ComparisonBreak.class, collectionName);
+        }
+        List<Document> documents = (runId == null)
+                ? mongoTemplate.findAll(Document.class, collectionName)
+                : mongoTemplate.find(Query.query(Criteria.where(CompactBreaks.RUN).is(runId)), Document.class, collectionName);
+        return decode(documents, dictionaries);
+    }
+
+    /**
+     * Breaks written into {@code collectionName} by run {@code runId} (or by every run when null),
+     * in {@code comparisonKey} order, so that all breaks of one key are adjacent. They are read
+     * through a cursor, which holds one batch at a time; with a run id the sort is served by the
+     * {@code (run, key)} index. "matchCount" rows have no key and come first. The stream must be
+     * closed.
+     */
+    public Stream<ComparisonBreak> streamByKey(String collectionName, String runId) {
+        Map<String, List<String>> dictionaries = compactAttributeNames(collectionName, runId);
+        if (dictionaries.isEmpty()) {
+            return mongoTemplate.stream(sortedByKey("runId", runId, "comparisonKey"), ComparisonBreak.class, collectionName);
+        }
+        return mongoTemplate.stream(sortedByKey(CompactBreaks.RUN, runId, CompactBreaks.KEY), Document.class, collectionName)
+                .flatMap(document -> decode(List.of(document), dictionaries).stream());
+    }
+
+    /**
+     * Breaks of one type ("onlyOnA", "difference", ...) written into {@code collectionName} by run
+     * {@code runId} (or by every run when null), in {@code comparisonKey} order, read through a
+     * cursor like {@link #streamByKey}. In a {@link BreakFormat#COMPACT} output only the keys that
+     * have the type are read and decoded. The stream must be closed.
+     *
+     * @throws IllegalArgumentException if the output is COMPACT and the comparisons never write
+     *                                  {@code breakType}
+     */
+    public Stream<ComparisonBreak> streamByType(String collectionName, String runId, String breakType) {
+        Map<String, List<String>> dictionaries = compactAttributeNames(collectionName, runId);
+        if (dictionaries.isEmpty()) {
+            Query query = sortedByKey("runId", runId, "comparisonKey").addCriteria(Criteria.where("breakType").is(breakType));
+            return mongoTemplate.stream(query, ComparisonBreak.class, collectionName);
+        }
+        Query query = sortedByKey(CompactBreaks.RUN, runId, CompactBreaks.KEY).addCriteria(compactTypeCriteria(breakType));
+        return mongoTemplate.stream(query, Document.class, collectionName)
+                .flatMap(document -> decode(List.of(document), dictionaries).stream())
+                .filter(b -> breakType.equals(b.getBreakType()));
+    }
+
+    // The compact documents holding at least one break of breakType.
+    private static Criteria compactTypeCriteria(String breakType) {
+        switch (breakType) {
+            case "difference":
+                return Criteria.where(CompactBreaks.DIFFERENCES).exists(true);
+            case "match":
+                return Criteria.where(CompactBreaks.MATCHES).exists(true);
+            case "onlyOnA":
+                return Criteria.where(CompactBreaks.ONLY_ON_A).exists(true);
+            case "onlyOnB":
+                return Criteria.where(CompactBreaks.ONLY_ON_B).exists(true);
+            case "matchRange":
+                return Criteria.where(CompactBreaks.RANGE_END).exists(true);
+            case "matchCount":
+                return Criteria.where(CompactBreaks.KEY).exists(false);
+            default:
+                throw new IllegalArgumentException("Unknown break type '" + breakType + "'");
+        }
+    }
+
+    /**
+     * Attributes with at least one "difference" break in {@code collectionName} from run
+     * {@code runId}, or from every run when null. Computed by the server for a
+     * {@link BreakFormat#ROWS} output; a {@link BreakFormat#COMPACT} output is scanned for its
+     * difference bitmaps only.
+     */
+    public Set<String> differenceFields(String collectionName, String runId) {
+        Map<String, List<String>> dictionaries = compactAttributeNames(collectionName, runId);
+        if (dictionaries.isEmpty()) {
+            Query query = Query.query(Criteria.where("breakType").is("difference"));
+            if (runId != null) {
+                query.addCriteria(Criteria.where("runId").is(runId));
+            }
+            return new HashSet<>(mongoTemplate.findDistinct(query, "differenceField", collectionName, ComparisonBreak.class, String.class));
+        }
+        Query query = Query.query(Criteria.where(CompactBreaks.DIFFERENCES).exists(true));
+        if (runId != null) {
+            query.addCriteria(Criteria.where(CompactBreaks.RUN).is(runId));
+        }
+        query.fields().include(CompactBreaks.RUN, CompactBreaks.DIFFERENCES);
+        Map<String, BitSet> differingIndexes = new HashMap<>();
+        try (Stream<Document> documents = mongoTemplate.stream(query, Document.class, collectionName)) {
+            documents.forEach(document -> differingIndexes
+                    .computeIfAbsent(document.getString(CompactBreaks.RUN), run -> new BitSet())
+                    .or(CompactBreaks.differenceBitmap(document)));
+        }
+        Set<String> fields = new HashSet<>();
+        differingIndexes.forEach((run, indexes) -> indexes.stream()
+                .forEach(index -> fields.add(dictionaries.get(run).get(index))));
+        return fields;
+    }
+
+    private static Query sortedByKey(String runField, String runId, String keyField) {
+        Query query = (runId == null) ? new Query() : Query.query(Criteria.where(runField).is(runId));
+        return query.with(Sort.by(Sort.Direction.ASC, keyField)).allowDiskUse(true);
+    }
+
+    /**
+     * Breaks recorded for {@code comparisonKey} by run {@code runId}, including a "matchRange" row
+     * covering it. Both lookups use the {@code (run, key)} index: a point lookup on the key, and,
+     * when the key has no breaks of its own, the nearest key below it, which is where a covering
+     * range starts.
+     */
+    public List<ComparisonBreak> findByKey(String collectionName, String runId, String comparisonKey) {
+        Map<String, List<String>> dictionaries = compactAttributeNames(collectionName, runId);
+        String runField = dictionaries.isEmpty() ? "runId" : CompactBreaks.RUN;
+        String keyField = dictionaries.isEmpty() ? "comparisonKey" : CompactBreaks.KEY;
+
+        Query pointLookup = Query.query(Criteria.where(runField).is(runId).and(keyField).is(comparisonKey));
+        Query preceding = Query.query(Criteria.where(runField).is(runId).and(keyField).lt(comparisonKey))
+                .with(Sort.by(Sort.Direction.DESC, keyField))
+                .limit(1);
+        List<ComparisonBreak> breaks;
+        if (dictionaries.isEmpty()) {
+            breaks = mongoTemplate.find(pointLookup, ComparisonBreak.class, collectionName);
+            if (breaks.isEmpty()) {
+                breaks = mongoTemplate.find(preceding, ComparisonBreak.class, collectionName);
+            }
+        } else {
+            List<Document> documents = mongoTemplate.find(pointLookup, Document.class, collectionName);
+            if (documents.isEmpty()) {
+                documents = mongoTemplate.find(preceding, Document.class, collectionName);
+            }
+            breaks = decode(documents, dictionaries);
+        }
+        return breaks.stream().filter(b -> covers(b, comparisonKey)).collect(Collectors.toList());
+    }
+
+    /**
+     * Breaks recorded by run {@code runId} for exactly the given keys, read with one {@code $in}
+     * lookup on the {@code (run, key)} index. Unlike {@link #findByKey}, "matchRange" rows
+     * covering the keys are not included.
+     */
+    public List<ComparisonBreak> findByKeys(String collectionName, String runId, Collection<String> comparisonKeys) {
+        Map<String, List<String>> dictionaries = compactAttributeNames(collectionName, runId);
+        if (dictionaries.isEmpty()) {
+            return mongoTemplate.find(Query.query(Criteria.where("runId").is(runId).and("comparisonKey").in(comparisonKeys)),
+                    ComparisonBreak.class, collectionName);
+        }
+        return decode(mongoTemplate.find(Query.query(Criteria.where(CompactBreaks.RUN).is(runId).and(CompactBreaks.KEY).in(comparisonKeys)),
+                Document.class, collectionName), dictionaries);
+    }
+
+    /**
+     * Whether {@code comparisonBreak} is recorded for {@code comparisonKey}, either directly or as
+     * a "matchRange" row covering it. Range bounds are compared as strings, as in {@link #findByKey};
+     * ranges are only recorded for string and ObjectId keys, whose strings sort as the keys do.
+     */
+    public static boolean covers(ComparisonBreak comparisonBreak, String comparisonKey) {
+        if (comparisonKey.equals(comparisonBreak.getComparisonKey())) {
+            return true;
+        }
+        return "matchRange".equals(comparisonBreak.getBreakType())
+                && comparisonBreak.getValueInCollectionA().compareTo(comparisonKey) <= 0
+                && comparisonBreak.getValueInCollectionB().compareTo(comparisonKey) >= 0;
+    }
+
+    /**
+     * Collection holding the per-run attribute dictionaries of a {@link BreakFormat#COMPACT}
+     * output. It has to be dropped along with the output collection.
+     */
+    public static String dictionaryCollection(String collectionName) {
+        return CompactBreaks.dictionaryCollection(collectionName);
+    }
+
+    // Attribute names per run id; empty for a ROWS output.
+    private Map<String, List<String>> compactAttributeNames(String collectionName, String runId) {
+        String dictionaryCollection = CompactBreaks.dictionaryCollection(collectionName);
+        List<Document> dictionaries;
+        if (runId == null) {
+            dictionaries = mongoTemplate.findAll(Document.class, dictionaryCollection);
+        } else {
+            Document dictionary = mongoTemplate.findById(runId, Document.class, dictionaryCollection);
+            dictionaries = (dictionary == null) ? List.of() : List.of(dictionary);
+        }
+        Map<String, List<String>> attributeNames = new HashMap<>();
+        for (Document dictionary : dictionaries) {
+            attributeNames.put(dictionary.getString("_id"), dictionary.getList(CompactBreaks.DICTIONARY_NAMES, String.class));
+        }
+        return attributeNames;
+    }
+
+    private static List<ComparisonBreak> decode(List<Document> documents, Map<String, List<String>> dictionaries) {
+        List<ComparisonBreak> breaks = new ArrayList<>(documents.size());
+        for (Document document : documents) {
+            List<String> attributeNames = dictionaries.get(document.getString(CompactBreaks.RUN));
+            if (attributeNames == null) {
+                throw new IllegalStateException("No attribute dictionary for run '" + document.getString(CompactBreaks.RUN) + "'");
+            }
+            breaks.addAll(CompactBreaks.decode(document, attributeNames));
+        }
+        return breaks;
+    }
+}
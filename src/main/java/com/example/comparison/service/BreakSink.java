@@ -0,0 +1,15 @@
+package com.example.comparison.service;
+
+import com.example.comparison.model.ComparisonBreak;
+
+import java.util.function.Consumer;
+
+/**
+ * Destination of the breaks of one comparison pass. {@link #close()} flushes everything still
+ * buffered and rethrows a failed write.
+ */
+interface BreakSink extends Consumer<ComparisonBreak>, AutoCloseable {
+
+    @Override
+    void close();
+}
@@ -0,0 +1,165 @@
+package com.example.comparison.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.MongoTemplate;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+
+/**
+ * Bounded, pipelined sink that bulk-inserts records of type {@code T} into one collection.
+ * <p>
+ * Records are buffered into batches of {@code batchSize} and handed to a small pool of writer
+ * threads which persist them with unordered bulk inserts. At most {@code writerThreads} batches
+ * are in flight at any time; when all writers are busy, {@link #accept} blocks until one frees
+ * up. Heap usage is therefore bounded by {@code batchSize * (writerThreads + 1)} records no matter
+ * how large the compared collections are.
+ * <p>
+ * A failed bulk insert is rethrown on the next {@link #accept} or on {@link #close}.
+ */
+class BulkInsertWriter<T> implements Consumer<T>, AutoCloseable {
+
+    private static final Logger logger = LoggerFactory.getLogger(BulkInsertWriter.class);
+    private static final AtomicInteger WRITER_SEQUENCE = new AtomicInteger();
+
+    private final MongoTemplate mongoTemplate;
+    private final Class<?> entityClass;
+    private final String collectionName;
+    private final int batchSize;
+    private final ExecutorService writers;
+    private final Semaphore inFlight;
+    private final AtomicReference<RuntimeException> failure = new AtomicReference<>();
+    private final AtomicLong written = new AtomicLong();
+    private final AtomicLong batchesWritten = new AtomicLong();
+
+    private List<T> buffer;
+    private long accepted;
+    private boolean closed;
+
+    /**
+     * @param entityClass type the records are mapped as; {@code org.bson.Document} for raw documents
+     */
+    BulkInsertWriter(MongoTemplate mongoTemplate, Class<?> entityClass, String collectionName, int batchSize, int writerThreads) {
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("batchSize must be at least 1, got " + batchSize);
+        }
+        if (writerThreads < 1) {
+            throw new IllegalArgumentException("writerThreads must be at least 1, got " + writerThreads);
+        }
+        this.mongoTemplate = mongoTemplate;
+        this.entityClass = entityClass;
+        this.collectionName = collectionName;
+        this.batchSize = batchSize;
+        this.inFlight = new Semaphore(writerThreads);
+        String threadPrefix = "break-writer-" + WRITER_SEQUENCE.incrementAndGet() + "-";
+        AtomicInteger threadIndex = new AtomicInteger();
+        this.writers = Executors.newFixedThreadPool(writerThreads, r -> {
+            Thread t = new Thread(r, threadPrefix + threadIndex.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+        this.buffer = new ArrayList<>(batchSize);
+    }
+
+    @Override
+    public void accept(T record) {
+        if (closed) {
+            throw new IllegalStateException("Writer for '" + collectionName + "' is already closed");
+        }
+        rethrowFailure();
+        buffer.add(record);
+        accepted++;
+        if (buffer.size() >= batchSize) {
+            submit();
+        }
+    }
+
+    /**
+     * Number of records handed to this writer so far (persisted or still buffered).
+     */
+    public long getAcceptedCount() {
+        return accepted;
+    }
+
+    /**
+     * Number of records confirmed as inserted. Equal to {@link #getAcceptedCount()} after a successful {@link #close()}.
+     */
+    public long getWrittenCount() {
+        return written.get();
+    }
+
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            if (failure.get() == null && !buffer.isEmpty()) {
+                submit();
+            }
+        } finally {
+            writers.shutdown();
+            try {
+                if (!writers.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS)) {
+                    logger.warn("Writer for '{}' did not terminate cleanly.", collectionName);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                writers.shutdownNow();
+                throw new IllegalStateException("Interrupted while flushing records to '" + collectionName + "'", e);
+            }
+        }
+        rethrowFailure();
+        logger.debug("Writer for '{}' flushed {} records in {} batches.", collectionName, written.get(), batchesWritten.get());
+    }
+
+    private void submit() {
+        List<T> batch = buffer;
+        buffer = new ArrayList<>(batchSize);
+        try {
+            inFlight.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting to flush records to '" + collectionName + "'", e);
+        }
+        try {
+            writers.execute(() -> {
+                try {
+                    if (failure.get() == null) {
+                        mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, entityClass, collectionName)
+                                .insert(batch)
+                                .execute();
+                        written.addAndGet(batch.size());
+                        batchesWritten.incrementAndGet();
+                    }
+                } catch (RuntimeException e) {
+                    logger.error("Bulk insert of {} records into '{}' failed: {}", batch.size(), collectionName, e.getMessage(), e);
+                    failure.compareAndSet(null, e);
+                } finally {
+                    inFlight.release();
+                }
+            });
+        } catch (RuntimeException e) {
+            inFlight.release();
+            throw e;
+        }
+    }
+
+    private void rethrowFailure() {
+        RuntimeException e = failure.get();
+        if (e != null) {
+            throw new IllegalStateException("Failed to write comparison results to '" + collectionName + "'", e);
+        }
+    }
+}
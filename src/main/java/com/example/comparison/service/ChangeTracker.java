@@ -0,0 +1,139 @@
+package com.example.comparison.service;
+
+import com.mongodb.client.MongoChangeStreamCursor;
+import com.mongodb.client.model.changestream.ChangeStreamDocument;
+import com.mongodb.client.model.changestream.FullDocument;
+import com.mongodb.client.model.changestream.FullDocumentBeforeChange;
+import com.mongodb.client.model.changestream.OperationType;
+import org.bson.BsonDocument;
+import org.bson.BsonValue;
+import org.bson.Document;
+import org.springframework.data.mongodb.core.MongoTemplate;
+
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/**
+ * Change-stream checkpoints of the collections of a comparison run, used by
+ * {@link GenericComparisonService#compareCollectionsIncremental} to find the keys written since.
+ * <p>
+ * A checkpoint is the resume token of a change stream opened on the collection, stored on the
+ * {@link com.example.comparison.model.ComparisonRun} as a plain document. Change streams need a
+ * replica set or sharded cluster, and a checkpoint can only be resumed while its position is still
+ * in the oplog.
+ * <p>
+ * The key of a changed document is taken from its post-image ({@code fullDocument}), its
+ * pre-image ({@code fullDocumentBeforeChange}, when the collection records them) or, for an
+ * {@code _id} key, the document key. A document whose key changed yields both keys only if
+ * pre-images are recorded; without them the break of the old key is left as it was.
+ */
+final class ChangeTracker {
+
+    /**
+     * Keys written to one collection since a checkpoint, and the checkpoint after them.
+     */
+    static final class Changes {
+        final Set<BsonValue> keys = new LinkedHashSet<>();
+        long events;
+        Document resumeToken;
+    }
+
+    private ChangeTracker() {
+    }
+
+    /**
+     * Checkpoint of {@code collectionName} as of now. Open it before reading the collection, so
+     * no write made during the comparison is missed by the next incremental pass.
+     */
+    static Document checkpoint(MongoTemplate template, String collectionName) {
+        try (MongoChangeStreamCursor<ChangeStreamDocument<Document>> cursor =
+                     template.getCollection(collectionName).watch().cursor()) {
+            return toDocument(cursor.getResumeToken());
+        }
+    }
+
+    /**
+     * Keys of the documents of {@code collectionName} written after {@code resumeToken}, read up
+     * to the end of the change stream.
+     *
+     * @throws IllegalStateException if the collection was dropped or renamed, or a deleted
+     *                               document's key cannot be recovered; only a full comparison is
+     *                               correct then
+     */
+    static Changes changesSince(MongoTemplate template, String collectionName, Document resumeToken, String keyField) {
+        Changes changes = new Changes();
+        try (MongoChangeStreamCursor<ChangeStreamDocument<BsonDocument>> cursor = template.getCollection(collectionName)
+                .watch(BsonDocument.class)
+                .resumeAfter(BsonDocument.parse(resumeToken.toJson()))
+                .fullDocument(FullDocument.UPDATE_LOOKUP)
+                .fullDocumentBeforeChange(FullDocumentBeforeChange.WHEN_AVAILABLE)
+                .cursor()) {
+            ChangeStreamDocument<BsonDocument> event;
+            while ((event = cursor.tryNext()) != null) {
+                changes.events++;
+                switch (event.getOperationType()) {
+                    case INSERT:
+                    case UPDATE:
+                    case REPLACE:
+                    case DELETE:
+                        addKeys(changes.keys, event, collectionName, keyField);
+                        break;
+                    case DROP:
+                    case RENAME:
+                    case DROP_DATABASE:
+                    case INVALIDATE:
+                        throw new IllegalStateException("Collection '" + collectionName + "' was "
+                                + event.getOperationType().getValue() + " after the checkpoint; run a full comparison.");
+                    default:
+                        break;
+                }
+            }
+            changes.resumeToken = toDocument(cursor.getResumeToken());
+        }
+        return changes;
+    }
+
+    private static void addKeys(Set<BsonValue> keys, ChangeStreamDocument<BsonDocument> event,
+                                String collectionName, String keyField) {
+        boolean found = addKey(keys, event.getFullDocument(), keyField)
+                | addKey(keys, event.getFullDocumentBeforeChange(), keyField)
+                | (keyField.equals("_id") && addKey(keys, event.getDocumentKey(), keyField));
+        // An update whose document is gone by the time it is looked up is followed by its delete.
+        if (!found && event.getOperationType() == OperationType.DELETE) {
+            throw new IllegalStateException("A document deleted from '" + collectionName + "' (" + event.getDocumentKey()
+                    + ") has no pre-image to read '" + keyField + "' from. Enable changeStreamPreAndPostImages "
+                    + "on the collection or run a full comparison.");
+        }
+    }
+
+    private static boolean addKey(Set<BsonValue> keys, BsonDocument document, String keyField) {
+        if (document == null) {
+            return false;
+        }
+        BsonValue key = valueAt(document, keyField);
+        if (key == null) {
+            return false;
+        }
+        keys.add(key);
+        return true;
+    }
+
+    // Value at a dotted field path, or null when any part of it is missing.
+    private static BsonValue valueAt(BsonDocument document, String fieldPath) {
+        BsonValue value = document;
+        for (String part : fieldPath.split("\\.")) {
+            if (!value.isDocument()) {
+                return null;
+            }
+            value = value.asDocument().get(part);
+            if (value == null) {
+                return null;
+            }
+        }
+        return value;
+    }
+
+    private static Document toDocument(BsonDocument resumeToken) {
+        return (resumeToken == null) ? null : Document.parse(resumeToken.toJson());
+    }
+}
@@ -0,0 +1,115 @@
+package com.example.comparison.service;
+
+import com.example.comparison.model.ComparisonBreak;
+import org.bson.Document;
+import org.springframework.data.mongodb.core.MongoTemplate;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * {@link BreakSink} writing the {@link BreakFormat#COMPACT} format: consecutive breaks of the
+ * same key are folded into one document (see {@link CompactBreaks}) and bulk-inserted by a
+ * {@link BulkInsertWriter}. The merge-join emits all breaks of a key together, so each key
+ * normally ends up in a single document; a key whose breaks are not adjacent, or which differs
+ * twice on the same attribute (duplicate keys), is split over several.
+ * <p>
+ * Every document carries the run id, and {@link #close()} stores the run's attribute dictionary.
+ * The {@code (r, k)} index is created by {@link ComparisonRunRegistry} when the run starts.
+ */
+final class CompactBreakWriter implements BreakSink {
+
+    private final MongoTemplate mongoTemplate;
+    private final String collectionName;
+    private final String runId;
+    private final List<String> attributeNames;
+    private final Map<String, Integer> attributeIndexes = new HashMap<>();
+    private final BulkInsertWriter<Document> documents;
+
+    private String currentKey;
+    private final Map<Integer, ComparisonBreak> differences = new HashMap<>();
+    private int matches;
+    private int onlyOnA;
+    private int onlyOnB;
+    private boolean closed;
+
+    CompactBreakWriter(MongoTemplate mongoTemplate, String collectionName, String runId, List<String> attributeNames,
+                       int batchSize, int writerThreads) {
+        this.mongoTemplate = mongoTemplate;
+        this.collectionName = collectionName;
+        this.runId = runId;
+        this.attributeNames = attributeNames;
+        for (int i = 0; i < attributeNames.size(); i++) {
+            attributeIndexes.putIfAbsent(attributeNames.get(i), i);
+        }
+        this.documents = new BulkInsertWriter<>(mongoTemplate, Document.class, collectionName, batchSize, writerThreads);
+    }
+
+    @Override
+    public void accept(ComparisonBreak comparisonBreak) {
+        String breakType = comparisonBreak.getBreakType();
+        if ("matchRange".equals(breakType)) {
+            flushKey();
+            documents.accept(CompactBreaks.encodeMatchRange(runId, comparisonBreak));
+            return;
+        }
+        if ("matchCount".equals(breakType)) {
+            flushKey();
+            documents.accept(CompactBreaks.encodeMatchCount(runId, comparisonBreak));
+            return;
+        }
+        Integer index = "difference".equals(breakType) ? attributeIndexes.get(comparisonBreak.getDifferenceField()) : null;
+        if ("difference".equals(breakType) && index == null) {
+            throw new IllegalArgumentException("Difference on '" + comparisonBreak.getDifferenceField()
+                    + "' is not one of the compared attributes " + attributeNames);
+        }
+        if (!Objects.equals(currentKey, comparisonBreak.getComparisonKey())
+                || (index != null && differences.containsKey(index))) {
+            flushKey();
+            currentKey = comparisonBreak.getComparisonKey();
+        }
+        switch (breakType) {
+            case "difference":
+                differences.put(index, comparisonBreak);
+                break;
+            case "match":
+                matches++;
+                break;
+            case "onlyOnA":
+                onlyOnA++;
+                break;
+            case "onlyOnB":
+                onlyOnB++;
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown break type '" + breakType + "'");
+        }
+    }
+
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            flushKey();
+        } finally {
+            documents.close();
+        }
+        mongoTemplate.save(CompactBreaks.dictionary(runId, attributeNames), CompactBreaks.dictionaryCollection(collectionName));
+    }
+
+    private void flushKey() {
+        if (!differences.isEmpty() || matches + onlyOnA + onlyOnB > 0) {
+            documents.accept(CompactBreaks.encode(runId, currentKey, differences, matches, onlyOnA, onlyOnB));
+        }
+        currentKey = null;
+        differences.clear();
+        matches = 0;
+        onlyOnA = 0;
+        onlyOnB = 0;
+    }
+}
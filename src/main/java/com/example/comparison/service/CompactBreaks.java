@@ -0,0 +1,159 @@
+package com.example.comparison.service;
+
+import com.example.comparison.model.ComparisonBreak;
+import org.bson.Document;
+import org.bson.types.Binary;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Encoding of the {@link BreakFormat#COMPACT} output. The breaks of one key are stored as a
+ * single document:
+ * <pre>
+ * { r: "5f0c...",                  // id of the ComparisonRun
+ *   k: "acct0002",                 // comparison key
+ *   d: BinData(...),               // bitmap of differing attribute indexes
+ *   va: ["2000.0"], vb: ["2010.0"], // their values on each side, in index order
+ *   m: 1, a: 1, b: 1 }             // "match", "onlyOnA" and "onlyOnB" rows, when non-zero
+ * </pre>
+ * A "matchRange" row becomes {@code {r: run, k: first, e: last, n: count}} and a "matchCount"
+ * row {@code {r: run, n: count}}. Attribute indexes refer to the names in the run's dictionary
+ * document {@code {_id: run, names: [...]}} of {@link #dictionaryCollection}.
+ */
+final class CompactBreaks {
+
+    static final String RUN = "r";
+    static final String KEY = "k";
+    static final String DIFFERENCES = "d";
+    static final String VALUES_A = "va";
+    static final String VALUES_B = "vb";
+    static final String MATCHES = "m";
+    static final String ONLY_ON_A = "a";
+    static final String ONLY_ON_B = "b";
+    static final String RANGE_END = "e";
+    static final String COUNT = "n";
+
+    static final String DICTIONARY_NAMES = "names";
+
+    private CompactBreaks() {
+    }
+
+    static String dictionaryCollection(String outputCollectionName) {
+        return outputCollectionName + ".dictionary";
+    }
+
+    static Document dictionary(String runId, List<String> attributeNames) {
+        return new Document("_id", runId).append(DICTIONARY_NAMES, attributeNames);
+    }
+
+    /**
+     * Encodes breaks sharing {@code key}: at most one "difference" per attribute, plus any number
+     * of "match", "onlyOnA" and "onlyOnB" rows.
+     */
+    static Document encode(String runId, String key, Map<Integer, ComparisonBreak> differencesByIndex,
+                           int matches, int onlyOnA, int onlyOnB) {
+        Document document = new Document(RUN, runId).append(KEY, key);
+        if (!differencesByIndex.isEmpty()) {
+            BitSet bitmap = new BitSet();
+            List<String> valuesA = new ArrayList<>(differencesByIndex.size());
+            List<String> valuesB = new ArrayList<>(differencesByIndex.size());
+            differencesByIndex.keySet().stream().sorted().forEach(index -> {
+                ComparisonBreak difference = differencesByIndex.get(index);
+                bitmap.set(index);
+                valuesA.add(difference.getValueInCollectionA());
+                valuesB.add(difference.getValueInCollectionB());
+            });
+            document.append(DIFFERENCES, bitmap.toByteArray())
+                    .append(VALUES_A, valuesA)
+                    .append(VALUES_B, valuesB);
+        }
+        appendIfPositive(document, MATCHES, matches);
+        appendIfPositive(document, ONLY_ON_A, onlyOnA);
+        appendIfPositive(document, ONLY_ON_B, onlyOnB);
+        return document;
+    }
+
+    static Document encodeMatchRange(String runId, ComparisonBreak range) {
+        return new Document(RUN, runId)
+                .append(KEY, range.getValueInCollectionA())
+                .append(RANGE_END, range.getValueInCollectionB())
+                .append(COUNT, range.getMatchCount());
+    }
+
+    static Document encodeMatchCount(String runId, ComparisonBreak count) {
+        return new Document(RUN, runId).append(COUNT, count.getMatchCount());
+    }
+
+    /**
+     * Expands one compact document back into the rows the comparison produced: differences in
+     * attribute order first, then matches and missing records.
+     */
+    static List<ComparisonBreak> decode(Document document, List<String> attributeNames) {
+        List<ComparisonBreak> breaks = decodeRows(document, attributeNames);
+        String runId = document.getString(RUN);
+        for (ComparisonBreak comparisonBreak : breaks) {
+            comparisonBreak.setRunId(runId);
+        }
+        return breaks;
+    }
+
+    /**
+     * Indexes of the differing attributes of an encoded key; empty when none differ.
+     */
+    static BitSet differenceBitmap(Document document) {
+        Object bitmap = document.get(DIFFERENCES);
+        if (bitmap == null) {
+            return new BitSet();
+        }
+        // Stored as generic binary, which reads back as Binary or byte[] depending on the codec.
+        return BitSet.valueOf(bitmap instanceof Binary ? ((Binary) bitmap).getData() : (byte[]) bitmap);
+    }
+
+    private static List<ComparisonBreak> decodeRows(Document document, List<String> attributeNames) {
+        String key = document.getString(KEY);
+        List<ComparisonBreak> breaks = new ArrayList<>();
+        if (document.containsKey(COUNT)) {
+            ComparisonBreak summary = (key == null)
+                    ? new ComparisonBreak(null, null, null, null, "matchCount")
+                    : new ComparisonBreak(key, null, key, document.getString(RANGE_END), "matchRange");
+            summary.setMatchCount(count(document, COUNT));
+            breaks.add(summary);
+            return breaks;
+        }
+        if (document.get(DIFFERENCES) != null) {
+            BitSet differing = differenceBitmap(document);
+            List<String> valuesA = document.getList(VALUES_A, String.class);
+            List<String> valuesB = document.getList(VALUES_B, String.class);
+            int position = 0;
+            for (int index = differing.nextSetBit(0); index >= 0; index = differing.nextSetBit(index + 1)) {
+                breaks.add(new ComparisonBreak(key, attributeNames.get(index),
+                        valuesA.get(position), valuesB.get(position), "difference"));
+                position++;
+            }
+        }
+        for (long i = count(document, MATCHES); i > 0; i--) {
+            breaks.add(new ComparisonBreak(key, null, null, null, "match"));
+        }
+        for (long i = count(document, ONLY_ON_A); i > 0; i--) {
+            breaks.add(new ComparisonBreak(key, "RecordMissing", "exists", "missing", "onlyOnA"));
+        }
+        for (long i = count(document, ONLY_ON_B); i > 0; i--) {
+            breaks.add(new ComparisonBreak(key, "RecordMissing", "missing", "exists", "onlyOnB"));
+        }
+        return breaks;
+    }
+
+    private static long count(Document document, String field) {
+        Object value = document.get(field);
+        return (value instanceof Number) ? ((Number) value).longValue() : 0;
+    }
+
+    private static void appendIfPositive(Document document, String field, int count) {
+        if (count > 0) {
+            document.append(field, count);
+        }
+    }
+}
@@ -0,0 +1,195 @@
+package com.example.comparison.service;
+
+import com.example.comparison.model.ComparisonRun;
+import org.bson.Document;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.index.Index;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+
+import java.util.Date;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Records every collection comparison as a {@link ComparisonRun} in {@link #RUNS_COLLECTION} of
+ * the template the breaks are written to.
+ * <p>
+ * Starting a run also creates the indexes its output needs: {@code (runId, comparisonKey)} on a
+ * {@link BreakFormat#ROWS} output and {@code (r, k)} on a {@link BreakFormat#COMPACT} one, so the
+ * breaks of one key in one run are read with an index lookup (see {@link BreakReader#findByKey}).
+ * Creating an index that already exists is a no-op.
+ */
+public class ComparisonRunRegistry {
+
+    private static final Logger logger = LoggerFactory.getLogger(ComparisonRunRegistry.class);
+
+    public static final String RUNS_COLLECTION = "comparisonRuns";
+
+    private final MongoTemplate mongoTemplate;
+
+    public ComparisonRunRegistry(MongoTemplate mongoTemplate) {
+        this.mongoTemplate = mongoTemplate;
+    }
+
+    public ComparisonRun findById(String runId) {
+        return mongoTemplate.findById(runId, ComparisonRun.class, RUNS_COLLECTION);
+    }
+
+    /**
+     * Most recently started run that wrote into {@code outputCollection}, or null.
+     */
+    public ComparisonRun findLatest(String outputCollection) {
+        Query query = Query.query(Criteria.where("outputCollection").is(outputCollection))
+                .with(Sort.by(Sort.Direction.DESC, "startedAt"))
+                .limit(1);
+        return mongoTemplate.findOne(query, ComparisonRun.class, RUNS_COLLECTION);
+    }
+
+    /**
+     * Runs that wrote into {@code outputCollection}, newest first.
+     */
+    public List<ComparisonRun> findRecent(String outputCollection, int limit) {
+        Query query = Query.query(Criteria.where("outputCollection").is(outputCollection))
+                .with(Sort.by(Sort.Direction.DESC, "startedAt"))
+                .limit(limit);
+        return mongoTemplate.find(query, ComparisonRun.class, RUNS_COLLECTION);
+    }
+
+    /**
+     * Deletes the runs that wrote into {@code outputCollection}, except the newest {@code keep},
+     * together with their breaks and, for a {@link BreakFormat#COMPACT} output, their attribute
+     * dictionaries. Runs still running are left alone.
+     *
+     * @return the number of runs deleted
+     */
+    public int deleteOlderRuns(String outputCollection, int keep) {
+        if (keep < 0) {
+            throw new IllegalArgumentException("Number of runs to keep must not be negative, got " + keep);
+        }
+        Query query = Query.query(Criteria.where("outputCollection").is(outputCollection))
+                .with(Sort.by(Sort.Direction.DESC, "startedAt"))
+                .skip(keep);
+        query.fields().include("status", "breakFormat");
+        int deleted = 0;
+        for (ComparisonRun run : mongoTemplate.find(query, ComparisonRun.class, RUNS_COLLECTION)) {
+            if (ComparisonRun.RUNNING.equals(run.getStatus())) {
+                continue;
+            }
+            if (BreakFormat.COMPACT.name().equals(run.getBreakFormat())) {
+                mongoTemplate.remove(Query.query(Criteria.where(CompactBreaks.RUN).is(run.getId())), outputCollection);
+                mongoTemplate.remove(Query.query(Criteria.where("_id").is(run.getId())), CompactBreaks.dictionaryCollection(outputCollection));
+            } else {
+                mongoTemplate.remove(Query.query(Criteria.where("runId").is(run.getId())), outputCollection);
+            }
+            mongoTemplate.remove(Query.query(Criteria.where("_id").is(run.getId())), RUNS_COLLECTION);
+            deleted++;
+        }
+        if (deleted > 0) {
+            logger.info("Deleted {} older comparison runs of '{}' and their breaks, keeping the newest {}.", deleted, outputCollection, keep);
+        }
+        return deleted;
+    }
+
+    ComparisonRun start(String comparisonType, String collectionA, String collectionB, String keyAttribute,
+                        List<String> attributesToCompare, String outputCollection, BreakFormat breakFormat) {
+        ComparisonRun run = new ComparisonRun();
+        run.setId(UUID.randomUUID().toString());
+        run.setComparisonType(comparisonType);
+        run.setCollectionA(collectionA);
+        run.setCollectionB(collectionB);
+        run.setKeyAttribute(keyAttribute);
+        run.setAttributes(attributesToCompare);
+        run.setOutputCollection(outputCollection);
+        run.setBreakFormat(breakFormat.name());
+        run.setStatus(ComparisonRun.RUNNING);
+        run.setStartedAt(new Date());
+
+        mongoTemplate.indexOps(RUNS_COLLECTION).ensureIndex(new Index()
+                .on("outputCollection", Sort.Direction.ASC).on("startedAt", Sort.Direction.DESC));
+        if (breakFormat == BreakFormat.COMPACT) {
+            mongoTemplate.indexOps(outputCollection).ensureIndex(new Index()
+                    .on(CompactBreaks.RUN, Sort.Direction.ASC).on(CompactBreaks.KEY, Sort.Direction.ASC));
+        } else {
+            mongoTemplate.indexOps(outputCollection).ensureIndex(new Index()
+                    .on("runId", Sort.Direction.ASC).on("comparisonKey", Sort.Direction.ASC));
+        }
+        mongoTemplate.save(run, RUNS_COLLECTION);
+        logger.info("Started comparison run {} of '{}' and '{}' into '{}'.", run.getId(), collectionA, collectionB, outputCollection);
+        return run;
+    }
+
+    void complete(ComparisonRun run, GenericComparisonService.MergeCounters counters) {
+        finish(run, counters, ComparisonRun.COMPLETED, null);
+        mongoTemplate.save(run, RUNS_COLLECTION);
+    }
+
+    /**
+     * Applies an incremental pass to a completed run: the breaks of the re-compared keys counted in
+     * {@code removed} were replaced by those counted in {@code added}, and the checkpoints moved on.
+     */
+    void applyIncremental(ComparisonRun run, GenericComparisonService.MergeCounters removed,
+                          GenericComparisonService.MergeCounters added, Document resumeTokenA, Document resumeTokenB, long keys) {
+        run.setItemsProcessedA(run.getItemsProcessedA() - removed.itemsProcessedA + added.itemsProcessedA);
+        run.setItemsProcessedB(run.getItemsProcessedB() - removed.itemsProcessedB + added.itemsProcessedB);
+        run.setKeysOnlyInA(run.getKeysOnlyInA() - removed.keysOnlyInA + added.keysOnlyInA);
+        run.setKeysOnlyInB(run.getKeysOnlyInB() - removed.keysOnlyInB + added.keysOnlyInB);
+        run.setFullyMatchedKeys(run.getFullyMatchedKeys() - removed.fullyMatchedKeys + added.fullyMatchedKeys);
+        run.setKeysWithAttributeMismatch(run.getKeysWithAttributeMismatch() - removed.keysWithAttributeMismatch + added.keysWithAttributeMismatch);
+        run.setTotalAttributeDifferences(run.getTotalAttributeDifferences() - removed.totalAttributeDifferences + added.totalAttributeDifferences);
+        run.setBreaksWritten(run.getBreaksWritten() - removed.breaksEmitted + added.breaksEmitted);
+        run.setResumeTokenA(resumeTokenA);
+        run.setResumeTokenB(resumeTokenB);
+        run.setIncrementalPasses(run.getIncrementalPasses() + 1);
+        run.setLastIncrementalAt(new Date());
+        run.setLastIncrementalKeys(keys);
+        mongoTemplate.save(run, RUNS_COLLECTION);
+    }
+
+    // An incremental pass that failed half way leaves the breaks of some keys replaced and others
+    // not, so the run is no longer a baseline for further passes.
+    void failIncremental(ComparisonRun run, Exception failure) {
+        run.setStatus(ComparisonRun.FAILED);
+        run.setError("Incremental pass failed: " + failure.getMessage());
+        try {
+            mongoTemplate.save(run, RUNS_COLLECTION);
+        } catch (RuntimeException e) {
+            logger.warn("Could not record the failure of comparison run {}: {}", run.getId(), e.getMessage());
+        }
+    }
+
+    // Never hides the failure being reported: a registry that cannot be updated is only logged.
+    void fail(ComparisonRun run, GenericComparisonService.MergeCounters counters, Exception failure) {
+        finish(run, counters, ComparisonRun.FAILED, String.valueOf(failure.getMessage()));
+        try {
+            mongoTemplate.save(run, RUNS_COLLECTION);
+        } catch (RuntimeException e) {
+            logger.warn("Could not record the failure of comparison run {}: {}", run.getId(), e.getMessage());
+        }
+    }
+
+    private static void finish(ComparisonRun run, GenericComparisonService.MergeCounters counters, String status, String error) {
+        Date finishedAt = new Date();
+        run.setStatus(status);
+        run.setError(error);
+        run.setFinishedAt(finishedAt);
+        run.setDurationMs(finishedAt.getTime() - run.getStartedAt().getTime());
+        run.setItemsProcessedA(counters.itemsProcessedA);
+        run.setItemsProcessedB(counters.itemsProcessedB);
+        run.setKeysOnlyInA(counters.keysOnlyInA);
+        run.setKeysOnlyInB(counters.keysOnlyInB);
+        run.setFullyMatchedKeys(counters.fullyMatchedKeys);
+        run.setKeysWithAttributeMismatch(counters.keysWithAttributeMismatch);
+        run.setTotalAttributeDifferences(counters.totalAttributeDifferences);
+        run.setBreaksWritten(counters.breaksEmitted);
+        run.setBytesReadA(counters.bytesReadA);
+        run.setBytesReadB(counters.bytesReadB);
+        run.setWaitMsA(TimeUnit.NANOSECONDS.toMillis(counters.waitNanosA));
+        run.setWaitMsB(TimeUnit.NANOSECONDS.toMillis(counters.waitNanosB));
+        run.setUnresolvedKeys(counters.unresolvedKeys);
+    }
+}
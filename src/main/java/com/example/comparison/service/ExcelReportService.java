@@ -3,21 +3,62 @@ package com.example.comparison.service;
 import com.example.comparison.model.ComparisonBreak;
 import org.apache.poi.ss.usermodel.*;
 import org.apache.poi.ss.util.CellRangeAddress;
+import org.apache.poi.xssf.streaming.SXSSFWorkbook;
 import org.apache.poi.xssf.usermodel.*;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.data.mongodb.core.MongoTemplate;
 import org.springframework.stereotype.Service;
 
-import java.lang.reflect.Field;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
 import java.util.*;
-import java.util.stream.Collectors;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
 
 @Service
 public class ExcelReportService {
 
+    private static final Logger logger = LoggerFactory.getLogger(ExcelReportService.class);
+
+    // Break types of a key, as bits of KeyBreaks.types.
+    private static final int ONLY_ON_A = 1;
+    private static final int ONLY_ON_B = 1 << 1;
+    private static final int DIFFERENCE = 1 << 2;
+
     @Autowired
     private MongoTemplate mongoTemplate;
 
+    // Rows of each sheet kept in memory by writeExcelReport; older rows are flushed to temp files.
+    @Value("${comparison.report.row-window:100}")
+    private int rowWindow = 100;
+
+    public void setRowWindow(int rowWindow) {
+        this.rowWindow = rowWindow;
+    }
+
+    // Keys whose documents are loaded per _id $in query (see ReportDocumentFetcher).
+    @Value("${comparison.report.fetch-batch:1000}")
+    private int fetchBatch = 1000;
+
+    public void setFetchBatch(int fetchBatch) {
+        this.fetchBatch = fetchBatch;
+    }
+
+    // Keys shown per detail and difference sheet; 0 shows all. The summary always counts every break.
+    @Value("${comparison.report.preview-rows:100000}")
+    private long previewRows = 100000;
+
+    public void setPreviewRows(long previewRows) {
+        this.previewRows = previewRows;
+    }
+
     /**
      * Generates an Excel workbook containing:
      * - A "Summary" sheet with counts per break type.
@@ -38,30 +79,363 @@ public class ExcelReportService {
                                             String collectionA,
                                             String collectionB,
                                             String breakCollection) {
-        // Retrieve all break records.
-        List<ComparisonBreak> allBreaks = mongoTemplate.findAll(ComparisonBreak.class, breakCollection);
+        return generateExcelReport(clazz, keyAttribute, collectionA, collectionB, breakCollection, null);
+    }
+
+    /**
+     * Same report restricted to the breaks of one comparison run.
+     *
+     * @param runId id of the ComparisonRun to report, or null for every run in breakCollection
+     */
+    public XSSFWorkbook generateExcelReport(Class<?> clazz,
+                                            String keyAttribute,
+                                            String collectionA,
+                                            String collectionB,
+                                            String breakCollection,
+                                            String runId) {
+        long startedAt = System.nanoTime();
+        // Retrieve the break records, in whichever format they were stored.
+        List<ComparisonBreak> allBreaks = new BreakReader(mongoTemplate).findAll(breakCollection, runId);
+
+        ReportColumns columns = ReportColumns.of(clazz);
 
-        // Group breaks by type for summary.
-        Map<String, Long> breaksByType = allBreaks.stream()
-                .collect(Collectors.groupingBy(ComparisonBreak::getBreakType, Collectors.counting()));
+        // One pass over the breaks: counts per type for the summary, and per key its break types
+        // and differing fields ("matchCount" rows summarize matched keys and have no key).
+        Map<String, Long> breaksByType = new HashMap<>();
+        Map<String, KeyBreaks> breaksByKey = new LinkedHashMap<>();
+        for (ComparisonBreak br : allBreaks) {
+            breaksByType.merge(br.getBreakType(), 1L, Long::sum);
+            if (br.getComparisonKey() != null) {
+                breaksByKey.computeIfAbsent(br.getComparisonKey(), KeyBreaks::new).add(br, columns);
+            }
+        }
         long totalBreaks = allBreaks.size();
+        long readNanos = System.nanoTime() - startedAt;
 
-        // Group breaks by key.
-        Map<String, List<ComparisonBreak>> breaksByKey = allBreaks.stream()
-                .collect(Collectors.groupingBy(ComparisonBreak::getComparisonKey));
+        // Load the documents shown in the detail and difference sheets, many keys per query.
+        // Each sheet shows the first preview-rows keys that have its break type.
+        Set<String> keysA = new LinkedHashSet<>();
+        Set<String> keysB = new LinkedHashSet<>();
+        long keysOnlyOnA = 0;
+        long keysOnlyOnB = 0;
+        long keysWithDifferences = 0;
+        for (KeyBreaks keyBreaks : breaksByKey.values()) {
+            boolean shownOnlyOnA = keyBreaks.has(ONLY_ON_A) && inPreview(keysOnlyOnA++);
+            boolean shownOnlyOnB = keyBreaks.has(ONLY_ON_B) && inPreview(keysOnlyOnB++);
+            boolean shownDifference = keyBreaks.has(DIFFERENCE) && inPreview(keysWithDifferences++);
+            if (shownOnlyOnA || shownDifference) {
+                keysA.add(keyBreaks.key);
+            }
+            if (shownOnlyOnB || shownDifference) {
+                keysB.add(keyBreaks.key);
+            }
+        }
+        boolean capped = !inPreview(Math.max(keysOnlyOnA, Math.max(keysOnlyOnB, keysWithDifferences)) - 1);
+        ReportDocumentFetcher fetcher = new ReportDocumentFetcher(mongoTemplate, clazz, collectionA, collectionB, fetchBatch);
+        Map<String, Object> documentsA = fetcher.fetch(collectionA, keysA);
+        Map<String, Object> documentsB = fetcher.fetch(collectionB, keysB);
 
+        long renderStartedAt = System.nanoTime();
         XSSFWorkbook workbook = new XSSFWorkbook();
+        ReportColumns.Styles styles = new ReportColumns.Styles(workbook);
 
         // Create sheets.
-        createSummarySheet(workbook, breaksByType, totalBreaks);
-        createSimpleDetailSheet(workbook, "onlyOnA", breaksByKey, clazz, keyAttribute, collectionA, null);
-        createSimpleDetailSheet(workbook, "onlyOnB", breaksByKey, clazz, keyAttribute, null, collectionB);
-        createDifferenceSheet(workbook, breaksByKey, clazz, keyAttribute, collectionA, collectionB);
+        createSummarySheet(workbook, breaksByType, totalBreaks, capped);
+        createSimpleDetailSheet(workbook, "onlyOnA", ONLY_ON_A, breaksByKey.values(), columns, styles, documentsA, " (A)");
+        createSimpleDetailSheet(workbook, "onlyOnB", ONLY_ON_B, breaksByKey.values(), columns, styles, documentsB, " (B)");
+        createDifferenceSheet(workbook, breaksByKey.values(), columns, styles, documentsA, documentsB);
 
+        logger.info("Excel report of {} breaks from '{}': read breaks in {} ms, fetched {} documents in {} queries in {} ms, "
+                        + "rendered in {} ms.",
+                totalBreaks, breakCollection, TimeUnit.NANOSECONDS.toMillis(readNanos), fetcher.getDocuments(),
+                fetcher.getQueries(), TimeUnit.NANOSECONDS.toMillis(fetcher.getFetchNanos()),
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - renderStartedAt));
         return workbook;
     }
 
-    private void createSummarySheet(XSSFWorkbook workbook, Map<String, Long> breaksByType, long totalBreaks) {
+    /**
+     * Writes the report of {@link #generateExcelReport} into {@code out} with heap usage that does
+     * not grow with the number of breaks, for runs too large to hold as an {@link XSSFWorkbook}.
+     * <p>
+     * Breaks are read in key order through a cursor (see {@link BreakReader#streamByKey}), so the
+     * breaks of one key are processed together and then dropped. The documents of the next
+     * {@code comparison.report.fetch-batch} keys are loaded with {@code $in} queries on a
+     * background thread while the current keys are written (see {@link ReportDocumentFetcher}).
+     * Rows go through an
+     * {@link SXSSFWorkbook} that keeps the last {@code comparison.report.row-window} rows of each
+     * sheet in memory and flushes older ones to compressed temp files, which are deleted
+     * afterwards. Rows come out in key order. In the "difference" sheet an attribute that is the
+     * same for a key shows its value in both columns rather than in a merged cell, because POI
+     * keeps every merged region in memory. The summary counts are written last.
+     *
+     * @param runId id of the ComparisonRun to report, or null for every run in breakCollection
+     * @param out   receives the .xlsx bytes, e.g. an HTTP response or a file; it is not closed
+     */
+    public void writeExcelReport(Class<?> clazz,
+                                 String keyAttribute,
+                                 String collectionA,
+                                 String collectionB,
+                                 String breakCollection,
+                                 String runId,
+                                 OutputStream out) throws IOException {
+        BreakReader breakReader = new BreakReader(mongoTemplate);
+        Set<String> differenceFields = breakReader.differenceFields(breakCollection, runId);
+        ReportColumns columns = ReportColumns.of(clazz);
+
+        SXSSFWorkbook workbook = new SXSSFWorkbook(rowWindow);
+        workbook.setCompressTempFiles(true);
+        long startedAt = System.nanoTime();
+        long renderNanos = 0;
+        long waitNanos;
+        try (Stream<ComparisonBreak> breaks = breakReader.streamByKey(breakCollection, runId)) {
+            StreamingReport report = new StreamingReport(workbook, columns, differenceFields);
+            ReportDocumentFetcher fetcher = new ReportDocumentFetcher(mongoTemplate, clazz, collectionA, collectionB, fetchBatch,
+                    previewRows, breaks.iterator());
+            // One batch is loaded ahead while the previous one is rendered.
+            try (PrefetchingIterator<ReportDocumentFetcher.KeyBatch> batches = new PrefetchingIterator<>(fetcher, 1, 1, "report-fetch")) {
+                while (batches.hasNext()) {
+                    ReportDocumentFetcher.KeyBatch batch = batches.next();
+                    long renderStartedAt = System.nanoTime();
+                    KeyBreaks keyBreaks = null;
+                    for (ComparisonBreak comparisonBreak : batch.breaks) {
+                        report.count(comparisonBreak);
+                        String key = comparisonBreak.getComparisonKey();
+                        if (key == null) {
+                            continue;
+                        }
+                        if (keyBreaks != null && !keyBreaks.key.equals(key)) {
+                            writeKey(report, keyBreaks, batch);
+                            keyBreaks = null;
+                        }
+                        if (keyBreaks == null) {
+                            keyBreaks = new KeyBreaks(key);
+                        }
+                        keyBreaks.add(comparisonBreak, columns);
+                    }
+                    if (keyBreaks != null) {
+                        writeKey(report, keyBreaks, batch);
+                    }
+                    renderNanos += System.nanoTime() - renderStartedAt;
+                }
+                waitNanos = batches.getWaitNanos();
+            }
+            long writeStartedAt = System.nanoTime();
+            report.writeSummary();
+            workbook.write(out);
+            long writeNanos = System.nanoTime() - writeStartedAt;
+            logger.info("Streamed Excel report of {} breaks from '{}' (run {}): fetched {} documents in {} queries in {} ms, "
+                            + "rendered in {} ms, waited {} ms for fetches, wrote the workbook in {} ms, {} ms in total.",
+                    report.totalBreaks, breakCollection, runId, fetcher.getDocuments(), fetcher.getQueries(),
+                    TimeUnit.NANOSECONDS.toMillis(fetcher.getFetchNanos()), TimeUnit.NANOSECONDS.toMillis(renderNanos),
+                    TimeUnit.NANOSECONDS.toMillis(waitNanos), TimeUnit.NANOSECONDS.toMillis(writeNanos),
+                    TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startedAt));
+        } finally {
+            workbook.dispose();
+            workbook.close();
+        }
+    }
+
+    /**
+     * {@link #writeExcelReport(Class, String, String, String, String, String, OutputStream)} into {@code file}.
+     * The report is written to a {@code .part} file next to it, which replaces {@code file} only once
+     * it is complete; a failed report leaves {@code file} as it was.
+     */
+    public void writeExcelReport(Class<?> clazz,
+                                 String keyAttribute,
+                                 String collectionA,
+                                 String collectionB,
+                                 String breakCollection,
+                                 String runId,
+                                 Path file) throws IOException {
+        Path partFile = file.resolveSibling(file.getFileName() + ".part");
+        boolean complete = false;
+        try {
+            try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(partFile))) {
+                writeExcelReport(clazz, keyAttribute, collectionA, collectionB, breakCollection, runId, out);
+            }
+            Files.move(partFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            complete = true;
+        } finally {
+            if (!complete) {
+                Files.deleteIfExists(partFile);
+            }
+        }
+    }
+
+    private void writeKey(StreamingReport report, KeyBreaks keyBreaks, ReportDocumentFetcher.KeyBatch batch) {
+        Object objA = batch.documentsA.get(keyBreaks.key);
+        Object objB = batch.documentsB.get(keyBreaks.key);
+        // The fetcher skipped the documents of keys past the preview in the same order.
+        if (keyBreaks.has(ONLY_ON_A) && report.hasRoom(report.onlyOnA)) {
+            report.writeDetailRow(report.onlyOnA, keyBreaks.key, objA);
+        }
+        if (keyBreaks.has(ONLY_ON_B) && report.hasRoom(report.onlyOnB)) {
+            report.writeDetailRow(report.onlyOnB, keyBreaks.key, objB);
+        }
+        if (keyBreaks.has(DIFFERENCE) && report.hasRoom(report.difference)) {
+            report.writeDifferenceRow(keyBreaks.key, objA, objB, keyBreaks.differingFields);
+        }
+    }
+
+    // Whether a sheet that already shows rowsShown keys shows one more.
+    private boolean inPreview(long rowsShown) {
+        return previewRows <= 0 || rowsShown < previewRows;
+    }
+
+    /**
+     * The breaks of one key as the sheets need them: a mask of its break types and the indexes
+     * (in the entity's declared fields) of its differing fields, so that rendering a row looks
+     * each field up once instead of scanning the key's breaks.
+     */
+    private static final class KeyBreaks {
+        final String key;
+        final BitSet differingFields = new BitSet();
+        int types;
+
+        KeyBreaks(String key) {
+            this.key = key;
+        }
+
+        void add(ComparisonBreak comparisonBreak, ReportColumns columns) {
+            String breakType = comparisonBreak.getBreakType();
+            if ("onlyOnA".equals(breakType)) {
+                types |= ONLY_ON_A;
+            } else if ("onlyOnB".equals(breakType)) {
+                types |= ONLY_ON_B;
+            } else if ("difference".equals(breakType)) {
+                types |= DIFFERENCE;
+                // Differences in fields the entity does not declare have no column.
+                int index = columns.indexOf(comparisonBreak.getDifferenceField());
+                if (index >= 0) {
+                    differingFields.set(index);
+                }
+            }
+        }
+
+        boolean has(int typeMask) {
+            return (types & typeMask) != 0;
+        }
+    }
+
+    /**
+     * Sheets and running totals of one {@link #writeExcelReport} call. Sheets are created in the
+     * order of {@link #generateExcelReport}; every sheet is written top to bottom.
+     */
+    private final class StreamingReport {
+        private final ReportColumns columns;
+        private final ReportColumns.Styles styles;
+        private final BitSet differenceColumns = new BitSet();
+        private final Sheet summary;
+        private final Sheet onlyOnA;
+        private final Sheet onlyOnB;
+        private final Sheet difference;
+        private final Map<String, Long> breaksByType = new HashMap<>();
+        private long totalBreaks;
+        private boolean capped;
+
+        StreamingReport(SXSSFWorkbook workbook, ReportColumns columns, Set<String> differenceFields) {
+            this.columns = columns;
+            this.styles = new ReportColumns.Styles(workbook);
+            for (String field : differenceFields) {
+                int index = columns.indexOf(field);
+                if (index >= 0) {
+                    differenceColumns.set(index);
+                }
+            }
+            summary = workbook.createSheet("Summary");
+            onlyOnA = workbook.createSheet("onlyOnA");
+            onlyOnB = workbook.createSheet("onlyOnB");
+            difference = workbook.createSheet("difference");
+            writeHeader(onlyOnA, " (A)");
+            writeHeader(onlyOnB, " (B)");
+
+            Row header = difference.createRow(0);
+            int colIndex = 0;
+            header.createCell(colIndex++).setCellValue("Key");
+            List<String> fieldNames = columns.names();
+            for (int i = 0; i < fieldNames.size(); i++) {
+                String field = fieldNames.get(i);
+                if (differenceColumns.get(i)) {
+                    header.createCell(colIndex++).setCellValue(field + " (A)");
+                    header.createCell(colIndex++).setCellValue(field + " (B)");
+                } else {
+                    header.createCell(colIndex++).setCellValue(field);
+                }
+            }
+        }
+
+        private void writeHeader(Sheet sheet, String suffix) {
+            Row header = sheet.createRow(0);
+            int colIndex = 0;
+            header.createCell(colIndex++).setCellValue("Key");
+            for (String field : columns.names()) {
+                header.createCell(colIndex++).setCellValue(field + suffix);
+            }
+        }
+
+        // Whether the sheet, below its header, has room for another row within the preview.
+        boolean hasRoom(Sheet sheet) {
+            boolean room = inPreview(sheet.getLastRowNum());
+            capped |= !room;
+            return room;
+        }
+
+        void count(ComparisonBreak comparisonBreak) {
+            breaksByType.merge(comparisonBreak.getBreakType(), 1L, Long::sum);
+            totalBreaks++;
+        }
+
+        void writeDetailRow(Sheet sheet, String key, Object obj) {
+            Row row = sheet.createRow(sheet.getLastRowNum() + 1);
+            int colIndex = 0;
+            row.createCell(colIndex++).setCellValue(key);
+            for (int i = 0; i < columns.names().size(); i++) {
+                columns.write(row.createCell(colIndex++), i, obj, styles, ReportColumns.NO_FILL);
+            }
+        }
+
+        void writeDifferenceRow(String key, Object objA, Object objB, BitSet differingFields) {
+            Row row = difference.createRow(difference.getLastRowNum() + 1);
+            int colIndex = 0;
+            row.createCell(colIndex++).setCellValue(key);
+            for (int i = 0; i < columns.names().size(); i++) {
+                if (!differenceColumns.get(i)) {
+                    columns.write(row.createCell(colIndex++), i, objA, styles, ReportColumns.NO_FILL);
+                } else if (differingFields.get(i)) {
+                    columns.write(row.createCell(colIndex++), i, objA, styles, ReportColumns.FILL_A);
+                    columns.write(row.createCell(colIndex++), i, objB, styles, ReportColumns.FILL_B);
+                } else {
+                    columns.write(row.createCell(colIndex++), i, objA, styles, ReportColumns.NO_FILL);
+                    columns.write(row.createCell(colIndex++), i, objA, styles, ReportColumns.NO_FILL);
+                }
+            }
+        }
+
+        void writeSummary() {
+            int rowIndex = 0;
+            Row header = summary.createRow(rowIndex++);
+            header.createCell(0).setCellValue("Break Type");
+            header.createCell(1).setCellValue("Count");
+            for (String type : new String[]{"onlyOnA", "onlyOnB", "difference"}) {
+                Row row = summary.createRow(rowIndex++);
+                row.createCell(0).setCellValue(type);
+                row.createCell(1).setCellValue(breaksByType.getOrDefault(type, 0L));
+            }
+            Row totalRow = summary.createRow(rowIndex++);
+            totalRow.createCell(0).setCellValue("Total");
+            totalRow.createCell(1).setCellValue(totalBreaks);
+            if (capped) {
+                writePreviewRow(summary.createRow(rowIndex));
+            }
+        }
+    }
+
+    private void writePreviewRow(Row row) {
+        row.createCell(0).setCellValue("Keys shown per sheet (preview)");
+        row.createCell(1).setCellValue(previewRows);
+    }
+
+    private void createSummarySheet(XSSFWorkbook workbook, Map<String, Long> breaksByType, long totalBreaks, boolean capped) {
         XSSFSheet sheet = workbook.createSheet("Summary");
         int rowIndex = 0;
         Row header = sheet.createRow(rowIndex++);
@@ -74,57 +448,40 @@ public class ExcelReportService {
             row.createCell(0).setCellValue(type);
             row.createCell(1).setCellValue(breaksByType.getOrDefault(type, 0L));
         }
-        Row totalRow = sheet.createRow(rowIndex);
+        Row totalRow = sheet.createRow(rowIndex++);
         totalRow.createCell(0).setCellValue("Total");
         totalRow.createCell(1).setCellValue(totalBreaks);
+        if (capped) {
+            writePreviewRow(sheet.createRow(rowIndex));
+        }
     }
 
     private void createSimpleDetailSheet(XSSFWorkbook workbook,
                                          String breakType,
-                                         Map<String, List<ComparisonBreak>> breaksByKey,
-                                         Class<?> clazz,
-                                         String keyAttribute,
-                                         String collectionA,
-                                         String collectionB) {
+                                         int typeMask,
+                                         Collection<KeyBreaks> breaksByKey,
+                                         ReportColumns columns,
+                                         ReportColumns.Styles styles,
+                                         Map<String, Object> documents,
+                                         String suffix) {
         XSSFSheet sheet = workbook.createSheet(breakType);
         int rowIndex = 0;
         Row header = sheet.createRow(rowIndex++);
         int colIndex = 0;
         header.createCell(colIndex++).setCellValue("Key");
-
-        Field[] fields = clazz.getDeclaredFields();
-        List<String> fieldNames = new ArrayList<>();
-        for (Field f : fields) {
-            fieldNames.add(f.getName());
-        }
-        if ("onlyOnA".equals(breakType)) {
-            for (String field : fieldNames) {
-                header.createCell(colIndex++).setCellValue(field + " (A)");
-            }
-        } else if ("onlyOnB".equals(breakType)) {
-            for (String field : fieldNames) {
-                header.createCell(colIndex++).setCellValue(field + " (B)");
-            }
+        for (String field : columns.names()) {
+            header.createCell(colIndex++).setCellValue(field + suffix);
         }
 
-        for (Map.Entry<String, List<ComparisonBreak>> entry : breaksByKey.entrySet()) {
-            String key = entry.getKey();
-            List<ComparisonBreak> list = entry.getValue();
-            boolean hasType = list.stream().anyMatch(b -> b.getBreakType().equals(breakType));
-            if (!hasType) continue;
-            Object objA = (collectionA != null) ? mongoTemplate.findById(key, clazz, collectionA) : null;
-            Object objB = (collectionB != null) ? mongoTemplate.findById(key, clazz, collectionB) : null;
+        for (KeyBreaks keyBreaks : breaksByKey) {
+            if (!keyBreaks.has(typeMask)) continue;
+            if (!inPreview(rowIndex - 1)) break;
+            Object obj = documents.get(keyBreaks.key);
             Row row = sheet.createRow(rowIndex++);
             colIndex = 0;
-            row.createCell(colIndex++).setCellValue(key);
-            for (String field : fieldNames) {
-                if ("onlyOnA".equals(breakType)) {
-                    String value = (objA != null) ? getFieldValue(objA, field) : "";
-                    row.createCell(colIndex++).setCellValue(value);
-                } else if ("onlyOnB".equals(breakType)) {
-                    String value = (objB != null) ? getFieldValue(objB, field) : "";
-                    row.createCell(colIndex++).setCellValue(value);
-                }
+            row.createCell(colIndex++).setCellValue(keyBreaks.key);
+            for (int i = 0; i < columns.names().size(); i++) {
+                columns.write(row.createCell(colIndex++), i, obj, styles, ReportColumns.NO_FILL);
             }
         }
     }
@@ -137,38 +494,27 @@ public class ExcelReportService {
      * - If not, the two cells are merged and the common value is displayed.
      */
     private void createDifferenceSheet(XSSFWorkbook workbook,
-                                       Map<String, List<ComparisonBreak>> breaksByKey,
-                                       Class<?> clazz,
-                                       String keyAttribute,
-                                       String collectionA,
-                                       String collectionB) {
+                                       Collection<KeyBreaks> breaksByKey,
+                                       ReportColumns columns,
+                                       ReportColumns.Styles styles,
+                                       Map<String, Object> documentsA,
+                                       Map<String, Object> documentsB) {
         XSSFSheet sheet = workbook.createSheet("difference");
         int rowIndex = 0;
         Row header = sheet.createRow(rowIndex++);
         int colIndex = 0;
         header.createCell(colIndex++).setCellValue("Key");
 
-        // Get declared fields.
-        Field[] fields = clazz.getDeclaredFields();
-        List<String> fieldNames = new ArrayList<>();
-        for (Field f : fields) {
-            fieldNames.add(f.getName());
-        }
-        // Determine for each field whether any record has a difference.
-        Map<String, Boolean> fieldDiffMap = new HashMap<>();
-        for (String field : fieldNames) {
-            fieldDiffMap.put(field, false);
-        }
-        for (List<ComparisonBreak> list : breaksByKey.values()) {
-            for (ComparisonBreak br : list) {
-                if ("difference".equals(br.getBreakType())) {
-                    fieldDiffMap.put(br.getDifferenceField(), true);
-                }
-            }
+        // Fields that differ for any record, by column index.
+        BitSet differenceColumns = new BitSet();
+        for (KeyBreaks keyBreaks : breaksByKey) {
+            differenceColumns.or(keyBreaks.differingFields);
         }
         // Build header row.
-        for (String field : fieldNames) {
-            if (fieldDiffMap.get(field)) {
+        List<String> fieldNames = columns.names();
+        for (int i = 0; i < fieldNames.size(); i++) {
+            String field = fieldNames.get(i);
+            if (differenceColumns.get(i)) {
                 // Field may be different in some records: reserve two columns.
                 header.createCell(colIndex++).setCellValue(field + " (A)");
                 header.createCell(colIndex++).setCellValue(field + " (B)");
@@ -177,69 +523,32 @@ public class ExcelReportService {
             }
         }
 
-        // Create cell styles for differences.
-        CellStyle styleA = workbook.createCellStyle();
-        styleA.setFillForegroundColor(IndexedColors.LIGHT_YELLOW.getIndex());
-        styleA.setFillPattern(FillPatternType.SOLID_FOREGROUND);
-
-        CellStyle styleB = workbook.createCellStyle();
-        styleB.setFillForegroundColor(IndexedColors.LIGHT_GREEN.getIndex());
-        styleB.setFillPattern(FillPatternType.SOLID_FOREGROUND);
-
         // Process each record (key) that has a "difference" break.
-        for (Map.Entry<String, List<ComparisonBreak>> entry : breaksByKey.entrySet()) {
-            String key = entry.getKey();
-            List<ComparisonBreak> breaksForKey = entry.getValue();
-            boolean hasDiffForRecord = breaksForKey.stream().anyMatch(b -> "difference".equals(b.getBreakType()));
-            if (!hasDiffForRecord) continue;
-            Object objA = (collectionA != null) ? mongoTemplate.findById(key, clazz, collectionA) : null;
-            Object objB = (collectionB != null) ? mongoTemplate.findById(key, clazz, collectionB) : null;
+        for (KeyBreaks keyBreaks : breaksByKey) {
+            if (!keyBreaks.has(DIFFERENCE)) continue;
+            if (!inPreview(rowIndex - 1)) break;
+            Object objA = documentsA.get(keyBreaks.key);
+            Object objB = documentsB.get(keyBreaks.key);
             Row row = sheet.createRow(rowIndex++);
             colIndex = 0;
-            row.createCell(colIndex++).setCellValue(key);
-            // For each field, check if the field is marked as diff-type.
-            for (String field : fieldNames) {
-                boolean isFieldDiffType = fieldDiffMap.get(field);
-                // For this record, does a difference exist for the field?
-                boolean isDiffForKey = breaksForKey.stream()
-                        .anyMatch(b -> "difference".equals(b.getBreakType()) && b.getDifferenceField().equals(field));
-                if (isFieldDiffType) {
-                    if (isDiffForKey) {
+            row.createCell(colIndex++).setCellValue(keyBreaks.key);
+            for (int i = 0; i < fieldNames.size(); i++) {
+                if (differenceColumns.get(i)) {
+                    if (keyBreaks.differingFields.get(i)) {
                         // Field is different: show two cells with different styles.
-                        Cell cellA = row.createCell(colIndex++);
-                        String valueA = (objA != null) ? getFieldValue(objA, field) : "";
-                        cellA.setCellValue(valueA);
-                        cellA.setCellStyle(styleA);
-                        Cell cellB = row.createCell(colIndex++);
-                        String valueB = (objB != null) ? getFieldValue(objB, field) : "";
-                        cellB.setCellValue(valueB);
-                        cellB.setCellStyle(styleB);
+                        columns.write(row.createCell(colIndex++), i, objA, styles, ReportColumns.FILL_A);
+                        columns.write(row.createCell(colIndex++), i, objB, styles, ReportColumns.FILL_B);
                     } else {
                         // No difference for this record: merge two cells.
-                        Cell cell = row.createCell(colIndex);
-                        String value = (objA != null) ? getFieldValue(objA, field) : "";
-                        cell.setCellValue(value);
+                        columns.write(row.createCell(colIndex), i, objA, styles, ReportColumns.NO_FILL);
                         sheet.addMergedRegion(new CellRangeAddress(row.getRowNum(), row.getRowNum(), colIndex, colIndex + 1));
                         colIndex += 2;
                     }
                 } else {
                     // Field is never different: only one cell.
-                    Cell cell = row.createCell(colIndex++);
-                    String value = (objA != null) ? getFieldValue(objA, field) : "";
-                    cell.setCellValue(value);
+                    columns.write(row.createCell(colIndex++), i, objA, styles, ReportColumns.NO_FILL);
                 }
             }
         }
     }
-
-    private String getFieldValue(Object obj, String fieldName) {
-        try {
-            Field field = obj.getClass().getDeclaredField(fieldName);
-            field.setAccessible(true);
-            Object value = field.get(obj);
-            return (value != null) ? value.toString() : "";
-        } catch (Exception e) {
-            return "";
-        }
-    }
 }
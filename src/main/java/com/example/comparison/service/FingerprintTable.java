@@ -0,0 +1,111 @@
+package com.example.comparison.service;
+
+import java.util.function.Consumer;
+
+/**
+ * Build side of the collection hash-join: an open-addressing (linear probing) table from key to
+ * the {@link RowFingerprint} of its side-A document, held in parallel arrays rather than as one
+ * boxed map entry per key. The table doubles whenever it is half full.
+ * <p>
+ * Each key can be taken once: {@link #take} marks its slot instead of removing it, so a second
+ * occurrence on side B finds nothing, and {@link #forEachUntaken} lists the keys side B never had.
+ * Keys are compared with {@code equals}, so they must first be normalized the way
+ * {@link KeyComparator} compares them.
+ */
+final class FingerprintTable {
+
+    private static final byte EMPTY = 0;
+    private static final byte ADDED = 1;
+    private static final byte TAKEN = 2;
+
+    private Object[] keys;
+    private long[] fingerprints;
+    private byte[] states;
+    private int mask;
+    private int size;
+
+    FingerprintTable(int expectedKeys) {
+        allocate(OpenAddressing.capacityFor(expectedKeys));
+    }
+
+    /**
+     * Adds {@code key} with the fingerprint of its document, unless the key was added before.
+     *
+     * @return false if the key was already in the table
+     */
+    boolean add(Object key, long fingerprint) {
+        if ((size + 1) * 2 > keys.length) {
+            grow();
+        }
+        int slot = slotOf(key);
+        if (states[slot] != EMPTY) {
+            return false;
+        }
+        keys[slot] = key;
+        fingerprints[slot] = fingerprint;
+        states[slot] = ADDED;
+        size++;
+        return true;
+    }
+
+    /**
+     * Takes {@code key} out of the table.
+     *
+     * @return the slot holding its fingerprint (see {@link #fingerprint}), or -1 if the key was
+     * never added or already taken
+     */
+    int take(Object key) {
+        int slot = slotOf(key);
+        if (states[slot] != ADDED) {
+            return -1;
+        }
+        states[slot] = TAKEN;
+        return slot;
+    }
+
+    long fingerprint(int slot) {
+        return fingerprints[slot];
+    }
+
+    /**
+     * Applies {@code action} to every key added and never taken, in table order.
+     */
+    void forEachUntaken(Consumer<Object> action) {
+        for (int slot = 0; slot < keys.length; slot++) {
+            if (states[slot] == ADDED) {
+                action.accept(keys[slot]);
+            }
+        }
+    }
+
+    // Slot holding key, or the empty slot where it belongs.
+    private int slotOf(Object key) {
+        int slot = OpenAddressing.firstSlot(key, mask);
+        while (states[slot] != EMPTY && !keys[slot].equals(key)) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    private void grow() {
+        Object[] oldKeys = keys;
+        long[] oldFingerprints = fingerprints;
+        byte[] oldStates = states;
+        allocate(oldKeys.length * 2);
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldStates[i] != EMPTY) {
+                int slot = slotOf(oldKeys[i]);
+                keys[slot] = oldKeys[i];
+                fingerprints[slot] = oldFingerprints[i];
+                states[slot] = oldStates[i];
+            }
+        }
+    }
+
+    private void allocate(int capacity) {
+        keys = new Object[capacity];
+        fingerprints = new long[capacity];
+        states = new byte[capacity];
+        mask = capacity - 1;
+    }
+}
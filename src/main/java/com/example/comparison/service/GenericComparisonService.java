@@ -1,23 +1,57 @@
 package com.example.comparison.service;
 
 import com.example.comparison.model.ComparisonBreak; // Ensure this points to your updated model
+import com.example.comparison.model.ComparisonRun;
+import com.mongodb.client.FindIterable;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoCursor;
+import com.mongodb.client.model.Collation;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.Projections;
+import com.mongodb.client.model.Sorts;
+import org.bson.BsonInt32;
+import org.bson.BsonInt64;
+import org.bson.BsonNull;
+import org.bson.BsonValue;
+import org.bson.Document;
+import org.bson.RawBsonDocument;
+import org.bson.codecs.Codec;
+import org.bson.conversions.Bson;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.springframework.beans.BeanWrapper;
-import org.springframework.beans.BeanWrapperImpl;
-import org.springframework.beans.NotReadablePropertyException;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.data.domain.Sort;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.mapping.MappingException;
 import org.springframework.data.mongodb.core.MongoTemplate;
-import org.springframework.data.mongodb.core.query.Collation;
+import org.springframework.data.mongodb.core.convert.MongoConverter;
+import org.springframework.data.mongodb.core.mapping.MongoPersistentProperty;
+import org.springframework.data.mongodb.core.query.Criteria;
 import org.springframework.data.mongodb.core.query.Query;
 import org.springframework.stereotype.Service;
 
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.List;
-import java.util.Objects;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
 import java.util.stream.Stream;
 
 @Service
@@ -33,6 +67,253 @@ public class GenericComparisonService {
         this.mongoTemplate = mongoTemplate;
     }
 
+    // Number of breaks per unordered bulk insert when writing to the output collection.
+    @Value("${comparison.breaks.batch-size:1000}")
+    private int breakBatchSize = 1000;
+
+    // Number of bulk inserts allowed in flight while the merge-join keeps reading.
+    @Value("${comparison.breaks.writer-threads:2}")
+    private int breakWriterThreads = 2;
+
+    public void setBreakBatchSize(int breakBatchSize) {
+        this.breakBatchSize = breakBatchSize;
+    }
+
+    public void setBreakWriterThreads(int breakWriterThreads) {
+        this.breakWriterThreads = breakWriterThreads;
+    }
+
+    // Storage format of the output collection; see BreakFormat.
+    @Value("${comparison.breaks.format:ROWS}")
+    private BreakFormat breakFormat = BreakFormat.ROWS;
+
+    public void setBreakFormat(BreakFormat breakFormat) {
+        this.breakFormat = breakFormat;
+    }
+
+    // Key ranges merge-joined in parallel by compareCollections; 1 keeps the single-cursor merge-join.
+    @Value("${comparison.merge.partitions:1}")
+    private int mergePartitions = 1;
+
+    public void setMergePartitions(int mergePartitions) {
+        this.mergePartitions = mergePartitions;
+    }
+
+    // Keys of side A held in memory by compareCollectionsHashed before it spills hash partitions to disk.
+    @Value("${comparison.hash.max-keys-in-memory:2000000}")
+    private long hashMaxKeysInMemory = 2_000_000;
+
+    public void setHashMaxKeysInMemory(long hashMaxKeysInMemory) {
+        this.hashMaxKeysInMemory = hashMaxKeysInMemory;
+    }
+
+    // Lets the merge-join treat records with equal fingerprints as a match without comparing attributes.
+    @Value("${comparison.fingerprint.enabled:false}")
+    private boolean fingerprintEnabled = false;
+
+    public void setFingerprintEnabled(boolean fingerprintEnabled) {
+        this.fingerprintEnabled = fingerprintEnabled;
+    }
+
+    // Documents handed over per batch by the thread prefetching each side of a comparison.
+    @Value("${comparison.prefetch.batch-size:256}")
+    private int prefetchBatchSize = 256;
+
+    // Batches each prefetch thread may buffer ahead of the comparison.
+    @Value("${comparison.prefetch.queue-batches:4}")
+    private int prefetchQueueBatches = 4;
+
+    // Documents per server round trip on comparison cursors; 0 leaves the driver default.
+    @Value("${comparison.cursor.batch-size:0}")
+    private int cursorBatchSize = 0;
+
+    public void setPrefetchBatchSize(int prefetchBatchSize) {
+        this.prefetchBatchSize = prefetchBatchSize;
+    }
+
+    public void setPrefetchQueueBatches(int prefetchQueueBatches) {
+        this.prefetchQueueBatches = prefetchQueueBatches;
+    }
+
+    public void setCursorBatchSize(int cursorBatchSize) {
+        this.cursorBatchSize = cursorBatchSize;
+    }
+
+    // How fully matched keys are written to the output; see MatchPolicy.
+    @Value("${comparison.matches.policy:ALL}")
+    private MatchPolicy matchPolicy = MatchPolicy.ALL;
+
+    // With the SAMPLED policy, one "match" row is written per this many matched keys.
+    @Value("${comparison.matches.sample-rate:100}")
+    private int matchSampleRate = 100;
+
+    public void setMatchPolicy(MatchPolicy matchPolicy) {
+        this.matchPolicy = matchPolicy;
+    }
+
+    public void setMatchSampleRate(int matchSampleRate) {
+        this.matchSampleRate = matchSampleRate;
+    }
+
+    // Doubles closer than this are the same value; 0 compares doubles exactly.
+    @Value("${comparison.attributes.double-absolute-tolerance:0}")
+    private double doubleAbsoluteTolerance = 0;
+
+    // Doubles whose difference is at most this fraction of the larger magnitude are the same value.
+    @Value("${comparison.attributes.double-relative-tolerance:0}")
+    private double doubleRelativeTolerance = 0;
+
+    // Ignores leading and trailing whitespace when comparing strings.
+    @Value("${comparison.attributes.string-trim:false}")
+    private boolean stringTrim = false;
+
+    // Ignores case when comparing strings.
+    @Value("${comparison.attributes.string-ignore-case:false}")
+    private boolean stringIgnoreCase = false;
+
+    public void setDoubleAbsoluteTolerance(double doubleAbsoluteTolerance) {
+        this.doubleAbsoluteTolerance = doubleAbsoluteTolerance;
+    }
+
+    public void setDoubleRelativeTolerance(double doubleRelativeTolerance) {
+        this.doubleRelativeTolerance = doubleRelativeTolerance;
+    }
+
+    public void setStringTrim(boolean stringTrim) {
+        this.stringTrim = stringTrim;
+    }
+
+    public void setStringIgnoreCase(boolean stringIgnoreCase) {
+        this.stringIgnoreCase = stringIgnoreCase;
+    }
+
+    // Key ranges compareLists merges in parallel; 0 uses one per available processor.
+    @Value("${comparison.lists.partitions:0}")
+    private int listPartitions = 0;
+
+    // Lists with fewer elements than this (both sides together) are merged on the calling thread.
+    @Value("${comparison.lists.parallel-threshold:100000}")
+    private int listParallelThreshold = 100_000;
+
+    public void setListPartitions(int listPartitions) {
+        this.listPartitions = listPartitions;
+    }
+
+    public void setListParallelThreshold(int listParallelThreshold) {
+        this.listParallelThreshold = listParallelThreshold;
+    }
+
+    // How compareLists pairs up elements; see ListJoin.
+    @Value("${comparison.lists.join:AUTO}")
+    private ListJoin listJoin = ListJoin.AUTO;
+
+    // With the AUTO join, lists with at least this many elements (both sides together) are hash-joined.
+    @Value("${comparison.lists.hash-threshold:1000000}")
+    private int listHashThreshold = 1_000_000;
+
+    public void setListJoin(ListJoin listJoin) {
+        this.listJoin = listJoin;
+    }
+
+    public void setListHashThreshold(int listHashThreshold) {
+        this.listHashThreshold = listHashThreshold;
+    }
+
+    // Record change-stream checkpoints on merge-join runs so compareCollectionsIncremental can update them.
+    @Value("${comparison.incremental.track-changes:false}")
+    private boolean trackChanges = false;
+
+    // Keys re-compared per $in query by compareCollectionsIncremental.
+    @Value("${comparison.incremental.batch-keys:10000}")
+    private int incrementalBatchKeys = 10_000;
+
+    public void setTrackChanges(boolean trackChanges) {
+        this.trackChanges = trackChanges;
+    }
+
+    public void setIncrementalBatchKeys(int incrementalBatchKeys) {
+        this.incrementalBatchKeys = incrementalBatchKeys;
+    }
+
+    // Ranges compareCollectionsMerkle splits a differing key range into.
+    @Value("${comparison.merkle.fanout:16}")
+    private int merkleFanout = 16;
+
+    // Differing ranges with at most this many documents (both sides together) are merge-joined.
+    @Value("${comparison.merkle.leaf-size:1000}")
+    private long merkleLeafSize = 1000;
+
+    public void setMerkleFanout(int merkleFanout) {
+        this.merkleFanout = merkleFanout;
+    }
+
+    public void setMerkleLeafSize(long merkleLeafSize) {
+        this.merkleLeafSize = merkleLeafSize;
+    }
+
+    private <T> AttributeComparator<T> attributeComparator(RecordAccessor<? super T> accessor, List<String> attributesToCompare) {
+        return new AttributeComparator<>(accessor, attributesToCompare.size(), new AttributeComparator.Options(
+                doubleAbsoluteTolerance, doubleRelativeTolerance, stringTrim, stringIgnoreCase));
+    }
+
+    private static final String ENTITY_COMPARISON = "MongoDB Collection Comparison";
+    private static final String RAW_COMPARISON = "MongoDB Raw BSON Collection Comparison";
+
+    // Upper bound on spill partitions (two open files each) for compareCollectionsHashed.
+    private static final int MAX_HASH_PARTITIONS = 256;
+    // Keys the hash-join's build-side table starts with; it doubles as needed.
+    private static final int HASH_TABLE_INITIAL_KEYS = 1 << 12;
+
+    // Running tallies for a single merge-join pass.
+    static final class MergeCounters {
+        long itemsProcessedA;
+        long itemsProcessedB;
+        long keysOnlyInA;
+        long keysOnlyInB;
+        long keysWithAttributeMismatch;
+        long fullyMatchedKeys;
+        long totalAttributeDifferences;
+        long breaksEmitted;
+        long fingerprintMatches;
+        long bytesReadA;
+        long bytesReadB;
+        long waitNanosA;
+        long waitNanosB;
+        long prefetchBlockedNanosA;
+        long prefetchBlockedNanosB;
+        long duplicateKeysA;
+        long duplicateKeysB;
+        long unresolvedKeys;
+
+        void add(MergeCounters other) {
+            itemsProcessedA += other.itemsProcessedA;
+            itemsProcessedB += other.itemsProcessedB;
+            keysOnlyInA += other.keysOnlyInA;
+            keysOnlyInB += other.keysOnlyInB;
+            keysWithAttributeMismatch += other.keysWithAttributeMismatch;
+            fullyMatchedKeys += other.fullyMatchedKeys;
+            totalAttributeDifferences += other.totalAttributeDifferences;
+            breaksEmitted += other.breaksEmitted;
+            fingerprintMatches += other.fingerprintMatches;
+            bytesReadA += other.bytesReadA;
+            bytesReadB += other.bytesReadB;
+            waitNanosA += other.waitNanosA;
+            waitNanosB += other.waitNanosB;
+            prefetchBlockedNanosA += other.prefetchBlockedNanosA;
+            prefetchBlockedNanosB += other.prefetchBlockedNanosB;
+            duplicateKeysA += other.duplicateKeysA;
+            duplicateKeysB += other.duplicateKeysB;
+            unresolvedKeys += other.unresolvedKeys;
+        }
+
+        void recordPrefetch(PrefetchingIterator<?> prefetchA, PrefetchingIterator<?> prefetchB) {
+            waitNanosA = prefetchA.getWaitNanos();
+            waitNanosB = prefetchB.getWaitNanos();
+            prefetchBlockedNanosA = prefetchA.getBlockedNanos();
+            prefetchBlockedNanosB = prefetchB.getBlockedNanos();
+        }
+    }
+
 
     // Helper class to store results from list comparison
     public static class ListComparisonResult<T> {
@@ -44,10 +325,31 @@ public class GenericComparisonService {
         public final long keysWithAttributeMismatch;
         public final long fullyMatchedKeys;
         public final long totalAttributeDifferences;
+        // Distinct keys occurring more than once in each list; their occurrences are paired in list order.
+        public final long duplicateKeysA;
+        public final long duplicateKeysB;
+        // Breaks produced; breaks.size() unless they were handed to a consumer (see compareStreams).
+        public final long breaksGenerated;
 
         public ListComparisonResult(List<ComparisonBreak> breaks, long itemsProcessedA, long itemsProcessedB,
                                     long keysOnlyInA, long keysOnlyInB, long keysWithAttributeMismatch,
                                     long fullyMatchedKeys, long totalAttributeDifferences) {
+            this(breaks, itemsProcessedA, itemsProcessedB, keysOnlyInA, keysOnlyInB, keysWithAttributeMismatch,
+                    fullyMatchedKeys, totalAttributeDifferences, 0, 0);
+        }
+
+        public ListComparisonResult(List<ComparisonBreak> breaks, long itemsProcessedA, long itemsProcessedB,
+                                    long keysOnlyInA, long keysOnlyInB, long keysWithAttributeMismatch,
+                                    long fullyMatchedKeys, long totalAttributeDifferences,
+                                    long duplicateKeysA, long duplicateKeysB) {
+            this(breaks, itemsProcessedA, itemsProcessedB, keysOnlyInA, keysOnlyInB, keysWithAttributeMismatch,
+                    fullyMatchedKeys, totalAttributeDifferences, duplicateKeysA, duplicateKeysB, breaks.size());
+        }
+
+        private ListComparisonResult(List<ComparisonBreak> breaks, long itemsProcessedA, long itemsProcessedB,
+                                     long keysOnlyInA, long keysOnlyInB, long keysWithAttributeMismatch,
+                                     long fullyMatchedKeys, long totalAttributeDifferences,
+                                     long duplicateKeysA, long duplicateKeysB, long breaksGenerated) {
             this.breaks = breaks;
             this.itemsProcessedA = itemsProcessedA;
             this.itemsProcessedB = itemsProcessedB;
@@ -56,6 +358,9 @@ public class GenericComparisonService {
             this.keysWithAttributeMismatch = keysWithAttributeMismatch;
             this.fullyMatchedKeys = fullyMatchedKeys;
             this.totalAttributeDifferences = totalAttributeDifferences;
+            this.duplicateKeysA = duplicateKeysA;
+            this.duplicateKeysB = duplicateKeysB;
+            this.breaksGenerated = breaksGenerated;
         }
 
         @Override
@@ -71,375 +376,1632 @@ public class GenericComparisonService {
                             "    - Fully Matched Keys: %d\n" +
                             "    - Keys with Attribute Mismatches: %d\n" +
                             "  Total Individual Attribute Differences: %d\n" +
+                            "  Duplicate Keys in List A / B: %d / %d\n" +
                             "  Total ComparisonBreak Records Generated: %d",
                     itemsProcessedA, itemsProcessedB, keysOnlyInA, keysOnlyInB,
                     commonKeys,
                     fullyMatchedKeys, keysWithAttributeMismatch,
                     totalAttributeDifferences,
-                    breaks.size()
+                    duplicateKeysA, duplicateKeysB,
+                    breaksGenerated
             );
         }
     }
 
 
-    public <T> void compareCollections(Class<T> clazz,
-                                       String collectionA,
-                                       String collectionB,
-                                       String keyAttribute,
-                                       List<String> attributesToCompare,
-                                       String outputCollectionName) {
+    /**
+     * Merge-join comparison of two collections holding {@code clazz} entities. Only the key and
+     * {@code attributesToCompare} are fetched from MongoDB (a server-side projection), so wide
+     * documents cost no more network or decode time than their compared fields.
+     * <p>
+     * With {@code comparison.merge.partitions} above 1 the key space is split into that many ranges
+     * (see {@link KeyRangePartitioner}) which are merge-joined in parallel, each over its own pair of
+     * sorted cursors. The breaks written and the counters reported are the same as for a single
+     * merge-join; only the insertion order of breaks differs.
+     * <p>
+     * Every collection comparison is recorded as a {@link ComparisonRun} (see
+     * {@link ComparisonRunRegistry}) and its breaks carry the run id, so an output collection can
+     * hold several runs. The returned run holds the final counters and timings.
+     */
+    public <T> ComparisonRun compareCollections(Class<T> clazz,
+                                                String collectionA,
+                                                String collectionB,
+                                                String keyAttribute,
+                                                List<String> attributesToCompare,
+                                                String outputCollectionName) {
         if (mongoTemplate == null) {
             throw new IllegalStateException("MongoTemplate has not been initialized. Call setMongoTemplate or ensure Spring context is loaded.");
         }
 
-        long itemsProcessedA = 0;
-        long itemsProcessedB = 0;
-        long keysOnlyInA = 0;
-        long keysOnlyInB = 0;
-        long keysWithAttributeMismatch = 0;
-        long fullyMatchedKeys = 0;
-        long totalAttributeDifferences = 0;
-
-        // Use Collation.simple() to ensure MongoDB sorts using binary comparison,
-        // which matches Java's Comparable.compareTo() ordering. Without this, a
-        // collection-level or database-level collation (e.g., locale-aware, case-insensitive)
-        // could produce a different sort order than Java expects, causing the merge-join
-        // algorithm to misalign and report false breaks.
-        Query query = new Query()
-                .with(Sort.by(Sort.Direction.ASC, keyAttribute))
-                .collation(Collation.simple())
-                .allowDiskUse(true);
-        List<ComparisonBreak> allBreaksAndMatches = new ArrayList<>();
+        return compareCollections(clazz, mongoTemplate, collectionA, mongoTemplate, collectionB,
+                keyAttribute, attributesToCompare, mongoTemplate, outputCollectionName);
+    }
+
+    /**
+     * Cross-cluster variant of {@link #compareCollections}: {@code collectionA} is read through
+     * {@code templateA}, {@code collectionB} through {@code templateB}, and the breaks are written
+     * through {@code targetTemplate}. Any two of the templates may be the same.
+     * <p>
+     * Each side's cursor is drained on its own thread into a bounded {@link PrefetchingIterator},
+     * which also maps the documents, so the round trips to one cluster overlap with the
+     * merge-join consuming the other. Property names are translated into field names with the
+     * mapping of {@code templateA}.
+     * <p>
+     * The read-ahead is sized by {@code comparison.prefetch.batch-size} and
+     * {@code comparison.prefetch.queue-batches}, and the documents per server round trip by
+     * {@code comparison.cursor.batch-size}. The summary reports how long the merge-join waited for
+     * each side and how long each prefetch thread waited for the merge-join, which shows whether
+     * the comparison is network-bound or CPU-bound. The run is recorded through {@code targetTemplate}.
+     */
+    public <T> ComparisonRun compareCollections(Class<T> clazz,
+                                                MongoTemplate templateA,
+                                                String collectionA,
+                                                MongoTemplate templateB,
+                                                String collectionB,
+                                                String keyAttribute,
+                                                List<String> attributesToCompare,
+                                                MongoTemplate targetTemplate,
+                                                String outputCollectionName) {
+        if (templateA == null || templateB == null || targetTemplate == null) {
+            throw new IllegalArgumentException("Source and target MongoTemplates must not be null.");
+        }
 
-        try (Stream<T> streamA = mongoTemplate.stream(query, clazz, collectionA);
-             Stream<T> streamB = mongoTemplate.stream(query, clazz, collectionB)) {
+        String keyField = toFieldPath(templateA, clazz, keyAttribute);
+        Bson projection = projectionFor(keyField, toFieldPaths(templateA, clazz, attributesToCompare));
 
-            Iterator<T> iteratorA = streamA.iterator();
-            Iterator<T> iteratorB = streamB.iterator();
+        return mergeCollections(ENTITY_COMPARISON, templateA, collectionA, templateB, collectionB,
+                keyAttribute, keyField, attributesToCompare, projection,
+                mappedReader(templateA, clazz, collectionA), mappedReader(templateB, clazz, collectionB),
+                () -> new MappedDocument.Accessor(keyField, keyAttribute, attributesToCompare), targetTemplate, outputCollectionName);
+    }
 
-            T currentA = null;
-            Comparable<?> prevKeyA = null;
-            if (iteratorA.hasNext()) {
-                currentA = iteratorA.next();
-                itemsProcessedA++;
+    // Entities are mapped on the prefetch threads, unless fingerprints are enabled: then only the
+    // rows whose bytes differ from the other side's are mapped, by the merge-join.
+    private <T> Function<RawBsonDocument, MappedDocument<?>> mappedReader(MongoTemplate template, Class<T> clazz, String collectionName) {
+        Function<RawBsonDocument, T> entityReader = entityReader(template, clazz, collectionName);
+        boolean mapLazily = fingerprintEnabled;
+        return raw -> {
+            MappedDocument<T> document = new MappedDocument<>(raw, entityReader);
+            if (!mapLazily) {
+                document.entity();
             }
-            T currentB = null;
-            Comparable<?> prevKeyB = null;
-            if (iteratorB.hasNext()) {
-                currentB = iteratorB.next();
-                itemsProcessedB++;
+            return document;
+        };
+    }
+
+    // Decodes projected documents with the template's codecs and maps them like MongoTemplate#stream would.
+    private <T> Function<RawBsonDocument, T> entityReader(MongoTemplate template, Class<T> clazz, String collectionName) {
+        Codec<Document> codec = template.getCollection(collectionName).getCodecRegistry().get(Document.class);
+        MongoConverter converter = template.getConverter();
+        return raw -> converter.read(clazz, raw.decode(codec));
+    }
+
+    /**
+     * Same comparison as {@link #compareCollections}, but documents are streamed from the driver as
+     * {@link RawBsonDocument}s and never mapped into {@code clazz}. Only the key and the compared
+     * attributes are decoded from each document, and embedded documents are compared byte-for-byte,
+     * which avoids most decode allocation on wide documents.
+     * <p>
+     * {@code clazz} is only used to translate property names into stored field names
+     * (e.g. an {@code @Id accountId} becomes {@code _id}). Values are compared with their stored
+     * BSON types; see {@link RawBsonAccessor}.
+     */
+    public ComparisonRun compareCollectionsRaw(Class<?> clazz,
+                                               String collectionA,
+                                               String collectionB,
+                                               String keyAttribute,
+                                               List<String> attributesToCompare,
+                                               String outputCollectionName) {
+        if (mongoTemplate == null) {
+            throw new IllegalStateException("MongoTemplate has not been initialized. Call setMongoTemplate or ensure Spring context is loaded.");
+        }
+
+        String keyField = toFieldPath(mongoTemplate, clazz, keyAttribute);
+        List<String> attributeFields = toFieldPaths(mongoTemplate, clazz, attributesToCompare);
+        RawBsonAccessor accessor = new RawBsonAccessor(keyField, attributeFields);
+        Bson projection = projectionFor(keyField, attributeFields);
+
+        return mergeCollections(RAW_COMPARISON, mongoTemplate, collectionA, mongoTemplate, collectionB,
+                keyAttribute, keyField, attributesToCompare, projection, Function.identity(), Function.identity(),
+                () -> accessor, mongoTemplate, outputCollectionName);
+    }
+
+    /**
+     * Hash-join variant of {@link #compareCollectionsRaw} for keys without a usable index: neither
+     * collection is sorted, so MongoDB never has to run an external sort.
+     * <p>
+     * Side A is streamed into a {@link FingerprintTable} from key to a {@link RowFingerprint} of
+     * its compared fields, then side B is streamed and probed against it. Keys are matched as the
+     * merge-join matches them, so an int32 and an int64 key of the same value are one key. Keys
+     * whose fingerprints differ are fetched again from both collections in batches and compared
+     * field by field, so breaks are the same as the merge-join would write; a key deleted from one
+     * side in the meantime is reported as only on the other. When side A is estimated to exceed
+     * {@code comparison.hash.max-keys-in-memory} keys, both sides are first spilled to local disk
+     * in hash partitions which are then joined one at a time.
+     * <p>
+     * Duplicate keys are reported the way the merge-join reports them: the second occurrence on
+     * either side is unmatched. When a differing key is fetched again, the copy whose fingerprint
+     * is the one read during the scan is compared; a duplicated key with no such copy left is
+     * logged and counted as unresolved instead of comparing an arbitrary copy. Matched keys are not written in key order, so the
+     * {@link MatchPolicy#RANGES} policy records a counter instead.
+     */
+    public ComparisonRun compareCollectionsHashed(Class<?> clazz,
+                                                  String collectionA,
+                                                  String collectionB,
+                                                  String keyAttribute,
+                                                  List<String> attributesToCompare,
+                                                  String outputCollectionName) {
+        if (mongoTemplate == null) {
+            throw new IllegalStateException("MongoTemplate has not been initialized. Call setMongoTemplate or ensure Spring context is loaded.");
+        }
+
+        MergeCounters counters = new MergeCounters();
+        String keyField = toFieldPath(mongoTemplate, clazz, keyAttribute);
+        List<String> attributeFields = toFieldPaths(mongoTemplate, clazz, attributesToCompare);
+        RawBsonAccessor accessor = new RawBsonAccessor(keyField, attributeFields);
+        Bson projection = projectionFor(keyField, attributeFields);
+        String comparisonTitle = "MongoDB Hash-Join Collection Comparison";
+        ComparisonRunRegistry runs = new ComparisonRunRegistry(mongoTemplate);
+        ComparisonRun run = runs.start(comparisonTitle, collectionA, collectionB, keyAttribute, attributesToCompare,
+                outputCollectionName, breakFormat);
+
+        try (SourceCursor<RawBsonDocument> cursorA = new SourceCursor<>(openUnsortedCursor(collectionA, projection), Function.identity());
+             SourceCursor<RawBsonDocument> cursorB = new SourceCursor<>(openUnsortedCursor(collectionB, projection), Function.identity())) {
+            PrefetchingIterator<RawBsonDocument> prefetchA = prefetch(cursorA, collectionA);
+            PrefetchingIterator<RawBsonDocument> prefetchB = prefetch(cursorB, collectionB);
+            // The writer flushes its last batch before the reader threads are stopped.
+            try (BreakSink writer = openBreakWriter(mongoTemplate, outputCollectionName, run.getId(), attributesToCompare)) {
+                // Hash-join output is not in key order, so matched keys cannot be collapsed into ranges.
+                MatchPolicy policy = (matchPolicy == MatchPolicy.RANGES) ? MatchPolicy.COUNTER : matchPolicy;
+                MatchRecorder recorder = new MatchRecorder(policy, matchSampleRate, countingSink(counters, writer));
+                HashJoin join = new HashJoin(collectionA, collectionB, keyField, attributesToCompare, accessor,
+                        projection, counters, recorder);
+                join.run(prefetchA, prefetchB, hashPartitionCount(collectionA));
+                recorder.finish();
+            } finally {
+                prefetchA.close();
+                prefetchB.close();
+                counters.recordPrefetch(prefetchA, prefetchB);
+                counters.bytesReadA = cursorA.getBytesRead();
+                counters.bytesReadB = cursorB.getBytesRead();
             }
+        } catch (Exception e) {
+            logger.error("Error during hash-join collection comparison between {} and {}: {}", collectionA, collectionB, e.getMessage(), e);
+            runs.fail(run, counters, e);
+            throw new RuntimeException("Failed to compare MongoDB collections " + collectionA + " and " + collectionB, e);
+        }
 
-            while (currentA != null || currentB != null) {
-                if (currentA != null && currentB != null) {
-                    Comparable<?> keyA = getKeyValue(currentA, keyAttribute, collectionA);
-                    Comparable<?> keyB = getKeyValue(currentB, keyAttribute, collectionB);
+        runs.complete(run, counters);
+        logSummary(comparisonTitle, collectionA, collectionB, keyAttribute, counters, outputCollectionName);
+        return run;
+    }
 
-                    // Defensive check: verify MongoDB stream is sorted consistently with our comparator
-                    if (prevKeyA != null && keyA != null && compareKeys(prevKeyA, keyA, keyAttribute) > 0) {
-                        logger.error("Sort order mismatch detected in collection '{}': key '{}' appeared after '{}' " +
-                                "but is less according to Java comparator. This indicates MongoDB's sort collation " +
-                                "differs from Java's Comparable.compareTo(). Results may be incorrect.",
-                                collectionA, keyA, prevKeyA);
+    /**
+     * Locates the differences between two collections by comparing digests of key ranges, so
+     * that documents only cross the network for ranges that differ. The single-template variant
+     * of {@link #compareCollectionsMerkle(Class, MongoTemplate, String, MongoTemplate, String, String, List, MongoTemplate, String)}.
+     */
+    public ComparisonRun compareCollectionsMerkle(Class<?> clazz,
+                                                  String collectionA,
+                                                  String collectionB,
+                                                  String keyAttribute,
+                                                  List<String> attributesToCompare,
+                                                  String outputCollectionName) {
+        if (mongoTemplate == null) {
+            throw new IllegalStateException("MongoTemplate has not been initialized. Call setMongoTemplate or ensure Spring context is loaded.");
+        }
+        return compareCollectionsMerkle(clazz, mongoTemplate, collectionA, mongoTemplate, collectionB,
+                keyAttribute, attributesToCompare, mongoTemplate, outputCollectionName);
+    }
+
+    /**
+     * Merkle-style comparison for collections far apart, e.g. on clusters in different data
+     * centres. Both collections are digested range by range inside MongoDB (see
+     * {@link MerkleRangeHasher}), starting with the whole key space. A range whose digests agree
+     * is recorded as matched without reading it. A range whose digests differ is split into
+     * {@code comparison.merkle.fanout} ranges with {@code $bucketAuto}, and the children are
+     * digested in turn. Once a differing range holds at most {@code comparison.merkle.leaf-size}
+     * documents (both sides together), or cannot be split further, it is merge-joined like
+     * {@link #compareCollectionsRaw}, which writes its breaks.
+     * <p>
+     * Matched ranges are written as {@link MatchPolicy#RANGES} would write them, one "matchRange"
+     * row each, under the {@code RANGES} policy when the keys are strings or ObjectIds; with
+     * {@code NONE} nothing is written, and otherwise they are counted in a single "matchCount" row.
+     * Keys inside merge-joined ranges follow the configured policy. Range digests need MongoDB 7.0
+     * on both sides; on older servers this falls back to the raw merge-join of the whole
+     * collections. The digests of both sides are computed concurrently. Values are compared as in
+     * {@link #compareCollectionsRaw}, except that a range whose only change is a number stored with
+     * another numeric type hashes the same.
+     */
+    public ComparisonRun compareCollectionsMerkle(Class<?> clazz,
+                                                  MongoTemplate templateA,
+                                                  String collectionA,
+                                                  MongoTemplate templateB,
+                                                  String collectionB,
+                                                  String keyAttribute,
+                                                  List<String> attributesToCompare,
+                                                  MongoTemplate targetTemplate,
+                                                  String outputCollectionName) {
+        if (templateA == null || templateB == null || targetTemplate == null) {
+            throw new IllegalArgumentException("Source and target MongoTemplates must not be null.");
+        }
+        String keyField = toFieldPath(templateA, clazz, keyAttribute);
+        List<String> attributeFields = toFieldPaths(templateA, clazz, attributesToCompare);
+        RawBsonAccessor accessor = new RawBsonAccessor(keyField, attributeFields);
+        Bson projection = projectionFor(keyField, attributeFields);
+        if (!serverVersionAtLeast(templateA, 7, 0) || !serverVersionAtLeast(templateB, 7, 0)) {
+            logger.info("MongoDB server cannot hash key ranges ($toHashedIndexKey needs 7.0); comparing '{}' and '{}' with the raw merge-join.",
+                    collectionA, collectionB);
+            return mergeCollections(RAW_COMPARISON, templateA, collectionA, templateB, collectionB, keyAttribute, keyField,
+                    attributesToCompare, projection, Function.identity(), Function.identity(), () -> accessor,
+                    targetTemplate, outputCollectionName);
+        }
+
+        String comparisonTitle = "MongoDB Merkle Range Comparison";
+        MergeCounters counters = new MergeCounters();
+        ComparisonRunRegistry runs = new ComparisonRunRegistry(targetTemplate);
+        ComparisonRun run = runs.start(comparisonTitle, collectionA, collectionB, keyAttribute, attributesToCompare,
+                outputCollectionName, breakFormat);
+        run.setMatchPolicy(matchPolicy.name());
+        String runId = run.getId();
+        MerkleRangeHasher hasher = new MerkleRangeHasher(keyField, attributeFields);
+        KeyComparator keyStrings = new KeyComparator(keyAttribute, accessor::comparableKey);
+        ExecutorService executor = Executors.newSingleThreadExecutor(daemonThreads("merkle-digest-"));
+        long rangesDigested = 0;
+        long rangesMerged = 0;
+        long documentsMerged = 0;
+        try (BreakSink matchedRanges = openBreakWriter(targetTemplate, outputCollectionName, runId, attributesToCompare)) {
+            long matchedWithoutRows = 0;
+            Deque<MerkleRangeHasher.KeyRange> pending = new ArrayDeque<>();
+            pending.add(new MerkleRangeHasher.KeyRange(null, null));
+            while (!pending.isEmpty()) {
+                MerkleRangeHasher.KeyRange range = pending.poll();
+                Future<MerkleRangeHasher.Digest> pendingDigestA = executor.submit(() -> hasher.digest(templateA, collectionA, range));
+                MerkleRangeHasher.Digest digestB = hasher.digest(templateB, collectionB, range);
+                MerkleRangeHasher.Digest digestA = pendingDigestA.get();
+                rangesDigested++;
+
+                if (digestA.sameRows(digestB)) {
+                    counters.fullyMatchedKeys += digestA.count;
+                    counters.itemsProcessedA += digestA.count;
+                    counters.itemsProcessedB += digestB.count;
+                    if (digestA.count == 0 || matchPolicy == MatchPolicy.NONE) {
+                        continue;
                     }
-                    if (prevKeyB != null && keyB != null && compareKeys(prevKeyB, keyB, keyAttribute) > 0) {
-                        logger.error("Sort order mismatch detected in collection '{}': key '{}' appeared after '{}' " +
-                                "but is less according to Java comparator. This indicates MongoDB's sort collation " +
-                                "differs from Java's Comparable.compareTo(). Results may be incorrect.",
-                                collectionB, keyB, prevKeyB);
+                    if (matchPolicy != MatchPolicy.RANGES || !KeyComparator.rendersInKeyOrder(digestA.firstKey)) {
+                        matchedWithoutRows += digestA.count;
+                    } else if (digestA.count == 1) {
+                        matchedRanges.accept(MatchRecorder.match(keyStrings.toKeyString(digestA.firstKey)));
+                        counters.breaksEmitted++;
+                    } else {
+                        matchedRanges.accept(MatchRecorder.matchRange(keyStrings.toKeyString(digestA.firstKey),
+                                keyStrings.toKeyString(digestA.lastKey), digestA.count));
+                        counters.breaksEmitted++;
                     }
+                    continue;
+                }
+
+                List<MerkleRangeHasher.KeyRange> children = List.of();
+                if (digestA.count + digestB.count > merkleLeafSize) {
+                    children = (digestA.count >= digestB.count)
+                            ? hasher.split(templateA, collectionA, range, merkleFanout)
+                            : hasher.split(templateB, collectionB, range, merkleFanout);
+                }
+                if (!children.isEmpty()) {
+                    pending.addAll(children);
+                    continue;
+                }
+                MergeCounters rangeCounters = new MergeCounters();
+                mergeRange(hasher.filter(range), templateA, collectionA, templateB, collectionB, keyAttribute, keyField,
+                        attributesToCompare, projection, Function.identity(), Function.identity(), accessor, rangeCounters,
+                        targetTemplate, outputCollectionName, runId);
+                counters.add(rangeCounters);
+                rangesMerged++;
+                documentsMerged += digestA.count + digestB.count;
+            }
+            if (matchedWithoutRows > 0) {
+                matchedRanges.accept(MatchRecorder.matchCount(matchedWithoutRows));
+                counters.breaksEmitted++;
+            }
+        } catch (Exception e) {
+            logger.error("Error during {} between {} and {}: {}", comparisonTitle, collectionA, collectionB, e.getMessage(), e);
+            runs.fail(run, counters, e);
+            throw new RuntimeException("Failed to compare MongoDB collections " + collectionA + " and " + collectionB, e);
+        } finally {
+            executor.shutdownNow();
+        }
+
+        logger.info("Digested {} key ranges of '{}' and '{}'; merge-joined {} differing ranges holding {} of {} documents.",
+                rangesDigested, collectionA, collectionB, rangesMerged, documentsMerged,
+                counters.itemsProcessedA + counters.itemsProcessedB);
+        runs.complete(run, counters);
+        logSummary(comparisonTitle, collectionA, collectionB, keyAttribute, counters, outputCollectionName);
+        return run;
+    }
+
+    /**
+     * Runs the whole comparison inside MongoDB with {@link PushdownPipeline}: the two collections
+     * are joined on the key with {@code $unionWith} and {@code $group}, and the breaks are written
+     * into {@code outputCollectionName} with {@code $merge}, so no document is shipped to the JVM.
+     * The counters reported in the summary are then taken from the breaks written and from the
+     * document counts of the two collections, without joining them again. They assume unique
+     * keys: the matched keys are the documents of collection A that are neither only on A nor
+     * mismatched.
+     * <p>
+     * Values are compared with MongoDB's own equality and rendered with {@code $convert}; see
+     * {@link PushdownPipeline}; the {@code comparison.attributes.*} tolerances do not apply. A key
+     * that occurs more than once in a collection is compared once, using the merged values of its
+     * documents. When the server cannot run the pipeline
+     * ({@code $unionWith} needs MongoDB 4.4), this falls back to {@link #compareCollections}.
+     * Both collections must be on the same server; collections on different clusters are compared
+     * with the cross-cluster {@code compareCollections} overload.
+     * <p>
+     * Unless the match policy is {@link MatchPolicy#ALL}, the pipeline writes no "match" rows; all
+     * policies other than {@link MatchPolicy#NONE} then add a single "matchCount" row. Breaks are
+     * always written as {@link BreakFormat#ROWS}.
+     */
+    public <T> ComparisonRun compareCollectionsPushdown(Class<T> clazz,
+                                                        String collectionA,
+                                                        String collectionB,
+                                                        String keyAttribute,
+                                                        List<String> attributesToCompare,
+                                                        String outputCollectionName) {
+        if (mongoTemplate == null) {
+            throw new IllegalStateException("MongoTemplate has not been initialized. Call setMongoTemplate or ensure Spring context is loaded.");
+        }
+        if (!supportsPushdown()) {
+            logger.info("MongoDB server cannot run the pushdown pipeline; comparing '{}' and '{}' with the Java merge-join.", collectionA, collectionB);
+            return compareCollections(clazz, collectionA, collectionB, keyAttribute, attributesToCompare, outputCollectionName);
+        }
+
+        MergeCounters counters = new MergeCounters();
+        String comparisonTitle = "MongoDB Pushdown Collection Comparison";
+        ComparisonRunRegistry runs = new ComparisonRunRegistry(mongoTemplate);
+        ComparisonRun run = runs.start(comparisonTitle, collectionA, collectionB, keyAttribute, attributesToCompare,
+                outputCollectionName, BreakFormat.ROWS);
+        PushdownPipeline pipeline = new PushdownPipeline(collectionB, toFieldPath(mongoTemplate, clazz, keyAttribute),
+                attributesToCompare, toFieldPaths(mongoTemplate, clazz, attributesToCompare));
+        try {
+            MongoCollection<Document> source = mongoTemplate.getCollection(collectionA);
+            boolean writeMatches = matchPolicy == MatchPolicy.ALL;
+            source.aggregate(pipeline.breaks(outputCollectionName, run.getId(), writeMatches)).allowDiskUse(true).toCollection();
+
+            for (Document breakCount : mongoTemplate.getCollection(outputCollectionName)
+                    .aggregate(PushdownPipeline.breakCounts(run.getId())).allowDiskUse(true)) {
+                switch (breakCount.getString("_id")) {
+                    case "onlyOnA":
+                        counters.keysOnlyInA = count(breakCount, "keys");
+                        break;
+                    case "onlyOnB":
+                        counters.keysOnlyInB = count(breakCount, "keys");
+                        break;
+                    default:
+                        counters.keysWithAttributeMismatch = count(breakCount, "keys");
+                        counters.totalAttributeDifferences = count(breakCount, "rows");
+                        break;
+                }
+            }
+            counters.itemsProcessedA = source.countDocuments();
+            counters.itemsProcessedB = mongoTemplate.getCollection(collectionB).countDocuments();
+            counters.fullyMatchedKeys = Math.max(0, counters.itemsProcessedA - counters.keysOnlyInA - counters.keysWithAttributeMismatch);
+            counters.breaksEmitted = counters.keysOnlyInA + counters.keysOnlyInB + counters.totalAttributeDifferences
+                    + (writeMatches ? counters.fullyMatchedKeys : 0);
+            if (!writeMatches && matchPolicy != MatchPolicy.NONE && counters.fullyMatchedKeys > 0) {
+                ComparisonBreak matchCount = MatchRecorder.matchCount(counters.fullyMatchedKeys);
+                matchCount.setRunId(run.getId());
+                mongoTemplate.insert(matchCount, outputCollectionName);
+                counters.breaksEmitted++;
+            }
+        } catch (Exception e) {
+            logger.error("Error during pushdown collection comparison between {} and {}: {}", collectionA, collectionB, e.getMessage(), e);
+            runs.fail(run, counters, e);
+            throw new RuntimeException("Failed to compare MongoDB collections " + collectionA + " and " + collectionB, e);
+        }
+
+        runs.complete(run, counters);
+        logSummary(comparisonTitle, collectionA, collectionB, keyAttribute, counters, outputCollectionName);
+        return run;
+    }
+
+    // $unionWith, which the pushdown pipeline is built on, arrived in MongoDB 4.4.
+    private boolean supportsPushdown() {
+        return serverVersionAtLeast(mongoTemplate, 4, 4);
+    }
 
-                    int cmp = compareKeys(keyA, keyB, keyAttribute);
-
-                    String keyAStr = (keyA == null) ? "null" : keyA.toString();
-                    String keyBStr = (keyB == null) ? "null" : keyB.toString();
-
-                    if (cmp == 0) {
-                        int individualDiffsForKey = recordAttributeDifferences(currentA, currentB, keyAStr, attributesToCompare, allBreaksAndMatches);
-                        if (individualDiffsForKey == 0) {
-                            fullyMatchedKeys++;
-                            // For a "match", differenceField, valueA, valueB are null.
-                            allBreaksAndMatches.add(new ComparisonBreak(keyAStr, null, null, null, "match"));
-                        } else {
-                            keysWithAttributeMismatch++;
-                            totalAttributeDifferences += individualDiffsForKey;
-                        }
-                        prevKeyA = keyA;
-                        prevKeyB = keyB;
-                        currentA = iteratorA.hasNext() ? iteratorA.next() : null;
-                        if (currentA != null) itemsProcessedA++;
-                        currentB = iteratorB.hasNext() ? iteratorB.next() : null;
-                        if (currentB != null) itemsProcessedB++;
-                    } else if (cmp < 0) {
-                        keysOnlyInA++;
-                        // differenceField="RecordMissing", valueA="exists", valueB="missing"
-                        allBreaksAndMatches.add(new ComparisonBreak(keyAStr, "RecordMissing", "exists", "missing", "onlyOnA"));
-                        prevKeyA = keyA;
-                        currentA = iteratorA.hasNext() ? iteratorA.next() : null;
-                        if (currentA != null) itemsProcessedA++;
-                    } else { // cmp > 0
-                        keysOnlyInB++;
-                        // differenceField="RecordMissing", valueA="missing", valueB="exists"
-                        allBreaksAndMatches.add(new ComparisonBreak(keyBStr, "RecordMissing", "missing", "exists", "onlyOnB"));
-                        prevKeyB = keyB;
-                        currentB = iteratorB.hasNext() ? iteratorB.next() : null;
-                        if (currentB != null) itemsProcessedB++;
+    private static boolean serverVersionAtLeast(MongoTemplate template, int major, int minor) {
+        try {
+            List<Integer> version = template.executeCommand(new Document("buildInfo", 1)).getList("versionArray", Integer.class);
+            return version != null && version.size() >= 2
+                    && (version.get(0) > major || (version.get(0) == major && version.get(1) >= minor));
+        } catch (RuntimeException e) {
+            logger.debug("Could not determine the MongoDB server version: {}", e.getMessage());
+            return false;
+        }
+    }
+
+    private static long count(Document counters, String name) {
+        Object value = counters.get(name);
+        return (value instanceof Number) ? ((Number) value).longValue() : 0;
+    }
+
+    private int hashPartitionCount(String collectionA) {
+        long estimatedKeys = mongoTemplate.getCollection(collectionA).estimatedDocumentCount();
+        if (estimatedKeys <= hashMaxKeysInMemory) {
+            return 1;
+        }
+        long partitions = (estimatedKeys + hashMaxKeysInMemory - 1) / hashMaxKeysInMemory;
+        if (partitions > MAX_HASH_PARTITIONS) {
+            logger.warn("Collection '{}' needs {} hash partitions of {} keys; capping at {}, partitions will exceed the memory budget.",
+                    collectionA, partitions, hashMaxKeysInMemory, MAX_HASH_PARTITIONS);
+            return MAX_HASH_PARTITIONS;
+        }
+        return (int) partitions;
+    }
+
+    private MongoCursor<RawBsonDocument> openUnsortedCursor(String collectionName, Bson projection) {
+        return withCursorBatchSize(mongoTemplate.getCollection(collectionName)
+                .withDocumentClass(RawBsonDocument.class)
+                .find()
+                .projection(projection))
+                .iterator();
+    }
+
+    private FindIterable<RawBsonDocument> withCursorBatchSize(FindIterable<RawBsonDocument> find) {
+        return cursorBatchSize > 0 ? find.batchSize(cursorBatchSize) : find;
+    }
+
+    private BreakSink openBreakWriter(MongoTemplate targetTemplate, String outputCollectionName, String runId,
+                                      List<String> attributesToCompare) {
+        if (breakFormat == BreakFormat.COMPACT) {
+            return new CompactBreakWriter(targetTemplate, outputCollectionName, runId, attributesToCompare, breakBatchSize, breakWriterThreads);
+        }
+        return new MongoBreakWriter(targetTemplate, outputCollectionName, runId, breakBatchSize, breakWriterThreads);
+    }
+
+    private <T> PrefetchingIterator<T> prefetch(Iterator<? extends T> source, String collectionName) {
+        return new PrefetchingIterator<>(source, prefetchBatchSize, prefetchQueueBatches, "prefetch-" + collectionName);
+    }
+
+    /**
+     * State of one {@link #compareCollectionsHashed} run: the build-side table, and the keys waiting
+     * to be fetched again because their fingerprints differ, with the fingerprint each side had.
+     */
+    private final class HashJoin {
+        private final String collectionA;
+        private final String collectionB;
+        private final String keyField;
+        private final List<String> attributesToCompare;
+        private final RawBsonAccessor accessor;
+        private final Bson projection;
+        private final MergeCounters counters;
+        private final MatchRecorder out;
+        private final RowFingerprint fingerprint;
+        private final AttributeComparator<RawBsonDocument> comparator;
+        private final List<BsonValue> pendingKeys = new ArrayList<>();
+        private final Map<BsonValue, Long> pendingFingerprintsA = new HashMap<>();
+        private final Map<BsonValue, Long> pendingFingerprintsB = new HashMap<>();
+
+        HashJoin(String collectionA, String collectionB, String keyField, List<String> attributesToCompare,
+                 RawBsonAccessor accessor, Bson projection, MergeCounters counters, MatchRecorder out) {
+            this.collectionA = collectionA;
+            this.collectionB = collectionB;
+            this.keyField = keyField;
+            this.attributesToCompare = attributesToCompare;
+            this.accessor = accessor;
+            this.projection = projection;
+            this.counters = counters;
+            this.out = out;
+            this.fingerprint = new RowFingerprint(accessor, attributesToCompare.size());
+            this.comparator = attributeComparator(accessor, attributesToCompare);
+        }
+
+        void run(Iterator<RawBsonDocument> sideA, Iterator<RawBsonDocument> sideB, int partitions) {
+            if (partitions == 1) {
+                FingerprintTable buildSide = new FingerprintTable(HASH_TABLE_INITIAL_KEYS);
+                while (sideA.hasNext()) {
+                    RawBsonDocument document = sideA.next();
+                    counters.itemsProcessedA++;
+                    build(buildSide, keyOf(document), fingerprint.of(document));
+                }
+                while (sideB.hasNext()) {
+                    RawBsonDocument document = sideB.next();
+                    counters.itemsProcessedB++;
+                    probe(buildSide, keyOf(document), fingerprint.of(document));
+                }
+                finishPartition(buildSide);
+            } else {
+                logger.info("Spilling '{}' and '{}' to {} hash partitions on local disk.", collectionA, collectionB, partitions);
+                try (HashSpillFiles spillA = new HashSpillFiles("a", partitions);
+                     HashSpillFiles spillB = new HashSpillFiles("b", partitions)) {
+                    spill(sideA, spillA, partitions, true);
+                    spill(sideB, spillB, partitions, false);
+                    for (int partition = 0; partition < partitions; partition++) {
+                        FingerprintTable buildSide = new FingerprintTable(HASH_TABLE_INITIAL_KEYS);
+                        spillA.forEach(partition, (key, fp) -> build(buildSide, RowFingerprint.decodeKey(key), fp));
+                        spillB.forEach(partition, (key, fp) -> probe(buildSide, RowFingerprint.decodeKey(key), fp));
+                        finishPartition(buildSide);
                     }
-                } else if (currentA != null) {
-                    keysOnlyInA++;
-                    Comparable<?> keyA = getKeyValue(currentA, keyAttribute, collectionA);
-                    String keyAStr = (keyA == null) ? "null" : keyA.toString();
-                    allBreaksAndMatches.add(new ComparisonBreak(keyAStr, "RecordMissing", "exists", "missing", "onlyOnA"));
-                    currentA = iteratorA.hasNext() ? iteratorA.next() : null;
-                    if (currentA != null) itemsProcessedA++;
-                } else { // currentB must be non-null
-                    keysOnlyInB++;
-                    Comparable<?> keyB = getKeyValue(currentB, keyAttribute, collectionB);
-                    String keyBStr = (keyB == null) ? "null" : keyB.toString();
-                    allBreaksAndMatches.add(new ComparisonBreak(keyBStr, "RecordMissing", "missing", "exists", "onlyOnB"));
-                    currentB = iteratorB.hasNext() ? iteratorB.next() : null;
-                    if (currentB != null) itemsProcessedB++;
                 }
             }
+            resolvePending();
+        }
+
+        private void spill(Iterator<RawBsonDocument> side, HashSpillFiles spill, int partitions, boolean sideA) {
+            while (side.hasNext()) {
+                RawBsonDocument document = side.next();
+                if (sideA) {
+                    counters.itemsProcessedA++;
+                } else {
+                    counters.itemsProcessedB++;
+                }
+                byte[] encodedKey = RowFingerprint.encodeKey(keyOf(document));
+                int partition = (int) Math.floorMod(RowFingerprint.xxh64(encodedKey, 0, encodedKey.length, 0), (long) partitions);
+                spill.write(partition, encodedKey, fingerprint.of(document));
+            }
+        }
 
-            if (!allBreaksAndMatches.isEmpty()) {
-                mongoTemplate.insert(allBreaksAndMatches, outputCollectionName);
-                logger.info("Comparison results for collections '{}' and '{}' (key: '{}') stored in '{}'.",
-                        collectionA, collectionB, keyAttribute, outputCollectionName);
+        private void build(FingerprintTable buildSide, BsonValue key, long fp) {
+            if (!buildSide.add(key, fp)) {
+                // Second occurrence of a key in A: the merge-join would leave it unmatched too.
+                counters.keysOnlyInA++;
+                out.accept(new ComparisonBreak(keyString(key), "RecordMissing", "exists", "missing", "onlyOnA"));
+            }
+        }
+
+        private void probe(FingerprintTable buildSide, BsonValue key, long fp) {
+            int slotA = buildSide.take(key);
+            if (slotA < 0) {
+                counters.keysOnlyInB++;
+                out.accept(new ComparisonBreak(keyString(key), "RecordMissing", "missing", "exists", "onlyOnB"));
+            } else if (buildSide.fingerprint(slotA) == fp) {
+                counters.fullyMatchedKeys++;
+                out.acceptMatch(key, this::keyString);
             } else {
-                logger.info("Comparison for collections '{}' and '{}' (key: '{}'): No differences, unique items, or matches found to report to collection '{}'.",
-                        collectionA, collectionB, keyAttribute, outputCollectionName);
+                pendingKeys.add(key);
+                pendingFingerprintsA.put(key, buildSide.fingerprint(slotA));
+                pendingFingerprintsB.put(key, fp);
+                if (pendingKeys.size() >= breakBatchSize) {
+                    resolvePending();
+                }
             }
+        }
 
+        // Keys left in the build side were never seen on side B.
+        private void finishPartition(FingerprintTable buildSide) {
+            buildSide.forEachUntaken(key -> {
+                counters.keysOnlyInA++;
+                out.accept(new ComparisonBreak(keyString(key), "RecordMissing", "exists", "missing", "onlyOnA"));
+            });
+        }
+
+        private void resolvePending() {
+            if (pendingKeys.isEmpty()) {
+                return;
+            }
+            Set<BsonValue> unresolvedA = new HashSet<>();
+            Set<BsonValue> unresolvedB = new HashSet<>();
+            Map<BsonValue, RawBsonDocument> documentsA = fetchByKey(collectionA, pendingFingerprintsA, unresolvedA);
+            Map<BsonValue, RawBsonDocument> documentsB = fetchByKey(collectionB, pendingFingerprintsB, unresolvedB);
+            for (BsonValue key : pendingKeys) {
+                if (unresolvedA.contains(key) || unresolvedB.contains(key)) {
+                    logger.warn("Key {} is duplicated in '{}' and none of its copies is the one read during the "
+                                    + "hash-join comparison; it is not compared.", keyString(key),
+                            unresolvedA.contains(key) ? collectionA : collectionB);
+                    counters.unresolvedKeys++;
+                    continue;
+                }
+                RawBsonDocument a = documentsA.get(key);
+                RawBsonDocument b = documentsB.get(key);
+                if (a != null && b != null) {
+                    compareCommonKey(a, b, key, this::keyString, attributesToCompare, accessor, comparator, counters, out);
+                    continue;
+                }
+                // Deleted after it was read: reported as it is now, like a key the merge-join reads later.
+                logger.warn("Key {} was deleted from '{}' during the hash-join comparison.", keyString(key),
+                        (a == null && b == null) ? collectionA + "' and '" + collectionB : (a == null ? collectionA : collectionB));
+                if (a != null) {
+                    counters.keysOnlyInA++;
+                    out.accept(new ComparisonBreak(keyString(key), "RecordMissing", "exists", "missing", "onlyOnA"));
+                } else if (b != null) {
+                    counters.keysOnlyInB++;
+                    out.accept(new ComparisonBreak(keyString(key), "RecordMissing", "missing", "exists", "onlyOnB"));
+                }
+            }
+            pendingKeys.clear();
+            pendingFingerprintsA.clear();
+            pendingFingerprintsB.clear();
+        }
+
+        /**
+         * Fetches the pending keys from one collection. Of several documents with one key, the one
+         * whose fingerprint is {@code scanned} (the copy the scan joined) is returned; a key with
+         * several documents and none of them that copy is added to {@code unresolved} instead.
+         */
+        private Map<BsonValue, RawBsonDocument> fetchByKey(String collectionName, Map<BsonValue, Long> scanned,
+                                                           Set<BsonValue> unresolved) {
+            Map<BsonValue, RawBsonDocument> documents = new HashMap<>(pendingKeys.size() * 2);
+            Set<BsonValue> duplicated = new HashSet<>();
+            for (RawBsonDocument document : mongoTemplate.getCollection(collectionName)
+                    .withDocumentClass(RawBsonDocument.class)
+                    .find(Filters.in(keyField, pendingKeys))
+                    .projection(projection)) {
+                BsonValue key = keyOf(document);
+                RawBsonDocument previous = documents.putIfAbsent(key, document);
+                if (previous != null) {
+                    duplicated.add(key);
+                    if (!isScanned(previous, scanned.get(key)) && isScanned(document, scanned.get(key))) {
+                        documents.put(key, document);
+                    }
+                }
+            }
+            for (BsonValue key : duplicated) {
+                if (!isScanned(documents.get(key), scanned.get(key))) {
+                    documents.remove(key);
+                    unresolved.add(key);
+                }
+            }
+            return documents;
+        }
+
+        private boolean isScanned(RawBsonDocument document, Long scannedFingerprint) {
+            return scannedFingerprint != null && fingerprint.of(document) == scannedFingerprint;
+        }
+
+        // Null and missing keys are the same (null) key, and int32 and int64 keys of one value the
+        // same key, as in the merge-join's KeyComparator; documents are hashed and fetched by this key.
+        private BsonValue keyOf(RawBsonDocument document) {
+            Object key = accessor.key(document);
+            if (key instanceof BsonInt32) {
+                return new BsonInt64(((BsonInt32) key).getValue());
+            }
+            return (key instanceof BsonValue) ? (BsonValue) key : BsonNull.VALUE;
+        }
+
+        private String keyString(Object key) {
+            Object comparableKey = accessor.comparableKey(key);
+            return (comparableKey == null) ? "null" : comparableKey.toString();
+        }
+    }
+
+    // Use the "simple" collation to ensure MongoDB sorts using binary comparison,
+    // which matches Java's Comparable.compareTo() ordering. Without this, a
+    // collection-level or database-level collation (e.g., locale-aware, case-insensitive)
+    // could produce a different sort order than Java expects, causing the merge-join
+    // algorithm to misalign and report false breaks.
+    private MongoCursor<RawBsonDocument> openRawCursor(MongoTemplate template, String collectionName, Bson filter,
+                                                       String keyField, Bson projection) {
+        return withCursorBatchSize(template.getCollection(collectionName)
+                .withDocumentClass(RawBsonDocument.class)
+                .find(filter)
+                .projection(projection)
+                .sort(Sorts.ascending(keyField))
+                .collation(Collation.builder().locale("simple").build())
+                .allowDiskUse(true))
+                .iterator();
+    }
+
+    /**
+     * Projection returning only the key and the compared fields. A field nested under another
+     * included field (e.g. {@code address.city} alongside {@code address}) is dropped, since
+     * MongoDB rejects overlapping paths, and {@code _id} is excluded unless it is one of them.
+     */
+    static Bson projectionFor(String keyField, List<String> attributeFields) {
+        List<String> fields = new ArrayList<>(attributeFields.size() + 1);
+        fields.add(keyField);
+        fields.addAll(attributeFields);
+
+        List<String> included = new ArrayList<>(fields.size());
+        for (String field : fields) {
+            boolean covered = included.stream().anyMatch(f -> field.equals(f) || field.startsWith(f + "."));
+            if (!covered) {
+                included.removeIf(f -> f.startsWith(field + "."));
+                included.add(field);
+            }
+        }
+        Bson projection = Projections.include(included);
+        boolean idIncluded = included.stream().anyMatch(f -> f.equals("_id") || f.startsWith("_id."));
+        return idIncluded ? projection : Projections.fields(projection, Projections.excludeId());
+    }
+
+    private static List<String> toFieldPaths(MongoTemplate template, Class<?> clazz, List<String> propertyPaths) {
+        List<String> fieldPaths = new ArrayList<>(propertyPaths.size());
+        for (String propertyPath : propertyPaths) {
+            fieldPaths.add(toFieldPath(template, clazz, propertyPath));
+        }
+        return fieldPaths;
+    }
+
+    /**
+     * Translates a (possibly dotted) Java property path on {@code clazz} into the field path stored
+     * in MongoDB, honouring {@code @Id} and {@code @Field}. Unknown paths are returned unchanged.
+     */
+    private static String toFieldPath(MongoTemplate template, Class<?> clazz, String propertyPath) {
+        try {
+            return template.getConverter().getMappingContext()
+                    .getPersistentPropertyPath(propertyPath, clazz)
+                    .toDotPath(MongoPersistentProperty::getFieldName);
+        } catch (MappingException e) {
+            logger.debug("Property '{}' is not mapped on {}; using it as the stored field name.", propertyPath, clazz.getName());
+            return propertyPath;
+        }
+    }
+
+    /**
+     * Runs the merge-join over every key range of the two collections and streams the breaks into
+     * {@code outputCollectionName} of {@code targetTemplate}. Breaks are flushed in bounded batches while the merge-join keeps
+     * reading, so memory stays flat regardless of collection size. The run is recorded in the
+     * {@link ComparisonRunRegistry} of {@code targetTemplate}.
+     */
+    private <T> ComparisonRun mergeCollections(String comparisonTitle,
+                                               MongoTemplate templateA,
+                                               String collectionA,
+                                               MongoTemplate templateB,
+                                               String collectionB,
+                                               String keyAttribute,
+                                               String keyField,
+                                               List<String> attributesToCompare,
+                                               Bson projection,
+                                               Function<RawBsonDocument, T> readerA,
+                                               Function<RawBsonDocument, T> readerB,
+                                               Supplier<? extends RecordAccessor<? super T>> accessorFactory,
+                                               MongoTemplate targetTemplate,
+                                               String outputCollectionName) {
+        MergeCounters counters = new MergeCounters();
+        ComparisonRunRegistry runs = new ComparisonRunRegistry(targetTemplate);
+        ComparisonRun run = runs.start(comparisonTitle, collectionA, collectionB, keyAttribute, attributesToCompare,
+                outputCollectionName, breakFormat);
+        run.setMatchPolicy(matchPolicy.name());
+        run.setCrossCluster(templateA != templateB || templateA != targetTemplate);
+        String runId = run.getId();
+        try {
+            if (trackChanges) {
+                recordCheckpoints(run, templateA, templateB);
+            }
+            List<Bson> ranges = new KeyRangePartitioner(templateA, templateB).partition(collectionA, collectionB, keyField, mergePartitions);
+            if (ranges.size() == 1) {
+                mergeRange(ranges.get(0), templateA, collectionA, templateB, collectionB, keyAttribute, keyField, attributesToCompare,
+                        projection, readerA, readerB, accessorFactory.get(), counters, targetTemplate, outputCollectionName, runId);
+            } else {
+                logger.info("Comparing '{}' and '{}' in {} key ranges of '{}' in parallel.", collectionA, collectionB, ranges.size(), keyAttribute);
+                ExecutorService executor = Executors.newFixedThreadPool(ranges.size(), daemonThreads("merge-range-"));
+                try {
+                    List<Future<MergeCounters>> results = new ArrayList<>(ranges.size());
+                    for (Bson range : ranges) {
+                        results.add(executor.submit(() -> {
+                            MergeCounters rangeCounters = new MergeCounters();
+                            mergeRange(range, templateA, collectionA, templateB, collectionB, keyAttribute, keyField, attributesToCompare,
+                                    projection, readerA, readerB, accessorFactory.get(), rangeCounters, targetTemplate, outputCollectionName, runId);
+                            return rangeCounters;
+                        }));
+                    }
+                    for (Future<MergeCounters> result : results) {
+                        counters.add(result.get());
+                    }
+                } catch (ExecutionException e) {
+                    throw (e.getCause() instanceof Exception) ? (Exception) e.getCause() : e;
+                } finally {
+                    executor.shutdownNow();
+                }
+            }
         } catch (Exception e) {
-            logger.error("Error during MongoDB collection comparison between {} and {}: {}", collectionA, collectionB, e.getMessage(), e);
+            logger.error("Error during {} between {} and {}: {}", comparisonTitle, collectionA, collectionB, e.getMessage(), e);
+            runs.fail(run, counters, e);
             throw new RuntimeException("Failed to compare MongoDB collections " + collectionA + " and " + collectionB, e);
         }
 
-        logSummary("MongoDB Collection Comparison", collectionA, collectionB, keyAttribute,
-                itemsProcessedA, itemsProcessedB, keysOnlyInA, keysOnlyInB,
-                keysWithAttributeMismatch, fullyMatchedKeys, totalAttributeDifferences,
-                allBreaksAndMatches.size(), outputCollectionName);
+        if (counters.breaksEmitted > 0) {
+            logger.info("Comparison results for collections '{}' and '{}' (key: '{}') stored in '{}'.",
+                    collectionA, collectionB, keyAttribute, outputCollectionName);
+        } else {
+            logger.info("Comparison for collections '{}' and '{}' (key: '{}'): No differences, unique items, or matches found to report to collection '{}'.",
+                    collectionA, collectionB, keyAttribute, outputCollectionName);
+        }
+        runs.complete(run, counters);
+        logSummary(comparisonTitle, collectionA, collectionB, keyAttribute, counters, outputCollectionName);
+        return run;
+    }
+
+    // Taken before either collection is read, so a write racing the comparison is re-compared by the
+    // next incremental pass rather than missed. Without change streams the run is simply not incremental.
+    private static void recordCheckpoints(ComparisonRun run, MongoTemplate templateA, MongoTemplate templateB) {
+        try {
+            run.setResumeTokenA(ChangeTracker.checkpoint(templateA, run.getCollectionA()));
+            run.setResumeTokenB(ChangeTracker.checkpoint(templateB, run.getCollectionB()));
+        } catch (RuntimeException e) {
+            run.setResumeTokenA(null);
+            run.setResumeTokenB(null);
+            logger.warn("Could not open change streams on '{}' and '{}' (they need a replica set); run {} cannot be updated incrementally: {}",
+                    run.getCollectionA(), run.getCollectionB(), run.getId(), e.getMessage());
+        }
+    }
+
+    /**
+     * Brings a completed run of {@link #compareCollections} or {@link #compareCollectionsRaw} up to
+     * date without reading either collection in full. Only the keys written on either side since
+     * the run's change-stream checkpoints are compared again: their breaks are deleted from the
+     * run's output and rewritten under the same run id, and the run's counters and checkpoints are
+     * updated in place. Readers of the output may see a key without breaks while it is replaced.
+     * <p>
+     * The run must have been made with {@code comparison.incremental.track-changes} enabled (so it
+     * holds checkpoints), with {@link MatchPolicy#ALL} (so every key has rows of its own to replace)
+     * and the current {@code comparison.breaks.format}. The changed keys are re-compared
+     * {@code comparison.incremental.batch-keys} at a time, each batch merge-joined over an
+     * {@code $in} query on the key index. {@code clazz} must be the class the run compared.
+     * <p>
+     * A pass can be repeated at any time; with no writes since the last one it only reads the
+     * change streams. If the collections were dropped or renamed, a checkpoint is no longer in the
+     * oplog, or a deleted document's key cannot be recovered (see {@link ChangeTracker}), the pass
+     * fails and a full comparison is needed. A failed pass marks the run {@code FAILED}.
+     * Counters assume unique keys; with duplicate keys they are approximate.
+     * <p>
+     * Runs of the cross-cluster {@code compareCollections} overload are rejected here; they are
+     * updated with the overload taking their templates.
+     */
+    public ComparisonRun compareCollectionsIncremental(Class<?> clazz, String runId) {
+        if (mongoTemplate == null) {
+            throw new IllegalStateException("MongoTemplate has not been initialized. Call setMongoTemplate or ensure Spring context is loaded.");
+        }
+        return compareCollectionsIncremental(clazz, runId, mongoTemplate, mongoTemplate, mongoTemplate);
+    }
+
+    /**
+     * {@link #compareCollectionsIncremental(Class, String)} for a run of the cross-cluster
+     * {@code compareCollections} overload: the change streams and documents of each side are read
+     * through {@code templateA} and {@code templateB}, and the run and its breaks are found and
+     * replaced through {@code targetTemplate}. Pass the templates the run was made with, as its
+     * checkpoints can only be resumed on the clusters they were taken on.
+     */
+    public ComparisonRun compareCollectionsIncremental(Class<?> clazz,
+                                                       String runId,
+                                                       MongoTemplate templateA,
+                                                       MongoTemplate templateB,
+                                                       MongoTemplate targetTemplate) {
+        if (templateA == null || templateB == null || targetTemplate == null) {
+            throw new IllegalArgumentException("Source and target MongoTemplates must not be null.");
+        }
+        ComparisonRunRegistry runs = new ComparisonRunRegistry(targetTemplate);
+        ComparisonRun run = runs.findById(runId);
+        if (run == null) {
+            throw new IllegalArgumentException("No comparison run with id '" + runId + "'.");
+        }
+        checkIncremental(run, templateA != templateB || templateA != targetTemplate);
+
+        String collectionA = run.getCollectionA();
+        String collectionB = run.getCollectionB();
+        String keyAttribute = run.getKeyAttribute();
+        List<String> attributesToCompare = run.getAttributes();
+        String keyField = toFieldPath(templateA, clazz, keyAttribute);
+        List<String> attributeFields = toFieldPaths(templateA, clazz, attributesToCompare);
+        Bson projection = projectionFor(keyField, attributeFields);
+        long startedAt = System.nanoTime();
+
+        ChangeTracker.Changes changesA = ChangeTracker.changesSince(templateA, collectionA, run.getResumeTokenA(), keyField);
+        ChangeTracker.Changes changesB = ChangeTracker.changesSince(templateB, collectionB, run.getResumeTokenB(), keyField);
+        Set<BsonValue> changedKeys = new LinkedHashSet<>(changesA.keys);
+        changedKeys.addAll(changesB.keys);
+        List<BsonValue> keys = new ArrayList<>(changedKeys);
+
+        MergeCounters removed = new MergeCounters();
+        MergeCounters added = new MergeCounters();
+        try {
+            KeyComparator keyStrings = new KeyComparator(keyAttribute, new RawBsonAccessor(keyField, List.of())::comparableKey);
+            BreakReader breakReader = new BreakReader(targetTemplate);
+            for (int from = 0; from < keys.size(); from += incrementalBatchKeys) {
+                List<BsonValue> batch = keys.subList(from, Math.min(from + incrementalBatchKeys, keys.size()));
+                List<String> batchKeys = new ArrayList<>(batch.size());
+                for (BsonValue key : batch) {
+                    batchKeys.add(keyStrings.toKeyString(key));
+                }
+                countBreaks(breakReader.findByKeys(run.getOutputCollection(), runId, batchKeys), removed);
+                deleteBreaks(targetTemplate, run, batchKeys);
+
+                MergeCounters batchCounters = new MergeCounters();
+                Bson filter = Filters.in(keyField, batch);
+                if (ENTITY_COMPARISON.equals(run.getComparisonType())) {
+                    mergeRange(filter, templateA, collectionA, templateB, collectionB, keyAttribute, keyField, attributesToCompare,
+                            projection, mappedReader(templateA, clazz, collectionA), mappedReader(templateB, clazz, collectionB),
+                            new MappedDocument.Accessor(keyField, keyAttribute, attributesToCompare), batchCounters,
+                            targetTemplate, run.getOutputCollection(), runId);
+                } else {
+                    mergeRange(filter, templateA, collectionA, templateB, collectionB, keyAttribute, keyField, attributesToCompare,
+                            projection, Function.identity(), Function.identity(), new RawBsonAccessor(keyField, attributeFields),
+                            batchCounters, targetTemplate, run.getOutputCollection(), runId);
+                }
+                added.add(batchCounters);
+            }
+        } catch (Exception e) {
+            logger.error("Incremental pass over run {} of '{}' and '{}' failed: {}", runId, collectionA, collectionB, e.getMessage(), e);
+            runs.failIncremental(run, e);
+            throw new RuntimeException("Failed to update comparison run " + runId + " incrementally", e);
+        }
+
+        runs.applyIncremental(run, removed, added, changesA.resumeToken, changesB.resumeToken, keys.size());
+        logger.info("Incremental pass over run {} of '{}' and '{}': {} and {} change events, {} keys re-compared, "
+                        + "{} breaks replaced by {}, in {} ms.",
+                runId, collectionA, collectionB, changesA.events, changesB.events, keys.size(),
+                removed.breaksEmitted, added.breaksEmitted, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startedAt));
+        return run;
+    }
+
+    // Templates that differ from each other stand for different clusters, as in mergeCollections.
+    private void checkIncremental(ComparisonRun run, boolean crossClusterTemplates) {
+        String problem = null;
+        if (!ComparisonRun.COMPLETED.equals(run.getStatus())) {
+            problem = "it is " + run.getStatus();
+        } else if (run.isCrossCluster() && !crossClusterTemplates) {
+            problem = "it compared collections on different clusters; pass the templates it was made with";
+        } else if (!ENTITY_COMPARISON.equals(run.getComparisonType()) && !RAW_COMPARISON.equals(run.getComparisonType())) {
+            problem = "it is a " + run.getComparisonType();
+        } else if (run.getResumeTokenA() == null || run.getResumeTokenB() == null) {
+            problem = "it has no change-stream checkpoints (enable comparison.incremental.track-changes)";
+        } else if (!MatchPolicy.ALL.name().equals(run.getMatchPolicy()) || matchPolicy != MatchPolicy.ALL) {
+            problem = "incremental passes need the ALL match policy, the run used " + run.getMatchPolicy()
+                    + " and the current policy is " + matchPolicy;
+        } else if (!breakFormat.name().equals(run.getBreakFormat())) {
+            problem = "its breaks are " + run.getBreakFormat() + " but comparison.breaks.format is " + breakFormat;
+        }
+        if (problem != null) {
+            throw new IllegalStateException("Comparison run " + run.getId() + " cannot be updated incrementally: " + problem + ".");
+        }
+    }
+
+    // Counts breaks written with the ALL match policy back into the counters that produced them.
+    private static void countBreaks(List<ComparisonBreak> breaks, MergeCounters counters) {
+        Set<String> mismatchedKeys = new HashSet<>();
+        for (ComparisonBreak comparisonBreak : breaks) {
+            switch (comparisonBreak.getBreakType()) {
+                case "match":
+                    counters.fullyMatchedKeys++;
+                    counters.itemsProcessedA++;
+                    counters.itemsProcessedB++;
+                    break;
+                case "difference":
+                    counters.totalAttributeDifferences++;
+                    if (mismatchedKeys.add(comparisonBreak.getComparisonKey())) {
+                        counters.keysWithAttributeMismatch++;
+                        counters.itemsProcessedA++;
+                        counters.itemsProcessedB++;
+                    }
+                    break;
+                case "onlyOnA":
+                    counters.keysOnlyInA++;
+                    counters.itemsProcessedA++;
+                    break;
+                case "onlyOnB":
+                    counters.keysOnlyInB++;
+                    counters.itemsProcessedB++;
+                    break;
+                default:
+                    break;
+            }
+            counters.breaksEmitted++;
+        }
+    }
+
+    private static void deleteBreaks(MongoTemplate targetTemplate, ComparisonRun run, List<String> comparisonKeys) {
+        Query query = BreakFormat.COMPACT.name().equals(run.getBreakFormat())
+                ? Query.query(Criteria.where(CompactBreaks.RUN).is(run.getId()).and(CompactBreaks.KEY).in(comparisonKeys))
+                : Query.query(Criteria.where("runId").is(run.getId()).and("comparisonKey").in(comparisonKeys));
+        targetTemplate.remove(query, run.getOutputCollection());
+    }
+
+    // Merge-joins the documents of both collections that fall into one key range. Each side is
+    // read and decoded on its own prefetch thread, so the merge-join only waits for the slower one.
+    private <T> void mergeRange(Bson range,
+                                MongoTemplate templateA,
+                                String collectionA,
+                                MongoTemplate templateB,
+                                String collectionB,
+                                String keyAttribute,
+                                String keyField,
+                                List<String> attributesToCompare,
+                                Bson projection,
+                                Function<RawBsonDocument, T> readerA,
+                                Function<RawBsonDocument, T> readerB,
+                                RecordAccessor<? super T> accessor,
+                                MergeCounters counters,
+                                MongoTemplate targetTemplate,
+                                String outputCollectionName,
+                                String runId) {
+        try (SourceCursor<T> cursorA = new SourceCursor<>(openRawCursor(templateA, collectionA, range, keyField, projection), readerA);
+             SourceCursor<T> cursorB = new SourceCursor<>(openRawCursor(templateB, collectionB, range, keyField, projection), readerB)) {
+            PrefetchingIterator<T> prefetchA = prefetch(cursorA, collectionA);
+            PrefetchingIterator<T> prefetchB = prefetch(cursorB, collectionB);
+            try (BreakSink writer = openBreakWriter(targetTemplate, outputCollectionName, runId, attributesToCompare)) {
+                mergeJoin(prefetchA, prefetchB, collectionA, collectionB,
+                        keyAttribute, attributesToCompare, accessor, true, counters, writer);
+            } finally {
+                // Stops the reader threads before the cursors close; also publishes their counts.
+                prefetchA.close();
+                prefetchB.close();
+                counters.recordPrefetch(prefetchA, prefetchB);
+                counters.bytesReadA = cursorA.getBytesRead();
+                counters.bytesReadB = cursorB.getBytesRead();
+            }
+        }
+        logger.debug("Key range {} of '{}' and '{}' done: {} and {} items, {} breaks, waited {} ms for A and {} ms for B.",
+                range.toBsonDocument().toJson(), collectionA, collectionB,
+                counters.itemsProcessedA, counters.itemsProcessedB, counters.breaksEmitted,
+                TimeUnit.NANOSECONDS.toMillis(counters.waitNanosA), TimeUnit.NANOSECONDS.toMillis(counters.waitNanosB));
+    }
+
+    private static ThreadFactory daemonThreads(String prefix) {
+        AtomicInteger threadIndex = new AtomicInteger();
+        return r -> {
+            Thread t = new Thread(r, prefix + threadIndex.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        };
     }
 
+    /**
+     * Compares two in-memory lists. The key of every element is read once, then the lists are
+     * joined as {@code comparison.lists.join} selects (see {@link ListJoin}).
+     * <p>
+     * The merge-join sorts both lists on their keys with {@link Arrays#parallelSort}. Lists with
+     * at least {@code comparison.lists.parallel-threshold} elements are merged in
+     * {@code comparison.lists.partitions} key ranges in parallel, cut so that every occurrence of a
+     * key lands in the same range. The breaks come back in key order, exactly as a single
+     * merge-join writes them, except that match policies which summarize (e.g. {@code COUNTER})
+     * write one summary row per range. The hash-join skips sorting; see {@link #hashJoinLists}.
+     * <p>
+     * Either way, the i-th occurrence of a key in list A is compared with its i-th occurrence in
+     * list B, and keys occurring more than once are counted and logged.
+     */
     public <T> ListComparisonResult<T> compareLists(List<T> listA, List<T> listB,
                                                     String keyAttribute,
                                                     List<String> attributesToCompare) {
-        long itemsProcessedA = 0;
-        long itemsProcessedB = 0;
-        long keysOnlyInA = 0;
-        long keysOnlyInB = 0;
-        long keysWithAttributeMismatch = 0;
-        long fullyMatchedKeys = 0;
-        long totalAttributeDifferences = 0;
+        MergeCounters counters = new MergeCounters();
         List<ComparisonBreak> allBreaksAndMatches = new ArrayList<>();
+        BeanAccessorPlan.Cache plans = new BeanAccessorPlan.Cache(keyAttribute, attributesToCompare);
 
-        Comparator<T> keyComparator = (o1, o2) -> {
-            if (o1 == null && o2 == null) return 0;
-            if (o1 == null) return -1;
-            if (o2 == null) return 1;
-
-            Comparable<?> key1 = getKeyValue(o1, keyAttribute, "listA_internal_sort");
-            Comparable<?> key2 = getKeyValue(o2, keyAttribute, "listB_internal_sort");
-            return compareKeys(key1, key2, keyAttribute);
-        };
+        KeyedElement<T>[] sortedA = keyedElements(listA, plans, keyAttribute, "listA");
+        KeyedElement<T>[] sortedB = keyedElements(listB, plans, keyAttribute, "listB");
+        Object[] hashKeys = hashKeys(sortedA, sortedB);
+        if (hashKeys != null) {
+            try {
+                hashJoinLists(sortedA, sortedB, hashKeys, keyAttribute, attributesToCompare, plans, counters, allBreaksAndMatches::add);
+            } catch (Exception e) {
+                logger.error("Error during Java list comparison (key: {}): {}", keyAttribute, e.getMessage(), e);
+                throw new RuntimeException("Failed to compare lists with key attribute " + keyAttribute, e);
+            }
+            return listResult(allBreaksAndMatches, counters, keyAttribute, "Java List Hash-Join Comparison");
+        }
 
-        List<T> sortedA = new ArrayList<>(listA);
-        List<T> sortedB = new ArrayList<>(listB);
+        // Detected up front so that the sort threads share a comparator that no longer changes.
+        KeyComparator keys = new KeyComparator(keyAttribute, plans::comparableKey);
+        keys.detectType(firstKey(sortedA));
+        keys.detectType(firstKey(sortedB));
+        Comparator<KeyedElement<T>> keyComparator = (o1, o2) -> keys.compare(o1.key, o2.key);
         try {
-            sortedA.sort(keyComparator);
-            sortedB.sort(keyComparator);
+            Arrays.parallelSort(sortedA, keyComparator);
+            Arrays.parallelSort(sortedB, keyComparator);
         } catch (IllegalArgumentException e) {
             logger.error("Error during list pre-sort for key attribute '{}': {}. Ensure key attribute is Comparable.", keyAttribute, e.getMessage(), e);
             throw new RuntimeException("Failed to sort lists for comparison due to non-Comparable key: " + keyAttribute, e);
         }
+        counters.duplicateKeysA = countDuplicates(sortedA, keys, keyAttribute, "listA");
+        counters.duplicateKeysB = countDuplicates(sortedB, keys, keyAttribute, "listB");
+
+        try {
+            List<int[]> ranges = listRanges(sortedA, sortedB, keys);
+            if (ranges.size() == 1) {
+                // Both lists were just sorted with the same comparator, so the sort-order check is skipped.
+                mergeJoin(elements(sortedA, 0, sortedA.length), elements(sortedB, 0, sortedB.length), "listA", "listB",
+                        keyAttribute, attributesToCompare, plans, false, counters, allBreaksAndMatches::add);
+            } else {
+                logger.info("Comparing lists of {} and {} elements in {} key ranges of '{}' in parallel.",
+                        sortedA.length, sortedB.length, ranges.size(), keyAttribute);
+                ExecutorService executor = Executors.newFixedThreadPool(ranges.size(), daemonThreads("merge-list-"));
+                try {
+                    List<Future<MergeCounters>> results = new ArrayList<>(ranges.size());
+                    List<List<ComparisonBreak>> rangeBreaks = new ArrayList<>(ranges.size());
+                    for (int[] range : ranges) {
+                        List<ComparisonBreak> breaks = new ArrayList<>();
+                        rangeBreaks.add(breaks);
+                        results.add(executor.submit(() -> {
+                            MergeCounters rangeCounters = new MergeCounters();
+                            mergeJoin(elements(sortedA, range[0], range[1]), elements(sortedB, range[2], range[3]), "listA", "listB",
+                                    keyAttribute, attributesToCompare, plans, false, rangeCounters, breaks::add);
+                            return rangeCounters;
+                        }));
+                    }
+                    for (int i = 0; i < results.size(); i++) {
+                        counters.add(results.get(i).get());
+                        allBreaksAndMatches.addAll(rangeBreaks.get(i));
+                    }
+                } catch (ExecutionException e) {
+                    throw (e.getCause() instanceof Exception) ? (Exception) e.getCause() : e;
+                } finally {
+                    executor.shutdownNow();
+                }
+            }
+        } catch (Exception e) {
+            logger.error("Error during Java list comparison (key: {}): {}", keyAttribute, e.getMessage(), e);
+            throw new RuntimeException("Failed to compare lists with key attribute " + keyAttribute, e);
+        }
+
+        return listResult(allBreaksAndMatches, counters, keyAttribute, "Java List Comparison");
+    }
+
+    /**
+     * Merge-join of two inputs that are already sorted ascending on {@code keyAttribute}, e.g.
+     * records replayed from sorted files or a message log. Elements are pulled one at a time and
+     * every break is handed to {@code breakConsumer} as soon as it is produced, so memory use does
+     * not grow with the inputs; "match" rows follow the match policy.
+     * <p>
+     * Keys are ordered as in {@link #compareLists}. A key that is smaller than the one before it
+     * is logged as a sort-order mismatch and its breaks may be wrong; keys occurring more than once
+     * are counted, and their occurrences compared in input order. The returned result holds the
+     * counters only: its {@code breaks} list is empty, and {@code breaksGenerated} counts the
+     * breaks given to the consumer. An exception thrown by the consumer aborts the comparison.
+     */
+    public <T> ListComparisonResult<T> compareStreams(Iterator<T> iteratorA,
+                                                      Iterator<T> iteratorB,
+                                                      String keyAttribute,
+                                                      List<String> attributesToCompare,
+                                                      Consumer<? super ComparisonBreak> breakConsumer) {
+        MergeCounters counters = new MergeCounters();
+        BeanAccessorPlan.Cache plans = new BeanAccessorPlan.Cache(keyAttribute, attributesToCompare);
+        try {
+            mergeJoin(iteratorA, iteratorB, "streamA", "streamB",
+                    keyAttribute, attributesToCompare, plans, true, counters, breakConsumer::accept);
+        } catch (Exception e) {
+            logger.error("Error during Java stream comparison (key: {}): {}", keyAttribute, e.getMessage(), e);
+            throw new RuntimeException("Failed to compare streams with key attribute " + keyAttribute, e);
+        }
+        return listResult(Collections.emptyList(), counters, keyAttribute, "Java Stream Comparison");
+    }
+
+    /**
+     * {@link #compareStreams(Iterator, Iterator, String, List, Consumer)} over two sorted
+     * {@link Stream}s, which are closed when the comparison ends.
+     */
+    public <T> ListComparisonResult<T> compareStreams(Stream<T> streamA,
+                                                      Stream<T> streamB,
+                                                      String keyAttribute,
+                                                      List<String> attributesToCompare,
+                                                      Consumer<? super ComparisonBreak> breakConsumer) {
+        try (streamA; streamB) {
+            return compareStreams(streamA.iterator(), streamB.iterator(), keyAttribute, attributesToCompare, breakConsumer);
+        }
+    }
+
+    private <T> ListComparisonResult<T> listResult(List<ComparisonBreak> breaks, MergeCounters counters,
+                                                   String keyAttribute, String comparisonTitle) {
+        ListComparisonResult<T> result = new ListComparisonResult<>(
+                breaks, counters.itemsProcessedA, counters.itemsProcessedB,
+                counters.keysOnlyInA, counters.keysOnlyInB, counters.keysWithAttributeMismatch,
+                counters.fullyMatchedKeys, counters.totalAttributeDifferences,
+                counters.duplicateKeysA, counters.duplicateKeysB, counters.breaksEmitted
+        );
+
+        logSummary(comparisonTitle, "List A", "List B", keyAttribute, counters, null);
+
+        return result;
+    }
+
+    /**
+     * Normalized keys of both lists (A first, then B) when they should be hash-joined, else null.
+     * Lists are hash-joined when {@code comparison.lists.join} asks for it, or with {@code AUTO}
+     * from {@code comparison.lists.hash-threshold} elements on, unless the match policy needs key
+     * order. Keys must all be of one type {@link KeyIndex} can hash (nulls aside), and the lists
+     * must not contain null elements.
+     */
+    private Object[] hashKeys(KeyedElement<?>[] elementsA, KeyedElement<?>[] elementsB) {
+        boolean wanted = (listJoin == ListJoin.HASH)
+                || (listJoin == ListJoin.AUTO && matchPolicy != MatchPolicy.RANGES
+                && (long) elementsA.length + elementsB.length >= listHashThreshold);
+        if (!wanted) {
+            return null;
+        }
+        Object[] hashKeys = new Object[elementsA.length + elementsB.length];
+        Class<?> keyType = null;
+        for (int i = 0; i < hashKeys.length; i++) {
+            KeyedElement<?> element = (i < elementsA.length) ? elementsA[i] : elementsB[i - elementsA.length];
+            Object hashKey = (element.element == null) ? null : KeyIndex.hashKey(element.key);
+            if (hashKey != null && !KeyIndex.isNullKey(hashKey)) {
+                if (keyType == null) {
+                    keyType = hashKey.getClass();
+                } else if (keyType != hashKey.getClass()) {
+                    hashKey = null;
+                }
+            }
+            if (hashKey == null) {
+                logger.info("List keys cannot be hashed consistently with their ordering (e.g. '{}'); merge-joining instead.",
+                        element.key);
+                return null;
+            }
+            hashKeys[i] = hashKey;
+        }
+        return hashKeys;
+    }
+
+    /**
+     * Hash-join of two lists: list B is indexed by key in a {@link KeyIndex}, then list A probes it
+     * in list order. A key's occurrences are paired in list order, as the merge-join pairs them
+     * after its stable sort. Breaks follow list A, and the keys only in list B come last in the
+     * order of list B. Output is not in key order, so {@link MatchPolicy#RANGES} records a counter.
+     */
+    private <T> void hashJoinLists(KeyedElement<T>[] elementsA,
+                                   KeyedElement<T>[] elementsB,
+                                   Object[] hashKeys,
+                                   String keyAttribute,
+                                   List<String> attributesToCompare,
+                                   RecordAccessor<Object> accessor,
+                                   MergeCounters counters,
+                                   Consumer<ComparisonBreak> sink) {
+        MatchPolicy policy = (matchPolicy == MatchPolicy.RANGES) ? MatchPolicy.COUNTER : matchPolicy;
+        MatchRecorder out = new MatchRecorder(policy, matchSampleRate, countingSink(counters, sink));
+        KeyComparator keys = new KeyComparator(keyAttribute, accessor::comparableKey);
+        Function<Object, String> keyString = keys::toKeyString;
+        AttributeComparator<Object> comparator = attributeComparator(accessor, attributesToCompare);
+        KeyIndex index = new KeyIndex(hashKeys.length, elementsB.length);
+
+        for (int j = 0; j < elementsB.length; j++) {
+            counters.itemsProcessedB++;
+            if (index.addB(index.slotOf(hashKeys[elementsA.length + j]), j) == 2) {
+                counters.duplicateKeysB++;
+                logger.debug("Key '{}' occurs more than once in listB.", keyString.apply(elementsB[j].key));
+            }
+        }
+        boolean[] pairedB = new boolean[elementsB.length];
+        for (int i = 0; i < elementsA.length; i++) {
+            counters.itemsProcessedA++;
+            KeyedElement<T> a = elementsA[i];
+            int slot = index.slotOf(hashKeys[i]);
+            if (index.addA(slot) == 2) {
+                counters.duplicateKeysA++;
+                logger.debug("Key '{}' occurs more than once in listA.", keyString.apply(a.key));
+            }
+            int j = index.pollB(slot);
+            if (j < 0) {
+                counters.keysOnlyInA++;
+                out.accept(new ComparisonBreak(keyString.apply(a.key), "RecordMissing", "exists", "missing", "onlyOnA"));
+            } else {
+                pairedB[j] = true;
+                compareCommonKey(a.element, elementsB[j].element, a.key, keyString, attributesToCompare, accessor, comparator, counters, out);
+            }
+        }
+        for (int j = 0; j < elementsB.length; j++) {
+            if (!pairedB[j]) {
+                counters.keysOnlyInB++;
+                out.accept(new ComparisonBreak(keyString.apply(elementsB[j].key), "RecordMissing", "missing", "exists", "onlyOnB"));
+            }
+        }
+        out.finish();
+        warnDuplicates(counters, keyAttribute);
+    }
+
+    // Distinct keys occurring more than once in a sorted list.
+    private long countDuplicates(KeyedElement<?>[] sorted, KeyComparator keys, String keyAttribute, String sourceName) {
+        long duplicates = 0;
+        for (int i = 1; i < sorted.length; i++) {
+            if (keys.compare(sorted[i - 1].key, sorted[i].key) == 0
+                    && (i == 1 || keys.compare(sorted[i - 2].key, sorted[i].key) != 0)) {
+                duplicates++;
+                logger.debug("Key '{}' occurs more than once in {}.", keys.toKeyString(sorted[i].key), sourceName);
+            }
+        }
+        if (duplicates > 0) {
+            logger.warn("{} values of key attribute '{}' occur more than once in {}; their occurrences are compared in list order.",
+                    duplicates, keyAttribute, sourceName);
+        }
+        return duplicates;
+    }
+
+    private void warnDuplicates(MergeCounters counters, String keyAttribute) {
+        if (counters.duplicateKeysA > 0 || counters.duplicateKeysB > 0) {
+            logger.warn("{} values of key attribute '{}' occur more than once in listA and {} in listB; their occurrences are compared in list order.",
+                    counters.duplicateKeysA, keyAttribute, counters.duplicateKeysB);
+        }
+    }
+
+    // A list element with its key, read once before sorting.
+    private static final class KeyedElement<T> {
+        final Object key;
+        final T element;
+
+        KeyedElement(Object key, T element) {
+            this.key = key;
+            this.element = element;
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private <T> KeyedElement<T>[] keyedElements(List<T> list, RecordAccessor<Object> accessor, String keyAttribute, String sourceName) {
+        KeyedElement<T>[] elements = (KeyedElement<T>[]) new KeyedElement<?>[list.size()];
+        int i = 0;
+        for (T element : list) {
+            elements[i++] = new KeyedElement<>(keyOf(element, accessor, keyAttribute, sourceName), element);
+        }
+        return elements;
+    }
+
+    private static Object firstKey(KeyedElement<?>[] elements) {
+        for (KeyedElement<?> element : elements) {
+            if (!KeyComparator.isNull(element.key)) {
+                return element.key;
+            }
+        }
+        return null;
+    }
+
+    private static <T> Iterator<T> elements(KeyedElement<T>[] sorted, int from, int to) {
+        return Arrays.stream(sorted, from, to).map(e -> e.element).iterator();
+    }
+
+    /**
+     * Splits both sorted lists into up to {@code comparison.lists.partitions} key ranges of about
+     * the same size, as {@code {fromA, toA, fromB, toB}}. Each range starts at the first
+     * occurrence of its lowest key on both sides, so equal keys are never split.
+     */
+    private <T> List<int[]> listRanges(KeyedElement<T>[] sortedA, KeyedElement<T>[] sortedB, KeyComparator keys) {
+        int partitions = (listPartitions > 0) ? listPartitions : Runtime.getRuntime().availableProcessors();
+        if (partitions <= 1 || (long) sortedA.length + sortedB.length < listParallelThreshold) {
+            return List.<int[]>of(new int[]{0, sortedA.length, 0, sortedB.length});
+        }
+        KeyedElement<T>[] larger = (sortedA.length >= sortedB.length) ? sortedA : sortedB;
+        List<int[]> ranges = new ArrayList<>(partitions);
+        int fromA = 0;
+        int fromB = 0;
+        for (int p = 1; p < partitions; p++) {
+            Object splitKey = larger[(int) ((long) larger.length * p / partitions)].key;
+            int toA = lowerBound(sortedA, splitKey, keys);
+            int toB = lowerBound(sortedB, splitKey, keys);
+            if (toA + toB > fromA + fromB) {
+                ranges.add(new int[]{fromA, toA, fromB, toB});
+                fromA = toA;
+                fromB = toB;
+            }
+        }
+        ranges.add(new int[]{fromA, sortedA.length, fromB, sortedB.length});
+        return ranges;
+    }
+
+    // Index of the first element whose key is not less than key.
+    private static int lowerBound(KeyedElement<?>[] sorted, Object key, KeyComparator keys) {
+        int low = 0;
+        int high = sorted.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (keys.compare(sorted[mid].key, key) < 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
 
+    /**
+     * Merge-join over two iterators that are already sorted ascending on {@code keyAttribute}.
+     * Every break is handed to {@code sink} as soon as it is produced, with "match" rows recorded
+     * according to the match policy; nothing else is retained here.
+     */
+    private <T> void mergeJoin(Iterator<T> iteratorA,
+                               Iterator<T> iteratorB,
+                               String sourceAName,
+                               String sourceBName,
+                               String keyAttribute,
+                               List<String> attributesToCompare,
+                               RecordAccessor<? super T> accessor,
+                               boolean verifySortOrder,
+                               MergeCounters counters,
+                               Consumer<ComparisonBreak> sink) {
+        MatchRecorder out = new MatchRecorder(matchPolicy, matchSampleRate, countingSink(counters, sink));
+        boolean useFingerprints = fingerprintEnabled && accessor.hasFingerprint();
+        // Keys are compared unconverted where possible and only rendered for the breaks written.
+        KeyComparator keys = new KeyComparator(keyAttribute, accessor::comparableKey);
+        Function<Object, String> keyString = keys::toKeyString;
+        AttributeComparator<T> comparator = attributeComparator(accessor, attributesToCompare);
 
-        Iterator<T> iteratorA = sortedA.iterator();
-        Iterator<T> iteratorB = sortedB.iterator();
+        // Defensive check: verify each source is sorted consistently with our comparator
+        InputOrder orderA = verifySortOrder ? new InputOrder(keys, sourceAName) : null;
+        InputOrder orderB = verifySortOrder ? new InputOrder(keys, sourceBName) : null;
 
         T currentA = null;
         if (iteratorA.hasNext()) {
             currentA = iteratorA.next();
-            itemsProcessedA++;
+            counters.itemsProcessedA++;
         }
         T currentB = null;
         if (iteratorB.hasNext()) {
             currentB = iteratorB.next();
-            itemsProcessedB++;
+            counters.itemsProcessedB++;
         }
 
-        try {
-            while (currentA != null || currentB != null) {
-                if (currentA != null && currentB != null) {
-                    Comparable<?> keyA = getKeyValue(currentA, keyAttribute, "listA");
-                    Comparable<?> keyB = getKeyValue(currentB, keyAttribute, "listB");
-
-                    int cmp = compareKeys(keyA, keyB, keyAttribute);
-
-                    String keyAStr = (keyA == null) ? "null" : keyA.toString();
-                    String keyBStr = (keyB == null) ? "null" : keyB.toString();
-
-                    if (cmp == 0) {
-                        int individualDiffsForKey = recordAttributeDifferences(currentA, currentB, keyAStr, attributesToCompare, allBreaksAndMatches);
-                        if (individualDiffsForKey == 0) {
-                            fullyMatchedKeys++;
-                            allBreaksAndMatches.add(new ComparisonBreak(keyAStr, null, null, null, "match"));
-                        } else {
-                            keysWithAttributeMismatch++;
-                            totalAttributeDifferences += individualDiffsForKey;
-                        }
-                        currentA = iteratorA.hasNext() ? iteratorA.next() : null;
-                        if (currentA != null) itemsProcessedA++;
-                        currentB = iteratorB.hasNext() ? iteratorB.next() : null;
-                        if (currentB != null) itemsProcessedB++;
-                    } else if (cmp < 0) {
-                        keysOnlyInA++;
-                        allBreaksAndMatches.add(new ComparisonBreak(keyAStr, "RecordMissing", "exists", "missing", "onlyOnA"));
-                        currentA = iteratorA.hasNext() ? iteratorA.next() : null;
-                        if (currentA != null) itemsProcessedA++;
-                    } else { // cmp > 0
-                        keysOnlyInB++;
-                        allBreaksAndMatches.add(new ComparisonBreak(keyBStr, "RecordMissing", "missing", "exists", "onlyOnB"));
-                        currentB = iteratorB.hasNext() ? iteratorB.next() : null;
-                        if (currentB != null) itemsProcessedB++;
+        while (currentA != null || currentB != null) {
+            if (currentA != null && currentB != null) {
+                Object keyA = keyOf(currentA, accessor, keyAttribute, sourceAName);
+                Object keyB = keyOf(currentB, accessor, keyAttribute, sourceBName);
+                int cmp = keys.compare(keyA, keyB);
+
+                if (cmp == 0) {
+                    if (useFingerprints && accessor.sameFingerprint(currentA, currentB)) {
+                        counters.fullyMatchedKeys++;
+                        counters.fingerprintMatches++;
+                        out.acceptMatch(keyA, keyString);
+                    } else {
+                        compareCommonKey(currentA, currentB, keyA, keyString, attributesToCompare, accessor, comparator, counters, out);
                     }
-                } else if (currentA != null) {
-                    keysOnlyInA++;
-                    Comparable<?> keyA = getKeyValue(currentA, keyAttribute, "listA");
-                    String keyAStr = (keyA == null) ? "null" : keyA.toString();
-                    allBreaksAndMatches.add(new ComparisonBreak(keyAStr, "RecordMissing", "exists", "missing", "onlyOnA"));
+                    if (orderA != null) orderA.consumed(keyA);
+                    if (orderB != null) orderB.consumed(keyB);
+                    currentA = iteratorA.hasNext() ? iteratorA.next() : null;
+                    if (currentA != null) counters.itemsProcessedA++;
+                    currentB = iteratorB.hasNext() ? iteratorB.next() : null;
+                    if (currentB != null) counters.itemsProcessedB++;
+                } else if (cmp < 0) {
+                    counters.keysOnlyInA++;
+                    // differenceField="RecordMissing", valueA="exists", valueB="missing"
+                    out.accept(new ComparisonBreak(keyString.apply(keyA), "RecordMissing", "exists", "missing", "onlyOnA"));
+                    if (orderA != null) orderA.consumed(keyA);
                     currentA = iteratorA.hasNext() ? iteratorA.next() : null;
-                    if (currentA != null) itemsProcessedA++;
-                } else { // currentB must be non-null
-                    keysOnlyInB++;
-                    Comparable<?> keyB = getKeyValue(currentB, keyAttribute, "listB");
-                    String keyBStr = (keyB == null) ? "null" : keyB.toString();
-                    allBreaksAndMatches.add(new ComparisonBreak(keyBStr, "RecordMissing", "missing", "exists", "onlyOnB"));
+                    if (currentA != null) counters.itemsProcessedA++;
+                } else { // cmp > 0
+                    counters.keysOnlyInB++;
+                    // differenceField="RecordMissing", valueA="missing", valueB="exists"
+                    out.accept(new ComparisonBreak(keyString.apply(keyB), "RecordMissing", "missing", "exists", "onlyOnB"));
+                    if (orderB != null) orderB.consumed(keyB);
                     currentB = iteratorB.hasNext() ? iteratorB.next() : null;
-                    if (currentB != null) itemsProcessedB++;
+                    if (currentB != null) counters.itemsProcessedB++;
                 }
+            } else if (currentA != null) {
+                counters.keysOnlyInA++;
+                Object keyA = keyOf(currentA, accessor, keyAttribute, sourceAName);
+                out.accept(new ComparisonBreak(keyString.apply(keyA), "RecordMissing", "exists", "missing", "onlyOnA"));
+                if (orderA != null) orderA.consumed(keyA);
+                currentA = iteratorA.hasNext() ? iteratorA.next() : null;
+                if (currentA != null) counters.itemsProcessedA++;
+            } else { // currentB must be non-null
+                counters.keysOnlyInB++;
+                Object keyB = keyOf(currentB, accessor, keyAttribute, sourceBName);
+                out.accept(new ComparisonBreak(keyString.apply(keyB), "RecordMissing", "missing", "exists", "onlyOnB"));
+                if (orderB != null) orderB.consumed(keyB);
+                currentB = iteratorB.hasNext() ? iteratorB.next() : null;
+                if (currentB != null) counters.itemsProcessedB++;
             }
-        } catch (Exception e) {
-            logger.error("Error during Java list comparison (key: {}): {}", keyAttribute, e.getMessage(), e);
-            throw new RuntimeException("Failed to compare lists with key attribute " + keyAttribute, e);
         }
+        out.finish();
+        if (verifySortOrder) {
+            counters.duplicateKeysA += orderA.duplicateKeys;
+            counters.duplicateKeysB += orderB.duplicateKeys;
+        }
+    }
 
-        ListComparisonResult<T> result = new ListComparisonResult<>(
-                allBreaksAndMatches, itemsProcessedA, itemsProcessedB, keysOnlyInA, keysOnlyInB,
-                keysWithAttributeMismatch, fullyMatchedKeys, totalAttributeDifferences
-        );
+    /**
+     * Previous key of one sorted merge-join input: logs keys that arrive out of order and counts
+     * the distinct keys that occur more than once. Null keys are not checked.
+     */
+    private static final class InputOrder {
+        private final KeyComparator keys;
+        private final String sourceName;
+        private Object prevKey;
+        private boolean prevRepeated; // prevKey occurred more than once
+        long duplicateKeys;
 
-        logSummary("Java List Comparison", "List A", "List B", keyAttribute,
-                itemsProcessedA, itemsProcessedB, keysOnlyInA, keysOnlyInB,
-                keysWithAttributeMismatch, fullyMatchedKeys, totalAttributeDifferences,
-                allBreaksAndMatches.size(), null);
+        InputOrder(KeyComparator keys, String sourceName) {
+            this.keys = keys;
+            this.sourceName = sourceName;
+        }
 
-        return result;
+        void consumed(Object key) {
+            int cmp = (KeyComparator.isNull(prevKey) || KeyComparator.isNull(key)) ? -1 : keys.compare(prevKey, key);
+            if (cmp > 0) {
+                logger.error("Sort order mismatch detected in collection '{}': key '{}' appeared after '{}' " +
+                                "but is less according to Java comparator. This indicates MongoDB's sort collation " +
+                                "differs from Java's Comparable.compareTo(). Results may be incorrect.",
+                        sourceName, keys.toKeyString(key), keys.toKeyString(prevKey));
+            } else if (cmp == 0 && !prevRepeated) {
+                duplicateKeys++;
+            }
+            prevRepeated = cmp == 0;
+            prevKey = key;
+        }
     }
 
-    private int compareKeys(Comparable<?> keyA, Comparable<?> keyB, String keyAttribute) {
-        if (keyA == null && keyB == null) {
-            return 0;
-        } else if (keyA == null) {
-            return -1;
-        } else if (keyB == null) {
-            return 1;
+    private static Consumer<ComparisonBreak> countingSink(MergeCounters counters, Consumer<ComparisonBreak> sink) {
+        return b -> {
+            counters.breaksEmitted++;
+            sink.accept(b);
+        };
+    }
+
+    // Compares the attributes of two records sharing a key and emits their differences, or one "match" row.
+    private <T> void compareCommonKey(T a,
+                                      T b,
+                                      Object key,
+                                      Function<Object, String> keyString,
+                                      List<String> attributesToCompare,
+                                      RecordAccessor<? super T> accessor,
+                                      AttributeComparator<T> comparator,
+                                      MergeCounters counters,
+                                      MatchRecorder out) {
+        int individualDiffsForKey = recordAttributeDifferences(a, b, key, keyString, attributesToCompare, accessor, comparator, out);
+        if (individualDiffsForKey == 0) {
+            counters.fullyMatchedKeys++;
+            out.acceptMatch(key, keyString);
         } else {
-            try {
-                //noinspection unchecked,rawtypes
-                return ((Comparable)keyA).compareTo(keyB);
-            } catch (ClassCastException e) {
-                logger.warn("ClassCastException during key comparison for key attribute '{}'. " +
-                                "Key A: '{}' (type {}), Key B: '{}' (type {}). " +
-                                "Falling back to String comparison.",
-                        keyAttribute, keyA, keyA.getClass().getName(), keyB, keyB.getClass().getName(), e);
-                return String.valueOf(keyA).compareTo(String.valueOf(keyB));
-            }
+            counters.keysWithAttributeMismatch++;
+            counters.totalAttributeDifferences += individualDiffsForKey;
         }
     }
 
-    private <T> Comparable<?> getKeyValue(T object, String keyAttribute, String sourceHint) {
+    // Raw key of a record as the accessor returns it; see KeyComparator for how it is ordered.
+    private <T> Object keyOf(T object, RecordAccessor<? super T> accessor, String keyAttribute, String sourceHint) {
         if (object == null) {
             logger.warn("Encountered a null object from source '{}' while trying to get key attribute '{}'. Treating key as null.", sourceHint, keyAttribute);
             return null;
         }
-        BeanWrapper wrapper = new BeanWrapperImpl(object);
-        Object keyValue;
-        try {
-            keyValue = wrapper.getPropertyValue(keyAttribute);
-        } catch (NotReadablePropertyException e) {
-            logger.trace("Key attribute '{}' not found on an object from source '{}'. Treating key as null. Object: {}", keyAttribute, sourceHint, object, e);
+        Object rawKey = accessor.key(object);
+        if (rawKey == RecordAccessor.MISSING) {
+            logger.trace("Key attribute '{}' not found on an object from source '{}'. Treating key as null. Object: {}", keyAttribute, sourceHint, object);
             return null;
         }
-
-        if (keyValue == null) {
-            return null;
-        }
-
-        if (keyValue instanceof Comparable) {
-            return (Comparable<?>) keyValue;
-        }
-
-        String errorMessage = String.format(
-                "Key attribute '%s' from source '%s' yielded a non-null value of type '%s' which is not Comparable. Value: '%s'. Object: %s",
-                keyAttribute, sourceHint, keyValue.getClass().getName(), keyValue.toString(), object.toString()
-        );
-        logger.error(errorMessage);
-        throw new IllegalArgumentException(errorMessage);
+        return rawKey;
     }
 
+    // Values are only read back and rendered for the attributes the comparator finds different.
     private <T> int recordAttributeDifferences(T a,
                                                T b,
-                                               String comparisonKey, // Renamed from 'key' to match model conceptually
+                                               Object key,
+                                               Function<Object, String> keyString,
                                                List<String> attributesToCompare,
-                                               List<ComparisonBreak> differencesOutputList) {
-        BeanWrapper wrapperA = new BeanWrapperImpl(a);
-        BeanWrapper wrapperB = new BeanWrapperImpl(b);
+                                               RecordAccessor<? super T> accessor,
+                                               AttributeComparator<T> comparator,
+                                               Consumer<ComparisonBreak> differencesOutput) {
         int currentKeyDifferences = 0;
+        String comparisonKey = null; // rendered with the first difference
 
-        for (String attr : attributesToCompare) {
-            Object valueAObj = null;
-            boolean attrAMissing = false;
-            try {
-                valueAObj = wrapperA.getPropertyValue(attr);
-            } catch (NotReadablePropertyException e) {
-                attrAMissing = true;
-                logger.trace("Attribute '{}' not readable from object in source A for key '{}'. Assuming null for comparison.", attr, comparisonKey);
+        for (int i = 0; i < attributesToCompare.size(); i++) {
+            if (comparator.same(a, b, i)) {
+                continue;
             }
-
-            Object valueBObj = null;
-            boolean attrBMissing = false;
-            try {
-                valueBObj = wrapperB.getPropertyValue(attr);
-            } catch (NotReadablePropertyException e) {
-                attrBMissing = true;
-                logger.trace("Attribute '{}' not readable from object in source B for key '{}'. Assuming null for comparison.", attr, comparisonKey);
+            String attr = attributesToCompare.get(i);
+            Object valueAObj = accessor.attribute(a, i);
+            boolean attrAMissing = valueAObj == RecordAccessor.MISSING;
+            if (attrAMissing) {
+                valueAObj = null;
+                logger.trace("Attribute '{}' not readable from object in source A for key '{}'. Rendering it as missing.", attr, key);
             }
 
-            if (!Objects.equals(valueAObj, valueBObj)) {
-                String valueInCollectionA = attrAMissing ? "[[missing]]" : (valueAObj == null ? "null" : valueAObj.toString());
-                String valueInCollectionB = attrBMissing ? "[[missing]]" : (valueBObj == null ? "null" : valueBObj.toString());
-                String differenceField = attr; // The attribute name that differs
+            Object valueBObj = accessor.attribute(b, i);
+            boolean attrBMissing = valueBObj == RecordAccessor.MISSING;
+            if (attrBMissing) {
+                valueBObj = null;
+                logger.trace("Attribute '{}' not readable from object in source B for key '{}'. Rendering it as missing.", attr, key);
+            }
 
-                differencesOutputList.add(new ComparisonBreak(
-                        comparisonKey,
-                        differenceField,
-                        valueInCollectionA,
-                        valueInCollectionB,
-                        "difference" // breakType
-                ));
-                currentKeyDifferences++;
+            String valueInCollectionA = attrAMissing ? "[[missing]]" : accessor.render(valueAObj);
+            String valueInCollectionB = attrBMissing ? "[[missing]]" : accessor.render(valueBObj);
+            String differenceField = attr; // The attribute name that differs
+            if (comparisonKey == null) {
+                comparisonKey = keyString.apply(key);
             }
+
+            differencesOutput.accept(new ComparisonBreak(
+                    comparisonKey,
+                    differenceField,
+                    valueInCollectionA,
+                    valueInCollectionB,
+                    "difference" // breakType
+            ));
+            currentKeyDifferences++;
         }
         return currentKeyDifferences;
     }
 
     private void logSummary(String comparisonTitle, String sourceAName, String sourceBName, String keyAttribute,
-                            long itemsProcessedA, long itemsProcessedB, long keysOnlyInA, long keysOnlyInB,
-                            long keysWithAttributeMismatch, long fullyMatchedKeys, long totalAttributeDifferences,
-                            long totalBreaksWritten, String outputTargetName) {
+                            MergeCounters counters, String outputTargetName) {
 
+        long itemsProcessedA = counters.itemsProcessedA;
+        long itemsProcessedB = counters.itemsProcessedB;
+        long keysOnlyInA = counters.keysOnlyInA;
+        long keysOnlyInB = counters.keysOnlyInB;
+        long keysWithAttributeMismatch = counters.keysWithAttributeMismatch;
+        long fullyMatchedKeys = counters.fullyMatchedKeys;
+        long totalAttributeDifferences = counters.totalAttributeDifferences;
+        long totalBreaksWritten = counters.breaksEmitted;
         long commonKeys = fullyMatchedKeys + keysWithAttributeMismatch;
         StringBuilder summary = new StringBuilder();
         summary.append(String.format("%s Summary (Key: '%s'):\n", comparisonTitle, keyAttribute));
@@ -449,8 +2011,29 @@ public class GenericComparisonService {
         summary.append(String.format("  Keys Only in B: %d\n", keysOnlyInB));
         summary.append(String.format("  Common Keys Found: %d\n", commonKeys));
         summary.append(String.format("    - Fully Matched Keys: %d\n", fullyMatchedKeys));
+        if (counters.fingerprintMatches > 0) {
+            summary.append(String.format("      - Matched by Fingerprint (attributes not compared): %d\n", counters.fingerprintMatches));
+        }
         summary.append(String.format("    - Keys with Attribute Mismatches: %d\n", keysWithAttributeMismatch));
         summary.append(String.format("  Total Individual Attribute Differences: %d\n", totalAttributeDifferences));
+        if (counters.duplicateKeysA > 0 || counters.duplicateKeysB > 0) {
+            summary.append(String.format("  Duplicate Keys in A / B (occurrences paired in order): %d / %d\n",
+                    counters.duplicateKeysA, counters.duplicateKeysB));
+        }
+        if (counters.unresolvedKeys > 0) {
+            summary.append(String.format("  Unresolved Duplicate Keys (not compared): %d\n", counters.unresolvedKeys));
+        }
+        if (counters.bytesReadA > 0 || counters.bytesReadB > 0) {
+            summary.append(String.format("  Bytes Transferred from A: %d (%s)\n", counters.bytesReadA, formatBytes(counters.bytesReadA)));
+            summary.append(String.format("  Bytes Transferred from B: %d (%s)\n", counters.bytesReadB, formatBytes(counters.bytesReadB)));
+        }
+        if (counters.waitNanosA > 0 || counters.waitNanosB > 0 || counters.prefetchBlockedNanosA > 0 || counters.prefetchBlockedNanosB > 0) {
+            // High waits mean the sources are the bottleneck; high blocked times mean the comparison is.
+            summary.append(String.format("  Time Waiting for A / B: %d ms / %d ms\n",
+                    TimeUnit.NANOSECONDS.toMillis(counters.waitNanosA), TimeUnit.NANOSECONDS.toMillis(counters.waitNanosB)));
+            summary.append(String.format("  Prefetch of A / B Blocked on Full Buffer: %d ms / %d ms\n",
+                    TimeUnit.NANOSECONDS.toMillis(counters.prefetchBlockedNanosA), TimeUnit.NANOSECONDS.toMillis(counters.prefetchBlockedNanosB)));
+        }
         if (outputTargetName != null) {
             summary.append(String.format("  Total Records Written to '%s': %d", outputTargetName, totalBreaksWritten));
         } else {
@@ -458,4 +2041,18 @@ public class GenericComparisonService {
         }
         logger.info(summary.toString());
     }
-}
\ No newline at end of file
+
+    private static String formatBytes(long bytes) {
+        if (bytes < 1024) {
+            return bytes + " B";
+        }
+        String[] units = {"KB", "MB", "GB", "TB"};
+        double value = bytes;
+        int unit = -1;
+        do {
+            value /= 1024;
+            unit++;
+        } while (value >= 1024 && unit < units.length - 1);
+        return String.format("%.1f %s", value, units[unit]);
+    }
+}
@@ -0,0 +1,107 @@
+package com.example.comparison.service;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Hash partitions of (key, fingerprint) entries spilled to local disk by the hash-join, one
+ * file per partition. Entries are written in arrival order and read back one partition at a
+ * time, so only a single partition ever has to fit in memory.
+ */
+final class HashSpillFiles implements AutoCloseable {
+
+    interface EntryConsumer {
+        void accept(byte[] encodedKey, long fingerprint);
+    }
+
+    private final Path directory;
+    private final Path[] files;
+    private final DataOutputStream[] outputs;
+
+    HashSpillFiles(String side, int partitions) {
+        try {
+            this.directory = Files.createTempDirectory("mongodiff-hash-" + side + "-");
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not create spill directory for hash partitions", e);
+        }
+        this.files = new Path[partitions];
+        this.outputs = new DataOutputStream[partitions];
+        for (int i = 0; i < partitions; i++) {
+            files[i] = directory.resolve("partition-" + i);
+        }
+    }
+
+    void write(int partition, byte[] encodedKey, long fingerprint) {
+        try {
+            DataOutputStream out = outputs[partition];
+            if (out == null) {
+                out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(files[partition]), 64 * 1024));
+                outputs[partition] = out;
+            }
+            out.writeInt(encodedKey.length);
+            out.write(encodedKey);
+            out.writeLong(fingerprint);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to spill hash partition " + partition + " to " + directory, e);
+        }
+    }
+
+    /**
+     * Reads back every entry of {@code partition}. All writes must be finished.
+     */
+    void forEach(int partition, EntryConsumer consumer) {
+        if (!Files.exists(files[partition])) {
+            return;
+        }
+        try {
+            closeOutput(partition);
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(files[partition]), 64 * 1024))) {
+                while (true) {
+                    int length;
+                    try {
+                        length = in.readInt();
+                    } catch (EOFException e) {
+                        break;
+                    }
+                    byte[] encodedKey = new byte[length];
+                    in.readFully(encodedKey);
+                    consumer.accept(encodedKey, in.readLong());
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to read hash partition " + partition + " from " + directory, e);
+        }
+    }
+
+    @Override
+    public void close() {
+        for (int i = 0; i < files.length; i++) {
+            try {
+                closeOutput(i);
+                Files.deleteIfExists(files[i]);
+            } catch (IOException e) {
+                // Best effort: the directory lives under java.io.tmpdir.
+            }
+        }
+        try {
+            Files.deleteIfExists(directory);
+        } catch (IOException e) {
+            // Best effort, as above.
+        }
+    }
+
+    private void closeOutput(int partition) throws IOException {
+        DataOutputStream out = outputs[partition];
+        if (out != null) {
+            outputs[partition] = null;
+            out.close();
+        }
+    }
+}
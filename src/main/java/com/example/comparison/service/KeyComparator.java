@@ -0,0 +1,186 @@
+package com.example.comparison.service;
+
+import org.bson.BsonInt32;
+import org.bson.BsonInt64;
+import org.bson.BsonNull;
+import org.bson.BsonObjectId;
+import org.bson.BsonString;
+import org.bson.types.ObjectId;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.function.Function;
+
+/**
+ * Orders the raw keys of one merge-join pass, as returned by {@link RecordAccessor#key}.
+ * <p>
+ * The key type is detected from the first non-null key. Integral keys ({@code int}/{@code long},
+ * boxed or BSON), strings and ObjectIds are then compared directly: integral keys as primitive
+ * {@code long}s, so an {@code int32} and an {@code int64} key compare numerically, as MongoDB
+ * sorts them. Any other key, or a key that does not match the detected type, is converted with
+ * the accessor's {@code comparableKey} and compared as a {@link Comparable}, falling back to
+ * comparing string forms when the two types cannot be compared.
+ * <p>
+ * {@link #toKeyString} renders a key as written into {@code ComparisonBreak} records; callers
+ * only render keys that end up in a break. Not thread-safe unless the type was fixed with
+ * {@link #detectType}: otherwise use one instance per pass.
+ */
+final class KeyComparator {
+
+    private static final Logger logger = LoggerFactory.getLogger(KeyComparator.class);
+
+    private enum KeyType { INTEGRAL, STRING, OBJECT_ID, OTHER }
+
+    private final String keyAttribute;
+    private final Function<Object, Object> toComparable;
+    private KeyType keyType;
+
+    KeyComparator(String keyAttribute, Function<Object, Object> toComparable) {
+        this.keyAttribute = keyAttribute;
+        this.toComparable = toComparable;
+    }
+
+    /**
+     * Fixes the key type from {@code sampleKey} instead of the first key compared. Once the type is
+     * known {@link #compare} keeps no state, so one instance can be shared by the threads of
+     * {@link java.util.Arrays#parallelSort}. A null sample leaves the type undetected.
+     */
+    void detectType(Object sampleKey) {
+        if (keyType == null && !isNull(sampleKey)) {
+            keyType = typeOf(sampleKey);
+        }
+    }
+
+    /**
+     * Null, {@link RecordAccessor#MISSING} and BSON null keys are the same (null) key and sort first.
+     */
+    int compare(Object keyA, Object keyB) {
+        boolean nullA = isNull(keyA);
+        boolean nullB = isNull(keyB);
+        if (nullA || nullB) {
+            return (nullA && nullB) ? 0 : (nullA ? -1 : 1);
+        }
+        if (keyType == null) {
+            keyType = typeOf(keyA);
+        }
+        switch (keyType) {
+            case INTEGRAL:
+                if (isIntegral(keyA) && isIntegral(keyB)) {
+                    return Long.compare(longValue(keyA), longValue(keyB));
+                }
+                break;
+            case STRING:
+                if (isString(keyA) && isString(keyB)) {
+                    return stringValue(keyA).compareTo(stringValue(keyB));
+                }
+                break;
+            case OBJECT_ID:
+                if (isObjectId(keyA) && isObjectId(keyB)) {
+                    return objectIdValue(keyA).compareTo(objectIdValue(keyB));
+                }
+                break;
+            default:
+                break;
+        }
+        return compareComparables(keyA, keyB);
+    }
+
+    /**
+     * String form of {@code key} written into {@code ComparisonBreak} records; "null" for a null key.
+     */
+    String toKeyString(Object key) {
+        if (isNull(key)) {
+            return "null";
+        }
+        if (key instanceof String) {
+            return (String) key;
+        }
+        Object comparable = toComparable.apply(key);
+        return (comparable == null) ? "null" : comparable.toString();
+    }
+
+    static boolean isNull(Object key) {
+        return key == null || key == RecordAccessor.MISSING || key instanceof BsonNull;
+    }
+
+    /**
+     * Whether the string forms of keys like {@code key} sort as the keys themselves do, so that
+     * key strings written into breaks can be compared as strings: true for strings and ObjectIds
+     * (rendered as 24 hex digits), false for numbers ("12" sorts before "7"), dates and other keys.
+     */
+    static boolean rendersInKeyOrder(Object key) {
+        return isString(key) || isObjectId(key);
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private int compareComparables(Object rawKeyA, Object rawKeyB) {
+        Comparable keyA = comparable(rawKeyA);
+        Comparable keyB = comparable(rawKeyB);
+        if (keyA == null || keyB == null) {
+            return (keyA == keyB) ? 0 : (keyA == null ? -1 : 1);
+        }
+        try {
+            return keyA.compareTo(keyB);
+        } catch (ClassCastException e) {
+            logger.warn("ClassCastException during key comparison for key attribute '{}'. " +
+                            "Key A: '{}' (type {}), Key B: '{}' (type {}). " +
+                            "Falling back to String comparison.",
+                    keyAttribute, keyA, keyA.getClass().getName(), keyB, keyB.getClass().getName(), e);
+            return String.valueOf(keyA).compareTo(String.valueOf(keyB));
+        }
+    }
+
+    private Comparable<?> comparable(Object rawKey) {
+        Object key = toComparable.apply(rawKey);
+        if (key == null || key instanceof Comparable) {
+            return (Comparable<?>) key;
+        }
+        String errorMessage = String.format(
+                "Key attribute '%s' yielded a non-null value of type '%s' which is not Comparable. Value: '%s'",
+                keyAttribute, key.getClass().getName(), key);
+        logger.error(errorMessage);
+        throw new IllegalArgumentException(errorMessage);
+    }
+
+    private static KeyType typeOf(Object key) {
+        if (isIntegral(key)) {
+            return KeyType.INTEGRAL;
+        } else if (isString(key)) {
+            return KeyType.STRING;
+        } else if (isObjectId(key)) {
+            return KeyType.OBJECT_ID;
+        }
+        return KeyType.OTHER;
+    }
+
+    private static boolean isIntegral(Object key) {
+        return key instanceof Integer || key instanceof Long || key instanceof BsonInt32 || key instanceof BsonInt64;
+    }
+
+    private static long longValue(Object key) {
+        if (key instanceof Integer) {
+            return (Integer) key;
+        } else if (key instanceof Long) {
+            return (Long) key;
+        } else if (key instanceof BsonInt32) {
+            return ((BsonInt32) key).getValue();
+        }
+        return ((BsonInt64) key).getValue();
+    }
+
+    private static boolean isString(Object key) {
+        return key instanceof String || key instanceof BsonString;
+    }
+
+    private static String stringValue(Object key) {
+        return (key instanceof String) ? (String) key : ((BsonString) key).getValue();
+    }
+
+    private static boolean isObjectId(Object key) {
+        return key instanceof ObjectId || key instanceof BsonObjectId;
+    }
+
+    private static ObjectId objectIdValue(Object key) {
+        return (key instanceof ObjectId) ? (ObjectId) key : ((BsonObjectId) key).getValue();
+    }
+}
@@ -0,0 +1,134 @@
+package com.example.comparison.service;
+
+import org.bson.BsonInt32;
+import org.bson.BsonInt64;
+import org.bson.BsonNull;
+import org.bson.BsonObjectId;
+import org.bson.BsonString;
+import org.bson.types.ObjectId;
+
+import java.util.Arrays;
+
+/**
+ * Open-addressing (linear probing) hash index over the keys of two lists, for the hash-join of
+ * {@code compareLists}. Every distinct key gets a slot holding the positions of its elements in
+ * list B, in insertion order, plus the number of times it was seen on each side. The table is
+ * sized up front for the number of keys and never grows.
+ * <p>
+ * Keys must first be normalized with {@link #hashKey}, which maps every key {@link KeyComparator}
+ * considers equal to the same object.
+ */
+final class KeyIndex {
+
+    // Normalized form of null, missing and BSON null keys, which the merge-join treats as one key.
+    private static final Object NULL_KEY = new Object();
+
+    private final Object[] keys;
+    private final int[] headB;
+    private final int[] tailB;
+    private final int[] countA;
+    private final int[] countB;
+    private final int[] nextB;
+    private final int mask;
+
+    KeyIndex(int maxKeys, int sizeB) {
+        int capacity = OpenAddressing.capacityFor(maxKeys);
+        this.keys = new Object[capacity];
+        this.headB = new int[capacity];
+        this.tailB = new int[capacity];
+        this.countA = new int[capacity];
+        this.countB = new int[capacity];
+        this.nextB = new int[sizeB];
+        this.mask = capacity - 1;
+        Arrays.fill(headB, -1);
+        Arrays.fill(tailB, -1);
+    }
+
+    /**
+     * Normalizes a raw key for hashing: integral keys to {@link Long}, strings to {@link String}
+     * and ObjectIds to {@link ObjectId}, boxed or BSON. Returns null for any other key, which
+     * cannot be hashed consistently with the merge-join's ordering.
+     */
+    static Object hashKey(Object key) {
+        if (KeyComparator.isNull(key)) {
+            return NULL_KEY;
+        } else if (key instanceof Integer) {
+            return (long) (Integer) key;
+        } else if (key instanceof Long || key instanceof String || key instanceof ObjectId) {
+            return key;
+        } else if (key instanceof BsonInt32) {
+            return (long) ((BsonInt32) key).getValue();
+        } else if (key instanceof BsonInt64) {
+            return ((BsonInt64) key).getValue();
+        } else if (key instanceof BsonString) {
+            return ((BsonString) key).getValue();
+        } else if (key instanceof BsonObjectId) {
+            return ((BsonObjectId) key).getValue();
+        }
+        return null;
+    }
+
+    /**
+     * Whether {@code hashKey} is the normalized null key. Null keys may be mixed with any key type.
+     */
+    static boolean isNullKey(Object hashKey) {
+        return hashKey == NULL_KEY;
+    }
+
+    /**
+     * Slot of a normalized key, claiming a free one on first sight.
+     */
+    int slotOf(Object hashKey) {
+        int slot = OpenAddressing.firstSlot(hashKey, mask);
+        while (true) {
+            Object existing = keys[slot];
+            if (existing == null) {
+                keys[slot] = hashKey;
+                return slot;
+            }
+            if (existing == hashKey || existing.equals(hashKey)) {
+                return slot;
+            }
+            slot = (slot + 1) & mask;
+        }
+    }
+
+    /**
+     * Appends the element at {@code positionB} of list B to the slot.
+     *
+     * @return how many times the key has now been seen in list B
+     */
+    int addB(int slot, int positionB) {
+        nextB[positionB] = -1;
+        if (tailB[slot] < 0) {
+            headB[slot] = positionB;
+        } else {
+            nextB[tailB[slot]] = positionB;
+        }
+        tailB[slot] = positionB;
+        return ++countB[slot];
+    }
+
+    /**
+     * Counts one occurrence of the slot's key in list A.
+     *
+     * @return how many times the key has now been seen in list A
+     */
+    int addA(int slot) {
+        return ++countA[slot];
+    }
+
+    /**
+     * Removes and returns the position of the slot's oldest unpaired element of list B, or -1.
+     */
+    int pollB(int slot) {
+        int positionB = headB[slot];
+        if (positionB >= 0) {
+            headB[slot] = nextB[positionB];
+            if (headB[slot] < 0) {
+                tailB[slot] = -1;
+            }
+        }
+        return positionB;
+    }
+}
@@ -0,0 +1,134 @@
+package com.example.comparison.service;
+
+import com.mongodb.client.model.Aggregates;
+import com.mongodb.client.model.Filters;
+import org.bson.BsonDocument;
+import org.bson.BsonType;
+import org.bson.BsonValue;
+import org.bson.RawBsonDocument;
+import org.bson.conversions.Bson;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.data.mongodb.core.MongoTemplate;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Splits the key space of a collection comparison into contiguous ranges that can be
+ * merge-joined independently. Split points are chosen from a {@code $sample} of keys taken from
+ * both collections, so ranges hold roughly equal numbers of documents without scanning either
+ * collection.
+ * <p>
+ * MongoDB range operators only match values of the same BSON type as the bound, so the first
+ * range is expressed as "not greater than or equal to the first split point". It therefore also
+ * receives documents whose key is null, missing or of a different type, and every document
+ * lands in exactly one range. Both collections are partitioned with the same filters, so a key
+ * always meets its counterpart.
+ */
+final class KeyRangePartitioner {
+
+    // Sampled keys per requested range, per collection.
+    static final int SAMPLES_PER_PARTITION = 64;
+
+    private static final Logger logger = LoggerFactory.getLogger(KeyRangePartitioner.class);
+
+    private final MongoTemplate templateA;
+    private final MongoTemplate templateB;
+
+    KeyRangePartitioner(MongoTemplate templateA, MongoTemplate templateB) {
+        this.templateA = templateA;
+        this.templateB = templateB;
+    }
+
+    /**
+     * @return one filter per key range, in key order. A single empty filter (the whole collection)
+     *         is returned when the sampled keys cannot be split, e.g. because they mix BSON types.
+     */
+    List<Bson> partition(String collectionA, String collectionB, String keyField, int partitions) {
+        if (partitions < 2) {
+            return List.of(new BsonDocument());
+        }
+        int sampleSize = partitions * SAMPLES_PER_PARTITION;
+        List<BsonValue> sampledKeys = new ArrayList<>(2 * sampleSize);
+        sampleKeys(templateA, collectionA, keyField, sampleSize, sampledKeys);
+        sampleKeys(templateB, collectionB, keyField, sampleSize, sampledKeys);
+
+        List<BsonValue> splitPoints = splitPoints(sampledKeys, partitions);
+        if (splitPoints.isEmpty()) {
+            logger.info("Could not split key '{}' of '{}' and '{}' into ranges; comparing sequentially.", keyField, collectionA, collectionB);
+            return List.of(new BsonDocument());
+        }
+        return rangeFilters(keyField, splitPoints);
+    }
+
+    private static void sampleKeys(MongoTemplate template, String collectionName, String keyField, int sampleSize, List<BsonValue> into) {
+        RawBsonAccessor keyAccessor = new RawBsonAccessor(keyField, List.of());
+        List<Bson> pipeline = List.of(
+                Aggregates.sample(sampleSize),
+                Aggregates.project(GenericComparisonService.projectionFor(keyField, List.of())));
+        for (RawBsonDocument document : template.getCollection(collectionName)
+                .withDocumentClass(RawBsonDocument.class)
+                .aggregate(pipeline)
+                .allowDiskUse(true)) {
+            Object key = keyAccessor.key(document);
+            if (key instanceof BsonValue) {
+                into.add((BsonValue) key);
+            }
+        }
+    }
+
+    /**
+     * Picks up to {@code partitions - 1} distinct, ascending split points at evenly spaced
+     * quantiles of the sampled keys. Returns an empty list when the keys are not all of one
+     * sortable BSON type.
+     */
+    static List<BsonValue> splitPoints(List<BsonValue> sampledKeys, int partitions) {
+        if (sampledKeys.isEmpty()) {
+            return List.of();
+        }
+        BsonType type = sampledKeys.get(0).getBsonType();
+        if (!isRangeable(type) || sampledKeys.stream().anyMatch(k -> k.getBsonType() != type)) {
+            return List.of();
+        }
+
+        // Ordered as the merge-join orders the keys of the ranges.
+        KeyComparator keys = new KeyComparator("_id", new RawBsonAccessor("_id", List.of())::comparableKey);
+        List<BsonValue> sorted = new ArrayList<>(sampledKeys);
+        sorted.sort(keys::compare);
+
+        List<BsonValue> splitPoints = new ArrayList<>(partitions - 1);
+        for (int i = 1; i < partitions; i++) {
+            BsonValue candidate = sorted.get((int) ((long) i * sorted.size() / partitions));
+            if (splitPoints.isEmpty() || !splitPoints.get(splitPoints.size() - 1).equals(candidate)) {
+                splitPoints.add(candidate);
+            }
+        }
+        return splitPoints;
+    }
+
+    static List<Bson> rangeFilters(String keyField, List<BsonValue> splitPoints) {
+        List<Bson> filters = new ArrayList<>(splitPoints.size() + 1);
+        filters.add(Filters.not(Filters.gte(keyField, splitPoints.get(0))));
+        for (int i = 1; i < splitPoints.size(); i++) {
+            filters.add(Filters.and(Filters.gte(keyField, splitPoints.get(i - 1)), Filters.lt(keyField, splitPoints.get(i))));
+        }
+        filters.add(Filters.gte(keyField, splitPoints.get(splitPoints.size() - 1)));
+        return filters;
+    }
+
+    static boolean isRangeable(BsonType type) {
+        switch (type) {
+            case STRING:
+            case INT32:
+            case INT64:
+            case DOUBLE:
+            case DECIMAL128:
+            case OBJECT_ID:
+            case DATE_TIME:
+                return true;
+            default:
+                return false;
+        }
+    }
+}
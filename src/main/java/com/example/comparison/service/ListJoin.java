@@ -0,0 +1,26 @@
+package com.example.comparison.service;
+
+/**
+ * How {@code compareLists} pairs up the elements of its two lists. Both joins pair the i-th
+ * occurrence of a key in list A with its i-th occurrence in list B and produce the same breaks
+ * and counters; only the order of the breaks differs.
+ */
+public enum ListJoin {
+
+    /**
+     * {@link #HASH} for lists of at least {@code comparison.lists.hash-threshold} elements whose
+     * keys it can index, unless the match policy needs key order; {@link #MERGE} otherwise.
+     */
+    AUTO,
+
+    /** Sort both lists on the key and merge-join them. Breaks come back in key order. */
+    MERGE,
+
+    /**
+     * Index list B by key and probe it with list A, without sorting. Breaks follow the order of
+     * list A, followed by the keys only in list B in the order of list B. Only integral, string
+     * and ObjectId keys can be indexed; other keys are merge-joined. {@link MatchPolicy#RANGES}
+     * records a counter instead.
+     */
+    HASH
+}
@@ -0,0 +1,89 @@
+package com.example.comparison.service;
+
+import org.bson.RawBsonDocument;
+
+import java.util.List;
+import java.util.function.Function;
+
+/**
+ * A projected document read by {@code compareCollections}, with the entity it maps to. The entity
+ * is mapped on the first call to {@link #entity}, so a row whose bytes already match the other
+ * side's is never mapped at all.
+ *
+ * @param <T> entity type
+ */
+final class MappedDocument<T> {
+
+    final RawBsonDocument document;
+    private final Function<RawBsonDocument, T> mapper;
+    private T entity;
+
+    MappedDocument(RawBsonDocument document, Function<RawBsonDocument, T> mapper) {
+        this.document = document;
+        this.mapper = mapper;
+    }
+
+    /**
+     * @return the mapped entity; mapped on first use, by the thread calling this
+     */
+    T entity() {
+        if (entity == null) {
+            entity = mapper.apply(document);
+        }
+        return entity;
+    }
+
+    /**
+     * Reads the key of mapped documents from their bytes, as {@link RawBsonAccessor} does, and the
+     * compared attributes from their entities through a {@link BeanAccessorPlan.Cache}. Two
+     * documents whose projected bytes are equal are a match without mapping either of them.
+     */
+    static final class Accessor implements RecordAccessor<MappedDocument<?>> {
+        private final RawBsonAccessor raw;
+        private final BeanAccessorPlan.Cache beans;
+
+        /**
+         * @param keyField     stored name of the key
+         * @param keyAttribute Java property of the key
+         */
+        Accessor(String keyField, String keyAttribute, List<String> attributes) {
+            this.raw = new RawBsonAccessor(keyField, List.of());
+            this.beans = new BeanAccessorPlan.Cache(keyAttribute, attributes);
+        }
+
+        @Override
+        public Object key(MappedDocument<?> record) {
+            return raw.key(record.document);
+        }
+
+        @Override
+        public Object attribute(MappedDocument<?> record, int index) {
+            return beans.attribute(record.entity(), index);
+        }
+
+        @Override
+        public Object comparableKey(Object rawKey) {
+            return raw.comparableKey(rawKey);
+        }
+
+        @Override
+        public boolean hasPrimitiveDouble(MappedDocument<?> record, int index) {
+            return beans.hasPrimitiveDouble(record.entity(), index);
+        }
+
+        @Override
+        public double readDouble(MappedDocument<?> record, int index) {
+            return beans.readDouble(record.entity(), index);
+        }
+
+        @Override
+        public boolean hasFingerprint() {
+            return true;
+        }
+
+        @Override
+        public boolean sameFingerprint(MappedDocument<?> recordA, MappedDocument<?> recordB) {
+            return raw.sameFingerprint(recordA.document, recordB.document);
+        }
+    }
+}
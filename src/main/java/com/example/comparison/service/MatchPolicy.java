@@ -0,0 +1,36 @@
+package com.example.comparison.service;
+
+/**
+ * How fully matched keys are recorded in a comparison's output. Differences and missing records
+ * are always written one row per key; only the "match" rows change.
+ * <p>
+ * Whatever the policy, the number of matched keys can be recovered from the output (except with
+ * {@link #NONE}): it is the number of "match" rows plus the {@code matchCount} of every
+ * "matchCount" and "matchRange" row.
+ */
+public enum MatchPolicy {
+
+    /** One "match" row per matched key. */
+    ALL,
+
+    /** No rows for matched keys; they only appear in the logged summary. */
+    NONE,
+
+    /** A single "matchCount" row per merge pass carrying the number of matched keys. */
+    COUNTER,
+
+    /**
+     * Every {@code comparison.matches.sample-rate}-th matched key as a "match" row, plus a
+     * "matchCount" row for the matched keys that were not written.
+     */
+    SAMPLED,
+
+    /**
+     * Runs of consecutive matched keys collapsed into one "matchRange" row whose
+     * {@code valueInCollectionA} and {@code valueInCollectionB} hold the first and last key of the
+     * run. Needs key-ordered output, so comparisons that are not merge-joins record a counter instead.
+     * The bounds are compared as strings, so only string and ObjectId keys are collapsed; matched
+     * keys of other types (numbers, dates) are counted in a "matchCount" row.
+     */
+    RANGES
+}
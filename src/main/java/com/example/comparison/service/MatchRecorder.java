@@ -0,0 +1,149 @@
+package com.example.comparison.service;
+
+import com.example.comparison.model.ComparisonBreak;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * Applies a {@link MatchPolicy} to the breaks of one comparison pass before they reach
+ * {@code sink}. Rows other than "match" are passed through unchanged and end the current run of
+ * matched keys. {@link #finish()} must be called once the pass is done to write what is still
+ * pending. Not thread-safe: use one recorder per pass.
+ * <p>
+ * Matched keys can also be passed unrendered through {@link #acceptMatch}, so that only the keys
+ * of rows actually written are turned into strings.
+ * <p>
+ * Under {@link MatchPolicy#RANGES} only string and ObjectId keys are collapsed into ranges, as
+ * the bounds of a range are compared as strings when it is looked up (see
+ * {@link BreakReader#covers}). Matched keys of any other type are counted in the "matchCount"
+ * row instead.
+ */
+final class MatchRecorder implements Consumer<ComparisonBreak> {
+
+    private static final Logger logger = LoggerFactory.getLogger(MatchRecorder.class);
+
+    private final MatchPolicy policy;
+    private final int sampleRate;
+    private final Consumer<ComparisonBreak> sink;
+
+    private long matchesSeen;
+    private long matchesNotWritten;
+    private Object rangeFirstKey;
+    private Object rangeLastKey;
+    private Function<Object, String> rangeKeyString;
+    private long rangeLength;
+    private boolean rangesRefused;
+
+    MatchRecorder(MatchPolicy policy, int sampleRate, Consumer<ComparisonBreak> sink) {
+        if (policy == MatchPolicy.SAMPLED && sampleRate < 1) {
+            throw new IllegalArgumentException("Match sample rate must be at least 1, got " + sampleRate);
+        }
+        this.policy = policy;
+        this.sampleRate = sampleRate;
+        this.sink = sink;
+    }
+
+    @Override
+    public void accept(ComparisonBreak comparisonBreak) {
+        if (!"match".equals(comparisonBreak.getBreakType())) {
+            flushRange();
+            sink.accept(comparisonBreak);
+            return;
+        }
+        acceptMatch(comparisonBreak.getComparisonKey(), key -> (String) key);
+    }
+
+    /**
+     * Records a fully matched {@code key}; {@code keyString} is only applied to keys that are written.
+     */
+    void acceptMatch(Object key, Function<Object, String> keyString) {
+        switch (policy) {
+            case ALL:
+                sink.accept(match(keyString.apply(key)));
+                break;
+            case NONE:
+                break;
+            case COUNTER:
+                matchesNotWritten++;
+                break;
+            case SAMPLED:
+                if (matchesSeen++ % sampleRate == 0) {
+                    sink.accept(match(keyString.apply(key)));
+                } else {
+                    matchesNotWritten++;
+                }
+                break;
+            case RANGES:
+                if (!KeyComparator.rendersInKeyOrder(key)) {
+                    refuseRange(key);
+                    break;
+                }
+                if (rangeLength == 0) {
+                    rangeFirstKey = key;
+                    rangeKeyString = keyString;
+                }
+                rangeLastKey = key;
+                rangeLength++;
+                break;
+            default:
+                throw new IllegalStateException("Unknown match policy " + policy);
+        }
+    }
+
+    void finish() {
+        flushRange();
+        if (matchesNotWritten > 0) {
+            sink.accept(matchCount(matchesNotWritten));
+            matchesNotWritten = 0;
+        }
+    }
+
+    /**
+     * A "matchCount" row standing for {@code matchedKeys} matched keys that have no row of their own.
+     */
+    static ComparisonBreak matchCount(long matchedKeys) {
+        ComparisonBreak row = new ComparisonBreak(null, null, null, null, "matchCount");
+        row.setMatchCount(matchedKeys);
+        return row;
+    }
+
+    /**
+     * A "matchRange" row standing for {@code length} consecutive matched keys from {@code firstKey}
+     * to {@code lastKey}.
+     */
+    static ComparisonBreak matchRange(String firstKey, String lastKey, long length) {
+        ComparisonBreak row = new ComparisonBreak(firstKey, null, firstKey, lastKey, "matchRange");
+        row.setMatchCount(length);
+        return row;
+    }
+
+    static ComparisonBreak match(String key) {
+        // For a "match", differenceField, valueA, valueB are null.
+        return new ComparisonBreak(key, null, null, null, "match");
+    }
+
+    private void refuseRange(Object key) {
+        flushRange();
+        matchesNotWritten++;
+        if (!rangesRefused) {
+            rangesRefused = true;
+            logger.warn("Match ranges need string or ObjectId keys; matched keys of type {} are counted instead.",
+                    key.getClass().getName());
+        }
+    }
+
+    private void flushRange() {
+        if (rangeLength == 1) {
+            sink.accept(match(rangeKeyString.apply(rangeFirstKey)));
+        } else if (rangeLength > 1) {
+            sink.accept(matchRange(rangeKeyString.apply(rangeFirstKey), rangeKeyString.apply(rangeLastKey), rangeLength));
+        }
+        rangeLength = 0;
+        rangeFirstKey = null;
+        rangeLastKey = null;
+        rangeKeyString = null;
+    }
+}
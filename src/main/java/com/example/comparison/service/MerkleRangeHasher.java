@@ -0,0 +1,165 @@
+package com.example.comparison.service;
+
+import com.mongodb.client.model.Aggregates;
+import com.mongodb.client.model.Filters;
+import org.bson.BsonDocument;
+import org.bson.BsonType;
+import org.bson.BsonValue;
+import org.bson.Document;
+import org.bson.conversions.Bson;
+import org.springframework.data.mongodb.core.MongoTemplate;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Server-side digests of key ranges for {@link GenericComparisonService#compareCollectionsMerkle}.
+ * <p>
+ * The digest of a range is computed by one aggregation: every document in the range is reduced
+ * to the array of its key and compared fields, hashed with {@code $toHashedIndexKey} (MongoDB
+ * 7.0+), and the hashes are summed. Sums do not depend on document order, so both collections
+ * yield the same digest for the same rows. Two hashes of each row are summed, each reduced modulo
+ * 2<sup>31</sup> so that the sums cannot overflow, which keeps about 62 bits of the row hash.
+ * Only the digest (a count, two sums and the lowest and highest key) crosses the network.
+ * <p>
+ * {@code $toHashedIndexKey} hashes numbers by value, so an int32 and a double holding the same
+ * number hash alike, and missing fields hash like nulls.
+ * <p>
+ * Ranges are bounded as in {@link KeyRangePartitioner}: a range without a lower bound also holds
+ * null, missing and differently typed keys, so the children of a range always cover it exactly.
+ */
+final class MerkleRangeHasher {
+
+    // Keeps each summed term below 2^31, so a sum over up to 2^32 documents fits in a long.
+    private static final long MODULUS = 1L << 31;
+
+    /**
+     * Key range {@code [lower, upper)}; a null bound is open.
+     */
+    static final class KeyRange {
+        final BsonValue lower;
+        final BsonValue upper;
+
+        KeyRange(BsonValue lower, BsonValue upper) {
+            this.lower = lower;
+            this.upper = upper;
+        }
+    }
+
+    /**
+     * Digest of the documents of one collection in one key range.
+     */
+    static final class Digest {
+        static final Digest EMPTY = new Digest(0, 0, 0, null, null);
+
+        final long count;
+        final long hash1;
+        final long hash2;
+        final BsonValue firstKey;
+        final BsonValue lastKey;
+
+        Digest(long count, long hash1, long hash2, BsonValue firstKey, BsonValue lastKey) {
+            this.count = count;
+            this.hash1 = hash1;
+            this.hash2 = hash2;
+            this.firstKey = firstKey;
+            this.lastKey = lastKey;
+        }
+
+        /**
+         * Whether both ranges hold the same rows, up to hash collisions.
+         */
+        boolean sameRows(Digest other) {
+            return count == other.count && hash1 == other.hash1 && hash2 == other.hash2;
+        }
+    }
+
+    private final String keyField;
+    private final List<Object> row;
+
+    MerkleRangeHasher(String keyField, List<String> attributeFields) {
+        this.keyField = keyField;
+        this.row = new ArrayList<>(attributeFields.size() + 1);
+        row.add("$" + keyField);
+        for (String attributeField : attributeFields) {
+            row.add("$" + attributeField);
+        }
+    }
+
+    Bson filter(KeyRange range) {
+        if (range.lower == null) {
+            return (range.upper == null) ? new BsonDocument() : Filters.not(Filters.gte(keyField, range.upper));
+        }
+        return (range.upper == null)
+                ? Filters.gte(keyField, range.lower)
+                : Filters.and(Filters.gte(keyField, range.lower), Filters.lt(keyField, range.upper));
+    }
+
+    Digest digest(MongoTemplate template, String collectionName, KeyRange range) {
+        List<Bson> pipeline = List.of(
+                Aggregates.match(filter(range)),
+                new Document("$group", new Document("_id", null)
+                        .append("n", new Document("$sum", 1))
+                        .append("h1", new Document("$sum", hashTerm(row)))
+                        .append("h2", new Document("$sum", hashTerm(Arrays.asList("h2", row))))
+                        .append("lo", new Document("$min", "$" + keyField))
+                        .append("hi", new Document("$max", "$" + keyField))));
+        List<BsonDocument> result = aggregate(template, collectionName, pipeline);
+        if (result.isEmpty()) {
+            return Digest.EMPTY;
+        }
+        BsonDocument digest = result.get(0);
+        return new Digest(longValue(digest.get("n")), longValue(digest.get("h1")), longValue(digest.get("h2")),
+                digest.get("lo"), digest.get("hi"));
+    }
+
+    /**
+     * Splits {@code range} into at most {@code fanout} ranges holding similar numbers of the
+     * documents of {@code collectionName}, with {@code $bucketAuto} over its keys. Returns an
+     * empty list when the range cannot be split: one key, or keys that are not all of one
+     * sortable BSON type.
+     */
+    List<KeyRange> split(MongoTemplate template, String collectionName, KeyRange range, int fanout) {
+        List<Bson> pipeline = List.of(
+                Aggregates.match(filter(range)),
+                new Document("$bucketAuto", new Document("groupBy", "$" + keyField).append("buckets", fanout)));
+        List<BsonDocument> buckets = aggregate(template, collectionName, pipeline);
+        List<BsonValue> splitPoints = new ArrayList<>(buckets.size());
+        for (int i = 1; i < buckets.size(); i++) {
+            splitPoints.add(buckets.get(i).getDocument("_id").get("min"));
+        }
+        BsonType type = (range.lower != null) ? range.lower.getBsonType()
+                : (range.upper != null) ? range.upper.getBsonType()
+                : splitPoints.isEmpty() ? null : splitPoints.get(0).getBsonType();
+        if (splitPoints.isEmpty() || !KeyRangePartitioner.isRangeable(type)
+                || splitPoints.stream().anyMatch(p -> p.getBsonType() != type)) {
+            return List.of();
+        }
+
+        List<KeyRange> children = new ArrayList<>(splitPoints.size() + 1);
+        BsonValue lower = range.lower;
+        for (BsonValue splitPoint : splitPoints) {
+            children.add(new KeyRange(lower, splitPoint));
+            lower = splitPoint;
+        }
+        children.add(new KeyRange(lower, range.upper));
+        return children;
+    }
+
+    private static Document hashTerm(Object value) {
+        return new Document("$mod", List.of(new Document("$toHashedIndexKey", value), MODULUS));
+    }
+
+    private static List<BsonDocument> aggregate(MongoTemplate template, String collectionName, List<Bson> pipeline) {
+        return template.getCollection(collectionName)
+                .withDocumentClass(BsonDocument.class)
+                .aggregate(pipeline)
+                .allowDiskUse(true)
+                .into(new ArrayList<>());
+    }
+
+    private static long longValue(BsonValue value) {
+        return (value != null && value.isNumber()) ? value.asNumber().longValue() : 0;
+    }
+}
@@ -0,0 +1,32 @@
+package com.example.comparison.service;
+
+import com.example.comparison.model.ComparisonBreak;
+import org.springframework.data.mongodb.core.MongoTemplate;
+
+/**
+ * {@link BreakSink} writing one document per break, on top of {@link BulkInsertWriter}.
+ */
+public class MongoBreakWriter extends BulkInsertWriter<ComparisonBreak> implements BreakSink {
+
+    private final String runId;
+
+    public MongoBreakWriter(MongoTemplate mongoTemplate, String collectionName, int batchSize, int writerThreads) {
+        this(mongoTemplate, collectionName, null, batchSize, writerThreads);
+    }
+
+    /**
+     * @param runId stamped on every break written, see {@link ComparisonRunRegistry}
+     */
+    public MongoBreakWriter(MongoTemplate mongoTemplate, String collectionName, String runId, int batchSize, int writerThreads) {
+        super(mongoTemplate, ComparisonBreak.class, collectionName, batchSize, writerThreads);
+        this.runId = runId;
+    }
+
+    @Override
+    public void accept(ComparisonBreak comparisonBreak) {
+        if (runId != null) {
+            comparisonBreak.setRunId(runId);
+        }
+        super.accept(comparisonBreak);
+    }
+}
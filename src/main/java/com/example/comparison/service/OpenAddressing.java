@@ -0,0 +1,26 @@
+package com.example.comparison.service;
+
+/**
+ * Sizing and hashing shared by the open-addressing (linear probing) tables of the hash-joins,
+ * {@link FingerprintTable} and {@link KeyIndex}.
+ */
+final class OpenAddressing {
+
+    private OpenAddressing() {
+    }
+
+    /**
+     * @return the power-of-two capacity that holds {@code keys} keys at a load factor of at most 0.5
+     */
+    static int capacityFor(int keys) {
+        return Integer.highestOneBit(Math.max(4, keys * 2) - 1) << 1;
+    }
+
+    /**
+     * @return the first slot to probe for {@code key} in a table of {@code mask + 1} slots
+     */
+    static int firstSlot(Object key, int mask) {
+        int h = key.hashCode() * 0x9E3779B9; // spreads sequential keys over the table
+        return (h ^ (h >>> 16)) & mask;
+    }
+}
@@ -0,0 +1,159 @@
+package com.example.comparison.service;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Reads a source iterator on a dedicated thread into a bounded queue, so that fetching (and
+ * decoding) the next documents overlaps with whatever the consumer does with the current ones.
+ * <p>
+ * Elements are handed over in batches of {@code batchSize} and at most {@code queueBatches}
+ * batches are buffered, which bounds memory to {@code batchSize * (queueBatches + 2)} elements.
+ * A failure on the reader thread is rethrown from {@link #hasNext()} once the elements read
+ * before it have been consumed. {@link #close()} stops the reader; it does not close the source.
+ * <p>
+ * Two timings tell which side is the bottleneck: {@link #getWaitNanos()} is the time the consumer
+ * spent waiting for a batch (the source is slower, e.g. network-bound), and
+ * {@link #getBlockedNanos()} is the time the reader spent waiting for room in the queue (the
+ * consumer is slower, e.g. CPU-bound). Both are final once the iterator is closed.
+ */
+final class PrefetchingIterator<T> implements Iterator<T>, AutoCloseable {
+
+    // Marks the end of the source; compared by identity.
+    private static final List<Object> END = Collections.unmodifiableList(new ArrayList<>());
+
+    private final BlockingQueue<List<Object>> queue;
+    private final Thread reader;
+    private volatile Throwable failure;
+    private volatile boolean closed;
+    private volatile long blockedNanos;
+    private long waitNanos;
+
+    private List<Object> current = Collections.emptyList();
+    private int position;
+    private boolean finished;
+
+    PrefetchingIterator(Iterator<? extends T> source, int batchSize, int queueBatches, String threadName) {
+        if (batchSize < 1 || queueBatches < 1) {
+            throw new IllegalArgumentException("batchSize and queueBatches must be at least 1, got " + batchSize + " and " + queueBatches);
+        }
+        this.queue = new ArrayBlockingQueue<>(queueBatches);
+        this.reader = new Thread(() -> read(source, batchSize), threadName);
+        this.reader.setDaemon(true);
+        this.reader.start();
+    }
+
+    private void read(Iterator<? extends T> source, int batchSize) {
+        List<Object> batch = new ArrayList<>(batchSize);
+        try {
+            while (!closed && source.hasNext()) {
+                batch.add(source.next());
+                if (batch.size() >= batchSize) {
+                    put(batch);
+                    batch = new ArrayList<>(batchSize);
+                }
+            }
+        } catch (InterruptedException e) {
+            // Closed by the consumer.
+            return;
+        } catch (Throwable t) {
+            failure = t;
+        }
+        try {
+            // Elements read before a failure are still delivered ahead of it.
+            if (!batch.isEmpty()) {
+                put(batch);
+            }
+            queue.put(END);
+        } catch (InterruptedException e) {
+            // Closed by the consumer.
+        }
+    }
+
+    private void put(List<Object> batch) throws InterruptedException {
+        if (!queue.offer(batch)) {
+            long start = System.nanoTime();
+            queue.put(batch);
+            blockedNanos += System.nanoTime() - start;
+        }
+    }
+
+    @Override
+    public boolean hasNext() {
+        while (position >= current.size()) {
+            if (finished) {
+                return false;
+            }
+            List<Object> next;
+            try {
+                next = queue.poll();
+                if (next == null) {
+                    long start = System.nanoTime();
+                    next = queue.take();
+                    waitNanos += System.nanoTime() - start;
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted while waiting for " + reader.getName(), e);
+            }
+            if (next == END) {
+                finished = true;
+                Throwable t = failure;
+                if (t instanceof RuntimeException) {
+                    throw (RuntimeException) t;
+                } else if (t instanceof Error) {
+                    throw (Error) t;
+                } else if (t != null) {
+                    throw new IllegalStateException("Failed to read source on " + reader.getName(), t);
+                }
+                return false;
+            }
+            current = next;
+            position = 0;
+        }
+        return true;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public T next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        return (T) current.get(position++);
+    }
+
+    /**
+     * Time the consumer spent in {@link #hasNext()} waiting for the reader to deliver a batch.
+     */
+    long getWaitNanos() {
+        return waitNanos;
+    }
+
+    /**
+     * Time the reader spent waiting for the consumer to make room in the queue.
+     */
+    long getBlockedNanos() {
+        return blockedNanos;
+    }
+
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        reader.interrupt();
+        queue.clear();
+        try {
+            reader.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,164 @@
+package com.example.comparison.service;
+
+import org.bson.Document;
+import org.bson.conversions.Bson;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Aggregation pipelines that run a collection comparison inside MongoDB.
+ * <ul>
+ *     <li>{@link #breaks} runs on collection A and joins it with collection B: each side is reduced
+ *     to its key and compared values, collection B is appended with {@code $unionWith}, and
+ *     {@code $group} on the key collects the per-key presence counts and the values from each
+ *     side. Every group is turned into {@code ComparisonBreak} documents, which are written into
+ *     the output collection with {@code $merge}.</li>
+ *     <li>{@link #breakCounts} runs on the output collection and counts the breaks the first one
+ *     wrote, so the join runs only once.</li>
+ * </ul>
+ * Values are compared with aggregation {@code $eq}, after treating missing values as null, and
+ * rendered with {@code $convert}. Renderings therefore follow MongoDB's string conversion (a
+ * double {@code 2000.0} becomes {@code "2000"}) rather than Java's {@code toString()}.
+ */
+final class PushdownPipeline {
+
+    private final String collectionB;
+    private final String keyField;
+    private final List<String> attributeNames;
+    private final List<String> attributeFields;
+
+    /**
+     * @param attributeNames  names written as {@code differenceField}, in {@code attributesToCompare} order
+     * @param attributeFields stored field paths of the same attributes
+     */
+    PushdownPipeline(String collectionB, String keyField, List<String> attributeNames, List<String> attributeFields) {
+        this.collectionB = collectionB;
+        this.keyField = keyField;
+        this.attributeNames = attributeNames;
+        this.attributeFields = attributeFields;
+    }
+
+    /**
+     * @param runId        stamped on every break document as {@code runId}
+     * @param writeMatches whether a "match" document is written for every fully matched key
+     */
+    List<Bson> breaks(String outputCollectionName, String runId, boolean writeMatches) {
+        List<Bson> pipeline = join();
+        Document perKey = new Document("$switch", new Document("branches", List.of(
+                new Document("case", new Document("$eq", List.of("$nB", 0)))
+                        .append("then", List.of(recordMissing("exists", "missing", "onlyOnA"))),
+                new Document("case", new Document("$eq", List.of("$nA", 0)))
+                        .append("then", List.of(recordMissing("missing", "exists", "onlyOnB")))))
+                .append("default", new Document("$let", new Document("vars", new Document("d", differences()))
+                        .append("in", new Document("$cond", List.of(
+                                new Document("$eq", List.of(new Document("$size", "$$d"), 0)),
+                                writeMatches ? List.of(breakDocument(null, null, null, "match")) : List.of(),
+                                "$$d"))))));
+        pipeline.add(new Document("$project", new Document("_id", 0).append("breaks", perKey)));
+        pipeline.add(new Document("$unwind", "$breaks"));
+        pipeline.add(new Document("$replaceWith", new Document("$mergeObjects", List.of("$breaks", new Document("runId", runId)))));
+        pipeline.add(new Document("$merge", new Document("into", outputCollectionName)));
+        return pipeline;
+    }
+
+    /**
+     * Counts the "onlyOnA", "onlyOnB" and "difference" rows of run {@code runId}: one document per
+     * break type ({@code _id}) with the number of keys ({@code keys}) and rows ({@code rows}) of
+     * that type. The run's rows are found through the {@code (runId, comparisonKey)} index.
+     */
+    static List<Bson> breakCounts(String runId) {
+        return List.of(
+                new Document("$match", new Document("runId", runId)
+                        .append("breakType", new Document("$in", List.of("onlyOnA", "onlyOnB", "difference")))),
+                new Document("$group", new Document("_id", new Document("breakType", "$breakType").append("key", "$comparisonKey"))
+                        .append("rows", new Document("$sum", 1))),
+                new Document("$group", new Document("_id", "$_id.breakType")
+                        .append("keys", new Document("$sum", 1))
+                        .append("rows", new Document("$sum", "$rows"))));
+    }
+
+    // One group per key with presence counts (nA, nB) and the compared values of each side (a, b).
+    private List<Bson> join() {
+        List<Bson> pipeline = new ArrayList<>();
+        pipeline.add(sideProjection("A"));
+        pipeline.add(new Document("$unionWith", new Document("coll", collectionB)
+                .append("pipeline", List.of(sideProjection("B")))));
+        pipeline.add(new Document("$group", new Document("_id", "$k")
+                .append("nA", countIf(isSide("A")))
+                .append("nB", countIf(isSide("B")))
+                // $mergeObjects skips the nulls contributed by the other side.
+                .append("a", new Document("$mergeObjects", new Document("$cond", Arrays.asList(isSide("A"), "$v", null))))
+                .append("b", new Document("$mergeObjects", new Document("$cond", Arrays.asList(isSide("B"), "$v", null))))));
+        return pipeline;
+    }
+
+    // Keeps the key as "k" and compared values as "v.v0", "v.v1", ...; missing fields stay missing.
+    private Document sideProjection(String side) {
+        Document values = new Document();
+        for (int i = 0; i < attributeFields.size(); i++) {
+            values.append("v" + i, "$" + attributeFields.get(i));
+        }
+        Document projection = new Document("_id", 0)
+                .append("k", "$" + keyField)
+                .append("s", side);
+        if (!values.isEmpty()) {
+            projection.append("v", values);
+        }
+        return new Document("$project", projection);
+    }
+
+    private Document differences() {
+        List<Object> perAttribute = new ArrayList<>(attributeFields.size());
+        for (int i = 0; i < attributeFields.size(); i++) {
+            String valueA = "$a.v" + i;
+            String valueB = "$b.v" + i;
+            perAttribute.add(new Document("$cond", List.of(
+                    sameValue(valueA, valueB),
+                    List.of(),
+                    List.of(breakDocument(attributeNames.get(i), render(valueA), render(valueB), "difference")))));
+        }
+        return new Document("$concatArrays", perAttribute);
+    }
+
+    private static Document sameValue(String valueA, String valueB) {
+        return new Document("$eq", List.of(
+                new Document("$ifNull", Arrays.asList(valueA, null)),
+                new Document("$ifNull", Arrays.asList(valueB, null))));
+    }
+
+    private static Document render(String value) {
+        return new Document("$switch", new Document("branches", List.of(
+                new Document("case", new Document("$eq", List.of(new Document("$type", value), "missing")))
+                        .append("then", "[[missing]]"),
+                new Document("case", new Document("$eq", List.of(new Document("$type", value), "null")))
+                        .append("then", "null")))
+                .append("default", new Document("$convert", new Document("input", value)
+                        .append("to", "string")
+                        .append("onError", "[[unrenderable]]"))));
+    }
+
+    private static Document recordMissing(String valueA, String valueB, String breakType) {
+        return breakDocument("RecordMissing", valueA, valueB, breakType);
+    }
+
+    private static Document breakDocument(Object differenceField, Object valueA, Object valueB, String breakType) {
+        return new Document("comparisonKey", new Document("$convert", new Document("input", "$_id")
+                .append("to", "string")
+                .append("onNull", "null")
+                .append("onError", "[[unrenderable]]")))
+                .append("differenceField", differenceField)
+                .append("valueInCollectionA", valueA)
+                .append("valueInCollectionB", valueB)
+                .append("breakType", breakType);
+    }
+
+    private static Document isSide(String side) {
+        return new Document("$eq", List.of("$s", side));
+    }
+
+    private static Document countIf(Document condition) {
+        return new Document("$sum", new Document("$cond", List.of(condition, 1, 0)));
+    }
+}
@@ -0,0 +1,160 @@
+package com.example.comparison.service;
+
+import org.bson.BsonDocument;
+import org.bson.BsonValue;
+import org.bson.RawBsonDocument;
+import org.bson.types.Decimal128;
+
+import java.nio.ByteBuffer;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * {@link RecordAccessor} over {@link RawBsonDocument}s straight from the driver, without mapping
+ * them into entities. Only the key and the compared field paths are ever decoded: each lookup
+ * scans the raw bytes for the requested field and returns it as a {@link BsonValue}. Embedded
+ * documents are returned as raw slices and compared byte-for-byte.
+ * <p>
+ * Unlike the mapped path, values are compared with their stored BSON types, so an int32 and an
+ * int64 holding the same number are reported as a difference.
+ * <p>
+ * The fingerprint of a record is its raw bytes, so {@link #sameFingerprint} is only meaningful for
+ * documents projected down to the key and the compared fields. Two such documents with the same
+ * bytes have the same key and attributes; documents that store the same values in a different
+ * field order differ and fall back to the attribute comparison.
+ */
+final class RawBsonAccessor implements RecordAccessor<RawBsonDocument> {
+
+    private final String[] keyPath;
+    private final String[][] attributePaths;
+
+    /**
+     * @param keyField        stored (not Java property) name of the key, e.g. {@code _id}
+     * @param attributeFields stored names of the compared attributes; dotted paths address embedded documents
+     */
+    RawBsonAccessor(String keyField, List<String> attributeFields) {
+        this.keyPath = keyField.split("\\.");
+        this.attributePaths = new String[attributeFields.size()][];
+        for (int i = 0; i < attributePaths.length; i++) {
+            attributePaths[i] = attributeFields.get(i).split("\\.");
+        }
+    }
+
+    @Override
+    public Object key(RawBsonDocument record) {
+        return lookup(record, keyPath);
+    }
+
+    @Override
+    public Object attribute(RawBsonDocument record, int index) {
+        return lookup(record, attributePaths[index]);
+    }
+
+    @Override
+    public Object comparableKey(Object rawKey) {
+        if (!(rawKey instanceof BsonValue)) {
+            return rawKey;
+        }
+        BsonValue value = (BsonValue) rawKey;
+        switch (value.getBsonType()) {
+            case NULL:
+                return null;
+            case STRING:
+                return value.asString().getValue();
+            case INT32:
+                return value.asInt32().getValue();
+            case INT64:
+                return value.asInt64().getValue();
+            case DOUBLE:
+                return value.asDouble().getValue();
+            case DECIMAL128:
+                return value.asDecimal128().getValue().bigDecimalValue();
+            case OBJECT_ID:
+                return value.asObjectId().getValue();
+            case DATE_TIME:
+                return new Date(value.asDateTime().getValue());
+            case BOOLEAN:
+                return value.asBoolean().getValue();
+            default:
+                return value;
+        }
+    }
+
+    @Override
+    public boolean hasFingerprint() {
+        return true;
+    }
+
+    // Both rows are at hand, so their bytes are compared directly: cheaper than hashing them, and never a false match.
+    @Override
+    public boolean sameFingerprint(RawBsonDocument recordA, RawBsonDocument recordB) {
+        return sameBytes(recordA, recordB);
+    }
+
+    @Override
+    public boolean sameValue(Object valueA, Object valueB) {
+        if (valueA instanceof RawBsonDocument && valueB instanceof RawBsonDocument) {
+            return sameBytes((RawBsonDocument) valueA, (RawBsonDocument) valueB);
+        }
+        return RecordAccessor.super.sameValue(valueA, valueB);
+    }
+
+    /**
+     * Renders values the way the mapped path's {@code toString()} would for the equivalent Java
+     * type, so breaks look the same whichever mode produced them.
+     */
+    @Override
+    public String render(Object value) {
+        if (!(value instanceof BsonValue)) {
+            return RecordAccessor.super.render(value);
+        }
+        BsonValue bson = (BsonValue) value;
+        switch (bson.getBsonType()) {
+            case NULL:
+                return "null";
+            case STRING:
+                return bson.asString().getValue();
+            case INT32:
+                return Integer.toString(bson.asInt32().getValue());
+            case INT64:
+                return Long.toString(bson.asInt64().getValue());
+            case DOUBLE:
+                return Double.toString(bson.asDouble().getValue());
+            case DECIMAL128:
+                Decimal128 decimal = bson.asDecimal128().getValue();
+                return decimal.bigDecimalValue().toString();
+            case OBJECT_ID:
+                return bson.asObjectId().getValue().toHexString();
+            case DATE_TIME:
+                return new Date(bson.asDateTime().getValue()).toString();
+            case BOOLEAN:
+                return Boolean.toString(bson.asBoolean().getValue());
+            case DOCUMENT:
+                return bson.asDocument().toJson();
+            default:
+                return bson.toString();
+        }
+    }
+
+    private static Object lookup(BsonDocument document, String[] path) {
+        BsonDocument current = document;
+        for (int i = 0; i < path.length - 1; i++) {
+            BsonValue next = current.get(path[i]);
+            if (next == null || !next.isDocument()) {
+                return MISSING;
+            }
+            current = next.asDocument();
+        }
+        BsonValue value = current.get(path[path.length - 1]);
+        if (value == null) {
+            return MISSING;
+        }
+        return value.isNull() ? null : value;
+    }
+
+    private static boolean sameBytes(RawBsonDocument a, RawBsonDocument b) {
+        ByteBuffer bytesA = a.getByteBuffer().asNIO();
+        ByteBuffer bytesB = b.getByteBuffer().asNIO();
+        return bytesA.equals(bytesB);
+    }
+}
@@ -0,0 +1,76 @@
+package com.example.comparison.service;
+
+import java.util.Objects;
+
+/**
+ * How the merge-join reads and compares one kind of record (mapped entities, raw BSON, ...).
+ * Attribute indexes follow the order of {@code attributesToCompare} given to the comparison.
+ *
+ * @param <T> record type
+ */
+interface RecordAccessor<T> {
+
+    /** Sentinel for a key or attribute that is not present on a record. */
+    Object MISSING = BeanAccessorPlan.MISSING;
+
+    /**
+     * @return the raw key value, {@code null}, or {@link #MISSING}
+     */
+    Object key(T record);
+
+    /**
+     * @return the attribute value at {@code index}, {@code null}, or {@link #MISSING}
+     */
+    Object attribute(T record, int index);
+
+    /**
+     * Converts a raw key into the {@link Comparable} used for merge ordering.
+     * Returns the value unchanged if it already is one.
+     */
+    default Object comparableKey(Object rawKey) {
+        return rawKey;
+    }
+
+    default boolean sameValue(Object valueA, Object valueB) {
+        return Objects.equals(valueA, valueB);
+    }
+
+    /**
+     * Whether the attribute at {@code index} of {@code record} is a primitive {@code double} (or
+     * {@code float}) that {@link #readDouble} returns without boxing.
+     */
+    default boolean hasPrimitiveDouble(T record, int index) {
+        return false;
+    }
+
+    /**
+     * Unboxed value of an attribute for which {@link #hasPrimitiveDouble} is true. Accessors that
+     * cannot read it unboxed fall back to the boxed {@link #attribute}.
+     */
+    default double readDouble(T record, int index) {
+        return ((Number) attribute(record, index)).doubleValue();
+    }
+
+    /** String form written into {@code ComparisonBreak} records. */
+    default String render(Object value) {
+        return value == null ? "null" : value.toString();
+    }
+
+    /**
+     * Whether {@link #sameFingerprint} can prove a match. Accessors that would have to read every
+     * attribute to compute a fingerprint leave this off, since the comparison itself costs no more.
+     */
+    default boolean hasFingerprint() {
+        return false;
+    }
+
+    /**
+     * Whether {@code recordA} and {@code recordB} have the same fingerprint, a cheap check that
+     * proves equal key and compared attributes. Records with equal fingerprints are treated as a
+     * match without comparing attributes; differing fingerprints prove nothing, so accessors
+     * without one return false.
+     */
+    default boolean sameFingerprint(T recordA, T recordB) {
+        return false;
+    }
+}
@@ -0,0 +1,254 @@
+package com.example.comparison.service;
+
+import org.apache.poi.ss.usermodel.Cell;
+import org.apache.poi.ss.usermodel.CellStyle;
+import org.apache.poi.ss.usermodel.FillPatternType;
+import org.apache.poi.ss.usermodel.IndexedColors;
+import org.apache.poi.ss.usermodel.Workbook;
+import org.springframework.beans.BeanUtils;
+
+import java.beans.PropertyDescriptor;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * The columns {@link ExcelReportService} shows for an entity class: its declared instance fields,
+ * in declaration order, each with a getter and a cell writer chosen once per class.
+ * <p>
+ * Fields with a bean getter are read through the compiled getters of {@link BeanAccessorPlan};
+ * other fields through a field {@link MethodHandle}. Nothing is looked up by reflection while
+ * cells are written.
+ * <p>
+ * Values keep their type in the sheet: numbers are written as numeric cells, dates
+ * ({@link Date}, {@link Calendar}, {@link Instant}, {@link LocalDate}, {@link LocalDateTime}) as
+ * date cells with a date format, booleans as boolean cells, and anything else as its
+ * {@code toString()}. Integral values with more digits than a double holds exactly are written as
+ * text, so ids and counters are not rounded. Null values leave the cell blank.
+ */
+final class ReportColumns {
+
+    // Fill of a cell: none, or the colours of the two sides in the difference sheet.
+    static final int NO_FILL = 0;
+    static final int FILL_A = 1;
+    static final int FILL_B = 2;
+
+    // Number format of a cell, for Styles.
+    private static final int GENERAL = 0;
+    private static final int DATE = 1;
+    private static final int DATE_TIME = 2;
+
+    // Largest magnitude up to which every long is exactly a double.
+    private static final long EXACT_DOUBLE_LIMIT = 1L << 53;
+
+    private static final ClassValue<ReportColumns> COLUMNS = new ClassValue<>() {
+        @Override
+        protected ReportColumns computeValue(Class<?> type) {
+            return new ReportColumns(type);
+        }
+    };
+
+    /**
+     * Writes one value into a cell with the style it needs.
+     */
+    private interface CellWriter {
+        void write(Cell cell, Object value, Styles styles, int fill);
+    }
+
+    private final List<String> names;
+    private final Map<String, Integer> indexes;
+    private final Function<Object, Object>[] getters;
+    private final CellWriter[] writers;
+
+    @SuppressWarnings("unchecked")
+    private ReportColumns(Class<?> type) {
+        List<Field> fields = new ArrayList<>();
+        for (Field field : type.getDeclaredFields()) {
+            if (!Modifier.isStatic(field.getModifiers()) && !field.isSynthetic()) {
+                fields.add(field);
+            }
+        }
+        List<String> names = new ArrayList<>(fields.size());
+        Map<String, Integer> indexes = new HashMap<>();
+        this.getters = (Function<Object, Object>[]) new Function<?, ?>[fields.size()];
+        this.writers = new CellWriter[fields.size()];
+        for (int i = 0; i < fields.size(); i++) {
+            Field field = fields.get(i);
+            names.add(field.getName());
+            indexes.put(field.getName(), i);
+            getters[i] = getter(type, field);
+            writers[i] = writerFor(field.getType());
+        }
+        this.names = Collections.unmodifiableList(names);
+        this.indexes = indexes;
+    }
+
+    static ReportColumns of(Class<?> type) {
+        return COLUMNS.get(type);
+    }
+
+    List<String> names() {
+        return names;
+    }
+
+    /**
+     * @return the column index of {@code name}, or -1 if the class declares no such field
+     */
+    int indexOf(String name) {
+        Integer index = indexes.get(name);
+        return (index != null) ? index : -1;
+    }
+
+    /**
+     * Writes column {@code index} of {@code bean} into {@code cell}; a null bean leaves it blank,
+     * with the fill still applied.
+     */
+    void write(Cell cell, int index, Object bean, Styles styles, int fill) {
+        Object value = (bean != null) ? getters[index].apply(bean) : null;
+        if (value == null || value == BeanAccessorPlan.MISSING) {
+            styles.apply(cell, fill, GENERAL);
+            return;
+        }
+        writers[index].write(cell, value, styles, fill);
+    }
+
+    private static Function<Object, Object> getter(Class<?> type, Field field) {
+        PropertyDescriptor descriptor = BeanUtils.getPropertyDescriptor(type, field.getName());
+        Method readMethod = (descriptor != null) ? descriptor.getReadMethod() : null;
+        if (readMethod != null && readMethod.getReturnType() == field.getType()) {
+            return BeanAccessorPlan.getter(type, field.getName());
+        }
+        MethodHandle handle;
+        try {
+            handle = MethodHandles.privateLookupIn(type, MethodHandles.lookup())
+                    .unreflectGetter(field)
+                    .asType(MethodType.methodType(Object.class, Object.class));
+        } catch (IllegalAccessException e) {
+            throw new IllegalStateException("Cannot read field '" + field.getName() + "' of " + type.getName(), e);
+        }
+        return bean -> {
+            try {
+                return handle.invokeExact(bean);
+            } catch (Throwable t) {
+                throw new IllegalStateException("Failed to read field '" + field.getName() + "' of " + type.getName(), t);
+            }
+        };
+    }
+
+    private static CellWriter writerFor(Class<?> type) {
+        if (type == double.class || type == float.class || type == int.class || type == short.class || type == byte.class
+                || type == Double.class || type == Float.class || type == Integer.class || type == Short.class || type == Byte.class) {
+            return (cell, value, styles, fill) -> {
+                cell.setCellValue(((Number) value).doubleValue());
+                styles.apply(cell, fill, GENERAL);
+            };
+        }
+        if (type == boolean.class || type == Boolean.class) {
+            return (cell, value, styles, fill) -> {
+                cell.setCellValue((Boolean) value);
+                styles.apply(cell, fill, GENERAL);
+            };
+        }
+        if (type == String.class) {
+            return (cell, value, styles, fill) -> {
+                cell.setCellValue((String) value);
+                styles.apply(cell, fill, GENERAL);
+            };
+        }
+        // Longs, big numbers, dates and declared supertypes: decided by the value.
+        return ReportColumns::writeValue;
+    }
+
+    private static void writeValue(Cell cell, Object value, Styles styles, int fill) {
+        int format = GENERAL;
+        if (value instanceof Number && isExactDouble((Number) value)) {
+            cell.setCellValue(((Number) value).doubleValue());
+        } else if (value instanceof Boolean) {
+            cell.setCellValue((Boolean) value);
+        } else if (value instanceof Date) {
+            cell.setCellValue((Date) value);
+            format = DATE_TIME;
+        } else if (value instanceof Calendar) {
+            cell.setCellValue((Calendar) value);
+            format = DATE_TIME;
+        } else if (value instanceof Instant) {
+            cell.setCellValue(Date.from((Instant) value));
+            format = DATE_TIME;
+        } else if (value instanceof LocalDateTime) {
+            cell.setCellValue((LocalDateTime) value);
+            format = DATE_TIME;
+        } else if (value instanceof LocalDate) {
+            cell.setCellValue((LocalDate) value);
+            format = DATE;
+        } else {
+            cell.setCellValue(value.toString());
+        }
+        styles.apply(cell, fill, format);
+    }
+
+    // Whether a double shows the number without rounding it.
+    private static boolean isExactDouble(Number number) {
+        if (number instanceof Double || number instanceof Float || number instanceof Integer
+                || number instanceof Short || number instanceof Byte) {
+            return true;
+        }
+        if (number instanceof Long) {
+            return Math.abs(number.longValue()) <= EXACT_DOUBLE_LIMIT;
+        }
+        if (number instanceof BigInteger) {
+            return ((BigInteger) number).abs().compareTo(BigInteger.valueOf(EXACT_DOUBLE_LIMIT)) <= 0;
+        }
+        if (number instanceof BigDecimal) {
+            return ((BigDecimal) number).precision() <= 15;
+        }
+        return false;
+    }
+
+    /**
+     * The cell styles of one workbook, created on first use and shared by every cell that needs
+     * the same fill and number format. Workbooks hold a limited number of styles, so cells must
+     * not get one each.
+     */
+    static final class Styles {
+        private final Workbook workbook;
+        private final Map<Integer, CellStyle> styles = new HashMap<>();
+
+        Styles(Workbook workbook) {
+            this.workbook = workbook;
+        }
+
+        void apply(Cell cell, int fill, int format) {
+            if (fill != NO_FILL || format != GENERAL) {
+                cell.setCellStyle(styles.computeIfAbsent(fill * 3 + format, k -> create(fill, format)));
+            }
+        }
+
+        private CellStyle create(int fill, int format) {
+            CellStyle style = workbook.createCellStyle();
+            if (fill != NO_FILL) {
+                style.setFillForegroundColor(((fill == FILL_A) ? IndexedColors.LIGHT_YELLOW : IndexedColors.LIGHT_GREEN).getIndex());
+                style.setFillPattern(FillPatternType.SOLID_FOREGROUND);
+            }
+            if (format != GENERAL) {
+                style.setDataFormat(workbook.createDataFormat().getFormat((format == DATE) ? "yyyy-mm-dd" : "yyyy-mm-dd hh:mm:ss"));
+            }
+            return style;
+        }
+    }
+}
@@ -0,0 +1,188 @@
+package com.example.comparison.service;
+
+import com.example.comparison.model.ComparisonBreak;
+import org.springframework.data.mapping.PersistentEntity;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * Loads the compared documents that {@link ExcelReportService} shows next to the breaks, with one
+ * {@code _id $in} query per {@code batchSize} keys and collection instead of a {@code findById}
+ * per key and side.
+ * <p>
+ * As an iterator it cuts key-sorted breaks into {@link KeyBatch}es of at most {@code batchSize}
+ * keys, never splitting the breaks of one key, and loads the documents of each batch before
+ * returning it. Side A is loaded for keys with an onlyOnA or difference break and side B for keys
+ * with an onlyOnB or difference break. Read through a {@link PrefetchingIterator}, the next batch
+ * is loaded while the current one is written to the sheets. With a preview limit, each sheet
+ * shows only its first {@code previewRows} keys, so documents are loaded for those keys only.
+ * <p>
+ * Documents are matched to keys by their mapped id, as {@code findById} looks them up.
+ */
+final class ReportDocumentFetcher implements Iterator<ReportDocumentFetcher.KeyBatch> {
+
+    /**
+     * Consecutive breaks of up to {@code batchSize} keys and the documents they refer to, by key.
+     */
+    static final class KeyBatch {
+        final List<ComparisonBreak> breaks = new ArrayList<>();
+        final Map<String, Object> documentsA = new HashMap<>();
+        final Map<String, Object> documentsB = new HashMap<>();
+    }
+
+    private final MongoTemplate mongoTemplate;
+    private final Class<?> clazz;
+    private final String collectionA;
+    private final String collectionB;
+    private final int batchSize;
+    private final long previewRows;
+    private final Iterator<ComparisonBreak> breaks;
+    private ComparisonBreak pending;
+
+    // Keys seen so far with each break type shown in a sheet, and the last of them; breaks arrive in key order.
+    private long keysOnlyOnA;
+    private long keysOnlyOnB;
+    private long keysWithDifferences;
+    private String lastOnlyOnA;
+    private String lastOnlyOnB;
+    private String lastDifference;
+
+    // Written on the fetching thread; read once the PrefetchingIterator over it is closed.
+    private volatile long fetchNanos;
+    private volatile long queries;
+    private volatile long documents;
+
+    /**
+     * @param previewRows keys shown per sheet, or 0 for all of them
+     */
+    ReportDocumentFetcher(MongoTemplate mongoTemplate, Class<?> clazz, String collectionA, String collectionB,
+                          int batchSize, long previewRows, Iterator<ComparisonBreak> breaks) {
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("batchSize must be at least 1, got " + batchSize);
+        }
+        this.mongoTemplate = mongoTemplate;
+        this.clazz = clazz;
+        this.collectionA = collectionA;
+        this.collectionB = collectionB;
+        this.batchSize = batchSize;
+        this.previewRows = previewRows;
+        this.breaks = breaks;
+    }
+
+    ReportDocumentFetcher(MongoTemplate mongoTemplate, Class<?> clazz, String collectionA, String collectionB, int batchSize) {
+        this(mongoTemplate, clazz, collectionA, collectionB, batchSize, 0, null);
+    }
+
+    @Override
+    public boolean hasNext() {
+        return pending != null || breaks.hasNext();
+    }
+
+    @Override
+    public KeyBatch next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        KeyBatch batch = new KeyBatch();
+        Set<String> keys = new LinkedHashSet<>();
+        Set<String> keysA = new LinkedHashSet<>();
+        Set<String> keysB = new LinkedHashSet<>();
+        while (pending != null || breaks.hasNext()) {
+            ComparisonBreak comparisonBreak = (pending != null) ? pending : breaks.next();
+            pending = null;
+            String key = comparisonBreak.getComparisonKey();
+            if (key != null && !keys.contains(key)) {
+                if (keys.size() >= batchSize) {
+                    pending = comparisonBreak;
+                    break;
+                }
+                keys.add(key);
+            }
+            batch.breaks.add(comparisonBreak);
+            if (key == null) {
+                continue;
+            }
+            String breakType = comparisonBreak.getBreakType();
+            if ("onlyOnA".equals(breakType) && !key.equals(lastOnlyOnA)) {
+                lastOnlyOnA = key;
+                if (inPreview(keysOnlyOnA++)) {
+                    keysA.add(key);
+                }
+            } else if ("onlyOnB".equals(breakType) && !key.equals(lastOnlyOnB)) {
+                lastOnlyOnB = key;
+                if (inPreview(keysOnlyOnB++)) {
+                    keysB.add(key);
+                }
+            } else if ("difference".equals(breakType) && !key.equals(lastDifference)) {
+                lastDifference = key;
+                if (inPreview(keysWithDifferences++)) {
+                    keysA.add(key);
+                    keysB.add(key);
+                }
+            }
+        }
+        batch.documentsA.putAll(fetch(collectionA, keysA));
+        batch.documentsB.putAll(fetch(collectionB, keysB));
+        return batch;
+    }
+
+    private boolean inPreview(long keysBefore) {
+        return previewRows <= 0 || keysBefore < previewRows;
+    }
+
+    /**
+     * Documents of {@code collectionName} with the given keys, by key, in queries of at most
+     * {@code batchSize} keys. Keys without a document are left out.
+     */
+    Map<String, Object> fetch(String collectionName, Collection<String> keys) {
+        Map<String, Object> byKey = new HashMap<>();
+        if (collectionName == null || keys.isEmpty()) {
+            return byKey;
+        }
+        PersistentEntity<?, ?> entity = mongoTemplate.getConverter().getMappingContext().getRequiredPersistentEntity(clazz);
+        List<String> chunk = new ArrayList<>(Math.min(batchSize, keys.size()));
+        Iterator<String> iterator = keys.iterator();
+        while (iterator.hasNext()) {
+            chunk.add(iterator.next());
+            if (chunk.size() < batchSize && iterator.hasNext()) {
+                continue;
+            }
+            long start = System.nanoTime();
+            List<?> found = mongoTemplate.find(Query.query(Criteria.where("_id").in(chunk)), clazz, collectionName);
+            fetchNanos += System.nanoTime() - start;
+            queries++;
+            documents += found.size();
+            for (Object document : found) {
+                byKey.put(String.valueOf(entity.getIdentifierAccessor(document).getIdentifier()), document);
+            }
+            chunk = new ArrayList<>(batchSize);
+        }
+        return byKey;
+    }
+
+    /**
+     * Time spent in the {@code $in} queries, including decoding their results.
+     */
+    long getFetchNanos() {
+        return fetchNanos;
+    }
+
+    long getQueries() {
+        return queries;
+    }
+
+    long getDocuments() {
+        return documents;
+    }
+}
@@ -0,0 +1,163 @@
+package com.example.comparison.service;
+
+import org.bson.BsonBinaryWriter;
+import org.bson.BsonDocument;
+import org.bson.BsonNull;
+import org.bson.BsonValue;
+import org.bson.RawBsonDocument;
+import org.bson.codecs.BsonValueCodec;
+import org.bson.codecs.EncoderContext;
+import org.bson.io.BasicOutputBuffer;
+
+/**
+ * 64-bit fingerprints of the compared attributes of raw documents, and the canonical byte
+ * encoding of keys used when spilling them to disk.
+ * <p>
+ * Attributes are encoded in {@code attributesToCompare} order as the elements of one BSON
+ * document and hashed with XXH64. Rows with byte-identical attributes share a fingerprint;
+ * missing attributes are encoded as null, matching the merge-join's treatment of missing values.
+ * Equal fingerprints are trusted as a match, while differing ones only flag the key for a full
+ * comparison with {@link RawBsonAccessor} (e.g. {@code 0.0} and {@code -0.0} hash differently).
+ * <p>
+ * Instances reuse an encoding buffer and are not thread-safe.
+ */
+final class RowFingerprint {
+
+    private static final BsonValueCodec VALUE_CODEC = new BsonValueCodec();
+    private static final EncoderContext ENCODER_CONTEXT = EncoderContext.builder().build();
+    private static final String KEY_FIELD = "k";
+
+    private static final long PRIME64_1 = 0x9E3779B185EBCA87L;
+    private static final long PRIME64_2 = 0xC2B2AE3D27D4EB4FL;
+    private static final long PRIME64_3 = 0x165667B19E3779F9L;
+    private static final long PRIME64_4 = 0x85EBCA77C2B2AE63L;
+    private static final long PRIME64_5 = 0x27D4EB2F165667C5L;
+
+    private final RawBsonAccessor accessor;
+    private final int attributeCount;
+    private final BasicOutputBuffer buffer = new BasicOutputBuffer(256);
+
+    RowFingerprint(RawBsonAccessor accessor, int attributeCount) {
+        this.accessor = accessor;
+        this.attributeCount = attributeCount;
+    }
+
+    /**
+     * @return the XXH64 hash of the compared attributes of {@code document}
+     */
+    long of(RawBsonDocument document) {
+        buffer.truncateToPosition(0);
+        try (BsonBinaryWriter writer = new BsonBinaryWriter(buffer)) {
+            writer.writeStartDocument();
+            for (int i = 0; i < attributeCount; i++) {
+                Object value = accessor.attribute(document, i);
+                writer.writeName(Integer.toString(i));
+                VALUE_CODEC.encode(writer, (value instanceof BsonValue) ? (BsonValue) value : BsonNull.VALUE, ENCODER_CONTEXT);
+            }
+            writer.writeEndDocument();
+        }
+        return xxh64(buffer.getInternalBuffer(), 0, buffer.getPosition(), 0);
+    }
+
+    /**
+     * @return {@code key} encoded as a single-field BSON document; see {@link #decodeKey}
+     */
+    static byte[] encodeKey(BsonValue key) {
+        BasicOutputBuffer out = new BasicOutputBuffer(32);
+        try (BsonBinaryWriter writer = new BsonBinaryWriter(out)) {
+            writer.writeStartDocument();
+            writer.writeName(KEY_FIELD);
+            VALUE_CODEC.encode(writer, key, ENCODER_CONTEXT);
+            writer.writeEndDocument();
+        }
+        return out.toByteArray();
+    }
+
+    static BsonValue decodeKey(byte[] encoded) {
+        BsonDocument document = new RawBsonDocument(encoded);
+        return document.get(KEY_FIELD);
+    }
+
+    /**
+     * XXH64 of {@code length} bytes of {@code data} starting at {@code offset}.
+     */
+    static long xxh64(byte[] data, int offset, int length, long seed) {
+        int end = offset + length;
+        int p = offset;
+        long hash;
+        if (length >= 32) {
+            long v1 = seed + PRIME64_1 + PRIME64_2;
+            long v2 = seed + PRIME64_2;
+            long v3 = seed;
+            long v4 = seed - PRIME64_1;
+            int limit = end - 32;
+            do {
+                v1 = round(v1, readLong(data, p));
+                v2 = round(v2, readLong(data, p + 8));
+                v3 = round(v3, readLong(data, p + 16));
+                v4 = round(v4, readLong(data, p + 24));
+                p += 32;
+            } while (p <= limit);
+            hash = Long.rotateLeft(v1, 1) + Long.rotateLeft(v2, 7) + Long.rotateLeft(v3, 12) + Long.rotateLeft(v4, 18);
+            hash = mergeRound(hash, v1);
+            hash = mergeRound(hash, v2);
+            hash = mergeRound(hash, v3);
+            hash = mergeRound(hash, v4);
+        } else {
+            hash = seed + PRIME64_5;
+        }
+        hash += length;
+
+        while (p + 8 <= end) {
+            hash ^= round(0, readLong(data, p));
+            hash = Long.rotateLeft(hash, 27) * PRIME64_1 + PRIME64_4;
+            p += 8;
+        }
+        if (p + 4 <= end) {
+            hash ^= (readInt(data, p) & 0xFFFFFFFFL) * PRIME64_1;
+            hash = Long.rotateLeft(hash, 23) * PRIME64_2 + PRIME64_3;
+            p += 4;
+        }
+        while (p < end) {
+            hash ^= (data[p] & 0xFFL) * PRIME64_5;
+            hash = Long.rotateLeft(hash, 11) * PRIME64_1;
+            p++;
+        }
+
+        hash ^= hash >>> 33;
+        hash *= PRIME64_2;
+        hash ^= hash >>> 29;
+        hash *= PRIME64_3;
+        hash ^= hash >>> 32;
+        return hash;
+    }
+
+    private static long round(long acc, long input) {
+        acc += input * PRIME64_2;
+        acc = Long.rotateLeft(acc, 31);
+        return acc * PRIME64_1;
+    }
+
+    private static long mergeRound(long acc, long val) {
+        acc ^= round(0, val);
+        return acc * PRIME64_1 + PRIME64_4;
+    }
+
+    private static long readLong(byte[] data, int p) {
+        return (data[p] & 0xFFL)
+                | (data[p + 1] & 0xFFL) << 8
+                | (data[p + 2] & 0xFFL) << 16
+                | (data[p + 3] & 0xFFL) << 24
+                | (data[p + 4] & 0xFFL) << 32
+                | (data[p + 5] & 0xFFL) << 40
+                | (data[p + 6] & 0xFFL) << 48
+                | (data[p + 7] & 0xFFL) << 56;
+    }
+
+    private static int readInt(byte[] data, int p) {
+        return (data[p] & 0xFF)
+                | (data[p + 1] & 0xFF) << 8
+                | (data[p + 2] & 0xFF) << 16
+                | (data[p + 3] & 0xFF) << 24;
+    }
+}
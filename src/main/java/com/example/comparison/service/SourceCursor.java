@@ -0,0 +1,50 @@
+package com.example.comparison.service;
+
+import com.mongodb.client.MongoCursor;
+import org.bson.RawBsonDocument;
+
+import java.util.Iterator;
+import java.util.function.Function;
+
+/**
+ * Iterator over one side of a comparison. Documents arrive from the driver as
+ * {@link RawBsonDocument}s so the number of BSON bytes transferred can be counted exactly,
+ * and are then handed to the merge-join either as-is or decoded into an entity.
+ *
+ * @param <T> record type seen by the merge-join
+ */
+final class SourceCursor<T> implements Iterator<T>, AutoCloseable {
+
+    private final MongoCursor<RawBsonDocument> cursor;
+    private final Function<RawBsonDocument, T> decoder;
+    private long bytesRead;
+
+    SourceCursor(MongoCursor<RawBsonDocument> cursor, Function<RawBsonDocument, T> decoder) {
+        this.cursor = cursor;
+        this.decoder = decoder;
+    }
+
+    @Override
+    public boolean hasNext() {
+        return cursor.hasNext();
+    }
+
+    @Override
+    public T next() {
+        RawBsonDocument document = cursor.next();
+        bytesRead += document.getByteBuffer().remaining();
+        return decoder.apply(document);
+    }
+
+    /**
+     * @return BSON bytes of all documents returned so far
+     */
+    long getBytesRead() {
+        return bytesRead;
+    }
+
+    @Override
+    public void close() {
+        cursor.close();
+    }
+}
@@ -2,15 +2,21 @@ package com.example.comparison;
 
 import com.example.comparison.model.ComparisonBreak; // Ensure this points to your updated model
 import com.example.comparison.service.GenericComparisonService;
+import com.example.comparison.service.ListJoin;
+import com.example.comparison.service.MatchPolicy;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Test;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Objects;
 import java.util.Optional;
+import java.util.Random;
+import java.util.stream.IntStream;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -143,6 +149,183 @@ public class GenericComparisonServiceListTest {
         assertTrue(onlyInBExample2.isPresent(), "Expected break for key 999 (onlyOnB) not found");
     }
 
+    @Test
+    @DisplayName("Match Ranges Count Integer Keys Instead of Collapsing Them")
+    void testCompareListsWithMatchRanges() {
+        comparisonService.setMatchPolicy(MatchPolicy.RANGES);
+        GenericComparisonService.ListComparisonResult<TestDataObject> result =
+                comparisonService.compareLists(listA, listB, KEY_ATTRIBUTE, ATTRIBUTES_TO_COMPARE);
+
+        assertEquals(399, result.fullyMatchedKeys, "Counters are not affected by the match policy");
+        long matchedFromRows = result.breaks.stream()
+                .filter(b -> b.getBreakType().startsWith("match"))
+                .mapToLong(b -> b.getMatchCount() == null ? 1 : b.getMatchCount())
+                .sum();
+        assertEquals(result.fullyMatchedKeys, matchedFromRows, "Matched keys must be recoverable from the rows");
+
+        // As strings "101" < "2", so a range 1..101 could not be looked up by key.
+        assertTrue(result.breaks.stream().noneMatch(b -> b.getBreakType().equals("matchRange")));
+        assertTrue(result.breaks.stream().anyMatch(b -> b.getBreakType().equals("matchCount") && b.getMatchCount() == 399));
+        assertEquals(450 + 150 + 1, result.breaks.size(), "One row per break and one counter");
+    }
+
+    @Test
+    @DisplayName("Parallel Key Ranges Produce the Same Breaks as One Merge-Join")
+    void testCompareListsInParallelKeyRanges() {
+        // Duplicate keys on both sides must stay in one range to pair up as in a single merge-join.
+        for (int i = 0; i < 3; i++) {
+            listA.add(new TestDataObject(250, "dup-a-" + i));
+            listB.add(new TestDataObject(250, "dup-b-" + i));
+        }
+        Collections.shuffle(listA, new Random(7));
+        Collections.shuffle(listB, new Random(11));
+
+        comparisonService.setListPartitions(1);
+        GenericComparisonService.ListComparisonResult<TestDataObject> sequential =
+                comparisonService.compareLists(listA, listB, KEY_ATTRIBUTE, ATTRIBUTES_TO_COMPARE);
+        comparisonService.setListPartitions(7);
+        comparisonService.setListParallelThreshold(0);
+        GenericComparisonService.ListComparisonResult<TestDataObject> parallel =
+                comparisonService.compareLists(listA, listB, KEY_ATTRIBUTE, ATTRIBUTES_TO_COMPARE);
+
+        assertEquals(sequential.toString(), parallel.toString(), "Counters must not depend on the partitioning");
+        assertEquals(render(sequential.breaks), render(parallel.breaks), "Breaks must come back in the same key order");
+    }
+
+    @Test
+    @DisplayName("Hash-Join Produces the Same Breaks as the Merge-Join and Counts Duplicate Keys")
+    void testCompareListsWithHashJoin() {
+        listA.add(new TestDataObject(251, "dup-a"));
+        listA.add(new TestDataObject(7, "dup-a"));
+        listB.add(new TestDataObject(251, "dup-b-1"));
+        listB.add(new TestDataObject(251, "dup-b-2"));
+        Collections.shuffle(listA, new Random(3));
+        Collections.shuffle(listB, new Random(5));
+
+        comparisonService.setListJoin(ListJoin.MERGE);
+        GenericComparisonService.ListComparisonResult<TestDataObject> merged =
+                comparisonService.compareLists(listA, listB, KEY_ATTRIBUTE, ATTRIBUTES_TO_COMPARE);
+        comparisonService.setListJoin(ListJoin.HASH);
+        GenericComparisonService.ListComparisonResult<TestDataObject> hashed =
+                comparisonService.compareLists(listA, listB, KEY_ATTRIBUTE, ATTRIBUTES_TO_COMPARE);
+
+        assertEquals(merged.toString(), hashed.toString(), "Both joins must report the same counters");
+        assertEquals(2, hashed.duplicateKeysA, "Keys 7 and 251 occur twice in list A");
+        assertEquals(1, hashed.duplicateKeysB, "Key 251 occurs three times in list B");
+        List<String> mergedRows = render(merged.breaks);
+        List<String> hashedRows = render(hashed.breaks);
+        Collections.sort(mergedRows);
+        Collections.sort(hashedRows);
+        assertEquals(mergedRows, hashedRows, "Both joins must pair duplicate occurrences in list order");
+        assertTrue(findBreakByComparisonKeyAndType(hashed.breaks, "251", "onlyOnB").isPresent(),
+                "The third occurrence of 251 in list B has no partner");
+    }
+
+    @Test
+    @DisplayName("Automatic Join Selection Keeps Key Order Where It Matters")
+    void testAutomaticJoinSelection() {
+        Collections.shuffle(listA, new Random(13));
+        String firstKeyOfA = String.valueOf(listA.get(0).getIndexKey());
+
+        List<ComparisonBreak> merged = comparisonService.compareLists(listA, listB, KEY_ATTRIBUTE, ATTRIBUTES_TO_COMPARE).breaks;
+        assertEquals("1", merged.get(0).getComparisonKey(), "Below the hash threshold: merge-joined in key order");
+
+        comparisonService.setListHashThreshold(0);
+        List<ComparisonBreak> hashed = comparisonService.compareLists(listA, listB, KEY_ATTRIBUTE, ATTRIBUTES_TO_COMPARE).breaks;
+        assertEquals(firstKeyOfA, hashed.get(0).getComparisonKey(), "Hash-joined: breaks follow list A");
+
+        comparisonService.setMatchPolicy(MatchPolicy.RANGES);
+        List<ComparisonBreak> ranged = comparisonService.compareLists(listA, listB, KEY_ATTRIBUTE, ATTRIBUTES_TO_COMPARE).breaks;
+        merged.removeIf(b -> b.getBreakType().equals("match"));
+        ranged.removeIf(b -> b.getBreakType().equals("matchCount"));
+        assertEquals(render(merged), render(ranged), "RANGES needs the merge-join");
+    }
+
+    @Test
+    @DisplayName("Sorted Streams Give the Same Breaks as Lists, One at a Time")
+    void testCompareStreams() {
+        GenericComparisonService.ListComparisonResult<TestDataObject> lists =
+                comparisonService.compareLists(listA, listB, KEY_ATTRIBUTE, ATTRIBUTES_TO_COMPARE);
+
+        List<ComparisonBreak> streamed = new ArrayList<>();
+        GenericComparisonService.ListComparisonResult<TestDataObject> streams = comparisonService.compareStreams(
+                listA.stream(), listB.stream(), KEY_ATTRIBUTE, ATTRIBUTES_TO_COMPARE, streamed::add);
+
+        assertEquals(lists.toString(), streams.toString(), "Streams must report the same counters as lists");
+        assertTrue(streams.breaks.isEmpty(), "Breaks go to the consumer only");
+        assertEquals(streamed.size(), streams.breaksGenerated);
+        assertEquals(render(lists.breaks), render(streamed));
+    }
+
+    @Test
+    @DisplayName("Stream Breaks Are Delivered Before the Inputs Are Exhausted")
+    void testCompareStreamsDoesNotBufferInputs() {
+        int size = 1_000_000;
+        int[] pulled = new int[1];
+        Iterator<TestDataObject> feedA = new Iterator<>() {
+            private int next = 1;
+
+            @Override
+            public boolean hasNext() {
+                return next <= size;
+            }
+
+            @Override
+            public TestDataObject next() {
+                pulled[0]++;
+                int key = next++;
+                return new TestDataObject(key, key == 3 ? "changed" : "value-" + key);
+            }
+        };
+        Iterator<TestDataObject> feedB = IntStream.rangeClosed(1, size)
+                .filter(key -> key != 5)
+                .mapToObj(key -> new TestDataObject(key, "value-" + key))
+                .iterator();
+        int[] pulledAtFirstBreak = {-1};
+        long[] differences = new long[1];
+        comparisonService.setMatchPolicy(MatchPolicy.NONE);
+
+        GenericComparisonService.ListComparisonResult<TestDataObject> result = comparisonService.compareStreams(
+                feedA, feedB, KEY_ATTRIBUTE, ATTRIBUTES_TO_COMPARE, b -> {
+                    if (pulledAtFirstBreak[0] < 0) {
+                        pulledAtFirstBreak[0] = pulled[0];
+                    }
+                    differences[0]++;
+                });
+
+        assertTrue(pulledAtFirstBreak[0] <= 4, "The first break must be delivered right after its key is read");
+        assertEquals(2, differences[0], "Key 3 differs and key 5 is only in stream A");
+        assertEquals(size, result.itemsProcessedA);
+        assertEquals(size - 1, result.keysWithAttributeMismatch + result.fullyMatchedKeys);
+    }
+
+    @Test
+    @DisplayName("Streams Count Duplicate Keys")
+    void testCompareStreamsCountsDuplicateKeys() {
+        List<TestDataObject> sortedA = List.of(new TestDataObject(1, "a"), new TestDataObject(2, "b"),
+                new TestDataObject(2, "b"), new TestDataObject(2, "x"), new TestDataObject(3, "c"));
+        List<TestDataObject> sortedB = List.of(new TestDataObject(1, "a"), new TestDataObject(2, "b"),
+                new TestDataObject(3, "c"), new TestDataObject(3, "c"));
+        List<ComparisonBreak> breaks = new ArrayList<>();
+
+        GenericComparisonService.ListComparisonResult<TestDataObject> result = comparisonService.compareStreams(
+                sortedA.iterator(), sortedB.iterator(), KEY_ATTRIBUTE, ATTRIBUTES_TO_COMPARE, breaks::add);
+
+        assertEquals(1, result.duplicateKeysA);
+        assertEquals(1, result.duplicateKeysB);
+        assertEquals(2, result.keysOnlyInA, "The second and third 2 in A have no partner");
+        assertEquals(1, result.keysOnlyInB, "The second 3 in B has no partner");
+    }
+
+    private static List<String> render(List<ComparisonBreak> breaks) {
+        List<String> rows = new ArrayList<>(breaks.size());
+        for (ComparisonBreak b : breaks) {
+            rows.add(b.getComparisonKey() + "|" + b.getBreakType() + "|" + b.getDifferenceField()
+                    + "|" + b.getValueInCollectionA() + "|" + b.getValueInCollectionB());
+        }
+        return rows;
+    }
+
     private Optional<ComparisonBreak> findBreakByComparisonKeyAndType(List<ComparisonBreak> breaks, String comparisonKey, String breakType) {
         return breaks.stream()
                 .filter(b -> b.getComparisonKey().equals(comparisonKey) && b.getBreakType().equals(breakType))
@@ -156,4 +339,4 @@ public class GenericComparisonServiceListTest {
                         Objects.equals(b.getDifferenceField(), differenceField))
                 .findFirst();
     }
-}
\ No newline at end of file
+}
\ No newline at end of file
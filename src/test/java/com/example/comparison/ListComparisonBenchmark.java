@@ -0,0 +1,127 @@
+package com.example.comparison;
+
+import com.example.comparison.GenericComparisonServiceLargeScaleTest.TestDataObject;
+import com.example.comparison.service.GenericComparisonService;
+import com.example.comparison.service.ListJoin;
+import com.example.comparison.service.MatchPolicy;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Times {@code compareLists} on the data shape of {@link GenericComparisonServiceLargeScaleTest}
+ * (shuffled lists, about 20% of the keys missing from one side in two ranges, one side holding
+ * only the middle half, a block of value differences), scaled to {@code size} keys.
+ * <p>
+ * {@code singleMergeJoin} merges on one thread; {@code parallelRanges} merges one key range per
+ * available processor. Both sort with {@code Arrays.parallelSort}. {@code hashJoin} skips the sort
+ * and probes an index of list B with list A. Only counters are kept for
+ * matched keys, so the benchmark measures the comparison rather than building match rows.
+ * Run with {@code main} from the IDE, or:
+ * <pre>
+ * mvn test-compile exec:java -Dexec.classpathScope=test \
+ *     -Dexec.mainClass=com.example.comparison.ListComparisonBenchmark
+ * </pre>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(value = 1, jvmArgs = {"-Xmx4g"})
+public class ListComparisonBenchmark {
+
+    private static final String KEY_ATTRIBUTE = "indexKey";
+    private static final List<String> ATTRIBUTES_TO_COMPARE = List.of("indexValue");
+
+    @Param({"200000", "5000000"})
+    private int size;
+
+    private List<TestDataObject> listA;
+    private List<TestDataObject> listB;
+    private GenericComparisonService singleMergeJoin;
+    private GenericComparisonService parallelRanges;
+    private GenericComparisonService hashJoin;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(42);
+        Set<Integer> aMissingKeys = new HashSet<>();
+        addMissing(aMissingKeys, random, size / 20, size * 7 / 20);
+        addMissing(aMissingKeys, random, size * 3 / 4, size * 17 / 20);
+
+        listA = new ArrayList<>(size);
+        listB = new ArrayList<>(size / 2);
+        for (int i = 1; i <= size; i++) {
+            if (!aMissingKeys.contains(i)) {
+                listA.add(new TestDataObject(i, "valueA-" + i));
+            }
+            if (i > size / 4 && i <= size * 3 / 4) {
+                boolean modified = i >= size * 3 / 10 && i < size * 13 / 40;
+                listB.add(new TestDataObject(i, modified ? "valueB-MODIFIED-" + i : "valueA-" + i));
+            }
+        }
+        Collections.shuffle(listA, random);
+        Collections.shuffle(listB, random);
+
+        singleMergeJoin = service(ListJoin.MERGE, 1);
+        parallelRanges = service(ListJoin.MERGE, 0);
+        hashJoin = service(ListJoin.HASH, 0);
+    }
+
+    // About 20% of the keys in [from, to) go missing from list A.
+    private static void addMissing(Set<Integer> missing, Random random, int from, int to) {
+        int target = missing.size() + (to - from) / 5;
+        while (missing.size() < target) {
+            missing.add(from + random.nextInt(to - from));
+        }
+    }
+
+    private static GenericComparisonService service(ListJoin join, int listPartitions) {
+        GenericComparisonService service = new GenericComparisonService();
+        service.setMatchPolicy(MatchPolicy.COUNTER);
+        service.setListJoin(join);
+        service.setListPartitions(listPartitions);
+        return service;
+    }
+
+    @Benchmark
+    public long singleMergeJoin() {
+        return singleMergeJoin.compareLists(listA, listB, KEY_ATTRIBUTE, ATTRIBUTES_TO_COMPARE).fullyMatchedKeys;
+    }
+
+    @Benchmark
+    public long parallelRanges() {
+        return parallelRanges.compareLists(listA, listB, KEY_ATTRIBUTE, ATTRIBUTES_TO_COMPARE).fullyMatchedKeys;
+    }
+
+    @Benchmark
+    public long hashJoin() {
+        return hashJoin.compareLists(listA, listB, KEY_ATTRIBUTE, ATTRIBUTES_TO_COMPARE).fullyMatchedKeys;
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(ListComparisonBenchmark.class.getSimpleName())
+                .build()).run();
+    }
+}
@@ -0,0 +1,132 @@
+package com.example.comparison.service;
+
+import com.example.comparison.model.Account;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.springframework.beans.BeanWrapper;
+import org.springframework.beans.BeanWrapperImpl;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares per-row {@link BeanWrapperImpl} property access (the original merge-join path)
+ * against a {@link BeanAccessorPlan} resolved once per comparison.
+ * <p>
+ * Each operation reads the key and all ten compared attributes from both sides of a pair of
+ * {@link Account}s and compares them, which is what the merge-join does for every common key.
+ * Run with {@code main} from the IDE, or:
+ * <pre>
+ * mvn test-compile exec:java -Dexec.classpathScope=test \
+ *     -Dexec.mainClass=com.example.comparison.service.AccessorPlanBenchmark
+ * </pre>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AccessorPlanBenchmark {
+
+    private static final int ROWS = 1_000;
+    private static final String KEY_ATTRIBUTE = "accountId";
+    private static final List<String> ATTRIBUTES = List.of(
+            "accountName", "accountType", "broker", "creationDate",
+            "balance", "currency", "riskLevel", "lastTradeDate",
+            "totalTrades", "availableMargin"
+    );
+
+    private List<Account> sideA;
+    private List<Account> sideB;
+
+    @Setup
+    public void setUp() {
+        sideA = new ArrayList<>(ROWS);
+        sideB = new ArrayList<>(ROWS);
+        Date baseDate = new Date(1630000000000L);
+        for (int i = 0; i < ROWS; i++) {
+            sideA.add(account(i, baseDate));
+            Account b = account(i, baseDate);
+            if (i % 10 == 0) {
+                b.setBalance(b.getBalance() + 10.0);
+            }
+            sideB.add(b);
+        }
+    }
+
+    @Benchmark
+    public void beanWrapperPerRow(Blackhole bh) {
+        for (int i = 0; i < ROWS; i++) {
+            BeanWrapper wrapperA = new BeanWrapperImpl(sideA.get(i));
+            BeanWrapper wrapperB = new BeanWrapperImpl(sideB.get(i));
+            bh.consume(wrapperA.getPropertyValue(KEY_ATTRIBUTE));
+            bh.consume(wrapperB.getPropertyValue(KEY_ATTRIBUTE));
+            int diffs = 0;
+            for (String attr : ATTRIBUTES) {
+                if (!Objects.equals(wrapperA.getPropertyValue(attr), wrapperB.getPropertyValue(attr))) {
+                    diffs++;
+                }
+            }
+            bh.consume(diffs);
+        }
+    }
+
+    @Benchmark
+    public void accessorPlan(Blackhole bh) {
+        BeanAccessorPlan.Cache plans = new BeanAccessorPlan.Cache(KEY_ATTRIBUTE, ATTRIBUTES);
+        int attributeCount = ATTRIBUTES.size();
+        for (int i = 0; i < ROWS; i++) {
+            Account a = sideA.get(i);
+            Account b = sideB.get(i);
+            BeanAccessorPlan planA = plans.planFor(a);
+            BeanAccessorPlan planB = plans.planFor(b);
+            bh.consume(planA.key(a));
+            bh.consume(planB.key(b));
+            int diffs = 0;
+            for (int attr = 0; attr < attributeCount; attr++) {
+                if (!Objects.equals(planA.attribute(a, attr), planB.attribute(b, attr))) {
+                    diffs++;
+                }
+            }
+            bh.consume(diffs);
+        }
+    }
+
+    private static Account account(int index, Date baseDate) {
+        Account account = new Account();
+        account.setAccountId(String.format("acct%06d", index));
+        account.setAccountName("Account " + index);
+        account.setAccountType(index % 2 == 0 ? "Margin" : "Cash");
+        account.setBroker("BrokerX");
+        account.setCreationDate(new Date(baseDate.getTime() - index * 86_400_000L));
+        account.setBalance(index * 1000.0);
+        account.setCurrency("USD");
+        account.setRiskLevel(index % 3 == 0 ? "High" : "Medium");
+        account.setLastTradeDate(new Date(baseDate.getTime() - index * 43_200_000L));
+        account.setTotalTrades(index % 100);
+        account.setAvailableMargin(account.getBalance() * 0.1);
+        return account;
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(AccessorPlanBenchmark.class.getSimpleName())
+                .build()).run();
+    }
+}
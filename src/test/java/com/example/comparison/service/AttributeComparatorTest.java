@@ -0,0 +1,113 @@
+package com.example.comparison.service;
+
+import com.example.comparison.model.Account;
+import com.example.comparison.model.ComparisonBreak;
+import org.bson.BsonDateTime;
+import org.bson.BsonDocument;
+import org.bson.BsonDouble;
+import org.bson.BsonInt32;
+import org.bson.BsonString;
+import org.bson.RawBsonDocument;
+import org.junit.jupiter.api.Test;
+
+import java.sql.Timestamp;
+import java.util.Date;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class AttributeComparatorTest {
+
+    private static Account account(String id, double balance, String accountType, Date creationDate) {
+        Account account = new Account();
+        account.setAccountId(id);
+        account.setBalance(balance);
+        account.setAccountType(accountType);
+        account.setCreationDate(creationDate);
+        return account;
+    }
+
+    @Test
+    public void testPrimitiveDoublesAreReadUnboxedAndComparedWithTolerance() {
+        BeanAccessorPlan.Cache plans = new BeanAccessorPlan.Cache("accountId", List.of("balance", "creationDate"));
+        assertTrue(plans.hasPrimitiveDouble(new Account(), 0), "double getters get an unboxed reader");
+        assertFalse(plans.hasPrimitiveDouble(new Account(), 1));
+
+        Account a = account("acct1", 100.0, "Savings", null);
+        Account b = account("acct1", 100.004, "Savings", null);
+        assertFalse(new AttributeComparator<Account>(plans, 2, AttributeComparator.Options.EXACT).same(a, b, 0));
+
+        AttributeComparator<Account> absolute = new AttributeComparator<>(plans, 2, new AttributeComparator.Options(0.01, 0, false, false));
+        assertTrue(absolute.same(a, b, 0));
+        assertFalse(absolute.same(a, account("acct1", 100.02, "Savings", null), 0));
+
+        AttributeComparator<Account> relative = new AttributeComparator<>(plans, 2, new AttributeComparator.Options(0, 1e-4, false, false));
+        assertTrue(relative.same(a, b, 0));
+        assertFalse(relative.same(account("acct2", 1.0, null, null), account("acct2", 1.001, null, null), 0));
+        assertTrue(relative.same(account("acct3", Double.NaN, null, null), account("acct3", Double.NaN, null, null), 0));
+
+        assertThrows(IllegalArgumentException.class, () -> new AttributeComparator.Options(-1, 0, false, false));
+    }
+
+    @Test
+    public void testDatesByMillisAndStringsWithTrimAndCase() {
+        BeanAccessorPlan.Cache plans = new BeanAccessorPlan.Cache("accountId", List.of("accountType", "creationDate"));
+        Account a = account("acct1", 0, "Savings", new Date(1630000000000L));
+        Account b = account("acct1", 0, "  savings ", new Timestamp(1630000000000L));
+
+        AttributeComparator<Account> exact = new AttributeComparator<>(plans, 2, AttributeComparator.Options.EXACT);
+        assertFalse(exact.same(a, b, 0));
+        assertTrue(exact.same(a, b, 1), "a Timestamp and a Date at the same instant are the same value");
+
+        assertFalse(new AttributeComparator<Account>(plans, 2, new AttributeComparator.Options(0, 0, true, false)).same(a, b, 0));
+        assertFalse(new AttributeComparator<Account>(plans, 2, new AttributeComparator.Options(0, 0, false, true)).same(a, b, 0));
+        AttributeComparator<Account> lenient = new AttributeComparator<>(plans, 2, new AttributeComparator.Options(0, 0, true, true));
+        assertTrue(lenient.same(a, b, 0));
+        assertFalse(lenient.same(a, account("acct1", 0, "Saving", null), 0));
+        assertFalse(lenient.same(a, account("acct1", 0, null, null), 0));
+        assertTrue(lenient.same(account("acct2", 0, null, null), account("acct2", 0, null, null), 0));
+    }
+
+    @Test
+    public void testRawValuesKeepTheirStoredTypes() {
+        RawBsonAccessor raw = new RawBsonAccessor("_id", List.of("balance", "openedAt", "broker"));
+        RawBsonDocument a = RawBsonDocument.parse(new BsonDocument("_id", new BsonString("acct1"))
+                .append("balance", new BsonDouble(10.0))
+                .append("openedAt", new BsonDateTime(1630000000000L))
+                .append("broker", new BsonString("Broker ")).toJson());
+        RawBsonDocument b = RawBsonDocument.parse(new BsonDocument("_id", new BsonString("acct1"))
+                .append("balance", new BsonDouble(10.0000001))
+                .append("openedAt", new BsonDateTime(1630000000000L))
+                .append("broker", new BsonString("broker")).toJson());
+        RawBsonDocument int32 = RawBsonDocument.parse(new BsonDocument("_id", new BsonString("acct1"))
+                .append("balance", new BsonInt32(10)).toJson());
+
+        AttributeComparator<RawBsonDocument> comparator = new AttributeComparator<>(raw, 3, new AttributeComparator.Options(1e-3, 0, true, true));
+        assertTrue(comparator.same(a, b, 0));
+        assertTrue(comparator.same(a, b, 1));
+        assertTrue(comparator.same(a, b, 2));
+        assertFalse(comparator.same(a, int32, 0), "an int32 is still a different value from a double");
+        assertFalse(comparator.same(a, int32, 1), "a missing attribute differs from a present one");
+    }
+
+    @Test
+    public void testListComparisonAppliesToleranceAndRendersOnlyDifferences() {
+        GenericComparisonService service = new GenericComparisonService();
+        service.setDoubleAbsoluteTolerance(0.005);
+        service.setStringIgnoreCase(true);
+
+        List<Account> listA = List.of(account("acct1", 100.0, "Savings", null), account("acct2", 50.0, "Checking", null));
+        List<Account> listB = List.of(account("acct1", 100.001, "SAVINGS", null), account("acct2", 50.5, "Checking", null));
+        GenericComparisonService.ListComparisonResult<Account> result =
+                service.compareLists(listA, listB, "accountId", List.of("balance", "accountType"));
+
+        assertEquals(1, result.fullyMatchedKeys);
+        assertEquals(1, result.keysWithAttributeMismatch);
+        ComparisonBreak difference = result.breaks.stream()
+                .filter(b -> "difference".equals(b.getBreakType())).findFirst().orElseThrow();
+        assertEquals("acct2", difference.getComparisonKey());
+        assertEquals("balance", difference.getDifferenceField());
+        assertEquals("50.0", difference.getValueInCollectionA());
+        assertEquals("50.5", difference.getValueInCollectionB());
+    }
+}
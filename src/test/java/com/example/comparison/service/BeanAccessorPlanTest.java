@@ -0,0 +1,65 @@
+package com.example.comparison.service;
+
+import com.example.comparison.model.Account;
+import org.junit.jupiter.api.Test;
+
+import java.util.Date;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class BeanAccessorPlanTest {
+
+    static class Holder {
+        private final int indexKey;
+        private final Account account;
+
+        Holder(int indexKey, Account account) {
+            this.indexKey = indexKey;
+            this.account = account;
+        }
+
+        public int getIndexKey() {
+            return indexKey;
+        }
+
+        public Account getAccount() {
+            return account;
+        }
+    }
+
+    @Test
+    public void testReadsKeyAndAttributesThroughCompiledGetters() {
+        Account account = new Account();
+        account.setAccountId("acct0001");
+        account.setBalance(1000.0);
+        account.setCreationDate(new Date(1630000000000L));
+
+        BeanAccessorPlan.Cache plans = new BeanAccessorPlan.Cache("accountId", List.of("balance", "creationDate", "broker"));
+        BeanAccessorPlan plan = plans.planFor(account);
+
+        assertSame(plan, plans.planFor(new Account()), "Plan should be reused for the same class");
+        assertEquals("acct0001", plan.key(account));
+        assertEquals(1000.0, plan.attribute(account, 0));
+        assertEquals(new Date(1630000000000L), plan.attribute(account, 1));
+        assertNull(plan.attribute(account, 2));
+        // A compiled getter is spun as a nestmate of the bean class; fallbacks are lambdas nested in the plan.
+        assertEquals(Account.class, plan.attributeGetter(0).getClass().getNestHost(),
+                "Simple properties should use a generated getter rather than reflection");
+    }
+
+    @Test
+    public void testNestedAndMissingProperties() {
+        Account account = new Account();
+        account.setAccountId("acct0002");
+        account.setCity("Los Angeles");
+        Holder holder = new Holder(7, account);
+
+        BeanAccessorPlan.Cache plans = new BeanAccessorPlan.Cache("indexKey", List.of("account.city", "doesNotExist"));
+        BeanAccessorPlan plan = plans.planFor(holder);
+
+        assertEquals(7, plan.key(holder));
+        assertEquals("Los Angeles", plan.attribute(holder, 0));
+        assertSame(BeanAccessorPlan.MISSING, plan.attribute(holder, 1));
+    }
+}
@@ -0,0 +1,146 @@
+package com.example.comparison.service;
+
+import com.example.comparison.model.ComparisonBreak;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.mockito.junit.jupiter.MockitoSettings;
+import org.mockito.quality.Strictness;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+@MockitoSettings(strictness = Strictness.LENIENT)
+public class BreakExportServiceTest {
+
+    @Mock
+    private MongoTemplate mongoTemplate;
+
+    @TempDir
+    Path directory;
+
+    private final Map<String, List<ComparisonBreak>> breaksByType = new LinkedHashMap<>();
+    private final Set<String> readerThreads = ConcurrentHashMap.newKeySet();
+    // Its cursor fails after the listed breaks, like a cursor losing its connection.
+    private volatile String failingType;
+
+    private BreakExportService service;
+
+    @BeforeEach
+    public void setUp() {
+        breaksByType.put("onlyOnA", List.of(
+                withRun(new ComparisonBreak("acct002", "RecordMissing", "exists", "missing", "onlyOnA"))));
+        breaksByType.put("onlyOnB", List.of());
+        breaksByType.put("difference", List.of(
+                withRun(new ComparisonBreak("acct001", "accountName", "Smith, John", "Smith \"Jack\" John", "difference")),
+                withRun(new ComparisonBreak("acct001", "balance", "1000.0", null, "difference"))));
+        // Every partition waits for the other two before its cursor is read, so they must run concurrently.
+        CountDownLatch allStarted = new CountDownLatch(3);
+        when(mongoTemplate.stream(any(Query.class), eq(ComparisonBreak.class), eq("breaks"))).thenAnswer(invocation -> {
+            Query query = invocation.getArgument(0);
+            assertEquals("run1", query.getQueryObject().getString("runId"));
+            readerThreads.add(Thread.currentThread().getName());
+            allStarted.countDown();
+            assertTrue(allStarted.await(10, TimeUnit.SECONDS), "partitions are exported in parallel");
+            String breakType = query.getQueryObject().getString("breakType");
+            Stream<ComparisonBreak> breaks = breaksByType.get(breakType).stream();
+            return breakType.equals(failingType)
+                    ? Stream.concat(breaks, Stream.<ComparisonBreak>generate(() -> {
+                        throw new IllegalStateException("cursor lost");
+                    }).limit(1))
+                    : breaks;
+        });
+
+        service = new BreakExportService();
+        service.setMongoTemplate(mongoTemplate);
+    }
+
+    @Test
+    public void testEachBreakTypeIsWrittenToItsOwnCompressedCsv() throws IOException {
+        Map<String, Long> rows = service.exportCsv("breaks", "run1", directory);
+
+        assertEquals(List.of("onlyOnA", "onlyOnB", "difference"), List.copyOf(rows.keySet()));
+        assertEquals(List.of(1L, 0L, 2L), List.copyOf(rows.values()));
+        assertEquals(3, readerThreads.size());
+        assertEquals(Set.of("onlyOnA.csv.gz", "onlyOnB.csv.gz", "difference.csv.gz"), fileNames());
+
+        String header = "runId,comparisonKey,breakType,differenceField,valueInCollectionA,valueInCollectionB";
+        assertEquals(List.of(header, "run1,acct002,onlyOnA,RecordMissing,exists,missing"), readGzip("onlyOnA.csv.gz"));
+        assertEquals(List.of(header), readGzip("onlyOnB.csv.gz"));
+        assertEquals(List.of(header,
+                        "run1,acct001,difference,accountName,\"Smith, John\",\"Smith \"\"Jack\"\" John\"",
+                        "run1,acct001,difference,balance,1000.0,"),
+                readGzip("difference.csv.gz"));
+    }
+
+    @Test
+    public void testAFailedPartitionLeavesNoFiles() {
+        breaksByType.put("onlyOnB", List.of(withRun(new ComparisonBreak("acct003", "RecordMissing", "missing", "exists", "onlyOnB"))));
+        failingType = "onlyOnB";
+
+        IllegalStateException failure = assertThrows(IllegalStateException.class, () -> service.exportCsv("breaks", "run1", directory));
+        assertEquals("cursor lost", failure.getMessage());
+        assertEquals(Set.of(), fileNames());
+    }
+
+    @Test
+    public void testAFailedRenameRestoresThePreviousExport() throws IOException {
+        for (String breakType : BreakExportService.PARTITIONS) {
+            Files.writeString(directory.resolve(breakType + ".csv.gz"), "previous " + breakType);
+        }
+        // The last file cannot be set aside: its place is taken by a non-empty directory.
+        Path blocked = Files.createDirectory(directory.resolve("difference.csv.gz.previous"));
+        Files.writeString(blocked.resolve("file"), "");
+
+        assertThrows(IOException.class, () -> service.exportCsv("breaks", "run1", directory));
+        assertEquals(Set.of("onlyOnA.csv.gz", "onlyOnB.csv.gz", "difference.csv.gz", "difference.csv.gz.previous"), fileNames());
+        for (String breakType : BreakExportService.PARTITIONS) {
+            assertEquals("previous " + breakType, Files.readString(directory.resolve(breakType + ".csv.gz")));
+        }
+    }
+
+    private Set<String> fileNames() {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.map(f -> f.getFileName().toString()).collect(Collectors.toSet());
+        } catch (IOException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    private List<String> readGzip(String fileName) throws IOException {
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+                new GZIPInputStream(Files.newInputStream(directory.resolve(fileName))), StandardCharsets.UTF_8))) {
+            return reader.lines().collect(Collectors.toList());
+        }
+    }
+
+    private static ComparisonBreak withRun(ComparisonBreak comparisonBreak) {
+        comparisonBreak.setRunId("run1");
+        return comparisonBreak;
+    }
+}
@@ -0,0 +1,200 @@
+package com.example.comparison.service;
+
+import com.example.comparison.model.Account;
+import com.example.comparison.model.ComparisonBreak;
+import com.example.comparison.model.ComparisonRun;
+import org.bson.Document;
+import org.bson.RawBsonDocument;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.mockito.junit.jupiter.MockitoSettings;
+import org.mockito.quality.Strictness;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.convert.MappingMongoConverter;
+import org.springframework.data.mongodb.core.convert.NoOpDbRefResolver;
+import org.springframework.data.mongodb.core.index.IndexDefinition;
+import org.springframework.data.mongodb.core.index.IndexOperations;
+import org.springframework.data.mongodb.core.mapping.MongoMappingContext;
+import org.springframework.data.mongodb.core.query.Query;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static com.example.comparison.service.RawCollectionStubs.raw;
+import static com.example.comparison.service.RawCollectionStubs.stubRawCollection;
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+@MockitoSettings(strictness = Strictness.LENIENT)
+public class CompactBreakStoreTest {
+
+    private static final List<String> ATTRIBUTES = List.of("accountName", "balance", "creationDate", "totalTrades");
+
+    @Mock
+    private MongoTemplate mongoTemplate;
+
+    @Mock
+    private BulkOperations rowOperations;
+
+    @Mock
+    private BulkOperations documentOperations;
+
+    @Mock
+    private IndexOperations indexOperations;
+
+    private final List<ComparisonBreak> rows = Collections.synchronizedList(new ArrayList<>());
+    private final List<Document> documents = Collections.synchronizedList(new ArrayList<>());
+
+    private GenericComparisonService service;
+
+    @BeforeEach
+    public void setUp() {
+        when(mongoTemplate.getConverter()).thenReturn(new MappingMongoConverter(NoOpDbRefResolver.INSTANCE, new MongoMappingContext()));
+        when(mongoTemplate.bulkOps(any(BulkOperations.BulkMode.class), eq(ComparisonBreak.class), eq("breaks")))
+                .thenReturn(rowOperations);
+        when(rowOperations.insert(anyList())).thenAnswer(invocation -> {
+            List<?> batch = invocation.getArgument(0);
+            batch.forEach(b -> rows.add((ComparisonBreak) b));
+            return rowOperations;
+        });
+        when(mongoTemplate.bulkOps(any(BulkOperations.BulkMode.class), eq(Document.class), eq("breaks")))
+                .thenReturn(documentOperations);
+        when(documentOperations.insert(anyList())).thenAnswer(invocation -> {
+            List<?> batch = invocation.getArgument(0);
+            batch.forEach(d -> documents.add((Document) d));
+            return documentOperations;
+        });
+        when(mongoTemplate.indexOps(anyString())).thenReturn(indexOperations);
+
+        service = new GenericComparisonService();
+        service.setMongoTemplate(mongoTemplate);
+        service.setBreakBatchSize(20);
+    }
+
+    @Test
+    public void testCompactOutputReadsBackAsTheSameBreaks() {
+        Date created = new Date(1630000000000L);
+        List<RawBsonDocument> sideA = new ArrayList<>();
+        List<RawBsonDocument> sideB = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            String id = String.format("acct%04d", i);
+            if (i % 17 != 0) {
+                sideA.add(raw(account(id, i, created)));
+            }
+            if (i % 19 != 0) {
+                Document b = account(id, i, created);
+                if (i % 5 == 0) {
+                    b.put("balance", i * 10.0 + 0.5);
+                }
+                if (i % 10 == 0) {
+                    b.put("totalTrades", -1);
+                }
+                sideB.add(raw(b));
+            }
+        }
+        stubRawCollection(mongoTemplate, "accountA", sideA);
+        stubRawCollection(mongoTemplate, "accountB", sideB);
+
+        ComparisonRun rowsRun = service.compareCollectionsRaw(Account.class, "accountA", "accountB", "accountId", ATTRIBUTES, "breaks");
+        service.setBreakFormat(BreakFormat.COMPACT);
+        ComparisonRun compactRun = service.compareCollectionsRaw(Account.class, "accountA", "accountB", "accountId", ATTRIBUTES, "breaks");
+
+        assertEquals(rows.stream().map(ComparisonBreak::getComparisonKey).distinct().count(), documents.size(),
+                "One document per key");
+        assertTrue(rows.size() > documents.size());
+        assertTrue(rows.stream().allMatch(b -> rowsRun.getId().equals(b.getRunId())));
+        assertTrue(documents.stream().allMatch(d -> compactRun.getId().equals(d.getString(CompactBreaks.RUN))));
+        verify(mongoTemplate).save(CompactBreaks.dictionary(compactRun.getId(), ATTRIBUTES), "breaks.dictionary");
+        ArgumentCaptor<IndexDefinition> indexes = ArgumentCaptor.forClass(IndexDefinition.class);
+        verify(indexOperations, atLeastOnce()).ensureIndex(indexes.capture());
+        List<Document> indexKeys = indexes.getAllValues().stream().map(IndexDefinition::getIndexKeys).collect(Collectors.toList());
+        assertTrue(indexKeys.contains(new Document("runId", 1).append("comparisonKey", 1)), "ROWS index");
+        assertTrue(indexKeys.contains(new Document(CompactBreaks.RUN, 1).append(CompactBreaks.KEY, 1)), "COMPACT index");
+
+        when(mongoTemplate.findById(compactRun.getId(), Document.class, "breaks.dictionary"))
+                .thenReturn(CompactBreaks.dictionary(compactRun.getId(), ATTRIBUTES));
+        when(mongoTemplate.find(any(Query.class), eq(Document.class), eq("breaks"))).thenReturn(documents);
+        List<ComparisonBreak> decoded = new BreakReader(mongoTemplate).findAll("breaks", compactRun.getId());
+        assertEquals(describe(rows), describe(decoded));
+        assertTrue(decoded.stream().allMatch(b -> compactRun.getId().equals(b.getRunId())));
+    }
+
+    @Test
+    public void testFindByKeyIsAPointLookupFallingBackToMatchRanges() {
+        List<ComparisonBreak> written = new ArrayList<>();
+        MatchRecorder recorder = new MatchRecorder(MatchPolicy.RANGES, 1, written::add);
+        for (int i = 1; i <= 5; i++) {
+            recorder.accept(new ComparisonBreak("acct0" + i, null, null, null, "match"));
+        }
+        recorder.accept(new ComparisonBreak("acct06", "balance", "1.0", "2.0", "difference"));
+        recorder.accept(new ComparisonBreak("acct06", "totalTrades", "3", "4", "difference"));
+        recorder.finish();
+
+        try (CompactBreakWriter writer = new CompactBreakWriter(mongoTemplate, "breaks", "run1", List.of("accountName", "balance", "totalTrades"), 10, 1)) {
+            written.forEach(writer);
+        }
+        assertEquals(2, documents.size());
+        Document range = documents.get(0);
+        Document difference = documents.get(1);
+        assertEquals(List.of("1.0", "3"), difference.getList(CompactBreaks.VALUES_A, String.class));
+
+        when(mongoTemplate.findById("run1", Document.class, "breaks.dictionary"))
+                .thenReturn(CompactBreaks.dictionary("run1", List.of("accountName", "balance", "totalTrades")));
+        List<Query> queries = new ArrayList<>();
+        when(mongoTemplate.find(any(Query.class), eq(Document.class), eq("breaks"))).thenAnswer(invocation -> {
+            Query query = invocation.getArgument(0);
+            queries.add(query);
+            assertEquals("run1", query.getQueryObject().get(CompactBreaks.RUN));
+            Object key = query.getQueryObject().get(CompactBreaks.KEY);
+            if (key instanceof Document) {
+                // The nearest key below the bound, as the (r, k) index returns it.
+                String bound = ((Document) key).getString("$lt");
+                return documents.stream()
+                        .filter(d -> d.getString(CompactBreaks.KEY).compareTo(bound) < 0)
+                        .max(Comparator.comparing(d -> d.getString(CompactBreaks.KEY)))
+                        .map(List::of).orElse(List.of());
+            }
+            return documents.stream().filter(d -> key.equals(d.getString(CompactBreaks.KEY))).collect(Collectors.toList());
+        });
+        BreakReader reader = new BreakReader(mongoTemplate);
+
+        assertEquals(List.of("acct06|difference|balance|1.0|2.0", "acct06|difference|totalTrades|3|4"),
+                describe(reader.findByKey("breaks", "run1", "acct06")));
+        assertEquals(1, queries.size(), "A key with breaks of its own is a single point lookup");
+        List<ComparisonBreak> covering = reader.findByKey("breaks", "run1", "acct03");
+        assertEquals(List.of("acct01|matchRange|null|acct01|acct05"), describe(covering));
+        assertEquals(5L, covering.get(0).getMatchCount());
+        assertEquals("run1", covering.get(0).getRunId());
+        assertTrue(BreakReader.covers(covering.get(0), "acct03"));
+        assertEquals(List.of(), reader.findByKey("breaks", "run1", "acct07"), "acct06 does not cover acct07");
+        assertEquals(1, queries.get(queries.size() - 1).getLimit());
+    }
+
+    private static List<String> describe(List<ComparisonBreak> breaks) {
+        return breaks.stream()
+                .map(b -> String.join("|", b.getComparisonKey(), b.getBreakType(),
+                        String.valueOf(b.getDifferenceField()), String.valueOf(b.getValueInCollectionA()),
+                        String.valueOf(b.getValueInCollectionB())))
+                .sorted()
+                .collect(Collectors.toList());
+    }
+
+    private static Document account(String id, int index, Date created) {
+        return new Document("_id", id)
+                .append("accountName", "Account " + index)
+                .append("balance", index * 10.0)
+                .append("creationDate", created)
+                .append("totalTrades", index % 50);
+    }
+}
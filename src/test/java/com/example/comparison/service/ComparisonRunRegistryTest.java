@@ -0,0 +1,133 @@
+package com.example.comparison.service;
+
+import com.example.comparison.model.Account;
+import com.example.comparison.model.ComparisonBreak;
+import com.example.comparison.model.ComparisonRun;
+import org.bson.Document;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.mockito.junit.jupiter.MockitoSettings;
+import org.mockito.quality.Strictness;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.convert.MappingMongoConverter;
+import org.springframework.data.mongodb.core.convert.NoOpDbRefResolver;
+import org.springframework.data.mongodb.core.index.IndexOperations;
+import org.springframework.data.mongodb.core.mapping.MongoMappingContext;
+import org.springframework.data.mongodb.core.query.Query;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static com.example.comparison.service.RawCollectionStubs.raw;
+import static com.example.comparison.service.RawCollectionStubs.stubRawCollection;
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+@MockitoSettings(strictness = Strictness.LENIENT)
+public class ComparisonRunRegistryTest {
+
+    @Mock
+    private MongoTemplate mongoTemplate;
+
+    @Mock
+    private BulkOperations bulkOperations;
+
+    @Mock
+    private IndexOperations indexOperations;
+
+    // Status of the run each time it was saved.
+    private final List<String> savedStatuses = new ArrayList<>();
+
+    private GenericComparisonService service;
+
+    @BeforeEach
+    public void setUp() {
+        when(mongoTemplate.getConverter()).thenReturn(new MappingMongoConverter(NoOpDbRefResolver.INSTANCE, new MongoMappingContext()));
+        when(mongoTemplate.bulkOps(any(BulkOperations.BulkMode.class), eq(ComparisonBreak.class), eq("breaks")))
+                .thenReturn(bulkOperations);
+        when(mongoTemplate.indexOps(anyString())).thenReturn(indexOperations);
+        when(mongoTemplate.save(any(ComparisonRun.class), eq(ComparisonRunRegistry.RUNS_COLLECTION))).thenAnswer(invocation -> {
+            savedStatuses.add(((ComparisonRun) invocation.getArgument(0)).getStatus());
+            return invocation.getArgument(0);
+        });
+
+        service = new GenericComparisonService();
+        service.setMongoTemplate(mongoTemplate);
+    }
+
+    @Test
+    public void testFailedComparisonIsRecordedAsFailed() {
+        stubRawCollection(mongoTemplate, "accountA", List.of(raw(new Document("_id", "acct1").append("balance", 1.0))));
+        when(mongoTemplate.getCollection("accountB")).thenThrow(new IllegalStateException("accountB is unreachable"));
+
+        assertThrows(RuntimeException.class, () -> service.compareCollectionsRaw(Account.class, "accountA", "accountB",
+                "accountId", List.of("balance"), "breaks"));
+
+        assertEquals(List.of(ComparisonRun.RUNNING, ComparisonRun.FAILED), savedStatuses);
+        verify(mongoTemplate, times(2)).save(argThat((ComparisonRun run) -> "accountB is unreachable".equals(run.getError())
+                && run.getFinishedAt() != null && "breaks".equals(run.getOutputCollection())), eq(ComparisonRunRegistry.RUNS_COLLECTION));
+    }
+
+    @Test
+    public void testRowsAreLookedUpByRunAndKey() {
+        ComparisonBreak range = new ComparisonBreak("acct01", null, "acct01", "acct05", "matchRange");
+        range.setMatchCount(5L);
+        ComparisonBreak difference = new ComparisonBreak("acct06", "balance", "1.0", "2.0", "difference");
+        List<Document> queries = new ArrayList<>();
+        when(mongoTemplate.find(any(Query.class), eq(ComparisonBreak.class), eq("breaks"))).thenAnswer(invocation -> {
+            Document query = ((Query) invocation.getArgument(0)).getQueryObject();
+            queries.add(query);
+            Object key = query.get("comparisonKey");
+            if (key instanceof Document) {
+                return "acct03".equals(((Document) key).get("$lt")) ? List.of(range) : List.of(difference);
+            }
+            return "acct06".equals(key) ? List.of(difference) : List.of();
+        });
+        BreakReader reader = new BreakReader(mongoTemplate);
+
+        assertEquals(List.of(difference), reader.findByKey("breaks", "run1", "acct06"));
+        assertEquals(List.of(range), reader.findByKey("breaks", "run1", "acct03"));
+        assertEquals(List.of(), reader.findByKey("breaks", "run1", "acct07"));
+        assertTrue(queries.stream().allMatch(q -> "run1".equals(q.get("runId"))), "Every lookup uses the (runId, comparisonKey) index");
+    }
+
+    @Test
+    public void testOlderRunsAreDeletedWithTheirBreaks() {
+        ComparisonRun rows = run("run1", BreakFormat.ROWS, ComparisonRun.COMPLETED);
+        ComparisonRun compact = run("run2", BreakFormat.COMPACT, ComparisonRun.FAILED);
+        ComparisonRun running = run("run3", BreakFormat.ROWS, ComparisonRun.RUNNING);
+        when(mongoTemplate.find(any(Query.class), eq(ComparisonRun.class), eq(ComparisonRunRegistry.RUNS_COLLECTION))).thenAnswer(invocation -> {
+            Query query = invocation.getArgument(0);
+            assertEquals("breaks", query.getQueryObject().get("outputCollection"));
+            assertEquals(20, query.getSkip(), "The newest runs are kept");
+            return List.of(rows, compact, running);
+        });
+        List<String> removed = new ArrayList<>();
+        when(mongoTemplate.remove(any(Query.class), anyString())).thenAnswer(invocation -> {
+            removed.add(invocation.getArgument(1) + " " + ((Query) invocation.getArgument(0)).getQueryObject().toJson());
+            return null;
+        });
+
+        assertEquals(2, new ComparisonRunRegistry(mongoTemplate).deleteOlderRuns("breaks", 20));
+        assertEquals(List.of(
+                "breaks {\"runId\": \"run1\"}",
+                "comparisonRuns {\"_id\": \"run1\"}",
+                "breaks {\"r\": \"run2\"}",
+                BreakReader.dictionaryCollection("breaks") + " {\"_id\": \"run2\"}",
+                "comparisonRuns {\"_id\": \"run2\"}"), removed, "A run still running keeps its breaks");
+    }
+
+    private static ComparisonRun run(String id, BreakFormat breakFormat, String status) {
+        ComparisonRun run = new ComparisonRun();
+        run.setId(id);
+        run.setBreakFormat(breakFormat.name());
+        run.setStatus(status);
+        return run;
+    }
+}
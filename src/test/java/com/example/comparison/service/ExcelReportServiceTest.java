@@ -7,23 +7,41 @@ import org.apache.poi.ss.usermodel.Sheet;
 import org.apache.poi.xssf.usermodel.XSSFWorkbook;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.ArgumentCaptor;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
 import org.mockito.junit.jupiter.MockitoSettings;
 import org.mockito.quality.Strictness;
+import org.bson.Document;
 import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.convert.MappingMongoConverter;
+import org.springframework.data.mongodb.core.convert.NoOpDbRefResolver;
+import org.springframework.data.mongodb.core.mapping.MongoMappingContext;
+import org.springframework.data.mongodb.core.query.Query;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Date;
 import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.*;
 
 @ExtendWith(MockitoExtension.class)
@@ -36,6 +54,9 @@ public class ExcelReportServiceTest {
     @InjectMocks
     private ExcelReportService excelReportService;
 
+    @TempDir
+    Path directory;
+
     @Test
     public void testGenerateExcelReport() throws IOException {
         // Create dummy ComparisonBreak objects.
@@ -56,15 +77,9 @@ public class ExcelReportServiceTest {
         Account account2A = createDummyAccount("acct002", "Test A2", 2000.0);
         Account account3B = createDummyAccount("acct003", "Test A3", 3000.0);
 
-        // Stub findById for key "acct001" (both collections).
-        when(mongoTemplate.findById("acct001", Account.class, "collectionA")).thenReturn(account1A);
-        when(mongoTemplate.findById("acct001", Account.class, "collectionB")).thenReturn(account1B);
-        // For onlyOnA: key "acct002" exists only in collectionA.
-        when(mongoTemplate.findById("acct002", Account.class, "collectionA")).thenReturn(account2A);
-        when(mongoTemplate.findById("acct002", Account.class, "collectionB")).thenReturn(null);
-        // For onlyOnB: key "acct003" exists only in collectionB.
-        when(mongoTemplate.findById("acct003", Account.class, "collectionA")).thenReturn(null);
-        when(mongoTemplate.findById("acct003", Account.class, "collectionB")).thenReturn(account3B);
+        // "acct002" exists only in collectionA and "acct003" only in collectionB.
+        stubDocuments("collectionA", account1A, account2A);
+        stubDocuments("collectionB", account1B, account3B);
 
         // Generate the Excel workbook.
         XSSFWorkbook workbook = excelReportService.generateExcelReport(
@@ -82,6 +97,11 @@ public class ExcelReportServiceTest {
         assertNotNull(workbook.getSheet("onlyOnB"));
         assertNotNull(workbook.getSheet("difference"));
 
+        // Documents are loaded with one $in query per collection.
+        verify(mongoTemplate, times(2)).find(any(Query.class), eq(Account.class), anyString());
+        verify(mongoTemplate, never()).findById(any(), eq(Account.class), anyString());
+        assertEquals("Test A2", workbook.getSheet("onlyOnA").getRow(1).getCell(2).getStringCellValue());
+
         // Check the summary sheet.
         Sheet summarySheet = workbook.getSheet("Summary");
         // Expecting header, one row per break type, and a total row (5 rows in total).
@@ -111,6 +131,212 @@ public class ExcelReportServiceTest {
         assertTrue(outputFile.length() > 0, "Excel file should not be empty");
     }
 
+    @Test
+    public void testDifferenceSheetSplitsOnlyTheFieldsThatDifferForEachKey() throws IOException {
+        List<ComparisonBreak> breaks = List.of(
+                new ComparisonBreak("acct001", "balance", "1000.0", "1100.0", "difference"),
+                new ComparisonBreak("acct002", "accountName", "Test A2", "Test B2", "difference"),
+                new ComparisonBreak("acct002", "balance", "2000.0", "2100.0", "difference"),
+                new ComparisonBreak("acct003", "RecordMissing", "exists", "missing", "onlyOnA"));
+        when(mongoTemplate.findAll(ComparisonBreak.class, "breakCollection")).thenReturn(breaks);
+        stubDocuments("collectionA", createDummyAccount("acct001", "Test A1", 1000.0),
+                createDummyAccount("acct002", "Test A2", 2000.0), createDummyAccount("acct003", "Test A3", 3000.0));
+        stubDocuments("collectionB", createDummyAccount("acct001", "Test A1", 1100.0),
+                createDummyAccount("acct002", "Test B2", 2100.0));
+
+        try (XSSFWorkbook workbook = excelReportService.generateExcelReport(
+                Account.class, "accountId", "collectionA", "collectionB", "breakCollection")) {
+            Sheet difference = workbook.getSheet("difference");
+            Row header = difference.getRow(0);
+            int nameA = -1;
+            int balanceA = -1;
+            for (int i = 0; i < header.getLastCellNum(); i++) {
+                String title = header.getCell(i).getStringCellValue();
+                if ("accountName (A)".equals(title)) {
+                    nameA = i;
+                } else if ("balance (A)".equals(title)) {
+                    balanceA = i;
+                }
+                assertNotEquals("accountType (A)", title, "fields that never differ keep one column");
+            }
+            assertEquals("balance (B)", header.getCell(balanceA + 1).getStringCellValue());
+
+            assertEquals(2, difference.getLastRowNum());
+            Row acct001 = difference.getRow(1);
+            assertEquals("acct001", acct001.getCell(0).getStringCellValue());
+            assertEquals(1100.0, acct001.getCell(balanceA + 1).getNumericCellValue(), "numbers are written as numeric cells");
+            assertEquals("Test A1", acct001.getCell(nameA).getStringCellValue());
+            assertEquals(1, difference.getNumMergedRegions(), "only acct001's accountName is the same on both sides");
+            assertEquals(nameA, difference.getMergedRegion(0).getFirstColumn());
+            assertEquals("Test B2", difference.getRow(2).getCell(nameA + 1).getStringCellValue());
+
+            Sheet onlyOnA = workbook.getSheet("onlyOnA");
+            assertEquals(1, onlyOnA.getLastRowNum());
+            assertEquals("acct003", onlyOnA.getRow(1).getCell(0).getStringCellValue());
+            assertEquals(0, workbook.getSheet("onlyOnB").getLastRowNum());
+        }
+    }
+
+    @Test
+    public void testWriteExcelReportStreamsBreaksInKeyOrder() throws IOException {
+        // As the sorted cursor returns them: the matchCount row first, then every break of a key together.
+        List<ComparisonBreak> sortedBreaks = List.of(
+                matchCount(5),
+                new ComparisonBreak("acct001", "balance", "1000.0", "1100.0", "difference"),
+                new ComparisonBreak("acct001", "accountName", "Test A1", "Test B1", "difference"),
+                new ComparisonBreak("acct002", "RecordMissing", "exists", "missing", "onlyOnA"),
+                new ComparisonBreak("acct003", "RecordMissing", "missing", "exists", "onlyOnB"),
+                new ComparisonBreak("acct004", null, null, null, "match"),
+                new ComparisonBreak("acct005", "balance", "5.0", "6.0", "difference"));
+        when(mongoTemplate.stream(any(Query.class), eq(ComparisonBreak.class), eq("breakCollection")))
+                .thenAnswer(invocation -> sortedBreaks.stream());
+        when(mongoTemplate.findDistinct(any(Query.class), eq("differenceField"), eq("breakCollection"), eq(ComparisonBreak.class), eq(String.class)))
+                .thenReturn(List.of("balance", "accountName"));
+        stubDocuments("collectionA", createDummyAccount("acct001", "Test A1", 1000.0),
+                createDummyAccount("acct002", "Test A2", 2000.0), createDummyAccount("acct005", "Test A5", 5.0));
+        stubDocuments("collectionB", createDummyAccount("acct001", "Test B1", 1100.0),
+                createDummyAccount("acct003", "Test A3", 3000.0), createDummyAccount("acct005", "Test A5", 6.0));
+
+        excelReportService.setRowWindow(2);
+        excelReportService.setFetchBatch(2);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        excelReportService.writeExcelReport(Account.class, "accountId", "collectionA", "collectionB", "breakCollection", "run1", out);
+
+        ArgumentCaptor<Query> query = ArgumentCaptor.forClass(Query.class);
+        verify(mongoTemplate).stream(query.capture(), eq(ComparisonBreak.class), eq("breakCollection"));
+        assertEquals("run1", query.getValue().getQueryObject().getString("runId"));
+        assertEquals(1, query.getValue().getSortObject().getInteger("comparisonKey"));
+        verify(mongoTemplate, never()).findAll(ComparisonBreak.class, "breakCollection");
+        // Batches of two keys: {acct001, acct002}, {acct003, acct004} and {acct005}; acct004 only matched.
+        ArgumentCaptor<Query> fetchesA = ArgumentCaptor.forClass(Query.class);
+        verify(mongoTemplate, times(2)).find(fetchesA.capture(), eq(Account.class), eq("collectionA"));
+        assertEquals(List.of(List.of("acct001", "acct002"), List.of("acct005")),
+                fetchesA.getAllValues().stream().map(ExcelReportServiceTest::inKeys).collect(Collectors.toList()));
+        ArgumentCaptor<Query> fetchesB = ArgumentCaptor.forClass(Query.class);
+        verify(mongoTemplate, times(3)).find(fetchesB.capture(), eq(Account.class), eq("collectionB"));
+        assertEquals(List.of(List.of("acct001"), List.of("acct003"), List.of("acct005")),
+                fetchesB.getAllValues().stream().map(ExcelReportServiceTest::inKeys).collect(Collectors.toList()));
+        verify(mongoTemplate, never()).findById(any(), eq(Account.class), anyString());
+
+        try (XSSFWorkbook workbook = new XSSFWorkbook(new ByteArrayInputStream(out.toByteArray()))) {
+            assertEquals(List.of("Summary", "onlyOnA", "onlyOnB", "difference"),
+                    List.of(workbook.getSheetName(0), workbook.getSheetName(1), workbook.getSheetName(2), workbook.getSheetName(3)));
+            Sheet summary = workbook.getSheet("Summary");
+            assertEquals(3, (int) summary.getRow(3).getCell(1).getNumericCellValue(), "difference breaks");
+            assertEquals(7, (int) summary.getRow(4).getCell(1).getNumericCellValue(), "every break is counted");
+
+            assertEquals("acct002", workbook.getSheet("onlyOnA").getRow(1).getCell(0).getStringCellValue());
+            assertEquals("acct003", workbook.getSheet("onlyOnB").getRow(1).getCell(0).getStringCellValue());
+
+            Sheet difference = workbook.getSheet("difference");
+            assertEquals(2, difference.getLastRowNum(), "header plus acct001 and acct005, written past the row window");
+            assertEquals("acct001", difference.getRow(1).getCell(0).getStringCellValue());
+            assertEquals("acct005", difference.getRow(2).getCell(0).getStringCellValue());
+            Row header = difference.getRow(0);
+            int nameA = -1;
+            for (int i = 0; i < header.getLastCellNum(); i++) {
+                if ("accountName (A)".equals(header.getCell(i).getStringCellValue())) {
+                    nameA = i;
+                }
+            }
+            assertEquals("accountName (B)", header.getCell(nameA + 1).getStringCellValue());
+            assertEquals("Test B1", difference.getRow(1).getCell(nameA + 1).getStringCellValue());
+            assertEquals("Test A5", difference.getRow(2).getCell(nameA).getStringCellValue(), "a value that is the same on both sides");
+            assertEquals("Test A5", difference.getRow(2).getCell(nameA + 1).getStringCellValue());
+            assertEquals(0, difference.getNumMergedRegions());
+        }
+    }
+
+    @Test
+    public void testSheetsAreCappedToThePreviewButTheSummaryCountsEveryBreak() throws IOException {
+        List<ComparisonBreak> sortedBreaks = List.of(
+                new ComparisonBreak("acct001", "balance", "1000.0", "1100.0", "difference"),
+                new ComparisonBreak("acct001", "accountName", "Test A1", "Test B1", "difference"),
+                new ComparisonBreak("acct002", "RecordMissing", "exists", "missing", "onlyOnA"),
+                new ComparisonBreak("acct003", "RecordMissing", "exists", "missing", "onlyOnA"),
+                new ComparisonBreak("acct005", "balance", "5.0", "6.0", "difference"));
+        when(mongoTemplate.stream(any(Query.class), eq(ComparisonBreak.class), eq("breakCollection")))
+                .thenAnswer(invocation -> sortedBreaks.stream());
+        when(mongoTemplate.findDistinct(any(Query.class), eq("differenceField"), eq("breakCollection"), eq(ComparisonBreak.class), eq(String.class)))
+                .thenReturn(List.of("balance", "accountName"));
+        stubDocuments("collectionA", createDummyAccount("acct001", "Test A1", 1000.0),
+                createDummyAccount("acct002", "Test A2", 2000.0), createDummyAccount("acct003", "Test A3", 3000.0),
+                createDummyAccount("acct005", "Test A5", 5.0));
+        stubDocuments("collectionB", createDummyAccount("acct001", "Test B1", 1100.0),
+                createDummyAccount("acct005", "Test A5", 6.0));
+
+        excelReportService.setPreviewRows(1);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        excelReportService.writeExcelReport(Account.class, "accountId", "collectionA", "collectionB", "breakCollection", "run1", out);
+
+        ArgumentCaptor<Query> fetchesA = ArgumentCaptor.forClass(Query.class);
+        verify(mongoTemplate).find(fetchesA.capture(), eq(Account.class), eq("collectionA"));
+        assertEquals(List.of("acct001", "acct002"), inKeys(fetchesA.getValue()), "keys past the preview are not loaded");
+        try (XSSFWorkbook workbook = new XSSFWorkbook(new ByteArrayInputStream(out.toByteArray()))) {
+            assertEquals(1, workbook.getSheet("onlyOnA").getLastRowNum());
+            assertEquals("acct002", workbook.getSheet("onlyOnA").getRow(1).getCell(0).getStringCellValue());
+            assertEquals(1, workbook.getSheet("difference").getLastRowNum());
+            assertEquals("acct001", workbook.getSheet("difference").getRow(1).getCell(0).getStringCellValue());
+            Sheet summary = workbook.getSheet("Summary");
+            assertEquals(2, (int) summary.getRow(1).getCell(1).getNumericCellValue(), "onlyOnA breaks");
+            assertEquals(3, (int) summary.getRow(3).getCell(1).getNumericCellValue(), "difference breaks");
+            assertEquals("Keys shown per sheet (preview)", summary.getRow(5).getCell(0).getStringCellValue());
+            assertEquals(1, (int) summary.getRow(5).getCell(1).getNumericCellValue());
+        }
+    }
+
+    @Test
+    public void testReportFileIsReplacedOnlyWhenComplete() throws IOException {
+        Path file = directory.resolve("report.xlsx");
+        Files.writeString(file, "previous report");
+        when(mongoTemplate.stream(any(Query.class), eq(ComparisonBreak.class), eq("breakCollection")))
+                .thenAnswer(invocation -> Stream.concat(
+                        Stream.of(new ComparisonBreak("acct002", "RecordMissing", "exists", "missing", "onlyOnA")),
+                        Stream.<ComparisonBreak>generate(() -> {
+                            throw new IllegalStateException("cursor lost");
+                        }).limit(1)));
+        stubDocuments("collectionA", createDummyAccount("acct002", "Test A2", 2000.0));
+        stubDocuments("collectionB");
+
+        assertThrows(IllegalStateException.class, () -> excelReportService.writeExcelReport(Account.class, "accountId",
+                "collectionA", "collectionB", "breakCollection", "run1", file));
+        assertEquals("previous report", Files.readString(file));
+        assertEquals(List.of("report.xlsx"), fileNames());
+
+        when(mongoTemplate.stream(any(Query.class), eq(ComparisonBreak.class), eq("breakCollection")))
+                .thenAnswer(invocation -> Stream.of(new ComparisonBreak("acct002", "RecordMissing", "exists", "missing", "onlyOnA")));
+        excelReportService.writeExcelReport(Account.class, "accountId", "collectionA", "collectionB", "breakCollection", "run1", file);
+        assertEquals(List.of("report.xlsx"), fileNames());
+        try (InputStream in = Files.newInputStream(file); XSSFWorkbook workbook = new XSSFWorkbook(in)) {
+            assertEquals("acct002", workbook.getSheet("onlyOnA").getRow(1).getCell(0).getStringCellValue());
+        }
+    }
+
+    private List<String> fileNames() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.map(f -> f.getFileName().toString()).sorted().collect(Collectors.toList());
+        }
+    }
+
+    // Answers the _id $in queries of ReportDocumentFetcher from the given accounts.
+    private void stubDocuments(String collectionName, Account... accounts) {
+        when(mongoTemplate.getConverter()).thenReturn(new MappingMongoConverter(NoOpDbRefResolver.INSTANCE, new MongoMappingContext()));
+        when(mongoTemplate.find(any(Query.class), eq(Account.class), eq(collectionName))).thenAnswer(invocation -> {
+            List<String> keys = inKeys(invocation.getArgument(0));
+            return Arrays.stream(accounts).filter(a -> keys.contains(a.getAccountId())).collect(Collectors.toList());
+        });
+    }
+
+    private static List<String> inKeys(Query query) {
+        return query.getQueryObject().get("_id", Document.class).getList("$in", String.class);
+    }
+
+    private static ComparisonBreak matchCount(long count) {
+        ComparisonBreak row = new ComparisonBreak(null, null, null, null, "matchCount");
+        row.setMatchCount(count);
+        return row;
+    }
+
     private Account createDummyAccount(String accountId, String name, double balance) {
         Account acc = new Account();
         acc.setAccountId(accountId);
@@ -0,0 +1,60 @@
+package com.example.comparison.service;
+
+import com.mongodb.ServerAddress;
+import com.mongodb.ServerCursor;
+import com.mongodb.client.MongoCursor;
+
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * In-memory {@link MongoCursor} for tests that stub the driver's fluent find/aggregate API.
+ */
+class FakeMongoCursor<T> implements MongoCursor<T> {
+
+    private final Iterator<T> iterator;
+    private boolean closed;
+
+    FakeMongoCursor(List<T> documents) {
+        this.iterator = documents.iterator();
+    }
+
+    boolean isClosed() {
+        return closed;
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+    }
+
+    @Override
+    public boolean hasNext() {
+        return iterator.hasNext();
+    }
+
+    @Override
+    public T next() {
+        return iterator.next();
+    }
+
+    @Override
+    public int available() {
+        return 0;
+    }
+
+    @Override
+    public T tryNext() {
+        return iterator.hasNext() ? iterator.next() : null;
+    }
+
+    @Override
+    public ServerCursor getServerCursor() {
+        return null;
+    }
+
+    @Override
+    public ServerAddress getServerAddress() {
+        return new ServerAddress();
+    }
+}
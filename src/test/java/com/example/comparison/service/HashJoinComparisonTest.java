@@ -0,0 +1,267 @@
+package com.example.comparison.service;
+
+import com.example.comparison.model.Account;
+import com.example.comparison.model.ComparisonBreak;
+import com.example.comparison.model.ComparisonRun;
+import org.bson.BsonInt64;
+import org.bson.BsonString;
+import org.bson.Document;
+import org.bson.RawBsonDocument;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.mockito.junit.jupiter.MockitoSettings;
+import org.mockito.quality.Strictness;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.MongoTemplate;
+
+import java.nio.charset.StandardCharsets;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static com.example.comparison.service.RawCollectionStubs.raw;
+import static com.example.comparison.service.RawCollectionStubs.stubBreakOutput;
+import static com.example.comparison.service.RawCollectionStubs.stubRawCollection;
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+@MockitoSettings(strictness = Strictness.LENIENT)
+public class HashJoinComparisonTest {
+
+    private static final List<String> ATTRIBUTES = List.of("accountName", "balance", "creationDate", "totalTrades");
+
+    @Mock
+    private MongoTemplate mongoTemplate;
+
+    @Mock
+    private BulkOperations bulkOperations;
+
+    private List<ComparisonBreak> written;
+
+    private GenericComparisonService service;
+
+    @BeforeEach
+    public void setUp() {
+        written = stubBreakOutput(mongoTemplate, bulkOperations, "breaks");
+
+        service = new GenericComparisonService();
+        service.setMongoTemplate(mongoTemplate);
+        service.setBreakBatchSize(25);
+    }
+
+    @Test
+    public void testHashJoinMatchesMergeJoinInMemoryAndSpilled() {
+        List<RawBsonDocument> sideA = new ArrayList<>();
+        List<RawBsonDocument> sideB = new ArrayList<>();
+        Date created = new Date(1630000000000L);
+        for (int i = 0; i < 1000; i++) {
+            String id = String.format("acct%05d", i);
+            if (i % 37 != 0) {
+                sideA.add(raw(account(id, i, created)));
+            }
+            if (i % 41 != 0) {
+                Document b = account(id, i, created);
+                if (i % 7 == 0) {
+                    b.put("balance", i * 10.0 + 0.5);
+                }
+                if (i % 11 == 0) {
+                    b.remove("accountName");
+                }
+                sideB.add(raw(b));
+            }
+        }
+        stubRawCollection(mongoTemplate, "accountA", sideA);
+        stubRawCollection(mongoTemplate, "accountB", sideB);
+        service.compareCollectionsRaw(Account.class, "accountA", "accountB", "accountId", ATTRIBUTES, "breaks");
+        List<String> mergeJoin = describe(written);
+
+        // The hash-join does not need sorted input.
+        List<RawBsonDocument> shuffledA = new ArrayList<>(sideA);
+        List<RawBsonDocument> shuffledB = new ArrayList<>(sideB);
+        Collections.shuffle(shuffledA, new Random(1));
+        Collections.shuffle(shuffledB, new Random(2));
+        stubRawCollection(mongoTemplate, "accountA", shuffledA);
+        stubRawCollection(mongoTemplate, "accountB", shuffledB);
+
+        written.clear();
+        service.compareCollectionsHashed(Account.class, "accountA", "accountB", "accountId", ATTRIBUTES, "breaks");
+        assertEquals(mergeJoin, describe(written), "In-memory hash-join should write the same breaks");
+
+        written.clear();
+        service.setHashMaxKeysInMemory(100);
+        service.compareCollectionsHashed(Account.class, "accountA", "accountB", "accountId", ATTRIBUTES, "breaks");
+        assertEquals(mergeJoin, describe(written), "Spilled hash-join should write the same breaks");
+    }
+
+    @Test
+    public void testDuplicateKeysAreLeftUnmatched() {
+        Date created = new Date(1630000000000L);
+        stubRawCollection(mongoTemplate, "accountA", List.of(
+                raw(account("acct1", 1, created)), raw(account("acct1", 1, created))));
+        stubRawCollection(mongoTemplate, "accountB", List.of(
+                raw(account("acct1", 1, created)), raw(account("acct2", 2, created)), raw(account("acct2", 2, created))));
+
+        service.compareCollectionsHashed(Account.class, "accountA", "accountB", "accountId", ATTRIBUTES, "breaks");
+
+        assertEquals(List.of(
+                "acct1|match|null|null|null",
+                "acct1|onlyOnA|RecordMissing|exists|missing",
+                "acct2|onlyOnB|RecordMissing|missing|exists",
+                "acct2|onlyOnB|RecordMissing|missing|exists"), describe(written));
+    }
+
+    @Test
+    public void testInt32AndInt64KeysAreTheSameKey() {
+        Date created = new Date(1630000000000L);
+        List<RawBsonDocument> sideA = new ArrayList<>();
+        List<RawBsonDocument> sideB = new ArrayList<>();
+        for (int i = 1; i <= 3; i++) {
+            sideA.add(raw(account("acct", i, created).append("_id", i)));
+            sideB.add(raw(account("acct", i, created).append("_id", (long) i).append("balance", i == 2 ? 25.0 : i * 10.0)));
+        }
+        stubRawCollection(mongoTemplate, "accountA", sideA);
+        stubRawCollection(mongoTemplate, "accountB", sideB);
+        service.compareCollectionsRaw(Account.class, "accountA", "accountB", "accountId", ATTRIBUTES, "breaks");
+        List<String> mergeJoin = describe(written);
+        assertEquals(List.of("1|match|null|null|null", "2|difference|balance|20.0|25.0", "3|match|null|null|null"), mergeJoin);
+
+        written.clear();
+        service.compareCollectionsHashed(Account.class, "accountA", "accountB", "accountId", ATTRIBUTES, "breaks");
+        assertEquals(mergeJoin, describe(written));
+    }
+
+    @Test
+    public void testKeyDeletedBeforeItsDifferencesAreReadIsReportedAsMissing() {
+        Date created = new Date(1630000000000L);
+        List<RawBsonDocument> documentsB = List.of(
+                raw(account("acct1", 1, created)), raw(account("acct2", 2, created).append("balance", 25.0)));
+        // acct2 is deleted from B after the full scan, before its differing fingerprint is resolved.
+        List<RawBsonDocument> sideB = changedAfterScan(documentsB, documentsB.subList(0, 1));
+        stubRawCollection(mongoTemplate, "accountA", List.of(raw(account("acct1", 1, created)), raw(account("acct2", 2, created))));
+        stubRawCollection(mongoTemplate, "accountB", sideB);
+
+        service.compareCollectionsHashed(Account.class, "accountA", "accountB", "accountId", ATTRIBUTES, "breaks");
+
+        assertEquals(List.of("acct1|match|null|null|null", "acct2|onlyOnA|RecordMissing|exists|missing"), describe(written));
+    }
+
+    @Test
+    public void testDuplicateKeyIsComparedWithTheCopyItWasJoinedOn() {
+        Date created = new Date(1630000000000L);
+        List<RawBsonDocument> documentsA = List.of(
+                raw(account("acct1", 1, created)), raw(account("acct1", 1, created).append("balance", 30.0)));
+        // Fetched again, the copies of acct1 come back in the other order.
+        stubRawCollection(mongoTemplate, "accountA", changedAfterScan(documentsA, List.of(documentsA.get(1), documentsA.get(0))));
+        stubRawCollection(mongoTemplate, "accountB", List.of(raw(account("acct1", 1, created).append("balance", 15.0))));
+
+        ComparisonRun run = service.compareCollectionsHashed(Account.class, "accountA", "accountB", "accountId", ATTRIBUTES, "breaks");
+
+        assertEquals(List.of(
+                "acct1|difference|balance|10.0|15.0",
+                "acct1|onlyOnA|RecordMissing|exists|missing"), describe(written));
+        assertEquals(0, run.getUnresolvedKeys());
+    }
+
+    @Test
+    public void testDuplicateKeyWithoutTheCopyItWasJoinedOnIsUnresolved() {
+        Date created = new Date(1630000000000L);
+        List<RawBsonDocument> documentsA = List.of(
+                raw(account("acct1", 1, created)), raw(account("acct1", 1, created).append("balance", 30.0)));
+        // Both copies of acct1 are updated after the full scan.
+        stubRawCollection(mongoTemplate, "accountA", changedAfterScan(documentsA, List.of(
+                raw(account("acct1", 1, created).append("balance", 40.0)), raw(account("acct1", 1, created).append("balance", 50.0)))));
+        stubRawCollection(mongoTemplate, "accountB", List.of(raw(account("acct1", 1, created).append("balance", 15.0))));
+
+        ComparisonRun run = service.compareCollectionsHashed(Account.class, "accountA", "accountB", "accountId", ATTRIBUTES, "breaks");
+
+        assertEquals(List.of("acct1|onlyOnA|RecordMissing|exists|missing"), describe(written));
+        assertEquals(1, run.getUnresolvedKeys());
+        assertEquals(0, run.getKeysWithAttributeMismatch());
+    }
+
+    @Test
+    public void testFingerprintTable() {
+        FingerprintTable table = new FingerprintTable(1);
+        for (long key = 0; key < 100; key++) {
+            assertTrue(table.add(new BsonInt64(key), key * 31));
+        }
+        assertFalse(table.add(new BsonInt64(7), 0), "a key is added once");
+        int slot = table.take(new BsonInt64(7));
+        assertEquals(7 * 31, table.fingerprint(slot));
+        assertEquals(-1, table.take(new BsonInt64(7)), "a key is taken once");
+        assertEquals(-1, table.take(new BsonInt64(100)));
+
+        List<Object> untaken = new ArrayList<>();
+        table.forEachUntaken(untaken::add);
+        assertEquals(99, untaken.size());
+        assertFalse(untaken.contains(new BsonInt64(7)));
+    }
+
+    @Test
+    public void testFingerprintsAndKeyEncoding() {
+        // Reference values from the XXH64 specification.
+        assertEquals(0xEF46DB3751D8E999L, RowFingerprint.xxh64(new byte[0], 0, 0, 0));
+        byte[] abc = "abc".getBytes(StandardCharsets.US_ASCII);
+        assertEquals(0x44BC2CF5AD770999L, RowFingerprint.xxh64(abc, 0, abc.length, 0));
+
+        RawBsonAccessor accessor = new RawBsonAccessor("_id", List.of("a", "b"));
+        RowFingerprint fingerprint = new RowFingerprint(accessor, 2);
+        long missing = fingerprint.of(raw(new Document("_id", 1).append("a", 1)));
+        long explicitNull = fingerprint.of(raw(new Document("_id", 2).append("a", 1).append("b", null)));
+        long different = fingerprint.of(raw(new Document("_id", 3).append("a", 1).append("b", 2)));
+        assertEquals(missing, explicitNull, "Missing and null compare equal in the merge-join");
+        assertNotEquals(missing, different);
+
+        assertEquals(new BsonString("acct1"), RowFingerprint.decodeKey(RowFingerprint.encodeKey(new BsonString("acct1"))));
+        assertEquals(new BsonInt64(42), RowFingerprint.decodeKey(RowFingerprint.encodeKey(new BsonInt64(42))));
+    }
+
+    // A collection read as scanned by the first query, and as fetched by every later one.
+    private static List<RawBsonDocument> changedAfterScan(List<RawBsonDocument> scanned, List<RawBsonDocument> fetched) {
+        return new AbstractList<>() {
+            private int scans;
+
+            @Override
+            public RawBsonDocument get(int index) {
+                return scanned.get(index);
+            }
+
+            @Override
+            public int size() {
+                return scanned.size();
+            }
+
+            @Override
+            public Stream<RawBsonDocument> stream() {
+                return (scans++ == 0) ? scanned.stream() : fetched.stream();
+            }
+        };
+    }
+
+    private static List<String> describe(List<ComparisonBreak> breaks) {
+        return breaks.stream()
+                .map(b -> String.join("|", b.getComparisonKey(), b.getBreakType(),
+                        String.valueOf(b.getDifferenceField()), String.valueOf(b.getValueInCollectionA()),
+                        String.valueOf(b.getValueInCollectionB())))
+                .sorted()
+                .collect(Collectors.toList());
+    }
+
+    private static Document account(String id, int index, Date created) {
+        return new Document("_id", id)
+                .append("accountName", "Account " + index)
+                .append("balance", index * 10.0)
+                .append("creationDate", created)
+                .append("totalTrades", index % 50);
+    }
+}
@@ -0,0 +1,243 @@
+package com.example.comparison.service;
+
+import com.example.comparison.model.Account;
+import com.example.comparison.model.ComparisonBreak;
+import com.example.comparison.model.ComparisonRun;
+import com.mongodb.client.ChangeStreamIterable;
+import com.mongodb.client.MongoChangeStreamCursor;
+import com.mongodb.client.model.changestream.ChangeStreamDocument;
+import com.mongodb.client.model.changestream.OperationType;
+import org.bson.BsonDocument;
+import org.bson.BsonString;
+import org.bson.Document;
+import org.bson.RawBsonDocument;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.mockito.junit.jupiter.MockitoSettings;
+import org.mockito.quality.Strictness;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.convert.MappingMongoConverter;
+import org.springframework.data.mongodb.core.convert.NoOpDbRefResolver;
+import org.springframework.data.mongodb.core.mapping.MongoMappingContext;
+import org.springframework.data.mongodb.core.query.Query;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import static com.example.comparison.service.RawCollectionStubs.raw;
+import static com.example.comparison.service.RawCollectionStubs.stubBreakOutput;
+import static com.example.comparison.service.RawCollectionStubs.stubRawCollection;
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+@MockitoSettings(strictness = Strictness.LENIENT)
+public class IncrementalComparisonTest {
+
+    private static final List<String> ATTRIBUTES = List.of("accountName", "balance");
+
+    @Mock
+    private MongoTemplate mongoTemplate;
+
+    @Mock
+    private BulkOperations bulkOperations;
+
+    // Clusters of the two sides in a cross-cluster run; mongoTemplate holds its output.
+    @Mock
+    private MongoTemplate templateA;
+
+    @Mock
+    private MongoTemplate templateB;
+
+    private List<ComparisonBreak> written;
+
+    private GenericComparisonService service;
+
+    @BeforeEach
+    public void setUp() {
+        written = stubBreakOutput(mongoTemplate, bulkOperations, "breaks");
+
+        service = new GenericComparisonService();
+        service.setMongoTemplate(mongoTemplate);
+        service.setTrackChanges(true);
+    }
+
+    @Test
+    public void testIncrementalPassReplacesTheBreaksOfChangedKeys() {
+        List<RawBsonDocument> sideA = new ArrayList<>(List.of(
+                raw(account("acct1", "Alpha", 100.0)),
+                raw(account("acct2", "Beta", 200.0)),
+                raw(account("acct3", "Gamma", 300.0))));
+        List<RawBsonDocument> sideB = new ArrayList<>(List.of(
+                raw(account("acct1", "Alpha", 100.0)),
+                raw(account("acct2", "Beta", 210.0)),
+                raw(account("acct4", "Delta", 400.0))));
+        stubRawCollection(mongoTemplate, "accountA", sideA);
+        stubRawCollection(mongoTemplate, "accountB", sideB);
+        stubChangeStream(mongoTemplate, "accountA", "tokenA1", "tokenA2", event(OperationType.INSERT, account("acct4", "Delta", 400.0)));
+        stubChangeStream(mongoTemplate, "accountB", "tokenB1", "tokenB2", event(OperationType.UPDATE, account("acct2", "Beta", 200.0)));
+
+        ComparisonRun run = service.compareCollectionsRaw(Account.class, "accountA", "accountB", "accountId", ATTRIBUTES, "breaks");
+        assertEquals("ALL", run.getMatchPolicy());
+        assertEquals("tokenA1", run.getResumeTokenA().getString("_data"), "the checkpoint is taken before reading");
+        assertEquals(4, run.getBreaksWritten());
+        assertEquals(1, run.getKeysWithAttributeMismatch());
+
+        // acct4 is inserted into A and acct2 is corrected in B.
+        sideA.add(raw(account("acct4", "Delta", 400.0)));
+        sideB.set(1, raw(account("acct2", "Beta", 200.0)));
+        List<ComparisonBreak> fullRun = new ArrayList<>(written);
+        written.clear();
+        when(mongoTemplate.findById(run.getId(), ComparisonRun.class, ComparisonRunRegistry.RUNS_COLLECTION)).thenReturn(run);
+        when(mongoTemplate.find(any(Query.class), eq(ComparisonBreak.class), eq("breaks"))).thenReturn(fullRun.stream()
+                .filter(b -> Set.of("acct2", "acct4").contains(b.getComparisonKey()))
+                .collect(Collectors.toList()));
+
+        ComparisonRun updated = service.compareCollectionsIncremental(Account.class, run.getId());
+
+        ArgumentCaptor<Query> removed = ArgumentCaptor.forClass(Query.class);
+        verify(mongoTemplate).remove(removed.capture(), eq("breaks"));
+        assertEquals(Set.of("acct4", "acct2"), Set.copyOf(removed.getValue().getQueryObject()
+                .get("comparisonKey", Document.class).getList("$in", String.class)));
+        assertEquals(List.of("acct2|match", "acct4|match"), written.stream()
+                .map(b -> b.getComparisonKey() + "|" + b.getBreakType()).sorted().collect(Collectors.toList()));
+        assertTrue(written.stream().allMatch(b -> run.getId().equals(b.getRunId())), "breaks are rewritten under the same run");
+
+        assertSame(run, updated);
+        assertEquals(4, updated.getItemsProcessedA());
+        assertEquals(3, updated.getItemsProcessedB());
+        assertEquals(3, updated.getFullyMatchedKeys());
+        assertEquals(0, updated.getKeysWithAttributeMismatch());
+        assertEquals(0, updated.getTotalAttributeDifferences());
+        assertEquals(1, updated.getKeysOnlyInA());
+        assertEquals(0, updated.getKeysOnlyInB());
+        assertEquals(4, updated.getBreaksWritten());
+        assertEquals(1, updated.getIncrementalPasses());
+        assertEquals(2, updated.getLastIncrementalKeys());
+        assertEquals("tokenA2", updated.getResumeTokenA().getString("_data"));
+        assertEquals("tokenB2", updated.getResumeTokenB().getString("_data"));
+    }
+
+    @Test
+    public void testRunsThatCannotBeUpdatedAreRejected() {
+        ComparisonRun run = completedRun();
+        run.setResumeTokenA(null);
+        when(mongoTemplate.findById("run1", ComparisonRun.class, ComparisonRunRegistry.RUNS_COLLECTION)).thenReturn(run);
+        IllegalStateException noCheckpoint = assertThrows(IllegalStateException.class,
+                () -> service.compareCollectionsIncremental(Account.class, "run1"));
+        assertTrue(noCheckpoint.getMessage().contains("checkpoints"), noCheckpoint.getMessage());
+
+        run.setResumeTokenA(token("tokenA1"));
+        service.setMatchPolicy(MatchPolicy.RANGES);
+        assertThrows(IllegalStateException.class, () -> service.compareCollectionsIncremental(Account.class, "run1"));
+
+        service.setMatchPolicy(MatchPolicy.ALL);
+        stubRawCollection(mongoTemplate, "accountA", List.of());
+        stubRawCollection(mongoTemplate, "accountB", List.of());
+        stubChangeStream(mongoTemplate, "accountA", "tokenA1", "tokenA2", event(OperationType.DROP, null));
+        stubChangeStream(mongoTemplate, "accountB", "tokenB1", "tokenB2");
+        IllegalStateException dropped = assertThrows(IllegalStateException.class,
+                () -> service.compareCollectionsIncremental(Account.class, "run1"));
+        assertTrue(dropped.getMessage().contains("full comparison"), dropped.getMessage());
+        assertEquals(ComparisonRun.COMPLETED, run.getStatus(), "nothing was replaced, so the run is still a baseline");
+        verify(mongoTemplate, never()).remove(any(Query.class), anyString());
+
+        run.setCrossCluster(true);
+        IllegalStateException crossCluster = assertThrows(IllegalStateException.class,
+                () -> service.compareCollectionsIncremental(Account.class, "run1"));
+        assertTrue(crossCluster.getMessage().contains("different clusters"), crossCluster.getMessage());
+    }
+
+    @Test
+    public void testCrossClusterRunIsUpdatedThroughTheTemplatesOfEachSide() {
+        MappingMongoConverter converter = new MappingMongoConverter(NoOpDbRefResolver.INSTANCE, new MongoMappingContext());
+        when(templateA.getConverter()).thenReturn(converter);
+        when(templateB.getConverter()).thenReturn(converter);
+        stubRawCollection(templateA, "accountA", List.of(raw(account("acct4", "Delta", 400.0))));
+        stubRawCollection(templateB, "accountB", List.of());
+        stubChangeStream(templateA, "accountA", "tokenA1", "tokenA2", event(OperationType.INSERT, account("acct4", "Delta", 400.0)));
+        stubChangeStream(templateB, "accountB", "tokenB1", "tokenB2");
+        ComparisonRun run = completedRun();
+        run.setCrossCluster(true);
+        when(mongoTemplate.findById("run1", ComparisonRun.class, ComparisonRunRegistry.RUNS_COLLECTION)).thenReturn(run);
+        when(mongoTemplate.find(any(Query.class), eq(ComparisonBreak.class), eq("breaks"))).thenReturn(List.of());
+
+        service.compareCollectionsIncremental(Account.class, "run1", templateA, templateB, mongoTemplate);
+
+        assertEquals(List.of("acct4|onlyOnA"), written.stream()
+                .map(b -> b.getComparisonKey() + "|" + b.getBreakType()).collect(Collectors.toList()));
+        verify(mongoTemplate).remove(any(Query.class), eq("breaks"));
+        verify(mongoTemplate, never()).getCollection(anyString());
+        assertEquals("tokenA2", run.getResumeTokenA().getString("_data"));
+        assertEquals(1, run.getKeysOnlyInA());
+    }
+
+    private static ComparisonRun completedRun() {
+        ComparisonRun run = new ComparisonRun();
+        run.setId("run1");
+        run.setComparisonType("MongoDB Raw BSON Collection Comparison");
+        run.setCollectionA("accountA");
+        run.setCollectionB("accountB");
+        run.setKeyAttribute("accountId");
+        run.setAttributes(ATTRIBUTES);
+        run.setOutputCollection("breaks");
+        run.setBreakFormat(BreakFormat.ROWS.name());
+        run.setMatchPolicy(MatchPolicy.ALL.name());
+        run.setStatus(ComparisonRun.COMPLETED);
+        run.setStartedAt(new Date());
+        run.setResumeTokenA(token("tokenA1"));
+        run.setResumeTokenB(token("tokenB1"));
+        return run;
+    }
+
+    // watch() gives the checkpoint; watch(BsonDocument.class) replays the events after it.
+    @SafeVarargs
+    @SuppressWarnings("unchecked")
+    private static void stubChangeStream(MongoTemplate template, String collectionName, String checkpoint, String resumedTo,
+                                         ChangeStreamDocument<BsonDocument>... events) {
+        ChangeStreamIterable<Document> watch = mock(ChangeStreamIterable.class, RETURNS_SELF);
+        MongoChangeStreamCursor<ChangeStreamDocument<Document>> checkpointCursor = mock(MongoChangeStreamCursor.class);
+        when(watch.cursor()).thenReturn(checkpointCursor);
+        when(checkpointCursor.getResumeToken()).thenReturn(BsonDocument.parse(token(checkpoint).toJson()));
+        when(template.getCollection(collectionName).watch()).thenReturn(watch);
+
+        ChangeStreamIterable<BsonDocument> replay = mock(ChangeStreamIterable.class, RETURNS_SELF);
+        MongoChangeStreamCursor<ChangeStreamDocument<BsonDocument>> replayCursor = mock(MongoChangeStreamCursor.class);
+        when(replay.cursor()).thenReturn(replayCursor);
+        List<ChangeStreamDocument<BsonDocument>> remaining = new ArrayList<>(events.length);
+        for (ChangeStreamDocument<BsonDocument> event : events) {
+            remaining.add(event);
+        }
+        when(replayCursor.tryNext()).thenAnswer(invocation -> remaining.isEmpty() ? null : remaining.remove(0));
+        when(replayCursor.getResumeToken()).thenReturn(BsonDocument.parse(token(resumedTo).toJson()));
+        when(template.getCollection(collectionName).watch(BsonDocument.class)).thenReturn(replay);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static ChangeStreamDocument<BsonDocument> event(OperationType operationType, Document fullDocument) {
+        ChangeStreamDocument<BsonDocument> event = mock(ChangeStreamDocument.class);
+        when(event.getOperationType()).thenReturn(operationType);
+        if (fullDocument != null) {
+            when(event.getFullDocument()).thenReturn(raw(fullDocument));
+            when(event.getDocumentKey()).thenReturn(new BsonDocument("_id", new BsonString(fullDocument.getString("_id"))));
+        }
+        return event;
+    }
+
+    private static Document token(String data) {
+        return new Document("_data", data);
+    }
+
+    private static Document account(String id, String name, double balance) {
+        return new Document("_id", id).append("accountName", name).append("balance", balance);
+    }
+}
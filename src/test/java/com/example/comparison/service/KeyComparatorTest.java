@@ -0,0 +1,59 @@
+package com.example.comparison.service;
+
+import org.bson.BsonInt32;
+import org.bson.BsonInt64;
+import org.bson.BsonNull;
+import org.bson.BsonObjectId;
+import org.bson.BsonString;
+import org.bson.types.ObjectId;
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+import java.util.List;
+import java.util.function.Function;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class KeyComparatorTest {
+
+    private final RawBsonAccessor raw = new RawBsonAccessor("_id", List.of());
+
+    @Test
+    public void testIntegralKeysCompareAsLongsAcrossWidths() {
+        KeyComparator keys = new KeyComparator("id", raw::comparableKey);
+        assertTrue(keys.compare(new BsonInt32(2), new BsonInt64(10)) < 0, "int32 and int64 compare numerically");
+        assertTrue(keys.compare(new BsonInt64(Long.MAX_VALUE), new BsonInt32(Integer.MAX_VALUE)) > 0);
+        assertEquals(0, keys.compare(7, 7L));
+        assertEquals("10", keys.toKeyString(new BsonInt64(10)));
+    }
+
+    @Test
+    public void testStringAndObjectIdKeys() {
+        KeyComparator strings = new KeyComparator("vin", raw::comparableKey);
+        assertTrue(strings.compare("VIN-A", new BsonString("VIN-B")) < 0);
+        assertEquals("VIN-A", strings.toKeyString(new BsonString("VIN-A")));
+
+        ObjectId first = new ObjectId("5f0000000000000000000001");
+        ObjectId second = new ObjectId("5f0000000000000000000002");
+        KeyComparator objectIds = new KeyComparator("_id", raw::comparableKey);
+        assertTrue(objectIds.compare(new BsonObjectId(first), second) < 0);
+        assertEquals(first.toHexString(), objectIds.toKeyString(new BsonObjectId(first)));
+    }
+
+    @Test
+    public void testNullsSortFirstAndOtherTypesFallBack() {
+        KeyComparator keys = new KeyComparator("id", Function.identity());
+        assertEquals(0, keys.compare(null, BsonNull.VALUE));
+        assertEquals(0, keys.compare(RecordAccessor.MISSING, null));
+        assertTrue(keys.compare(null, "a") < 0);
+        assertEquals("null", keys.toKeyString(BsonNull.VALUE));
+
+        // Detected as strings; a number is then compared by its string form, as before.
+        assertTrue(keys.compare("b", "a") > 0);
+        assertTrue(keys.compare("10", 9) < 0);
+
+        KeyComparator decimals = new KeyComparator("id", Function.identity());
+        assertTrue(decimals.compare(new BigDecimal("1.5"), new BigDecimal("1.25")) > 0);
+        assertThrows(IllegalArgumentException.class, () -> decimals.compare(new BigDecimal("1"), new Object()));
+    }
+}
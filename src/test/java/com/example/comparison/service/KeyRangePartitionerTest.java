@@ -0,0 +1,130 @@
+package com.example.comparison.service;
+
+import com.example.comparison.model.Account;
+import com.example.comparison.model.ComparisonBreak;
+import org.bson.BsonInt32;
+import org.bson.BsonString;
+import org.bson.BsonValue;
+import org.bson.Document;
+import org.bson.RawBsonDocument;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.mockito.junit.jupiter.MockitoSettings;
+import org.mockito.quality.Strictness;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.MongoTemplate;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static com.example.comparison.service.RawCollectionStubs.raw;
+import static com.example.comparison.service.RawCollectionStubs.stubBreakOutput;
+import static com.example.comparison.service.RawCollectionStubs.stubRawCollection;
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+@MockitoSettings(strictness = Strictness.LENIENT)
+public class KeyRangePartitionerTest {
+
+    private static final List<String> ATTRIBUTES = List.of("accountName", "balance", "creationDate", "totalTrades");
+
+    @Mock
+    private MongoTemplate mongoTemplate;
+
+    @Mock
+    private BulkOperations bulkOperations;
+
+    private List<ComparisonBreak> written;
+
+    private GenericComparisonService service;
+
+    @BeforeEach
+    public void setUp() {
+        written = stubBreakOutput(mongoTemplate, bulkOperations, "breaks");
+
+        service = new GenericComparisonService();
+        service.setMongoTemplate(mongoTemplate);
+        service.setBreakBatchSize(50);
+    }
+
+    @Test
+    public void testPartitionedMergeMatchesSequential() {
+        Date created = new Date(1630000000000L);
+        List<RawBsonDocument> sideA = new ArrayList<>();
+        List<RawBsonDocument> sideB = new ArrayList<>();
+        for (int i = 0; i < 2000; i++) {
+            String id = String.format("acct%05d", i);
+            if (i % 97 != 0) {
+                sideA.add(raw(account(id, i, created)));
+            }
+            if (i % 89 != 0) {
+                Document b = account(id, i, created);
+                if (i % 10 == 0) {
+                    b.put("balance", i * 10.0 + 1);
+                }
+                sideB.add(raw(b));
+            }
+        }
+        RawCollectionStubs.StubbedCollection stubA = stubRawCollection(mongoTemplate, "accountA", sideA);
+        stubRawCollection(mongoTemplate, "accountB", sideB);
+
+        service.compareCollections(Account.class, "accountA", "accountB", "accountId", ATTRIBUTES, "breaks");
+        List<String> sequential = describe(written);
+        assertEquals(1, stubA.filters.size());
+
+        written.clear();
+        stubA.filters.clear();
+        service.setMergePartitions(8);
+        service.compareCollections(Account.class, "accountA", "accountB", "accountId", ATTRIBUTES, "breaks");
+
+        assertEquals(8, stubA.filters.size(), "Each key range should open its own cursor");
+        assertEquals(sequential, describe(written));
+    }
+
+    @Test
+    public void testSplitPointsAreDistinctAscendingQuantiles() {
+        List<BsonValue> sampled = new ArrayList<>();
+        for (int i = 99; i >= 0; i--) {
+            sampled.add(new BsonInt32(i / 2));
+        }
+
+        List<BsonValue> splitPoints = KeyRangePartitioner.splitPoints(sampled, 4);
+
+        assertEquals(List.of(new BsonInt32(12), new BsonInt32(25), new BsonInt32(37)), splitPoints);
+        assertEquals(List.of(new BsonInt32(0)), KeyRangePartitioner.splitPoints(
+                Collections.nCopies(10, new BsonInt32(0)), 4), "Duplicate quantiles collapse into one split point");
+    }
+
+    @Test
+    public void testMixedKeyTypesAreNotSplit() {
+        List<BsonValue> sampled = List.of(new BsonString("a"), new BsonInt32(1), new BsonString("b"));
+
+        assertTrue(KeyRangePartitioner.splitPoints(sampled, 4).isEmpty());
+    }
+
+    private static List<String> describe(List<ComparisonBreak> breaks) {
+        return breaks.stream()
+                .map(b -> String.join("|", b.getComparisonKey(), b.getBreakType(),
+                        String.valueOf(b.getDifferenceField()), String.valueOf(b.getValueInCollectionA()),
+                        String.valueOf(b.getValueInCollectionB())))
+                .sorted(Comparator.naturalOrder())
+                .collect(Collectors.toList());
+    }
+
+    private static Document account(String id, int index, Date created) {
+        return new Document("_id", id)
+                .append("accountName", "Account " + index)
+                .append("balance", index * 10.0)
+                .append("creationDate", created)
+                .append("totalTrades", index % 50);
+    }
+}
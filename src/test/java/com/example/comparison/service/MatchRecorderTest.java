@@ -0,0 +1,108 @@
+package com.example.comparison.service;
+
+import com.example.comparison.model.ComparisonBreak;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class MatchRecorderTest {
+
+    // acct01..acct05 match, acct06 differs, acct07..acct08 match, acct09 is only on A, acct10 matches.
+    private static final List<ComparisonBreak> MERGE_OUTPUT = List.of(
+            match("acct01"), match("acct02"), match("acct03"), match("acct04"), match("acct05"),
+            new ComparisonBreak("acct06", "balance", "1.0", "2.0", "difference"),
+            match("acct07"), match("acct08"),
+            new ComparisonBreak("acct09", "RecordMissing", "exists", "missing", "onlyOnA"),
+            match("acct10"));
+
+    @Test
+    public void testAllAndNone() {
+        assertEquals(describe(MERGE_OUTPUT), record(MatchPolicy.ALL, 1));
+        assertEquals(List.of("acct06|difference|null", "acct09|onlyOnA|null"), record(MatchPolicy.NONE, 1));
+    }
+
+    @Test
+    public void testCounterAndSampledKeepMatchTotal() {
+        assertEquals(List.of("acct06|difference|null", "acct09|onlyOnA|null", "null|matchCount|8"),
+                record(MatchPolicy.COUNTER, 1));
+        assertEquals(List.of("acct01|match|null", "acct04|match|null", "acct06|difference|null",
+                        "acct08|match|null", "acct09|onlyOnA|null", "null|matchCount|5"),
+                record(MatchPolicy.SAMPLED, 3));
+    }
+
+    @Test
+    public void testRangesCollapseConsecutiveMatches() {
+        List<ComparisonBreak> written = new ArrayList<>();
+        MatchRecorder recorder = new MatchRecorder(MatchPolicy.RANGES, 1, written::add);
+        MERGE_OUTPUT.forEach(recorder);
+        recorder.finish();
+
+        assertEquals(List.of("acct01|matchRange|5", "acct06|difference|null", "acct07|matchRange|2",
+                "acct09|onlyOnA|null", "acct10|match|null"), describe(written));
+        assertEquals("acct01", written.get(0).getValueInCollectionA());
+        assertEquals("acct05", written.get(0).getValueInCollectionB());
+    }
+
+    @Test
+    public void testRangesAreNotRecordedForIntegerKeys() {
+        // As strings "12" < "7", so a range "5".."12" would not cover key 7 when it is looked up.
+        List<ComparisonBreak> written = new ArrayList<>();
+        MatchRecorder recorder = new MatchRecorder(MatchPolicy.RANGES, 1, written::add);
+        recorder.acceptMatch(5, String::valueOf);
+        recorder.acceptMatch(7, String::valueOf);
+        recorder.acceptMatch(12L, String::valueOf);
+        recorder.accept(new ComparisonBreak("13", "balance", "1.0", "2.0", "difference"));
+        recorder.acceptMatch(14, String::valueOf);
+        recorder.finish();
+
+        assertEquals(List.of("13|difference|null", "null|matchCount|4"), describe(written));
+    }
+
+    @Test
+    public void testOnlyWrittenMatchKeysAreRendered() {
+        List<Object> rendered = new ArrayList<>();
+        Function<Object, String> keyString = key -> {
+            rendered.add(key);
+            return String.valueOf(key);
+        };
+        List<ComparisonBreak> written = new ArrayList<>();
+        MatchRecorder ranges = new MatchRecorder(MatchPolicy.RANGES, 1, written::add);
+        for (int i = 1; i <= 100; i++) {
+            ranges.acceptMatch(String.format("acct%03d", i), keyString);
+        }
+        ranges.finish();
+        assertEquals(List.of("acct001", "acct100"), rendered, "A range renders its first and last key");
+        assertEquals(List.of("acct001|matchRange|100"), describe(written));
+
+        rendered.clear();
+        MatchRecorder counter = new MatchRecorder(MatchPolicy.COUNTER, 1, written::add);
+        for (long key = 1; key <= 100; key++) {
+            counter.acceptMatch(key, keyString);
+        }
+        counter.finish();
+        assertEquals(List.of(), rendered);
+    }
+
+    private static List<String> record(MatchPolicy policy, int sampleRate) {
+        List<ComparisonBreak> written = new ArrayList<>();
+        MatchRecorder recorder = new MatchRecorder(policy, sampleRate, written::add);
+        MERGE_OUTPUT.forEach(recorder);
+        recorder.finish();
+        return describe(written);
+    }
+
+    private static ComparisonBreak match(String key) {
+        return new ComparisonBreak(key, null, null, null, "match");
+    }
+
+    private static List<String> describe(List<ComparisonBreak> breaks) {
+        return breaks.stream()
+                .map(b -> b.getComparisonKey() + "|" + b.getBreakType() + "|" + b.getMatchCount())
+                .collect(Collectors.toList());
+    }
+}
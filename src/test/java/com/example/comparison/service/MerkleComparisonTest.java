@@ -0,0 +1,204 @@
+package com.example.comparison.service;
+
+import com.example.comparison.model.Account;
+import com.example.comparison.model.ComparisonBreak;
+import com.example.comparison.model.ComparisonRun;
+import com.mongodb.client.AggregateIterable;
+import com.mongodb.client.MongoCollection;
+import org.bson.BsonDocument;
+import org.bson.BsonInt64;
+import org.bson.BsonValue;
+import org.bson.Document;
+import org.bson.RawBsonDocument;
+import org.bson.conversions.Bson;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.mockito.junit.jupiter.MockitoSettings;
+import org.mockito.quality.Strictness;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.MongoTemplate;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+import static com.example.comparison.service.RawCollectionStubs.raw;
+import static com.example.comparison.service.RawCollectionStubs.stubBreakOutput;
+import static com.example.comparison.service.RawCollectionStubs.stubRawCollection;
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+/**
+ * Runs {@code compareCollectionsMerkle} against collections whose aggregations are evaluated in
+ * Java: the {@code $match} stage with {@link RawCollectionStubs#matches}, the digest with
+ * {@code String.hashCode} of each document standing in for {@code $toHashedIndexKey}, and
+ * {@code $bucketAuto} by cutting the sorted keys into equal buckets.
+ */
+@ExtendWith(MockitoExtension.class)
+@MockitoSettings(strictness = Strictness.LENIENT)
+public class MerkleComparisonTest {
+
+    private static final List<String> ATTRIBUTES = List.of("accountName", "balance");
+    private static final int SIZE = 5000;
+
+    @Mock
+    private MongoTemplate mongoTemplate;
+
+    @Mock
+    private BulkOperations bulkOperations;
+
+    private List<ComparisonBreak> written;
+    private final AtomicInteger aggregations = new AtomicInteger();
+
+    private GenericComparisonService service;
+    private RawCollectionStubs.StubbedCollection stubbedA;
+    private RawCollectionStubs.StubbedCollection stubbedB;
+
+    @BeforeEach
+    public void setUp() {
+        written = stubBreakOutput(mongoTemplate, bulkOperations, "breaks");
+
+        List<RawBsonDocument> sideA = new ArrayList<>();
+        List<RawBsonDocument> sideB = new ArrayList<>();
+        for (int i = 0; i < SIZE; i++) {
+            String id = String.format("acct%05d", i);
+            sideA.add(raw(account(id, "Name" + i, i * 10.0)));
+            if (i == 2500) {
+                continue;
+            }
+            sideB.add(raw(account(id, "Name" + i, (i == 100) ? 1.5 : i * 10.0)));
+            if (i == 3000) {
+                sideB.add(raw(account("acct03000a", "Extra", 0.0)));
+            }
+        }
+        stubbedA = stubRawCollection(mongoTemplate, "accountA", sideA);
+        stubbedB = stubRawCollection(mongoTemplate, "accountB", sideB);
+        stubAggregations("accountA", sideA);
+        stubAggregations("accountB", sideB);
+        stubServerVersion(7);
+
+        service = new GenericComparisonService();
+        service.setMongoTemplate(mongoTemplate);
+        service.setMerkleFanout(8);
+        service.setMerkleLeafSize(100);
+    }
+
+    @Test
+    public void testOnlyDifferingLeafRangesAreRead() {
+        ComparisonRun run = service.compareCollectionsMerkle(Account.class, "accountA", "accountB", "accountId", ATTRIBUTES, "breaks");
+
+        List<String> breaks = written.stream()
+                .filter(b -> !b.getBreakType().startsWith("match"))
+                .map(b -> b.getComparisonKey() + "|" + b.getBreakType() + "|" + b.getDifferenceField())
+                .sorted().collect(Collectors.toList());
+        assertEquals(List.of("acct00100|difference|balance", "acct02500|onlyOnA|RecordMissing", "acct03000a|onlyOnB|RecordMissing"), breaks);
+
+        assertEquals(3, stubbedA.filters.size(), "each difference lies in its own leaf range, read once per side");
+        assertEquals(3, stubbedB.filters.size());
+        assertTrue(aggregations.get() < 200, "digested " + aggregations.get() + " ranges");
+
+        assertEquals(SIZE, run.getItemsProcessedA());
+        assertEquals(SIZE, run.getItemsProcessedB());
+        assertEquals(SIZE - 2, run.getFullyMatchedKeys());
+        assertEquals(1, run.getKeysWithAttributeMismatch());
+        assertEquals(1, run.getKeysOnlyInA());
+        assertEquals(1, run.getKeysOnlyInB());
+        long matchRows = written.stream().filter(b -> "match".equals(b.getBreakType())).count();
+        long matchCount = written.stream().filter(b -> "matchCount".equals(b.getBreakType()))
+                .mapToLong(ComparisonBreak::getMatchCount).sum();
+        assertEquals(SIZE - 2, matchRows + matchCount, "keys in merged leaves get match rows, hashed-away keys are counted");
+    }
+
+    @Test
+    public void testMatchedRangesAreWrittenAsRangesUnderTheRangesPolicy() {
+        service.setMatchPolicy(MatchPolicy.RANGES);
+        ComparisonRun run = service.compareCollectionsMerkle(Account.class, "accountA", "accountB", "accountId", ATTRIBUTES, "breaks");
+
+        List<ComparisonBreak> ranges = written.stream()
+                .filter(b -> "matchRange".equals(b.getBreakType()))
+                .sorted(Comparator.comparing(ComparisonBreak::getComparisonKey))
+                .collect(Collectors.toList());
+        assertEquals("acct00000", ranges.get(0).getValueInCollectionA());
+        assertEquals("acct04999", ranges.get(ranges.size() - 1).getValueInCollectionB());
+        long matched = written.stream().filter(b -> b.getBreakType().startsWith("match"))
+                .mapToLong(b -> "match".equals(b.getBreakType()) ? 1 : b.getMatchCount()).sum();
+        assertEquals(run.getFullyMatchedKeys(), matched);
+        assertEquals(run.getBreaksWritten(), written.size());
+    }
+
+    @Test
+    public void testOlderServersFallBackToTheMergeJoin() {
+        stubServerVersion(6);
+        ComparisonRun run = service.compareCollectionsMerkle(Account.class, "accountA", "accountB", "accountId", ATTRIBUTES, "breaks");
+
+        assertEquals("MongoDB Raw BSON Collection Comparison", run.getComparisonType());
+        assertEquals(0, aggregations.get());
+        assertEquals(SIZE - 2, run.getFullyMatchedKeys());
+        assertEquals(3, run.getKeysWithAttributeMismatch() + run.getKeysOnlyInA() + run.getKeysOnlyInB());
+    }
+
+    private void stubServerVersion(int major) {
+        when(mongoTemplate.executeCommand(any(Document.class))).thenReturn(new Document("versionArray", List.of(major, 0, 2, 0)));
+    }
+
+    @SuppressWarnings("unchecked")
+    private void stubAggregations(String name, List<RawBsonDocument> documents) {
+        MongoCollection<BsonDocument> collection = mock(MongoCollection.class);
+        when(mongoTemplate.getCollection(name).withDocumentClass(BsonDocument.class)).thenReturn(collection);
+        when(collection.aggregate(anyList())).thenAnswer(invocation -> {
+            aggregations.incrementAndGet();
+            List<Bson> pipeline = invocation.getArgument(0);
+            BsonDocument match = pipeline.get(0).toBsonDocument().getDocument("$match");
+            List<BsonDocument> inRange = documents.stream()
+                    .filter(d -> RawCollectionStubs.matches(d, match))
+                    .sorted(Comparator.comparing(d -> d.getString("_id").getValue()))
+                    .collect(Collectors.toList());
+            BsonDocument stage = pipeline.get(1).toBsonDocument();
+            List<BsonDocument> result = stage.containsKey("$group")
+                    ? digest(inRange)
+                    : buckets(inRange, stage.getDocument("$bucketAuto").getInt32("buckets").getValue());
+            AggregateIterable<BsonDocument> aggregate = mock(AggregateIterable.class, RETURNS_SELF);
+            when(aggregate.into(any())).thenAnswer(into -> {
+                Collection<BsonDocument> target = into.getArgument(0);
+                target.addAll(result);
+                return target;
+            });
+            return aggregate;
+        });
+    }
+
+    private static List<BsonDocument> digest(List<BsonDocument> inRange) {
+        if (inRange.isEmpty()) {
+            return List.of();
+        }
+        long hash1 = inRange.stream().mapToLong(d -> d.toJson().hashCode()).sum();
+        long hash2 = inRange.stream().mapToLong(d -> ("h2" + d.toJson()).hashCode()).sum();
+        return List.of(new BsonDocument("n", new BsonInt64(inRange.size()))
+                .append("h1", new BsonInt64(hash1))
+                .append("h2", new BsonInt64(hash2))
+                .append("lo", inRange.get(0).get("_id"))
+                .append("hi", inRange.get(inRange.size() - 1).get("_id")));
+    }
+
+    private static List<BsonDocument> buckets(List<BsonDocument> inRange, int buckets) {
+        List<BsonDocument> result = new ArrayList<>();
+        for (int i = 0; i < buckets && i * inRange.size() / buckets < inRange.size(); i++) {
+            BsonValue min = inRange.get(i * inRange.size() / buckets).get("_id");
+            if (result.isEmpty() || !result.get(result.size() - 1).getDocument("_id").get("min").equals(min)) {
+                result.add(new BsonDocument("_id", new BsonDocument("min", min)));
+            }
+        }
+        return result;
+    }
+
+    private static Document account(String id, String name, double balance) {
+        return new Document("_id", id).append("accountName", name).append("balance", balance);
+    }
+}
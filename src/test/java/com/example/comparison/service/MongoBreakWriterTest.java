@@ -0,0 +1,83 @@
+package com.example.comparison.service;
+
+import com.example.comparison.model.ComparisonBreak;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.mockito.junit.jupiter.MockitoSettings;
+import org.mockito.quality.Strictness;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.MongoTemplate;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+@MockitoSettings(strictness = Strictness.LENIENT)
+public class MongoBreakWriterTest {
+
+    @Mock
+    private MongoTemplate mongoTemplate;
+
+    @Mock
+    private BulkOperations bulkOperations;
+
+    private final List<Integer> batchSizes = Collections.synchronizedList(new ArrayList<>());
+
+    @BeforeEach
+    public void setUp() {
+        when(mongoTemplate.bulkOps(eq(BulkOperations.BulkMode.UNORDERED), eq(ComparisonBreak.class), eq("breaks")))
+                .thenReturn(bulkOperations);
+        when(bulkOperations.insert(anyList())).thenAnswer(invocation -> {
+            batchSizes.add(((List<?>) invocation.getArgument(0)).size());
+            return bulkOperations;
+        });
+    }
+
+    @Test
+    public void testFlushesInBatchesAndOnClose() {
+        MongoBreakWriter writer = new MongoBreakWriter(mongoTemplate, "breaks", 100, 2);
+        try (writer) {
+            for (int i = 0; i < 1050; i++) {
+                writer.accept(new ComparisonBreak("key" + i, null, null, null, "match"));
+            }
+            assertEquals(1050, writer.getAcceptedCount());
+        }
+        assertEquals(1050, writer.getWrittenCount(), "All accepted breaks should be written after close");
+
+        assertEquals(11, batchSizes.size(), "Expected 10 full batches plus one partial batch");
+        assertEquals(1050, batchSizes.stream().mapToInt(Integer::intValue).sum());
+        assertTrue(batchSizes.stream().allMatch(size -> size <= 100), "No batch may exceed the configured size");
+        verify(bulkOperations, times(11)).execute();
+    }
+
+    @Test
+    public void testNothingWrittenWhenEmpty() {
+        MongoBreakWriter writer = new MongoBreakWriter(mongoTemplate, "breaks", 100, 1);
+        writer.close();
+
+        assertEquals(0, writer.getWrittenCount());
+        verify(mongoTemplate, never()).bulkOps(any(BulkOperations.BulkMode.class), eq(ComparisonBreak.class), anyString());
+    }
+
+    @Test
+    public void testBulkFailureIsRethrown() {
+        when(bulkOperations.execute()).thenThrow(new IllegalStateException("boom"));
+
+        MongoBreakWriter writer = new MongoBreakWriter(mongoTemplate, "breaks", 10, 1);
+        assertThrows(IllegalStateException.class, () -> {
+            for (int i = 0; i < 1000; i++) {
+                writer.accept(new ComparisonBreak("key" + i, null, null, null, "match"));
+            }
+            writer.close();
+        });
+    }
+}
@@ -0,0 +1,92 @@
+package com.example.comparison.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class PrefetchingIteratorTest {
+
+    @Test
+    public void testDeliversSourceInOrderAcrossBatches() {
+        List<Integer> source = IntStream.range(0, 1001).boxed().collect(Collectors.toList());
+        List<Integer> read = new ArrayList<>();
+
+        try (PrefetchingIterator<Integer> iterator = new PrefetchingIterator<>(source.iterator(), 64, 2, "prefetch-test")) {
+            iterator.forEachRemaining(read::add);
+            assertFalse(iterator.hasNext());
+            assertThrows(NoSuchElementException.class, iterator::next);
+        }
+        assertEquals(source, read);
+    }
+
+    @Test
+    public void testRethrowsReaderFailureAfterPrecedingElements() {
+        Iterator<Integer> failing = new Iterator<>() {
+            private int next;
+
+            @Override
+            public boolean hasNext() {
+                return true;
+            }
+
+            @Override
+            public Integer next() {
+                if (next == 3) {
+                    throw new IllegalStateException("cursor lost");
+                }
+                return next++;
+            }
+        };
+        List<Integer> read = new ArrayList<>();
+
+        try (PrefetchingIterator<Integer> iterator = new PrefetchingIterator<>(failing, 2, 1, "prefetch-test")) {
+            IllegalStateException e = assertThrows(IllegalStateException.class, () -> iterator.forEachRemaining(read::add));
+            assertEquals("cursor lost", e.getMessage());
+        }
+        assertEquals(List.of(0, 1, 2), read);
+    }
+
+    @Test
+    public void testCloseStopsReaderBlockedOnFullQueue() {
+        Iterator<Integer> endless = IntStream.iterate(0, i -> i + 1).iterator();
+
+        PrefetchingIterator<Integer> iterator = new PrefetchingIterator<>(endless, 8, 1, "prefetch-test");
+        assertEquals(0, iterator.next());
+        assertTimeoutPreemptively(Duration.ofSeconds(5), iterator::close);
+    }
+
+    @Test
+    public void testMeasuresWhichSideWaits() throws InterruptedException {
+        Iterator<Integer> slowSource = IntStream.range(0, 4).peek(i -> sleep(20)).iterator();
+        try (PrefetchingIterator<Integer> iterator = new PrefetchingIterator<>(slowSource, 1, 4, "prefetch-test")) {
+            iterator.forEachRemaining(i -> { });
+            assertTrue(TimeUnit.NANOSECONDS.toMillis(iterator.getWaitNanos()) >= 40, "Consumer waits on a slow source");
+        }
+
+        PrefetchingIterator<Integer> fastSource = new PrefetchingIterator<>(IntStream.range(0, 4).iterator(), 1, 1, "prefetch-test");
+        try (fastSource) {
+            while (fastSource.hasNext()) {
+                fastSource.next();
+                Thread.sleep(20);
+            }
+        }
+        assertTrue(TimeUnit.NANOSECONDS.toMillis(fastSource.getBlockedNanos()) >= 20, "Reader waits on a slow consumer");
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,273 @@
+package com.example.comparison.service;
+
+import com.example.comparison.model.Account;
+import com.example.comparison.model.ComparisonBreak;
+import com.example.comparison.model.ComparisonRun;
+import com.mongodb.client.AggregateIterable;
+import com.mongodb.client.MongoCollection;
+import org.bson.BsonArray;
+import org.bson.BsonBoolean;
+import org.bson.BsonDocument;
+import org.bson.BsonInt32;
+import org.bson.BsonNull;
+import org.bson.BsonString;
+import org.bson.BsonValue;
+import org.bson.Document;
+import org.bson.conversions.Bson;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.mockito.junit.jupiter.MockitoSettings;
+import org.mockito.quality.Strictness;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.MongoTemplate;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.stream.Collectors;
+
+import static com.example.comparison.service.RawCollectionStubs.raw;
+import static com.example.comparison.service.RawCollectionStubs.stubBreakOutput;
+import static com.example.comparison.service.RawCollectionStubs.stubRawCollection;
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+@MockitoSettings(strictness = Strictness.LENIENT)
+public class PushdownComparisonTest {
+
+    private static final List<String> ATTRIBUTES = List.of("accountName", "balance");
+
+    @Mock
+    private MongoTemplate mongoTemplate;
+
+    @Mock
+    private BulkOperations bulkOperations;
+
+    private List<ComparisonBreak> written;
+
+    private GenericComparisonService service;
+
+    @BeforeEach
+    public void setUp() {
+        written = stubBreakOutput(mongoTemplate, bulkOperations, "breaks");
+
+        service = new GenericComparisonService();
+        service.setMongoTemplate(mongoTemplate);
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testDiffRunsAsAggregationWritingIntoOutputCollection() {
+        when(mongoTemplate.executeCommand(any(Document.class)))
+                .thenReturn(new Document("versionArray", List.of(7, 0, 2, 0)));
+        MongoCollection<Document> collectionA = mock(MongoCollection.class);
+        MongoCollection<Document> collectionB = mock(MongoCollection.class);
+        MongoCollection<Document> output = mock(MongoCollection.class);
+        AggregateIterable<Document> aggregate = mock(AggregateIterable.class, RETURNS_SELF);
+        AggregateIterable<Document> breakCounts = mock(AggregateIterable.class, RETURNS_SELF);
+        List<List<? extends Bson>> pipelines = new ArrayList<>();
+        List<List<? extends Bson>> countPipelines = new ArrayList<>();
+        when(mongoTemplate.getCollection("accountA")).thenReturn(collectionA);
+        when(mongoTemplate.getCollection("accountB")).thenReturn(collectionB);
+        when(mongoTemplate.getCollection("breaks")).thenReturn(output);
+        when(collectionA.aggregate(anyList())).thenAnswer(invocation -> {
+            pipelines.add(invocation.getArgument(0));
+            return aggregate;
+        });
+        when(output.aggregate(anyList())).thenAnswer(invocation -> {
+            countPipelines.add(invocation.getArgument(0));
+            return breakCounts;
+        });
+        when(breakCounts.iterator()).thenAnswer(invocation -> new FakeMongoCursor<>(List.of(
+                new Document("_id", "onlyOnA").append("keys", 2).append("rows", 2),
+                new Document("_id", "onlyOnB").append("keys", 1).append("rows", 1),
+                new Document("_id", "difference").append("keys", 2).append("rows", 3))));
+        when(collectionA.countDocuments()).thenReturn(10L);
+        when(collectionB.countDocuments()).thenReturn(9L);
+
+        ComparisonRun run = service.compareCollectionsPushdown(Account.class, "accountA", "accountB", "accountId", ATTRIBUTES, "breaks");
+
+        verify(aggregate).toCollection();
+        verify(mongoTemplate, never()).bulkOps(any(BulkOperations.BulkMode.class), eq(ComparisonBreak.class), anyString());
+        assertEquals(1, pipelines.size(), "The collections are joined once, by the aggregation writing the breaks");
+
+        List<BsonDocument> breaks = pipelines.get(0).stream().map(Bson::toBsonDocument).collect(Collectors.toList());
+        assertEquals(List.of("$project", "$unionWith", "$group", "$project", "$unwind", "$replaceWith", "$merge"),
+                breaks.stream().map(BsonDocument::getFirstKey).collect(Collectors.toList()));
+        BsonDocument sideA = breaks.get(0).getDocument("$project");
+        assertEquals("$_id", sideA.getString("k").getValue(), "@Id accountId is stored as _id");
+        assertEquals(BsonDocument.parse("{v0: '$accountName', v1: '$balance'}"), sideA.getDocument("v"));
+        assertEquals("accountB", breaks.get(1).getDocument("$unionWith").getString("coll").getValue());
+        assertEquals(new BsonDocument("runId", new BsonString(run.getId())),
+                breaks.get(5).getDocument("$replaceWith").getArray("$mergeObjects").get(1).asDocument(),
+                "Every break written by $merge carries the run id");
+        assertEquals("breaks", breaks.get(6).getDocument("$merge").getString("into").getValue());
+        assertEquals(ComparisonRun.COMPLETED, run.getStatus());
+
+        assertEquals(1, countPipelines.size(), "The counters are taken from the breaks written");
+        BsonDocument match = countPipelines.get(0).get(0).toBsonDocument().getDocument("$match");
+        assertEquals(run.getId(), match.getString("runId").getValue());
+        assertEquals(10, run.getItemsProcessedA());
+        assertEquals(9, run.getItemsProcessedB());
+        assertEquals(2, run.getKeysOnlyInA());
+        assertEquals(1, run.getKeysOnlyInB());
+        assertEquals(2, run.getKeysWithAttributeMismatch());
+        assertEquals(3, run.getTotalAttributeDifferences());
+        assertEquals(6, run.getFullyMatchedKeys(), "10 documents of A, less 2 only on A and 2 mismatched");
+    }
+
+    @Test
+    public void testBreaksWrittenForEachKindOfKey() {
+        PushdownPipeline pipeline = new PushdownPipeline("accountB", "_id", ATTRIBUTES, ATTRIBUTES);
+        BsonValue perKey = pipeline.breaks("breaks", "run1", true).get(3).toBsonDocument().getDocument("$project").get("breaks");
+
+        assertEquals(List.of(breakRow("acct1", "RecordMissing", "exists", "missing", "onlyOnA")),
+                evaluate(perKey, group("acct1", 1, 0, "{v0: 'A', v1: 1.0}", "{}")));
+        assertEquals(List.of(breakRow("acct2", "RecordMissing", "missing", "exists", "onlyOnB")),
+                evaluate(perKey, group("acct2", 0, 1, "{}", "{v0: 'B', v1: 2.0}")));
+        assertEquals(List.of(breakRow("acct3", "balance", "3", "3.5", "difference")),
+                evaluate(perKey, group("acct3", 1, 1, "{v0: 'C', v1: 3.0}", "{v0: 'C', v1: 3.5}")),
+                "Doubles are rendered by $convert");
+        assertEquals(List.of(breakRow("acct4", "accountName", "[[missing]]", "D", "difference")),
+                evaluate(perKey, group("acct4", 1, 1, "{v1: 4.0}", "{v0: 'D', v1: 4.0}")));
+        assertEquals(List.of(breakRow("acct5", null, null, null, "match")),
+                evaluate(perKey, group("acct5", 1, 1, "{v1: 5.0}", "{v0: null, v1: 5.0}")),
+                "A missing value equals null");
+    }
+
+    // A $group output of the join: presence counts and the compared values of each side.
+    private static BsonDocument group(String key, int nA, int nB, String valuesA, String valuesB) {
+        return new BsonDocument("_id", new BsonString(key))
+                .append("nA", new BsonInt32(nA))
+                .append("nB", new BsonInt32(nB))
+                .append("a", BsonDocument.parse(valuesA))
+                .append("b", BsonDocument.parse(valuesB));
+    }
+
+    private static BsonDocument breakRow(String key, String differenceField, String valueA, String valueB, String breakType) {
+        return new Document("comparisonKey", key)
+                .append("differenceField", differenceField)
+                .append("valueInCollectionA", valueA)
+                .append("valueInCollectionB", valueB)
+                .append("breakType", breakType)
+                .toBsonDocument();
+    }
+
+    private static BsonValue evaluate(BsonValue expression, BsonDocument root) {
+        return evaluate(expression, root, Map.of());
+    }
+
+    /**
+     * Evaluates the aggregation expression operators the breaks pipeline uses, as MongoDB does;
+     * a missing value is Java null.
+     */
+    private static BsonValue evaluate(BsonValue expression, BsonDocument root, Map<String, BsonValue> variables) {
+        if (expression.isString() && expression.asString().getValue().startsWith("$$")) {
+            return variables.get(expression.asString().getValue().substring(2));
+        }
+        if (expression.isString() && expression.asString().getValue().startsWith("$")) {
+            BsonValue value = root;
+            for (String field : expression.asString().getValue().substring(1).split("\\.")) {
+                value = (value != null && value.isDocument()) ? value.asDocument().get(field) : null;
+            }
+            return value;
+        }
+        if (expression.isArray()) {
+            BsonArray values = new BsonArray();
+            for (BsonValue element : expression.asArray()) {
+                BsonValue value = evaluate(element, root, variables);
+                values.add(value == null ? BsonNull.VALUE : value);
+            }
+            return values;
+        }
+        if (!expression.isDocument()) {
+            return expression;
+        }
+        BsonDocument document = expression.asDocument();
+        if (document.isEmpty() || !document.getFirstKey().startsWith("$")) {
+            BsonDocument values = new BsonDocument();
+            document.forEach((name, field) -> {
+                BsonValue value = evaluate(field, root, variables);
+                if (value != null) {
+                    values.append(name, value);
+                }
+            });
+            return values;
+        }
+        BsonValue operand = document.get(document.getFirstKey());
+        switch (document.getFirstKey()) {
+            case "$switch":
+                for (BsonValue branch : operand.asDocument().getArray("branches")) {
+                    if (evaluate(branch.asDocument().get("case"), root, variables).asBoolean().getValue()) {
+                        return evaluate(branch.asDocument().get("then"), root, variables);
+                    }
+                }
+                return evaluate(operand.asDocument().get("default"), root, variables);
+            case "$let":
+                Map<String, BsonValue> scope = new HashMap<>(variables);
+                operand.asDocument().getDocument("vars").forEach((name, value) -> scope.put(name, evaluate(value, root, variables)));
+                return evaluate(operand.asDocument().get("in"), root, scope);
+            case "$cond":
+                return evaluate(operand.asArray().get(1 + (evaluate(operand.asArray().get(0), root, variables).asBoolean().getValue() ? 0 : 1)),
+                        root, variables);
+            case "$eq":
+                BsonValue left = evaluate(operand.asArray().get(0), root, variables);
+                BsonValue right = evaluate(operand.asArray().get(1), root, variables);
+                boolean equal = (left != null && left.isNumber() && right != null && right.isNumber())
+                        ? left.asNumber().doubleValue() == right.asNumber().doubleValue()
+                        : Objects.equals(left, right);
+                return BsonBoolean.valueOf(equal);
+            case "$ifNull":
+                BsonValue value = evaluate(operand.asArray().get(0), root, variables);
+                return (value == null || value.isNull()) ? evaluate(operand.asArray().get(1), root, variables) : value;
+            case "$size":
+                return new BsonInt32(evaluate(operand, root, variables).asArray().size());
+            case "$concatArrays":
+                BsonArray concatenated = new BsonArray();
+                for (BsonValue array : operand.asArray()) {
+                    concatenated.addAll(evaluate(array, root, variables).asArray());
+                }
+                return concatenated;
+            case "$type":
+                BsonValue typed = evaluate(operand, root, variables);
+                return new BsonString(typed == null ? "missing" : typed.isNull() ? "null" : typed.getBsonType().name().toLowerCase());
+            case "$convert":
+                BsonValue input = evaluate(operand.asDocument().get("input"), root, variables);
+                if (input == null || input.isNull()) {
+                    return operand.asDocument().containsKey("onNull") ? operand.asDocument().get("onNull") : BsonNull.VALUE;
+                }
+                if (input.isDouble() && input.asDouble().getValue() == Math.rint(input.asDouble().getValue())) {
+                    return new BsonString(Long.toString((long) input.asDouble().getValue()));
+                }
+                return new BsonString(input.isString() ? input.asString().getValue() : input.isDouble()
+                        ? Double.toString(input.asDouble().getValue()) : input.toString());
+            default:
+                throw new UnsupportedOperationException("Operator not evaluated by the test: " + document.getFirstKey());
+        }
+    }
+
+    @Test
+    public void testFallsBackToMergeJoinOnOldServers() {
+        when(mongoTemplate.executeCommand(any(Document.class)))
+                .thenReturn(new Document("versionArray", List.of(4, 2, 24, 0)));
+        Date created = new Date(1630000000000L);
+        stubRawCollection(mongoTemplate, "accountA", List.of(
+                raw(new Document("_id", "acct1").append("accountName", "A").append("balance", 1.0).append("creationDate", created))));
+        stubRawCollection(mongoTemplate, "accountB", List.of(
+                raw(new Document("_id", "acct1").append("accountName", "A").append("balance", 2.0).append("creationDate", created))));
+
+        service.compareCollectionsPushdown(Account.class, "accountA", "accountB", "accountId", ATTRIBUTES, "breaks");
+
+        assertEquals(1, written.size());
+        assertEquals("balance", written.get(0).getDifferenceField());
+        assertEquals("1.0", written.get(0).getValueInCollectionA());
+    }
+}
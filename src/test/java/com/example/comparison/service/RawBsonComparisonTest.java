@@ -0,0 +1,297 @@
+package com.example.comparison.service;
+
+import com.example.comparison.model.Account;
+import com.example.comparison.model.ComparisonBreak;
+import com.example.comparison.model.ComparisonRun;
+import org.bson.BsonDocument;
+import org.bson.Document;
+import org.bson.RawBsonDocument;
+import org.bson.conversions.Bson;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.mockito.junit.jupiter.MockitoSettings;
+import org.mockito.quality.Strictness;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.convert.MappingMongoConverter;
+import org.springframework.data.mongodb.core.convert.MongoConverter;
+import org.springframework.data.mongodb.core.convert.NoOpDbRefResolver;
+import org.springframework.data.mongodb.core.index.IndexOperations;
+import org.springframework.data.mongodb.core.mapping.MongoMappingContext;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+import static com.example.comparison.service.RawCollectionStubs.raw;
+import static com.example.comparison.service.RawCollectionStubs.stubBreakOutput;
+import static com.example.comparison.service.RawCollectionStubs.stubRawCollection;
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+@MockitoSettings(strictness = Strictness.LENIENT)
+public class RawBsonComparisonTest {
+
+    private static final List<String> ATTRIBUTES = List.of("accountName", "balance", "creationDate", "totalTrades");
+
+    @Mock
+    private MongoTemplate mongoTemplate;
+
+    @Mock
+    private BulkOperations bulkOperations;
+
+    private List<ComparisonBreak> written;
+
+    private GenericComparisonService service;
+
+    @BeforeEach
+    public void setUp() {
+        written = stubBreakOutput(mongoTemplate, bulkOperations, "rawBreaks");
+
+        service = new GenericComparisonService();
+        service.setMongoTemplate(mongoTemplate);
+    }
+
+    @Test
+    public void testCompareCollectionsRaw() {
+        Date created = new Date(1630000000000L);
+        List<RawBsonDocument> sideA = List.of(
+                raw(account("acct0001", "Alpha", 1000.0, created, 1)),
+                raw(account("acct0002", "Beta", 2000.0, created, 2)),
+                raw(account("acct0003", "Gamma", 3000.0, created, 3)));
+        List<RawBsonDocument> sideB = List.of(
+                raw(account("acct0001", "Alpha", 1000.0, created, 1)),
+                raw(account("acct0002", "Beta", 2010.0, created, 2)),
+                raw(account("acct0004", "Delta", 4000.0, created, 4)));
+        stubRawCollection(mongoTemplate, "accountA", sideA);
+        stubRawCollection(mongoTemplate, "accountB", sideB);
+
+        service.compareCollectionsRaw(Account.class, "accountA", "accountB", "accountId", ATTRIBUTES, "rawBreaks");
+
+        Map<String, List<ComparisonBreak>> byType = written.stream().collect(Collectors.groupingBy(ComparisonBreak::getBreakType));
+        assertEquals(1, byType.get("match").size());
+        assertEquals("acct0001", byType.get("match").get(0).getComparisonKey());
+        assertEquals(1, byType.get("onlyOnA").size());
+        assertEquals("acct0003", byType.get("onlyOnA").get(0).getComparisonKey());
+        assertEquals(1, byType.get("onlyOnB").size());
+        assertEquals("acct0004", byType.get("onlyOnB").get(0).getComparisonKey());
+
+        ComparisonBreak difference = byType.get("difference").get(0);
+        assertEquals(1, byType.get("difference").size());
+        assertEquals("acct0002", difference.getComparisonKey());
+        assertEquals("balance", difference.getDifferenceField());
+        // Rendered exactly like the mapped path's Double.toString().
+        assertEquals("2000.0", difference.getValueInCollectionA());
+        assertEquals("2010.0", difference.getValueInCollectionB());
+    }
+
+    @Test
+    public void testFingerprintShortCircuitWritesSameBreaks() {
+        Date created = new Date(1630000000000L);
+        List<RawBsonDocument> sideA = new ArrayList<>();
+        List<RawBsonDocument> sideB = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            String id = String.format("acct%04d", i);
+            sideA.add(raw(projected(id, "Name" + i, i * 100.0, created, i)));
+            sideB.add(raw(projected(id, "Name" + i, (i % 5 == 0) ? i * 100.0 + 1 : i * 100.0, created, i)));
+        }
+        stubRawCollection(mongoTemplate, "accountA", sideA);
+        stubRawCollection(mongoTemplate, "accountB", sideB);
+
+        service.compareCollectionsRaw(Account.class, "accountA", "accountB", "accountId", ATTRIBUTES, "rawBreaks");
+        List<ComparisonBreak> withoutFingerprints = new ArrayList<>(written);
+        written.clear();
+        service.setFingerprintEnabled(true);
+        service.compareCollectionsRaw(Account.class, "accountA", "accountB", "accountId", ATTRIBUTES, "rawBreaks");
+
+        assertEquals(40, written.stream().filter(b -> b.getBreakType().equals("match")).count());
+        assertEquals(describe(withoutFingerprints), describe(written));
+    }
+
+    @Test
+    public void testRawFingerprintCoversDocumentBytes() {
+        RawBsonAccessor accessor = new RawBsonAccessor("_id", List.of("a", "b"));
+        RawBsonDocument doc = raw(new Document("_id", 1).append("a", 1).append("b", "x"));
+        RawBsonDocument same = raw(new Document("_id", 1).append("a", 1).append("b", "x"));
+        RawBsonDocument changed = raw(new Document("_id", 1).append("a", 1).append("b", "y"));
+        RawBsonDocument reordered = raw(new Document("_id", 1).append("b", "x").append("a", 1));
+
+        assertTrue(accessor.hasFingerprint());
+        assertFalse(new BeanAccessorPlan.Cache("id", List.of("a")).hasFingerprint());
+        assertTrue(accessor.sameFingerprint(doc, same));
+        assertFalse(accessor.sameFingerprint(doc, changed));
+        assertFalse(accessor.sameFingerprint(doc, reordered),
+                "Field order is part of the bytes; such rows fall back to the attribute comparison");
+    }
+
+    @Test
+    public void testMappedFingerprintMatchesSkipMapping() {
+        MappingMongoConverter converter = spy(new MappingMongoConverter(NoOpDbRefResolver.INSTANCE, new MongoMappingContext()));
+        when(mongoTemplate.getConverter()).thenReturn(converter);
+        Date created = new Date(1630000000000L);
+        List<RawBsonDocument> sideA = new ArrayList<>();
+        List<RawBsonDocument> sideB = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            String id = String.format("acct%04d", i);
+            sideA.add(raw(projected(id, "Name" + i, i * 100.0, created, i)));
+            sideB.add(raw(projected(id, "Name" + i, (i % 5 == 0) ? i * 100.0 + 1 : i * 100.0, created, i)));
+        }
+        stubRawCollection(mongoTemplate, "accountA", sideA);
+        stubRawCollection(mongoTemplate, "accountB", sideB);
+
+        service.compareCollections(Account.class, "accountA", "accountB", "accountId", ATTRIBUTES, "rawBreaks");
+        List<ComparisonBreak> withoutFingerprints = new ArrayList<>(written);
+        verify(converter, times(100)).read(eq(Account.class), any(Bson.class));
+        written.clear();
+        clearInvocations(converter);
+        service.setFingerprintEnabled(true);
+        service.compareCollections(Account.class, "accountA", "accountB", "accountId", ATTRIBUTES, "rawBreaks");
+
+        verify(converter, times(20)).read(eq(Account.class), any(Bson.class));
+        assertEquals(describe(withoutFingerprints), describe(written));
+    }
+
+    @Test
+    public void testAccessorReadsOnlyRequestedPathsAndComparesSubdocumentsByBytes() {
+        Document address = new Document("city", "Los Angeles").append("zip", "90001");
+        RawBsonDocument a = raw(new Document("_id", "acct0001").append("address", address).append("note", null));
+        RawBsonDocument b = raw(new Document("_id", "acct0001").append("address", new Document(address)));
+        RawBsonDocument c = raw(new Document("_id", "acct0001").append("address", new Document("zip", "90001").append("city", "Los Angeles")));
+
+        RawBsonAccessor accessor = new RawBsonAccessor("_id", List.of("address", "address.city", "note"));
+
+        assertEquals("acct0001", accessor.comparableKey(accessor.key(a)));
+        assertTrue(accessor.attribute(a, 0) instanceof RawBsonDocument, "Embedded documents should stay raw");
+        assertTrue(accessor.sameValue(accessor.attribute(a, 0), accessor.attribute(b, 0)));
+        assertFalse(accessor.sameValue(accessor.attribute(a, 0), accessor.attribute(c, 0)),
+                "Field order is part of the stored bytes");
+        assertEquals("Los Angeles", accessor.render(accessor.attribute(a, 1)));
+        assertNull(accessor.attribute(a, 2), "Explicit BSON null reads as null");
+        assertSame(RecordAccessor.MISSING, accessor.attribute(b, 2), "Absent field reads as missing");
+    }
+
+    @Test
+    public void testCompareCollectionsFetchesOnlyKeyAndComparedFields() {
+        Date created = new Date(1630000000000L);
+        // What the server returns for the projection: no email or other unrequested fields.
+        List<RawBsonDocument> sideA = List.of(
+                raw(projected("acct0001", "Alpha", 1000.0, created, 1)),
+                raw(projected("acct0002", "Beta", 2000.0, created, 2)));
+        List<RawBsonDocument> sideB = List.of(
+                raw(projected("acct0001", "Alpha", 1000.0, created, 1)),
+                raw(projected("acct0002", "Beta", 2500.0, created, 2)));
+        RawCollectionStubs.StubbedCollection stubA = stubRawCollection(mongoTemplate, "accountA", sideA);
+        RawCollectionStubs.StubbedCollection stubB = stubRawCollection(mongoTemplate, "accountB", sideB);
+        service.setCursorBatchSize(500);
+
+        service.compareCollections(Account.class, "accountA", "accountB", "accountId", ATTRIBUTES, "rawBreaks");
+
+        BsonDocument expectedProjection = BsonDocument.parse(
+                "{_id: 1, accountName: 1, balance: 1, creationDate: 1, totalTrades: 1}");
+        assertEquals(List.of(expectedProjection), stubA.projections);
+        assertEquals(List.of(expectedProjection), stubB.projections);
+        assertEquals(List.of(500), stubA.batchSizes);
+        assertEquals(List.of(500), stubB.batchSizes);
+
+        Map<String, List<ComparisonBreak>> byType = written.stream().collect(Collectors.groupingBy(ComparisonBreak::getBreakType));
+        assertEquals(1, byType.get("match").size());
+        ComparisonBreak difference = byType.get("difference").get(0);
+        assertEquals("acct0002", difference.getComparisonKey());
+        assertEquals("balance", difference.getDifferenceField());
+        assertEquals("2000.0", difference.getValueInCollectionA());
+        assertEquals("2500.0", difference.getValueInCollectionB());
+    }
+
+    @Test
+    public void testCompareCollectionsAcrossTemplatesWritesBreaksToTarget() {
+        MongoTemplate templateB = mock(MongoTemplate.class);
+        MongoTemplate targetTemplate = mock(MongoTemplate.class);
+        MongoConverter converter = mongoTemplate.getConverter();
+        when(templateB.getConverter()).thenReturn(converter);
+        when(targetTemplate.bulkOps(any(BulkOperations.BulkMode.class), eq(ComparisonBreak.class), eq("rawBreaks")))
+                .thenReturn(bulkOperations);
+        when(targetTemplate.indexOps(anyString())).thenReturn(mock(IndexOperations.class));
+        Date created = new Date(1630000000000L);
+        List<RawBsonDocument> sideA = new ArrayList<>();
+        List<RawBsonDocument> sideB = new ArrayList<>();
+        for (int i = 0; i < 2000; i++) {
+            String id = String.format("acct%05d", i);
+            sideA.add(raw(projected(id, "Name" + i, i * 10.0, created, i)));
+            if (i % 100 != 0) {
+                sideB.add(raw(projected(id, "Name" + i, (i % 250 == 1) ? i * 10.0 + 1 : i * 10.0, created, i)));
+            }
+        }
+        stubRawCollection(mongoTemplate, "accounts", sideA);
+        stubRawCollection(templateB, "accounts", sideB);
+
+        ComparisonRun run = service.compareCollections(Account.class, mongoTemplate, "accounts", templateB, "accounts",
+                "accountId", ATTRIBUTES, targetTemplate, "rawBreaks");
+
+        Map<String, Long> countsByType = written.stream()
+                .collect(Collectors.groupingBy(ComparisonBreak::getBreakType, Collectors.counting()));
+        assertEquals(Map.of("match", 1972L, "difference", 8L, "onlyOnA", 20L), countsByType);
+        verify(mongoTemplate, never()).bulkOps(any(BulkOperations.BulkMode.class), eq(ComparisonBreak.class), anyString());
+        verify(templateB, never()).bulkOps(any(BulkOperations.BulkMode.class), eq(ComparisonBreak.class), anyString());
+        assertTrue(written.stream().allMatch(b -> run.getId().equals(b.getRunId())));
+        verify(targetTemplate, times(2)).save(run, ComparisonRunRegistry.RUNS_COLLECTION);
+        verify(mongoTemplate, never()).save(any(), anyString());
+        assertEquals(ComparisonRun.COMPLETED, run.getStatus());
+        assertEquals(2000, run.getItemsProcessedA());
+        assertEquals(1980, run.getItemsProcessedB());
+        assertThrows(IllegalArgumentException.class, () -> service.compareCollections(Account.class,
+                mongoTemplate, "accounts", null, "accounts", "accountId", ATTRIBUTES, targetTemplate, "rawBreaks"));
+    }
+
+    @Test
+    public void testProjectionDropsOverlappingPathsAndExcludesUnusedId() {
+        assertEquals(BsonDocument.parse("{vin: 1, address: 1, make: 1, _id: 0}"),
+                GenericComparisonService.projectionFor("vin", List.of("address.city", "address", "make", "vin"))
+                        .toBsonDocument());
+        assertEquals(BsonDocument.parse("{_id: 1, name: 1}"),
+                GenericComparisonService.projectionFor("_id", List.of("name")).toBsonDocument());
+    }
+
+    @Test
+    public void testSourceCursorCountsBsonBytes() {
+        List<RawBsonDocument> documents = List.of(
+                raw(new Document("_id", "a").append("value", 1)),
+                raw(new Document("_id", "b").append("value", "two")));
+        long expected = documents.stream().mapToLong(d -> d.getByteBuffer().remaining()).sum();
+
+        try (SourceCursor<RawBsonDocument> cursor = new SourceCursor<>(new FakeMongoCursor<>(documents), Function.identity())) {
+            cursor.forEachRemaining(d -> { });
+            assertEquals(expected, cursor.getBytesRead());
+        }
+    }
+
+    private static Document account(String id, String name, double balance, Date created, int trades) {
+        return new Document("_id", id)
+                .append("accountName", name)
+                .append("balance", balance)
+                .append("creationDate", created)
+                .append("totalTrades", trades)
+                .append("email", id + "@example.com");
+    }
+
+    private static Document projected(String id, String name, double balance, Date created, int trades) {
+        Document document = account(id, name, balance, created, trades);
+        document.remove("email");
+        return document;
+    }
+
+    private static List<String> describe(List<ComparisonBreak> breaks) {
+        return breaks.stream()
+                .map(b -> String.join("|", b.getComparisonKey(), b.getBreakType(),
+                        String.valueOf(b.getDifferenceField()), String.valueOf(b.getValueInCollectionA()),
+                        String.valueOf(b.getValueInCollectionB())))
+                .collect(Collectors.toList());
+    }
+}
@@ -0,0 +1,181 @@
+package com.example.comparison.service;
+
+import com.example.comparison.model.ComparisonBreak;
+import com.mongodb.MongoClientSettings;
+import com.mongodb.client.AggregateIterable;
+import com.mongodb.client.FindIterable;
+import com.mongodb.client.MongoCollection;
+import org.bson.BsonDocument;
+import org.bson.BsonNull;
+import org.bson.BsonValue;
+import org.bson.Document;
+import org.bson.RawBsonDocument;
+import org.bson.codecs.DocumentCodec;
+import org.bson.conversions.Bson;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.convert.MappingMongoConverter;
+import org.springframework.data.mongodb.core.convert.NoOpDbRefResolver;
+import org.springframework.data.mongodb.core.index.IndexOperations;
+import org.springframework.data.mongodb.core.mapping.MongoMappingContext;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+/**
+ * Stubs {@code mongoTemplate.getCollection(name).withDocumentClass(RawBsonDocument.class)} on a
+ * mocked {@link MongoTemplate} so cursor-based comparisons can run without a database.
+ * <p>
+ * {@code find(filter)} applies the equality and {@code $gte}/{@code $lt}/{@code $in}/{@code $not}/{@code $and}
+ * filters used for key ranges and key lookups. Projections are recorded but not applied and nothing is sorted,
+ * so documents must be supplied in key order. {@code aggregate} (the key sampler) returns every document.
+ */
+final class RawCollectionStubs {
+
+    private RawCollectionStubs() {
+    }
+
+    /**
+     * Filters, projections and cursor batch sizes passed to {@code find} on one stubbed collection,
+     * in call order.
+     */
+    static final class StubbedCollection {
+        final List<BsonDocument> filters = Collections.synchronizedList(new ArrayList<>());
+        final List<BsonDocument> projections = Collections.synchronizedList(new ArrayList<>());
+        final List<Integer> batchSizes = Collections.synchronizedList(new ArrayList<>());
+    }
+
+    @SuppressWarnings("unchecked")
+    static StubbedCollection stubRawCollection(MongoTemplate mongoTemplate, String name, List<RawBsonDocument> documents) {
+        StubbedCollection stubbed = new StubbedCollection();
+        MongoCollection<Document> collection = mock(MongoCollection.class);
+        MongoCollection<RawBsonDocument> rawCollection = mock(MongoCollection.class);
+        AggregateIterable<RawBsonDocument> aggregate = mock(AggregateIterable.class, RETURNS_SELF);
+        when(mongoTemplate.getCollection(name)).thenReturn(collection);
+        when(collection.getCodecRegistry()).thenReturn(MongoClientSettings.getDefaultCodecRegistry());
+        when(collection.estimatedDocumentCount()).thenReturn((long) documents.size());
+        when(collection.withDocumentClass(RawBsonDocument.class)).thenReturn(rawCollection);
+        when(rawCollection.find()).thenAnswer(invocation -> find(stubbed, documents, new BsonDocument()));
+        when(rawCollection.find(any(Bson.class))).thenAnswer(invocation ->
+                find(stubbed, documents, ((Bson) invocation.getArgument(0)).toBsonDocument()));
+        when(rawCollection.aggregate(anyList())).thenReturn(aggregate);
+        when(aggregate.iterator()).thenAnswer(invocation -> new FakeMongoCursor<>(documents));
+        return stubbed;
+    }
+
+    /**
+     * Stubs the output side of a comparison on {@code mongoTemplate}: a mapping converter, bulk
+     * inserts into {@code collectionName} through {@code bulkOperations}, and index creation.
+     *
+     * @return the breaks inserted, in insert order
+     */
+    static List<ComparisonBreak> stubBreakOutput(MongoTemplate mongoTemplate, BulkOperations bulkOperations, String collectionName) {
+        List<ComparisonBreak> written = Collections.synchronizedList(new ArrayList<>());
+        when(mongoTemplate.getConverter()).thenReturn(new MappingMongoConverter(NoOpDbRefResolver.INSTANCE, new MongoMappingContext()));
+        when(mongoTemplate.bulkOps(any(BulkOperations.BulkMode.class), eq(ComparisonBreak.class), eq(collectionName)))
+                .thenReturn(bulkOperations);
+        when(bulkOperations.insert(anyList())).thenAnswer(invocation -> {
+            List<?> batch = invocation.getArgument(0);
+            batch.forEach(b -> written.add((ComparisonBreak) b));
+            return bulkOperations;
+        });
+        when(mongoTemplate.indexOps(anyString())).thenReturn(mock(IndexOperations.class));
+        return written;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static FindIterable<RawBsonDocument> find(StubbedCollection stubbed, List<RawBsonDocument> documents, BsonDocument filter) {
+        stubbed.filters.add(filter);
+        List<RawBsonDocument> matching = documents.stream()
+                .filter(d -> matches(d, filter))
+                .collect(Collectors.toList());
+        FindIterable<RawBsonDocument> find = mock(FindIterable.class, RETURNS_SELF);
+        when(find.projection(any(Bson.class))).thenAnswer(invocation -> {
+            stubbed.projections.add(((Bson) invocation.getArgument(0)).toBsonDocument());
+            return find;
+        });
+        when(find.batchSize(anyInt())).thenAnswer(invocation -> {
+            stubbed.batchSizes.add(invocation.getArgument(0));
+            return find;
+        });
+        when(find.iterator()).thenAnswer(invocation -> new FakeMongoCursor<>(matching));
+        return find;
+    }
+
+    static RawBsonDocument raw(Document document) {
+        return new RawBsonDocument(document, new DocumentCodec());
+    }
+
+    static boolean matches(BsonDocument document, BsonDocument filter) {
+        for (Map.Entry<String, BsonValue> clause : filter.entrySet()) {
+            if (clause.getKey().equals("$and")) {
+                if (!clause.getValue().asArray().stream().allMatch(f -> matches(document, f.asDocument()))) {
+                    return false;
+                }
+            } else if (!matchesField(document.get(clause.getKey()), clause.getValue())) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean matchesField(BsonValue value, BsonValue condition) {
+        if (!condition.isDocument() || !condition.asDocument().keySet().stream().allMatch(k -> k.startsWith("$"))) {
+            return condition.equals(value);
+        }
+        for (Map.Entry<String, BsonValue> operator : condition.asDocument().entrySet()) {
+            BsonValue operand = operator.getValue();
+            boolean result;
+            switch (operator.getKey()) {
+                case "$not":
+                    result = !matchesField(value, operand);
+                    break;
+                case "$gte":
+                    result = sameType(value, operand) && compare(value, operand) >= 0;
+                    break;
+                case "$lt":
+                    result = sameType(value, operand) && compare(value, operand) < 0;
+                    break;
+                case "$in":
+                    // As in MongoDB, null also matches a missing field, and integers match by value.
+                    BsonValue candidate = (value == null) ? BsonNull.VALUE : value;
+                    result = operand.asArray().stream().anyMatch(element -> sameValue(element, candidate));
+                    break;
+                default:
+                    throw new UnsupportedOperationException("Operator not supported by the stub: " + operator.getKey());
+            }
+            if (!result) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean sameValue(BsonValue element, BsonValue value) {
+        if ((element.isInt32() || element.isInt64()) && (value.isInt32() || value.isInt64())) {
+            return element.asNumber().longValue() == value.asNumber().longValue();
+        }
+        return element.equals(value);
+    }
+
+    // Like MongoDB, range operators only match values of the bound's type.
+    private static boolean sameType(BsonValue value, BsonValue operand) {
+        return value != null && value.getBsonType() == operand.getBsonType();
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static int compare(BsonValue value, BsonValue operand) {
+        RawBsonAccessor converter = new RawBsonAccessor("_id", List.of());
+        return ((Comparable) converter.comparableKey(value)).compareTo(converter.comparableKey(operand));
+    }
+}
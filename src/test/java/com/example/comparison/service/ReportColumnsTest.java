@@ -0,0 +1,129 @@
+package com.example.comparison.service;
+
+import org.apache.poi.ss.usermodel.Cell;
+import org.apache.poi.ss.usermodel.CellType;
+import org.apache.poi.ss.usermodel.DateUtil;
+import org.apache.poi.ss.usermodel.FillPatternType;
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.time.LocalDate;
+import java.util.Date;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ReportColumnsTest {
+
+    static class Trade {
+        static final String DESK = "rates";
+
+        private String tradeId;
+        private double notional;
+        private long sequence;
+        private Date tradeDate;
+        private LocalDate settleDate;
+        private Boolean cleared;
+        private Object note;
+        // No getter: read through the field.
+        private int version;
+
+        public String getTradeId() {
+            return tradeId;
+        }
+
+        public double getNotional() {
+            return notional;
+        }
+
+        public long getSequence() {
+            return sequence;
+        }
+
+        public Date getTradeDate() {
+            return tradeDate;
+        }
+
+        public LocalDate getSettleDate() {
+            return settleDate;
+        }
+
+        public Boolean getCleared() {
+            return cleared;
+        }
+
+        public Object getNote() {
+            return note;
+        }
+    }
+
+    @Test
+    public void testColumnsAreTheDeclaredInstanceFields() {
+        ReportColumns columns = ReportColumns.of(Trade.class);
+        assertEquals(List.of("tradeId", "notional", "sequence", "tradeDate", "settleDate", "cleared", "note", "version"),
+                columns.names());
+        assertEquals(2, columns.indexOf("sequence"));
+        assertEquals(-1, columns.indexOf("DESK"));
+        assertSame(columns, ReportColumns.of(Trade.class), "resolved once per class");
+    }
+
+    @Test
+    public void testValuesKeepTheirTypeInTheSheet() throws IOException {
+        Trade trade = new Trade();
+        trade.tradeId = "T1";
+        trade.notional = 2500000.5;
+        trade.sequence = (1L << 53) + 1;
+        trade.tradeDate = new Date(1630000000000L);
+        trade.settleDate = LocalDate.of(2021, 8, 30);
+        trade.cleared = true;
+        trade.note = 42L;
+        trade.version = 7;
+
+        ReportColumns columns = ReportColumns.of(Trade.class);
+        try (XSSFWorkbook workbook = new XSSFWorkbook()) {
+            ReportColumns.Styles styles = new ReportColumns.Styles(workbook);
+            Row row = workbook.createSheet("s").createRow(0);
+            for (int i = 0; i < columns.names().size(); i++) {
+                columns.write(row.createCell(i), i, trade, styles, ReportColumns.NO_FILL);
+            }
+
+            assertEquals("T1", row.getCell(0).getStringCellValue());
+            assertEquals(2500000.5, row.getCell(1).getNumericCellValue());
+            assertEquals(CellType.STRING, row.getCell(2).getCellType(), "a long a double would round stays text");
+            assertEquals("9007199254740993", row.getCell(2).getStringCellValue());
+            assertTrue(DateUtil.isCellDateFormatted(row.getCell(3)));
+            assertEquals(trade.tradeDate, row.getCell(3).getDateCellValue());
+            assertTrue(DateUtil.isCellDateFormatted(row.getCell(4)));
+            assertEquals(trade.settleDate, row.getCell(4).getLocalDateTimeCellValue().toLocalDate());
+            assertTrue(row.getCell(5).getBooleanCellValue());
+            assertEquals(42.0, row.getCell(6).getNumericCellValue(), "an Object field is written by its value's type");
+            assertEquals(7.0, row.getCell(7).getNumericCellValue());
+        }
+    }
+
+    @Test
+    public void testStylesAreSharedAcrossCells() throws IOException {
+        Trade trade = new Trade();
+        trade.tradeDate = new Date(1630000000000L);
+        ReportColumns columns = ReportColumns.of(Trade.class);
+        int tradeDate = columns.indexOf("tradeDate");
+        try (XSSFWorkbook workbook = new XSSFWorkbook()) {
+            int initialStyles = workbook.getNumCellStyles();
+            ReportColumns.Styles styles = new ReportColumns.Styles(workbook);
+            Row row = workbook.createSheet("s").createRow(0);
+            for (int i = 0; i < 100; i += 2) {
+                columns.write(row.createCell(i), tradeDate, trade, styles, ReportColumns.FILL_A);
+                columns.write(row.createCell(i + 1), tradeDate, null, styles, ReportColumns.FILL_B);
+            }
+            assertEquals(initialStyles + 2, workbook.getNumCellStyles(), "one style per fill and format");
+
+            Cell filledDate = row.getCell(0);
+            assertTrue(DateUtil.isCellDateFormatted(filledDate));
+            assertEquals(FillPatternType.SOLID_FOREGROUND, filledDate.getCellStyle().getFillPattern());
+            assertEquals(CellType.BLANK, row.getCell(1).getCellType(), "a missing document leaves the cell blank");
+            assertEquals(FillPatternType.SOLID_FOREGROUND, row.getCell(1).getCellStyle().getFillPattern());
+        }
+    }
+}